@@ -26,7 +26,7 @@
  */
 package ie.wombat.jbdiff;
 
-import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
@@ -34,7 +34,10 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.zip.GZIPOutputStream;
 
 /**
@@ -43,7 +46,8 @@ import java.util.zip.GZIPOutputStream;
  * 
  * <p>
  * Running this on large files will probably require an increase of the default
- * maximum heap size (use java -Xmx200m)
+ * maximum heap size, about five times the size of the old file plus the
+ * size of the new file is needed.
  * </p>
  * 
  * @author Joe Desbonnet, joe@galway.net
@@ -56,6 +60,14 @@ public class JBDiff {
 	// - uses GZIP compressor to compress ALL of the blocks (ctrl,diff,extra).
 	// - added interfaces that allows using of JBDiff with streams and byte
 	// arrays.
+	//
+	// Further extensions:
+	//
+	// - replaced qsufsort with the linear time SA-IS suffix sorting, which
+	// needs one int array instead of two.
+	// - compresses the blocks while they are written, instead of keeping the
+	// uncompressed diff and extra blocks in memory, and writes the diff to a
+	// stream.
 
 //	private static final String VERSION = "jbdiff-0.1.0.1";
 
@@ -63,183 +75,228 @@ public class JBDiff {
 	private static final byte[] MAGIC_BYTES = new byte[] { 0x6a, 0x62, 0x64,
 			0x69, 0x66, 0x66, 0x34, 0x30 };
 
-	private final static void split(int[] I, int[] V, int start, int len, int h) {
-
-		int i, j, k, x, tmp, jj, kk;
+	/**
+	 * Creates the suffix array of the first <code>size</code> bytes of the
+	 * given buffer in linear time, using the SA-IS algorithm of Nong, Zhang and
+	 * Chan. See "Two Efficient Algorithms for Linear Time Suffix Array
+	 * Construction", IEEE Transactions on Computers, 2011.
+	 * 
+	 * <p>
+	 * As with the qsufsort algorithm used by bsdiff, the suffix array has
+	 * <code>size + 1</code> entries, the first one being the empty suffix.
+	 * Besides the suffix array, only a bit per byte and the arrays of the
+	 * recursion, which are at most half as large, are needed.
+	 * </p>
+	 * 
+	 * @param buf
+	 * @param size
+	 * @return the suffix array
+	 */
+	private static int[] suffixArray(byte[] buf, int size) {
+		int[] sa = new int[size + 1];
+		sais(buf, null, 0, size, 256, sa);
+		return sa;
+	}
 
-		if (len < 16) {
-			for (k = start; k < start + len; k += j) {
-				j = 1;
-				x = V[I[k] + h];
-				for (i = 1; k + i < start + len; i++) {
-					if (V[I[k + i] + h] < x) {
-						x = V[I[k + i] + h];
-						j = 0;
-					}
+	/**
+	 * Returns the character at the given position of the string being sorted,
+	 * which is either a byte array or, when recursing, a part of an int array.
+	 */
+	private final static int chr(byte[] bytes, int[] ints, int offset, int i) {
+		return bytes != null ? bytes[i] & 0xff : ints[offset + i];
+	}
 
-					if (V[I[k + i] + h] == x) {
-						tmp = I[k + j];
-						I[k + j] = I[k + i];
-						I[k + i] = tmp;
-						j++;
-					}
+	private final static boolean isS(int[] types, int i) {
+		return (types[i >> 5] & (1 << (i & 31))) != 0;
+	}
 
-				}
+	/**
+	 * Returns whether the given position is a leftmost S-type position, i.e.
+	 * an S-type position following an L-type one.
+	 */
+	private final static boolean isLMS(int[] types, int i) {
+		return i > 0 && isS(types, i) && !isS(types, i - 1);
+	}
 
-				for (i = 0; i < j; i++) {
-					V[I[k + i]] = k + j - 1;
-				}
-				if (j == 1) {
-					I[k] = -1;
-				}
-			}
+	/**
+	 * Sorts the suffixes of the string of length <code>n</code> made of the
+	 * characters <code>0</code> to <code>k - 1</code>, followed by a virtual
+	 * sentinel that is smaller than all characters. The sorted suffixes are
+	 * stored in <code>sa[0]</code> to <code>sa[n]</code>, <code>sa[0]</code>
+	 * being the sentinel.
+	 */
+	private static void sais(byte[] bytes, int[] ints, int offset, int n,
+			int k, int[] sa) {
 
+		if (n == 0) {
+			sa[0] = 0;
 			return;
 		}
 
-		x = V[I[start + len / 2] + h];
-		jj = 0;
-		kk = 0;
-		for (i = start; i < start + len; i++) {
-			if (V[I[i] + h] < x) {
-				jj++;
-			}
-			if (V[I[i] + h] == x) {
-				kk++;
+		// The S-type positions, the sentinel is S-type and the last
+		// character, greater than the sentinel, is L-type
+		int[] types = new int[(n >> 5) + 1];
+		types[n >> 5] |= 1 << (n & 31);
+		for (int i = n - 2; i >= 0; i--) {
+			int c = chr(bytes, ints, offset, i);
+			int next = chr(bytes, ints, offset, i + 1);
+			if (c < next || (c == next && isS(types, i + 1))) {
+				types[i >> 5] |= 1 << (i & 31);
 			}
 		}
 
-		jj += start;
-		kk += jj;
-
-		i = start;
-		j = 0;
-		k = 0;
-		while (i < jj) {
-			if (V[I[i] + h] < x) {
-				i++;
-			} else if (V[I[i] + h] == x) {
-				tmp = I[i];
-				I[i] = I[jj + j];
-				I[jj + j] = tmp;
-				j++;
-			} else {
-				tmp = I[i];
-				I[i] = I[kk + k];
-				I[kk + k] = tmp;
-				k++;
-			}
-
+		int[] counts = new int[k];
+		for (int i = 0; i < n; i++) {
+			counts[chr(bytes, ints, offset, i)]++;
 		}
+		int[] buckets = new int[k];
 
-		while (jj + j < kk) {
-			if (V[I[jj + j] + h] == x) {
-				j++;
-			} else {
-				tmp = I[jj + j];
-				I[jj + j] = I[kk + k];
-				I[kk + k] = tmp;
-				k++;
+		/*
+		 * Sort the LMS substrings by placing the LMS positions at the end of
+		 * their buckets and inducing the order of the others.
+		 */
+		Arrays.fill(sa, 0, n + 1, -1);
+		bucketEnds(counts, buckets);
+		for (int i = 1; i < n; i++) {
+			if (isLMS(types, i)) {
+				sa[--buckets[chr(bytes, ints, offset, i)]] = i;
 			}
-
 		}
+		sa[0] = n;
+		induce(bytes, ints, offset, n, types, counts, buckets, sa);
 
-		if (jj > start) {
-			split(I, V, start, jj - start, h);
+		/*
+		 * Move the sorted LMS positions to the start of the array and name
+		 * the LMS substrings after their rank. Since the LMS positions are at
+		 * least two apart, the names fit in the rest of the array.
+		 */
+		int n1 = 0;
+		for (int i = 0; i <= n; i++) {
+			if (isLMS(types, sa[i])) {
+				sa[n1++] = sa[i];
+			}
 		}
-
-		for (i = 0; i < kk - jj; i++) {
-			V[I[jj + i]] = kk - 1;
+		Arrays.fill(sa, n1, n + 1, -1);
+		int name = 0;
+		int prev = -1;
+		// skip the sentinel, which has no name
+		for (int i = 1; i < n1; i++) {
+			int pos = sa[i];
+			if (prev < 0
+					|| !equalLMSSubstrings(bytes, ints, offset, n, types,
+							prev, pos)) {
+				name++;
+				prev = pos;
+			}
+			sa[n1 + (pos >> 1)] = name - 1;
 		}
 
-		if (jj == kk - 1) {
-			I[jj] = -1;
+		/*
+		 * The names in text order form the reduced string, which is kept at
+		 * the end of the array while its suffixes are sorted at the start.
+		 */
+		int m = n1 - 1;
+		for (int i = n, j = n; i >= n1; i--) {
+			if (sa[i] >= 0) {
+				sa[j--] = sa[i];
+			}
 		}
-
-		if (start + len > kk) {
-			split(I, V, kk, start + len - kk, h);
+		int reduced = n + 1 - m;
+		if (name < m) {
+			sais(null, sa, reduced, m, name, sa);
+		} else {
+			for (int i = 0; i < m; i++) {
+				sa[sa[reduced + i] + 1] = i;
+			}
+			sa[0] = m;
 		}
 
+		/*
+		 * Map the sorted suffixes of the reduced string to the LMS positions,
+		 * place those at the end of their buckets and induce the order of the
+		 * others.
+		 */
+		for (int i = 1, j = reduced; i < n; i++) {
+			if (isLMS(types, i)) {
+				sa[j++] = i;
+			}
+		}
+		for (int i = 1; i <= m; i++) {
+			sa[i] = sa[reduced + sa[i]];
+		}
+		Arrays.fill(sa, m + 1, n + 1, -1);
+		bucketEnds(counts, buckets);
+		for (int i = m; i >= 1; i--) {
+			int pos = sa[i];
+			sa[i] = -1;
+			sa[--buckets[chr(bytes, ints, offset, pos)]] = pos;
+		}
+		sa[0] = n;
+		induce(bytes, ints, offset, n, types, counts, buckets, sa);
 	}
 
 	/**
-	 * Fast suffix sporting. Larsson and Sadakane's qsufsort algorithm. See
-	 * http://www.cs.lth.se/Research/Algorithms/Papers/jesper5.ps
-	 * 
-	 * @param I
-	 * @param V
-	 * @param oldBuf
-	 * @param oldsize
+	 * Induces the order of the L-type suffixes from the sorted LMS suffixes,
+	 * then the order of the S-type suffixes from the sorted L-type suffixes.
 	 */
-	private static void qsufsort(int[] I, int[] V, byte[] oldBuf, int oldsize) {
-
-		// int oldsize = oldBuf.length;
-		int[] buckets = new int[256];
-
-		// No need to do that in Java.
-		// for ( int i = 0; i < 256; i++ ) {
-		// buckets[i] = 0;
-		// }
-
-		for (int i = 0; i < oldsize; i++) {
-			buckets[oldBuf[i] & 0xff]++;
-		}
-
-		for (int i = 1; i < 256; i++) {
-			buckets[i] += buckets[i - 1];
-		}
-
-		for (int i = 255; i > 0; i--) {
-			buckets[i] = buckets[i - 1];
+	private static void induce(byte[] bytes, int[] ints, int offset, int n,
+			int[] types, int[] counts, int[] buckets, int[] sa) {
+
+		bucketStarts(counts, buckets);
+		for (int i = 0; i <= n; i++) {
+			int j = sa[i] - 1;
+			if (j >= 0 && !isS(types, j)) {
+				sa[buckets[chr(bytes, ints, offset, j)]++] = j;
+			}
 		}
 
-		buckets[0] = 0;
-
-		for (int i = 0; i < oldsize; i++) {
-			I[++buckets[oldBuf[i] & 0xff]] = i;
+		bucketEnds(counts, buckets);
+		for (int i = n; i >= 0; i--) {
+			int j = sa[i] - 1;
+			if (j >= 0 && isS(types, j)) {
+				sa[--buckets[chr(bytes, ints, offset, j)]] = j;
+			}
 		}
+	}
 
-		I[0] = oldsize;
-		for (int i = 0; i < oldsize; i++) {
-			V[i] = buckets[oldBuf[i] & 0xff];
-		}
-		V[oldsize] = 0;
+	/**
+	 * Returns whether the LMS substrings at the given positions are equal,
+	 * both in characters and types.
+	 */
+	private static boolean equalLMSSubstrings(byte[] bytes, int[] ints,
+			int offset, int n, int[] types, int a, int b) {
 
-		for (int i = 1; i < 256; i++) {
-			if (buckets[i] == buckets[i - 1] + 1) {
-				I[buckets[i]] = -1;
+		for (int d = 0;; d++) {
+			if (a + d == n || b + d == n) {
+				// the sentinel is unique
+				return false;
+			}
+			if (chr(bytes, ints, offset, a + d) != chr(bytes, ints, offset, b
+					+ d)
+					|| isS(types, a + d) != isS(types, b + d)) {
+				return false;
+			}
+			if (d > 0 && (isLMS(types, a + d) || isLMS(types, b + d))) {
+				return isLMS(types, a + d) && isLMS(types, b + d);
 			}
 		}
+	}
 
-		I[0] = -1;
-
-		for (int h = 1; I[0] != -(oldsize + 1); h += h) {
-			int len = 0;
-			int i;
-			for (i = 0; i < oldsize + 1;) {
-				if (I[i] < 0) {
-					len -= I[i];
-					i -= I[i];
-				} else {
-					// if(len) I[i-len]=-len;
-					if (len != 0) {
-						I[i - len] = -len;
-					}
-					len = V[I[i]] + 1 - i;
-					split(I, V, i, len, h);
-					i += len;
-					len = 0;
-				}
-
-			}
+	// The sentinel comes first, so the buckets start at 1
 
-			if (len != 0) {
-				I[i - len] = -len;
-			}
+	private static void bucketStarts(int[] counts, int[] buckets) {
+		int sum = 1;
+		for (int c = 0; c < counts.length; c++) {
+			buckets[c] = sum;
+			sum += counts[c];
 		}
+	}
 
-		for (int i = 0; i < oldsize + 1; i++) {
-			I[V[i]] = i;
+	private static void bucketEnds(int[] counts, int[] buckets) {
+		int sum = 1;
+		for (int c = 0; c < counts.length; c++) {
+			sum += counts[c];
+			buckets[c] = sum;
 		}
 	}
 
@@ -304,17 +361,28 @@ public class JBDiff {
 	 */
 	public static void bsdiff(File oldFile, File newFile, File diffFile)
 			throws IOException {
-		InputStream oldInputStream = new BufferedInputStream(
-				new FileInputStream(oldFile));
-		InputStream newInputStream = new BufferedInputStream(
-				new FileInputStream(newFile));
-		OutputStream diffOutputStream = new FileOutputStream(diffFile);
-
-		byte[] diffBytes = bsdiff(oldInputStream, (int) oldFile.length(),
-				newInputStream, (int) newFile.length());
+		byte[] oldBuf = readFile(oldFile);
+		byte[] newBuf = readFile(newFile);
+
+		OutputStream diffOutputStream = new BufferedOutputStream(
+				new FileOutputStream(diffFile));
+		try {
+			bsdiff(oldBuf, oldBuf.length, newBuf, newBuf.length,
+					diffOutputStream);
+		} finally {
+			diffOutputStream.close();
+		}
+	}
 
-		diffOutputStream.write(diffBytes);
-		diffOutputStream.close();
+	private static byte[] readFile(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buf = new byte[(int) file.length()];
+			Util.readFromStream(in, buf, 0, buf.length);
+			return buf;
+		} finally {
+			in.close();
+		}
 	}
 
 	/**
@@ -350,17 +418,32 @@ public class JBDiff {
 	 */
 	public static byte[] bsdiff(byte[] oldBuf, int oldsize, byte[] newBuf,
 			int newsize) throws IOException {
+		ByteArrayOutputStream diffOut = new ByteArrayOutputStream();
+		bsdiff(oldBuf, oldsize, newBuf, newsize, diffOut);
+		return diffOut.toByteArray();
+	}
 
-		int[] I = new int[oldsize + 1];
-		qsufsort(I, new int[oldsize + 1], oldBuf, oldsize);
-
-		// diff block
-		int dblen = 0;
-		byte[] db = new byte[newsize];
+	/**
+	 * Writes the diff to the given stream, which is not closed.
+	 * 
+	 * <p>
+	 * The blocks of the diff are compressed while the diff is computed, so
+	 * only their compressed form is kept in memory until the header can be
+	 * written. When several processors are available, each block is
+	 * compressed by its own thread.
+	 * </p>
+	 * 
+	 * @param oldBuf
+	 * @param oldsize
+	 * @param newBuf
+	 * @param newsize
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void bsdiff(byte[] oldBuf, int oldsize, byte[] newBuf,
+			int newsize, OutputStream out) throws IOException {
 
-		// extra block
-		int eblen = 0;
-		byte[] eb = new byte[newsize];
+		int[] I = suffixArray(oldBuf, oldsize);
 
 		/*
 		 * Diff file is composed as follows:
@@ -380,207 +463,149 @@ public class JBDiff {
 		 * comprises 3 x 32 bit integers. The ctrlBlock is not compressed.
 		 */
 
-		ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
-		DataOutputStream diffOut = new DataOutputStream(byteOut);
+		boolean background = Runtime.getRuntime().availableProcessors() > 1;
+		CompressedBlock ctrlBlock = new CompressedBlock(background);
+		CompressedBlock diffBlock = new CompressedBlock(background);
+		CompressedBlock extraBlock = new CompressedBlock(background);
+		try {
+			DataOutputStream dataOut = new DataOutputStream(ctrlBlock);
 
-		/*
-		 * Write as much of header as we have now. Size of ctrlBlock and
-		 * diffBlock must be filled in later.
-		 */
-		diffOut.write(MAGIC_BYTES);
-		diffOut.writeLong(-1); // place holder for ctrlBlockLen
-		diffOut.writeLong(-1); // place holder for diffBlockLen
-		diffOut.writeLong(newsize);
-		diffOut.flush();
-
-		GZIPOutputStream bzip2Out = new GZIPOutputStream(diffOut);
-		DataOutputStream dataOut = new DataOutputStream(bzip2Out);
+			int oldscore, scsc;
 
-		int oldscore, scsc;
-
-		int overlap, Ss, lens;
-		int i;
-		int scan = 0;
-		int len = 0;
-		int lastscan = 0;
-		int lastpos = 0;
-		int lastoffset = 0;
+			int overlap, Ss, lens;
+			int i;
+			int scan = 0;
+			int len = 0;
+			int lastscan = 0;
+			int lastpos = 0;
+			int lastoffset = 0;
 
-		IntByRef pos = new IntByRef();
-		// int ctrlBlockLen = 0;
+			IntByRef pos = new IntByRef();
 
-		while (scan < newsize) {
-			oldscore = 0;
+			while (scan < newsize) {
+				oldscore = 0;
 
-			for (scsc = scan += len; scan < newsize; scan++) {
+				for (scsc = scan += len; scan < newsize; scan++) {
 
-				len = search(I, oldBuf, oldsize, newBuf, newsize, scan, 0,
-						oldsize, pos);
+					len = search(I, oldBuf, oldsize, newBuf, newsize, scan, 0,
+							oldsize, pos);
 
-				for (; scsc < scan + len; scsc++) {
-					if ((scsc + lastoffset < oldsize)
-							&& (oldBuf[scsc + lastoffset] == newBuf[scsc])) {
-						oldscore++;
+					for (; scsc < scan + len; scsc++) {
+						if ((scsc + lastoffset < oldsize)
+								&& (oldBuf[scsc + lastoffset] == newBuf[scsc])) {
+							oldscore++;
+						}
 					}
-				}
 
-				if (((len == oldscore) && (len != 0)) || (len > oldscore + 8)) {
-					break;
-				}
-
-				if ((scan + lastoffset < oldsize)
-						&& (oldBuf[scan + lastoffset] == newBuf[scan])) {
-					oldscore--;
-				}
-			}
+					if (((len == oldscore) && (len != 0))
+							|| (len > oldscore + 8)) {
+						break;
+					}
 
-			if ((len != oldscore) || (scan == newsize)) {
-				int s = 0;
-				int Sf = 0;
-				int lenf = 0;
-				for (i = 0; (lastscan + i < scan) && (lastpos + i < oldsize);) {
-					if (oldBuf[lastpos + i] == newBuf[lastscan + i])
-						s++;
-					i++;
-					if (s * 2 - i > Sf * 2 - lenf) {
-						Sf = s;
-						lenf = i;
+					if ((scan + lastoffset < oldsize)
+							&& (oldBuf[scan + lastoffset] == newBuf[scan])) {
+						oldscore--;
 					}
 				}
 
-				int lenb = 0;
-				if (scan < newsize) {
-					s = 0;
-					int Sb = 0;
-					for (i = 1; (scan >= lastscan + i) && (pos.value >= i); i++) {
-						if (oldBuf[pos.value - i] == newBuf[scan - i])
+				if ((len != oldscore) || (scan == newsize)) {
+					int s = 0;
+					int Sf = 0;
+					int lenf = 0;
+					for (i = 0; (lastscan + i < scan)
+							&& (lastpos + i < oldsize);) {
+						if (oldBuf[lastpos + i] == newBuf[lastscan + i])
 							s++;
-						if (s * 2 - i > Sb * 2 - lenb) {
-							Sb = s;
-							lenb = i;
+						i++;
+						if (s * 2 - i > Sf * 2 - lenf) {
+							Sf = s;
+							lenf = i;
 						}
 					}
-				}
 
-				if (lastscan + lenf > scan - lenb) {
-					overlap = (lastscan + lenf) - (scan - lenb);
-					s = 0;
-					Ss = 0;
-					lens = 0;
-					for (i = 0; i < overlap; i++) {
-						if (newBuf[lastscan + lenf - overlap + i] == oldBuf[lastpos
-								+ lenf - overlap + i]) {
-							s++;
-						}
-						if (newBuf[scan - lenb + i] == oldBuf[pos.value - lenb
-								+ i]) {
-							s--;
-						}
-						if (s > Ss) {
-							Ss = s;
-							lens = i + 1;
+					int lenb = 0;
+					if (scan < newsize) {
+						s = 0;
+						int Sb = 0;
+						for (i = 1; (scan >= lastscan + i) && (pos.value >= i); i++) {
+							if (oldBuf[pos.value - i] == newBuf[scan - i])
+								s++;
+							if (s * 2 - i > Sb * 2 - lenb) {
+								Sb = s;
+								lenb = i;
+							}
 						}
 					}
 
-					lenf += lens - overlap;
-					lenb -= lens;
-				}
-
-				// ? byte casting introduced here -- might affect things
-				for (i = 0; i < lenf; i++) {
-					db[dblen + i] = (byte) (newBuf[lastscan + i] - oldBuf[lastpos
-							+ i]);
-				}
-
-				for (i = 0; i < (scan - lenb) - (lastscan + lenf); i++) {
-					eb[eblen + i] = newBuf[lastscan + lenf + i];
-				}
-
-				dblen += lenf;
-				eblen += (scan - lenb) - (lastscan + lenf);
-
-				/*
-				 * Write control block entry (3 x int)
-				 */
-				// diffOut.writeInt( lenf );
-				// diffOut.writeInt( ( scan - lenb ) - ( lastscan + lenf ) );
-				// diffOut.writeInt( ( pos[0] - lenb ) - ( lastpos + lenf ) );
-				// ctrlBlockLen += 12;
-				dataOut.writeInt(lenf);
-				dataOut.writeInt((scan - lenb) - (lastscan + lenf));
-				dataOut.writeInt((pos.value - lenb) - (lastpos + lenf));
-
-				lastscan = scan - lenb;
-				lastpos = pos.value - lenb;
-				lastoffset = pos.value - scan;
-			} // end if
-		} // end while loop
-
-		dataOut.flush();
-		bzip2Out.finish();
-
-		// now compressed ctrlBlockLen
-		int ctrlBlockLen = diffOut.size() - Util.HEADER_SIZE;
-		// System.err.println( "Diff: ctrlBlockLen=" + ctrlBlockLen );
-
-		// GZIPOutputStream gzOut;
+					if (lastscan + lenf > scan - lenb) {
+						overlap = (lastscan + lenf) - (scan - lenb);
+						s = 0;
+						Ss = 0;
+						lens = 0;
+						for (i = 0; i < overlap; i++) {
+							if (newBuf[lastscan + lenf - overlap + i] == oldBuf[lastpos
+									+ lenf - overlap + i]) {
+								s++;
+							}
+							if (newBuf[scan - lenb + i] == oldBuf[pos.value
+									- lenb + i]) {
+								s--;
+							}
+							if (s > Ss) {
+								Ss = s;
+								lens = i + 1;
+							}
+						}
 
-		/*
-		 * Write diff block
-		 */
-		// gzOut = new GZIPOutputStream( diffOut );
-		bzip2Out = new GZIPOutputStream(diffOut);
-		bzip2Out.write(db, 0, dblen);
-		bzip2Out.finish();
-		bzip2Out.flush();
-		int diffBlockLen = diffOut.size() - ctrlBlockLen - Util.HEADER_SIZE;
-		// System.err.println( "Diff: diffBlockLen=" + diffBlockLen );
+						lenf += lens - overlap;
+						lenb -= lens;
+					}
 
-		/*
-		 * Write extra block
-		 */
-		// gzOut = new GZIPOutputStream( diffOut );
-		bzip2Out = new GZIPOutputStream(diffOut);
-		bzip2Out.write(eb, 0, eblen);
-		bzip2Out.finish();
-		bzip2Out.flush();
-		// long extraBlockLen = diffOut.size() - diffBlockLen - ctrlBlockLen -
-		// HEADER_SIZE;
-		// System.err.println( "Diff: extraBlockLen=" + extraBlockLen );
+					// ? byte casting introduced here -- might affect things
+					for (i = 0; i < lenf; i++) {
+						diffBlock.write(newBuf[lastscan + i]
+								- oldBuf[lastpos + i]);
+					}
 
-		diffOut.close();
+					extraBlock.write(newBuf, lastscan + lenf, (scan - lenb)
+							- (lastscan + lenf));
+
+					/*
+					 * Write control block entry (3 x int)
+					 */
+					dataOut.writeInt(lenf);
+					dataOut.writeInt((scan - lenb) - (lastscan + lenf));
+					dataOut.writeInt((pos.value - lenb) - (lastpos + lenf));
+
+					lastscan = scan - lenb;
+					lastpos = pos.value - lenb;
+					lastoffset = pos.value - scan;
+				} // end if
+			} // end while loop
+
+			dataOut.flush();
+			ctrlBlock.finish();
+			diffBlock.finish();
+			extraBlock.finish();
+		} finally {
+			ctrlBlock.close();
+			diffBlock.close();
+			extraBlock.close();
+		}
 
 		/*
-		 * Write missing header info.
+		 * Write the header now that the sizes of the compressed ctrlBlock and
+		 * diffBlock are known, then the blocks.
 		 */
-		ByteArrayOutputStream byteHeaderOut = new ByteArrayOutputStream(
-				Util.HEADER_SIZE);
-		DataOutputStream headerOut = new DataOutputStream(byteHeaderOut);
-		headerOut.write(MAGIC_BYTES);
-		headerOut.writeLong(ctrlBlockLen); // place holder for ctrlBlockLen
-		headerOut.writeLong(diffBlockLen); // place holder for diffBlockLen
-		headerOut.writeLong(newsize);
-		headerOut.close();
-
-		// Copy header information into the diff
-		byte[] diffBytes = byteOut.toByteArray();
-		byte[] headerBytes = byteHeaderOut.toByteArray();
-
-		System.arraycopy(headerBytes, 0, diffBytes, 0, headerBytes.length);
-
-		return diffBytes;
-		// /*
-		// * Write missing header info. Need to reopen the file with
-		// RandomAccessFile
-		// * for this.
-		// */
-		// RandomAccessFile diff = new RandomAccessFile( diffFile, "rw" );
-		// diff.seek( 8 );
-		// diff.writeLong( ctrlBlockLen ); // ctrlBlockLen (compressed) @offset
-		// 8
-		// diff.writeLong( diffBlockLen ); // diffBlockLen (compressed) @offset
-		// 16
-		// diff.close();
+		DataOutputStream diffOut = new DataOutputStream(out);
+		diffOut.write(MAGIC_BYTES);
+		diffOut.writeLong(ctrlBlock.size());
+		diffOut.writeLong(diffBlock.size());
+		diffOut.writeLong(newsize);
+		ctrlBlock.writeTo(diffOut);
+		diffBlock.writeTo(diffOut);
+		extraBlock.writeTo(diffOut);
+		diffOut.flush();
 	}
 
 	/**
@@ -606,6 +631,169 @@ public class JBDiff {
 
 	}
 
+	/**
+	 * A block of the diff, compressed as it is written. The bytes are
+	 * gathered into chunks which are compressed either by the writing thread
+	 * or by a thread of the block, in which case the writing thread only
+	 * waits when the compressing thread falls behind by several chunks.
+	 */
+	private static class CompressedBlock extends OutputStream implements
+			Runnable {
+		private static final int CHUNK_SIZE = 64 * 1024;
+		private static final int MAX_PENDING_CHUNKS = 4;
+
+		private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		private final GZIPOutputStream gzipOut;
+		private final LinkedList pending = new LinkedList();
+		private Thread thread;
+		private boolean done;
+		private IOException failure;
+
+		private byte[] chunk = new byte[CHUNK_SIZE];
+		private int count;
+
+		CompressedBlock(boolean background) throws IOException {
+			gzipOut = new GZIPOutputStream(compressed);
+			if (background) {
+				thread = new Thread(this, "JBDiff Compressor");
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+
+		public void write(int b) throws IOException {
+			chunk[count++] = (byte) b;
+			if (count == CHUNK_SIZE) {
+				flushChunk();
+			}
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				int n = Math.min(len, CHUNK_SIZE - count);
+				System.arraycopy(b, off, chunk, count, n);
+				count += n;
+				off += n;
+				len -= n;
+				if (count == CHUNK_SIZE) {
+					flushChunk();
+				}
+			}
+		}
+
+		private void flushChunk() throws IOException {
+			if (count == 0) {
+				return;
+			}
+			if (thread == null) {
+				gzipOut.write(chunk, 0, count);
+				count = 0;
+				return;
+			}
+			byte[] full = chunk;
+			if (count < CHUNK_SIZE) {
+				full = new byte[count];
+				System.arraycopy(chunk, 0, full, 0, count);
+			} else {
+				chunk = new byte[CHUNK_SIZE];
+			}
+			count = 0;
+			synchronized (pending) {
+				while (pending.size() >= MAX_PENDING_CHUNKS && failure == null) {
+					try {
+						pending.wait();
+					} catch (InterruptedException e) {
+						throw new InterruptedIOException();
+					}
+				}
+				if (failure != null) {
+					throw failure;
+				}
+				pending.addLast(full);
+				pending.notifyAll();
+			}
+		}
+
+		public void run() {
+			try {
+				while (true) {
+					byte[] next;
+					synchronized (pending) {
+						while (pending.isEmpty() && !done) {
+							pending.wait();
+						}
+						if (pending.isEmpty()) {
+							return;
+						}
+						next = (byte[]) pending.removeFirst();
+						pending.notifyAll();
+					}
+					gzipOut.write(next);
+				}
+			} catch (IOException e) {
+				synchronized (pending) {
+					failure = e;
+					pending.notifyAll();
+				}
+			} catch (InterruptedException e) {
+				synchronized (pending) {
+					failure = new InterruptedIOException();
+					pending.notifyAll();
+				}
+			}
+		}
+
+		/**
+		 * Compresses the remaining bytes and completes the compressed block.
+		 */
+		void finish() throws IOException {
+			flushChunk();
+			stopThread();
+			gzipOut.finish();
+		}
+
+		/**
+		 * Stops the compressing thread once it has compressed the pending
+		 * chunks.
+		 */
+		private void stopThread() throws IOException {
+			if (thread == null) {
+				return;
+			}
+			synchronized (pending) {
+				done = true;
+				pending.notifyAll();
+			}
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+			thread = null;
+			if (failure != null) {
+				throw failure;
+			}
+		}
+
+		public void close() throws IOException {
+			if (thread != null) {
+				synchronized (pending) {
+					pending.clear();
+					done = true;
+					pending.notifyAll();
+				}
+			}
+		}
+
+		int size() {
+			return compressed.size();
+		}
+
+		void writeTo(OutputStream out) throws IOException {
+			compressed.writeTo(out);
+		}
+	}
+
 	private static class IntByRef {
 		private int value;
 	}
@@ -25,7 +25,7 @@
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */package ie.wombat.jbdiff;
 
-import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.File;
@@ -34,6 +34,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.util.zip.GZIPInputStream;
 
 /**
@@ -48,6 +49,13 @@ public class JBPatch {
 	// - uses GZIP compressor to compress ALL of the blocks (ctrl,diff,extra).
 	// - added an interface that allows using of JBPatch with streams and byte
 	// arrays
+	//
+	// Further extensions:
+	//
+	// - writes the new file to a stream as it is patched and reads the old
+	// file from a RandomAccessFile, so neither needs to be held in memory.
+
+	private static final int BUFFER_SIZE = 64 * 1024;
 
 //	private static final String VERSION = "jbdiff-0.1.0";
 
@@ -80,18 +88,27 @@ public class JBPatch {
 	 */
 	public static void bspatch(File oldFile, File newFile, File diffFile)
 			throws IOException {
-		InputStream oldInputStream = new BufferedInputStream(
-				new FileInputStream(oldFile));
 		byte[] diffBytes = new byte[(int) diffFile.length()];
 		InputStream diffInputStream = new FileInputStream(diffFile);
-		Util.readFromStream(diffInputStream, diffBytes, 0, diffBytes.length);
-
-		byte[] newBytes = bspatch(oldInputStream, (int) oldFile.length(),
-				diffBytes);
+		try {
+			Util.readFromStream(diffInputStream, diffBytes, 0,
+					diffBytes.length);
+		} finally {
+			diffInputStream.close();
+		}
 
-		OutputStream newOutputStream = new FileOutputStream(newFile);
-		newOutputStream.write(newBytes);
-		newOutputStream.close();
+		RandomAccessFile oldInput = new RandomAccessFile(oldFile, "r");
+		try {
+			OutputStream newOutputStream = new BufferedOutputStream(
+					new FileOutputStream(newFile));
+			try {
+				bspatch(oldInput, diffBytes, diffBytes.length, newOutputStream);
+			} finally {
+				newOutputStream.close();
+			}
+		} finally {
+			oldInput.close();
+		}
 	}
 
 	/**
@@ -137,6 +154,54 @@ public class JBPatch {
 	 */
 	public static byte[] bspatch(byte[] oldBuf, int oldsize, byte[] diffBuf,
 			int diffSize) throws IOException {
+		ArrayOutputStream newOut = new ArrayOutputStream(readNewSize(diffBuf,
+				diffSize));
+		bspatch(new OldArray(oldBuf, oldsize), diffBuf, diffSize, newOut);
+		return newOut.buf;
+	}
+
+	/**
+	 * Writes the patched file to the given stream, which is not closed.
+	 * 
+	 * @param oldBuf
+	 * @param oldsize
+	 * @param diffBuf
+	 * @param diffSize
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void bspatch(byte[] oldBuf, int oldsize, byte[] diffBuf,
+			int diffSize, OutputStream out) throws IOException {
+		bspatch(new OldArray(oldBuf, oldsize), diffBuf, diffSize, out);
+	}
+
+	/**
+	 * Writes the patched file to the given stream, which is not closed. The
+	 * old file is read as needed, so neither the old file nor the new file
+	 * are held in memory.
+	 * 
+	 * @param oldFile
+	 * @param diffBuf
+	 * @param diffSize
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void bspatch(RandomAccessFile oldFile, byte[] diffBuf,
+			int diffSize, OutputStream out) throws IOException {
+		bspatch(new OldRandomAccessFile(oldFile), diffBuf, diffSize, out);
+	}
+
+	private static int readNewSize(byte[] diffBuf, int diffSize)
+			throws IOException {
+		DataInputStream diffIn = new DataInputStream(new ByteArrayInputStream(
+				diffBuf, 0, diffSize));
+		// size of new file at header offset 24 (length 8 bytes)
+		diffIn.skip(24);
+		return (int) diffIn.readLong();
+	}
+
+	private static void bspatch(Old old, byte[] diffBuf, int diffSize,
+			OutputStream out) throws IOException {
 
 		DataInputStream diffIn = new DataInputStream(new ByteArrayInputStream(
 				diffBuf, 0, diffSize));
@@ -155,11 +220,6 @@ public class JBPatch {
 		// size of new file at header offset 24 (length 8 bytes)
 		int newsize = (int) diffIn.readLong();
 
-		// System.err.println( "newsize=" + newsize );
-		// System.err.println( "ctrlBlockLen=" + ctrlBlockLen );
-		// System.err.println( "diffBlockLen=" + diffBlockLen );
-		// System.err.println( "newsize=" + newsize );
-
 		InputStream in;
 		in = new ByteArrayInputStream(diffBuf, 0, diffSize);
 		in.skip(Util.HEADER_SIZE);
@@ -174,19 +234,15 @@ public class JBPatch {
 		in.skip(diffBlockLen + ctrlBlockLen + Util.HEADER_SIZE);
 		InputStream extraBlockIn = new GZIPInputStream(in);
 
-		// byte[] newBuf = new byte[newsize + 1];
-		byte[] newBuf = new byte[newsize];
+		byte[] buf = new byte[BUFFER_SIZE];
 
 		int oldpos = 0;
 		int newpos = 0;
 		int[] ctrl = new int[3];
-		// int nbytes;
 		while (newpos < newsize) {
 
 			for (int i = 0; i <= 2; i++) {
-				// ctrl[i] = diffIn.readInt();
 				ctrl[i] = ctrlBlockIn.readInt();
-				// System.err.println (" ctrl[" + i + "]=" + ctrl[i]);
 			}
 
 			if (newpos + ctrl[0] > newsize) {
@@ -194,15 +250,14 @@ public class JBPatch {
 			}
 
 			/*
-			 * Read ctrl[0] bytes from diffBlock stream
+			 * Read ctrl[0] bytes from diffBlock stream and add the old bytes
 			 */
-
-			Util.readFromStream(diffBlockIn, newBuf, newpos, ctrl[0]);
-
-			for (int i = 0; i < ctrl[0]; i++) {
-				if ((oldpos + i >= 0) && (oldpos + i < oldsize)) {
-					newBuf[newpos + i] += oldBuf[oldpos + i];
-				}
+			for (int done = 0; done < ctrl[0];) {
+				int n = Math.min(BUFFER_SIZE, ctrl[0] - done);
+				Util.readFromStream(diffBlockIn, buf, 0, n);
+				old.addTo(oldpos + done, buf, n);
+				out.write(buf, 0, n);
+				done += n;
 			}
 
 			newpos += ctrl[0];
@@ -212,7 +267,15 @@ public class JBPatch {
 				throw new IOException("Corrupt patch.");
 			}
 
-			Util.readFromStream(extraBlockIn, newBuf, newpos, ctrl[1]);
+			/*
+			 * Copy ctrl[1] bytes from extraBlock stream
+			 */
+			for (int done = 0; done < ctrl[1];) {
+				int n = Math.min(BUFFER_SIZE, ctrl[1] - done);
+				Util.readFromStream(extraBlockIn, buf, 0, n);
+				out.write(buf, 0, n);
+				done += n;
+			}
 
 			newpos += ctrl[1];
 			oldpos += ctrl[2];
@@ -222,20 +285,106 @@ public class JBPatch {
 		// TODO: Check if at the end of diffIn
 		// TODO: Check if at the end of extraIn
 
-		// This check is not needed since the byte array has been allocated with
-		// this constraint!
-		// if ( newBuf.length - 1 != newsize ) {
-		// throw new IOException( "Corrupt patch." );
-		// }
-
 		ctrlBlockIn.close();
 		diffBlockIn.close();
 		extraBlockIn.close();
 		diffIn.close();
+	}
+
+	/**
+	 * The file to be patched.
+	 */
+	private static abstract class Old {
+		final int size;
+
+		Old(int size) {
+			this.size = size;
+		}
+
+		/**
+		 * Adds the bytes of the old file starting at the given position to
+		 * the first <code>len</code> bytes of the buffer. The positions
+		 * outside of the old file are ignored.
+		 */
+		void addTo(int pos, byte[] buf, int len) throws IOException {
+			int start = Math.max(pos, 0);
+			int end = Math.min(pos + len, size);
+			if (start < end) {
+				add(start, buf, start - pos, end - start);
+			}
+		}
+
+		abstract void add(int pos, byte[] buf, int offset, int len)
+				throws IOException;
+	}
+
+	private static class OldArray extends Old {
+		private final byte[] oldBuf;
 
-		return newBuf;
-		// OutputStream out = new FileOutputStream( newFile );
-		// out.write( newBuf, 0, newBuf.length - 1 );
-		// out.close();
+		OldArray(byte[] oldBuf, int oldsize) {
+			super(oldsize);
+			this.oldBuf = oldBuf;
+		}
+
+		void add(int pos, byte[] buf, int offset, int len) {
+			for (int i = 0; i < len; i++) {
+				buf[offset + i] += oldBuf[pos + i];
+			}
+		}
+	}
+
+	/**
+	 * An old file read through a window, since the old file is mostly read
+	 * forward in small steps.
+	 */
+	private static class OldRandomAccessFile extends Old {
+		private final RandomAccessFile file;
+		private final byte[] window = new byte[BUFFER_SIZE];
+		private int windowStart;
+		private int windowLength;
+
+		OldRandomAccessFile(RandomAccessFile file) throws IOException {
+			super((int) file.length());
+			this.file = file;
+		}
+
+		void add(int pos, byte[] buf, int offset, int len) throws IOException {
+			while (len > 0) {
+				if (pos < windowStart || pos >= windowStart + windowLength) {
+					windowStart = pos;
+					windowLength = Math.min(window.length, size - pos);
+					file.seek(pos);
+					file.readFully(window, 0, windowLength);
+				}
+				int n = Math.min(len, windowStart + windowLength - pos);
+				for (int i = 0; i < n; i++) {
+					buf[offset + i] += window[pos - windowStart + i];
+				}
+				pos += n;
+				offset += n;
+				len -= n;
+			}
+		}
+	}
+
+	/**
+	 * Writes into an array of the size of the new file.
+	 */
+	private static class ArrayOutputStream extends OutputStream {
+		final byte[] buf;
+		private int count;
+
+		ArrayOutputStream(int size) {
+			buf = new byte[size];
+		}
+
+		public void write(int b) {
+			buf[count++] = (byte) b;
+		}
+
+		public void write(byte[] b, int off, int len) {
+			System.arraycopy(b, off, buf, count, len);
+			count += len;
+		}
 	}
 }
@@ -14,7 +14,6 @@ package org.eclipse.equinox.internal.p2.artifact.processors.jbdiff;
 import ie.wombat.jbdiff.JBPatch;
 import java.io.*;
 import org.eclipse.equinox.internal.p2.artifact.processors.AbstractDeltaProcessorStep;
-import org.eclipse.equinox.internal.p2.core.helpers.FileUtils;
 import org.eclipse.equinox.internal.p2.sar.DirectByteArrayOutputStream;
 import org.eclipse.equinox.p2.repository.artifact.spi.ArtifactDescriptor;
 
@@ -32,23 +31,46 @@ public class JBPatchStep extends AbstractDeltaProcessorStep {
 	}
 
 	protected void performProcessing() throws IOException {
-		DirectByteArrayOutputStream predecessor = fetchPredecessorBytes(new ArtifactDescriptor(key));
+		File predecessor = fetchPredecessorFile();
+		try {
+			// write the result of the patch to the destination.
+			patch(predecessor, getDestination());
+			// free up the memory as soon as possible.
+			incomingStream = null;
+		} finally {
+			deletePredecessor(predecessor);
+		}
+	}
+
+	/**
+	 * Applies the incoming patch to the given predecessor and writes the result
+	 * to the given stream. The predecessor is read as needed, so neither the
+	 * predecessor nor the result are held in memory.
+	 */
+	protected void patch(File predecessor, OutputStream destination) throws IOException {
 		DirectByteArrayOutputStream current = (DirectByteArrayOutputStream) incomingStream;
-		byte[] result = JBPatch.bspatch(predecessor.getBuffer(), predecessor.getBufferLength(), current.getBuffer(), current.getBufferLength());
-		// free up the memory as soon as possible.
-		predecessor = null;
-		current = null;
-		incomingStream = null;
-
-		// copy the result of the optimization to the destination.
-		FileUtils.copyStream(new ByteArrayInputStream(result), true, getDestination(), false);
+		RandomAccessFile predecessorInput = new RandomAccessFile(predecessor, "r"); //$NON-NLS-1$
+		try {
+			JBPatch.bspatch(predecessorInput, current.getBuffer(), current.getBufferLength(), destination);
+		} finally {
+			predecessorInput.close();
+		}
 	}
 
-	private DirectByteArrayOutputStream fetchPredecessorBytes(ArtifactDescriptor artifactDescriptor) throws IOException {
-		DirectByteArrayOutputStream result = new DirectByteArrayOutputStream();
-		setStatus(repository.getArtifact(artifactDescriptor, result, getProgressMonitor()));
-		if (!getStatus().isOK())
+	protected File fetchPredecessorFile() throws IOException {
+		File predecessor = fetchPredecessor(new ArtifactDescriptor(key));
+		if (!getStatus().isOK()) {
+			deletePredecessor(predecessor);
 			throw (IOException) new IOException(getStatus().getMessage()).initCause(getStatus().getException());
-		return result;
+		}
+		if (predecessor == null || !predecessor.isFile())
+			throw new IOException("Could not fetch the predecessor " + key); //$NON-NLS-1$
+		return predecessor;
+	}
+
+	protected void deletePredecessor(File predecessor) {
+		// if we have a predecessor and it is our temp file then clean up the file
+		if (predecessor != null && predecessor.getAbsolutePath().indexOf(PREDECESSOR_ROOT) > -1)
+			predecessor.delete();
 	}
-}
\ No newline at end of file
+}
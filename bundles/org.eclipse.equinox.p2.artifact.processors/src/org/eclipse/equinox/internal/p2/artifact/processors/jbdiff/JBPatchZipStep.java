@@ -11,44 +11,47 @@
  *******************************************************************************/
 package org.eclipse.equinox.internal.p2.artifact.processors.jbdiff;
 
-import ie.wombat.jbdiff.JBPatch;
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import org.eclipse.equinox.internal.p2.sar.DirectByteArrayOutputStream;
+import java.io.*;
 import org.eclipse.equinox.internal.p2.sar.SarUtil;
-import org.eclipse.equinox.p2.repository.artifact.spi.ArtifactDescriptor;
 
 /**
  * The <code>JBPatchZipStep</code> patches a JBDiff based diff of zips/jars.   
  */
 public class JBPatchZipStep extends JBPatchStep {
+	private static final String SAR_SUFFIX = ".sar"; //$NON-NLS-1$
 
 	public JBPatchZipStep() {
 		super();
 	}
 
 	protected void performProcessing() throws IOException {
-		DirectByteArrayOutputStream predecessor = fetchPredecessorBytes(new ArtifactDescriptor(key));
-		DirectByteArrayOutputStream current = (DirectByteArrayOutputStream) incomingStream;
-		byte[] result = JBPatch.bspatch(predecessor.getBuffer(), predecessor.getBufferLength(), current.getBuffer(), current.getBufferLength());
-		// free up the memory as soon as possible.
-		predecessor = null;
-		current = null;
-		incomingStream = null;
-
-		// copy the result of the optimization to the destination.
-		SarUtil.sarToZip(new ByteArrayInputStream(result), true, getDestination(), false);
+		File predecessor = fetchPredecessorFile();
+		File sarredPredecessor = null;
+		File sarredResult = null;
+		try {
+			sarredPredecessor = File.createTempFile(PREDECESSOR_ROOT, SAR_SUFFIX);
+			SarUtil.zipToSar(predecessor, sarredPredecessor);
+			deletePredecessor(predecessor);
+			predecessor = null;
+
+			sarredResult = File.createTempFile(RESULT_ROOT, SAR_SUFFIX);
+			OutputStream sarredResultStream = new BufferedOutputStream(new FileOutputStream(sarredResult));
+			try {
+				patch(sarredPredecessor, sarredResultStream);
+			} finally {
+				sarredResultStream.close();
+			}
+			// free up the memory as soon as possible.
+			incomingStream = null;
+
+			// copy the result of the optimization to the destination.
+			SarUtil.sarToZip(new BufferedInputStream(new FileInputStream(sarredResult)), true, getDestination(), false);
+		} finally {
+			deletePredecessor(predecessor);
+			if (sarredPredecessor != null)
+				sarredPredecessor.delete();
+			if (sarredResult != null)
+				sarredResult.delete();
+		}
 	}
-
-	private DirectByteArrayOutputStream fetchPredecessorBytes(ArtifactDescriptor artifactDescriptor) throws IOException {
-		DirectByteArrayOutputStream zippedPredecessor = new DirectByteArrayOutputStream();
-		setStatus(repository.getArtifact(artifactDescriptor, zippedPredecessor, getProgressMonitor()));
-		if (!getStatus().isOK())
-			throw (IOException) new IOException(getStatus().getMessage()).initCause(getStatus().getException());
-
-		DirectByteArrayOutputStream result = new DirectByteArrayOutputStream();
-		SarUtil.zipToSar(zippedPredecessor.getInputStream(), result);
-		return result;
-	}
-
-}
\ No newline at end of file
+}
@@ -18,9 +18,11 @@ import java.util.*;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
 import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.core.helpers.CollectionUtils;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.p2.persistence.CompositeRepositoryIO;
 import org.eclipse.equinox.internal.p2.persistence.CompositeRepositoryState;
+import org.eclipse.equinox.internal.p2.repository.helpers.CompositeChildRunner;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.metadata.IArtifactKey;
@@ -44,6 +46,9 @@ public class CompositeArtifactRepository extends AbstractArtifactRepository impl
 	private List<URI> childrenURIs = new ArrayList<URI>();
 	// keep a list of the repositories that we have successfully loaded
 	private List<ChildInfo> loadedRepos = new ArrayList<ChildInfo>();
+	// the children holding each key, built when first needed
+	private volatile KeyTable keyTable;
+	private final Object keyTableLock = new Object();
 	private IArtifactRepositoryManager manager;
 	private boolean disableSave;
 
@@ -86,8 +91,7 @@ public class CompositeArtifactRepository extends AbstractArtifactRepository impl
 	CompositeArtifactRepository(IArtifactRepositoryManager manager, CompositeRepositoryState state) {
 		super(manager.getAgent(), state.getName(), state.getType(), state.getVersion(), state.getLocation(), state.getDescription(), state.getProvider(), state.getProperties());
 		this.manager = manager;
-		for (int i = 0; i < state.getChildren().length; i++)
-			addChild(state.getChildren()[i], false);
+		addChildren(state.getChildren(), false);
 	}
 
 	/**
@@ -143,22 +147,45 @@ public class CompositeArtifactRepository extends AbstractArtifactRepository impl
 	}
 
 	public void addChild(URI childURI) {
-		addChild(childURI, true);
+		addChildren(new URI[] {childURI}, true);
 	}
 
-	private void addChild(URI childURI, boolean save) {
-		URI absolute = URIUtil.makeAbsolute(childURI, getLocation());
-		if (childrenURIs.contains(childURI) || childrenURIs.contains(absolute))
+	/*
+	 * Adds the given children and loads them, several at a time. The children that
+	 * could be loaded are remembered in the order in which they are given.
+	 */
+	private void addChildren(URI[] children, boolean save) {
+		List<URI> added = new ArrayList<URI>(children.length);
+		for (int i = 0; i < children.length; i++) {
+			URI absolute = URIUtil.makeAbsolute(children[i], getLocation());
+			if (childrenURIs.contains(children[i]) || childrenURIs.contains(absolute))
+				continue;
+			childrenURIs.add(children[i]);
+			added.add(children[i]);
+		}
+		if (added.isEmpty())
 			return;
-		childrenURIs.add(childURI);
 		if (save)
 			save();
-		try {
-			IArtifactRepository repo = load(childURI);
-			loadedRepos.add(new ChildInfo(repo));
-		} catch (ProvisionException e) {
-			LogHelper.log(e);
+		List<IArtifactRepository> loaded = CompositeChildRunner.run(added, new CompositeChildRunner.Task<URI, IArtifactRepository>() {
+			public IArtifactRepository run(URI child) {
+				try {
+					return load(child);
+				} catch (ProvisionException e) {
+					LogHelper.log(e);
+					return null;
+				}
+			}
+		}, getMaxThreads());
+		for (IArtifactRepository repo : loaded) {
+			if (repo != null)
+				loadedRepos.add(new ChildInfo(repo));
 		}
+		invalidateKeyTable();
+	}
+
+	private int getMaxThreads() {
+		return CompositeChildRunner.getMaxThreads(getProperties());
 	}
 
 	//	public boolean addChild(URI childURI, String comparatorID) {
@@ -197,6 +224,7 @@ public class CompositeArtifactRepository extends AbstractArtifactRepository impl
 			}
 			if (found != null)
 				loadedRepos.remove(found);
+			invalidateKeyTable();
 			save();
 		}
 	}
@@ -204,6 +232,7 @@ public class CompositeArtifactRepository extends AbstractArtifactRepository impl
 	public void removeAllChildren() {
 		childrenURIs.clear();
 		loadedRepos.clear();
+		invalidateKeyTable();
 		save();
 	}
 
@@ -267,15 +296,15 @@ public class CompositeArtifactRepository extends AbstractArtifactRepository impl
 	}
 
 	public boolean contains(IArtifactKey key) {
-		for (ChildInfo current : loadedRepos) {
-			if (current.isGood() && current.repo.contains(key))
+		for (ChildInfo current : getCandidates(key)) {
+			if (current.isGood() && (current.indexed || current.repo.contains(key)))
 				return true;
 		}
 		return false;
 	}
 
 	public boolean contains(IArtifactDescriptor descriptor) {
-		for (ChildInfo current : loadedRepos) {
+		for (ChildInfo current : getCandidates(descriptor.getArtifactKey())) {
 			if (current.isGood() && current.repo.contains(descriptor))
 				return true;
 		}
@@ -284,7 +313,7 @@ public class CompositeArtifactRepository extends AbstractArtifactRepository impl
 
 	public IArtifactDescriptor[] getArtifactDescriptors(IArtifactKey key) {
 		ArrayList<IArtifactDescriptor> result = new ArrayList<IArtifactDescriptor>();
-		for (ChildInfo current : loadedRepos) {
+		for (ChildInfo current : getCandidates(key)) {
 			if (current.isGood()) {
 				IArtifactDescriptor[] tempResult = current.repo.getArtifactDescriptors(key);
 				for (int i = 0; i < tempResult.length; i++)
@@ -301,7 +330,7 @@ public class CompositeArtifactRepository extends AbstractArtifactRepository impl
 			if (requests.length == 0)
 				break;
 			IArtifactRepository current = childInfo.repo;
-			IArtifactRequest[] applicable = getRequestsForRepository(current, requests);
+			IArtifactRequest[] applicable = getRequestsForRepository(childInfo, requests);
 			IStatus dlStatus = current.getArtifacts(applicable, subMonitor.newChild(requests.length));
 			multiStatus.add(dlStatus);
 			if (dlStatus.getSeverity() == IStatus.CANCEL)
@@ -326,7 +355,7 @@ public class CompositeArtifactRepository extends AbstractArtifactRepository impl
 	private IStatus getRawOrNormalArtifact(IArtifactDescriptor descriptor, OutputStream destination, IProgressMonitor monitor, boolean raw) {
 		for (Iterator<ChildInfo> childIterator = loadedRepos.iterator(); childIterator.hasNext();) {
 			ChildInfo current = childIterator.next();
-			if (current.isGood() && current.repo.contains(descriptor)) {
+			if (current.isGood() && holds(current, descriptor.getArtifactKey()) && current.repo.contains(descriptor)) {
 				// Child hasn't failed & contains descriptor
 				IStatus status = raw ? current.repo.getRawArtifact(descriptor, destination, monitor) : current.repo.getArtifact(descriptor, destination, monitor);
 				if (status.isOK()) {
@@ -376,15 +405,62 @@ public class CompositeArtifactRepository extends AbstractArtifactRepository impl
 		return filteredArtifactRequests;
 	}
 
-	private IArtifactRequest[] getRequestsForRepository(IArtifactRepository repository, IArtifactRequest[] requests) {
+	private IArtifactRequest[] getRequestsForRepository(ChildInfo child, IArtifactRequest[] requests) {
 		ArrayList<IArtifactRequest> applicable = new ArrayList<IArtifactRequest>();
 		for (int i = 0; i < requests.length; i++) {
-			if (repository.contains(requests[i].getArtifactKey()))
+			if (holds(child, requests[i].getArtifactKey()))
 				applicable.add(requests[i]);
 		}
 		return applicable.toArray(new IArtifactRequest[applicable.size()]);
 	}
 
+	/*
+	 * Returns whether the given child holds the given key.
+	 */
+	private boolean holds(ChildInfo child, IArtifactKey key) {
+		if (!child.indexed)
+			return child.repo.contains(key);
+		List<ChildInfo> holders = getKeyTable().holders.get(key);
+		return holders != null && holders.contains(child);
+	}
+
+	/*
+	 * Returns the children that may hold the given key, in the order of the children.
+	 * The children that cannot change are looked up in the key table, the others
+	 * are always returned and must be asked.
+	 */
+	private List<ChildInfo> getCandidates(IArtifactKey key) {
+		KeyTable table = getKeyTable();
+		List<ChildInfo> holders = table.holders.get(key);
+		if (holders == null)
+			holders = CollectionUtils.emptyList();
+		if (table.allIndexed)
+			return holders;
+		List<ChildInfo> result = new ArrayList<ChildInfo>();
+		for (ChildInfo child : loadedRepos) {
+			if (!child.indexed || holders.contains(child))
+				result.add(child);
+		}
+		return result;
+	}
+
+	private KeyTable getKeyTable() {
+		KeyTable table = keyTable;
+		if (table != null)
+			return table;
+		synchronized (keyTableLock) {
+			if (keyTable == null)
+				keyTable = new KeyTable(new ArrayList<ChildInfo>(loadedRepos), getMaxThreads());
+			return keyTable;
+		}
+	}
+
+	private void invalidateKeyTable() {
+		synchronized (keyTableLock) {
+			keyTable = null;
+		}
+	}
+
 	/**
 	 * This method is only protected for testing purposes
 	 * 
@@ -515,10 +591,14 @@ public class CompositeArtifactRepository extends AbstractArtifactRepository impl
 
 	private static class ChildInfo {
 		IArtifactRepository repo;
-		boolean good = true;
+		// whether the keys of the child are in the key table. This is only the case if the child
+		// cannot change, and is not a composite since it answers for its own bad children
+		final boolean indexed;
+		volatile boolean good = true;
 
 		ChildInfo(IArtifactRepository IArtifactRepository) {
 			this.repo = IArtifactRepository;
+			this.indexed = !IArtifactRepository.isModifiable() && !(IArtifactRepository instanceof ICompositeRepository<?>);
 		}
 
 		void setBad(boolean bad) {
@@ -530,6 +610,43 @@ public class CompositeArtifactRepository extends AbstractArtifactRepository impl
 		}
 	}
 
+	/**
+	 * The children holding each artifact key, for the children that cannot change. Looking
+	 * up a key in a composite with many children then takes a single lookup instead of one
+	 * per child.
+	 */
+	private static class KeyTable {
+		final Map<IArtifactKey, List<ChildInfo>> holders = new HashMap<IArtifactKey, List<ChildInfo>>();
+		boolean allIndexed = true;
+
+		KeyTable(final List<ChildInfo> children, int maxThreads) {
+			List<IQueryResult<IArtifactKey>> keys = CompositeChildRunner.run(children, new CompositeChildRunner.Task<ChildInfo, IQueryResult<IArtifactKey>>() {
+				public IQueryResult<IArtifactKey> run(ChildInfo child) {
+					return child.indexed ? child.repo.query(ArtifactKeyQuery.ALL_KEYS, new NullProgressMonitor()) : null;
+				}
+			}, maxThreads);
+			for (int i = 0; i < children.size(); i++) {
+				ChildInfo child = children.get(i);
+				if (!child.indexed) {
+					allIndexed = false;
+					continue;
+				}
+				if (keys.get(i) == null)
+					continue;
+				for (Iterator<IArtifactKey> iterator = keys.get(i).iterator(); iterator.hasNext();) {
+					IArtifactKey key = iterator.next();
+					List<ChildInfo> list = holders.get(key);
+					if (list == null) {
+						list = new ArrayList<ChildInfo>(2);
+						holders.put(key, list);
+					}
+					if (!list.contains(child))
+						list.add(child);
+				}
+			}
+		}
+	}
+
 	public IQueryResult<IArtifactKey> query(IQuery<IArtifactKey> query, IProgressMonitor monitor) {
 		// Query all the all the repositories this composite repo contains
 		List<IArtifactRepository> repos = new ArrayList<IArtifactRepository>();
@@ -537,8 +654,7 @@ public class CompositeArtifactRepository extends AbstractArtifactRepository impl
 			if (info.isGood())
 				repos.add(info.repo);
 		}
-		IQueryable<IArtifactKey> queryable = QueryUtil.compoundQueryable(repos);
-		return queryable.query(query, monitor);
+		return CompositeChildRunner.query(repos, query, monitor, getMaxThreads());
 	}
 
 	public IQueryable<IArtifactDescriptor> descriptorQueryable() {
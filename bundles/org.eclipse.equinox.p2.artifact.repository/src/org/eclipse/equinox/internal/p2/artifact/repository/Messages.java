@@ -59,6 +59,9 @@ public class Messages extends NLS {
 
 	public static String retryRequest;
 
+	public static String partial_download_wrong_size;
+	public static String partial_download_unreadable;
+
 	static {
 		// initialize resource bundles
 		NLS.initializeMessages(BUNDLE_NAME, Messages.class);
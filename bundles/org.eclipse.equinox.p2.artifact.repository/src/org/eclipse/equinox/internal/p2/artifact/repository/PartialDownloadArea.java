@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.artifact.repository;
+
+import java.io.*;
+import java.net.URI;
+import java.util.HashSet;
+import java.util.Set;
+import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.artifact.processors.md5.MD5Verifier;
+import org.eclipse.equinox.internal.p2.core.helpers.FileUtils;
+import org.eclipse.equinox.p2.core.IAgentLocation;
+import org.eclipse.equinox.p2.core.IProvisioningAgent;
+import org.eclipse.equinox.p2.metadata.IArtifactKey;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * A folder in the data area of the agent holding artifacts whose download has not
+ * completed yet. Keeping the bytes received so far allows a failed download to be
+ * continued from the last byte received rather than from the beginning, be it from
+ * the same location or from a mirror of it.
+ * <p>
+ * Only downloads whose size is known are kept, since the size is needed to tell a
+ * partial download from a complete one. A partial file is identified by the location
+ * of the artifact in its repository, not by the location it is downloaded from, so
+ * that all mirrors of a repository share it. A partial file is used by one download
+ * at a time.
+ * </p>
+ */
+public class PartialDownloadArea {
+	private static final String PARTIAL_EXTENSION = ".part"; //$NON-NLS-1$
+	/**
+	 * Partial files that have not been touched for this long are discarded.
+	 */
+	private static final long MAX_AGE = 7 * 24 * 60 * 60 * 1000L;
+
+	private static final Set<File> inUse = new HashSet<File>();
+
+	private final File folder;
+
+	/**
+	 * Returns the partial download area of the given agent, or <code>null</code> if the
+	 * agent has no data area on the local file system.
+	 */
+	public static PartialDownloadArea getArea(IProvisioningAgent agent) {
+		if (agent == null)
+			return null;
+		IAgentLocation location = (IAgentLocation) agent.getService(IAgentLocation.SERVICE_NAME);
+		if (location == null)
+			return null;
+		URI dataArea = location.getDataArea(Activator.ID);
+		if (dataArea == null || !"file".equals(dataArea.getScheme())) //$NON-NLS-1$
+			return null;
+		return new PartialDownloadArea(new File(URIUtil.toFile(dataArea), "downloads")); //$NON-NLS-1$
+	}
+
+	public PartialDownloadArea(File folder) {
+		this.folder = folder;
+	}
+
+	/**
+	 * Returns the expected size of the download described by the given descriptor, or
+	 * <code>-1</code> if it is not known.
+	 */
+	public static long getExpectedSize(IArtifactDescriptor descriptor) {
+		String size = descriptor.getProperty(IArtifactDescriptor.DOWNLOAD_SIZE);
+		if (size == null)
+			return -1;
+		try {
+			long result = Long.parseLong(size);
+			return result > 0 ? result : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns the partial file for the artifact found at the given location and reserves it
+	 * for the caller. Returns <code>null</code> if the file is in use by another download or
+	 * the area cannot be created. The file must be released with {@link #release(File)}.
+	 */
+	public File acquire(IArtifactDescriptor descriptor, URI location) {
+		IArtifactKey key = descriptor.getArtifactKey();
+		StringBuffer name = new StringBuffer();
+		name.append(key.getId()).append('_').append(key.getVersion());
+		name.append('_').append(Integer.toHexString(location.toString().hashCode()));
+		name.append(PARTIAL_EXTENSION);
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (!Character.isLetterOrDigit(c) && c != '.' && c != '_' && c != '-')
+				name.setCharAt(i, '_');
+		}
+		File partial = new File(folder, name.toString());
+		synchronized (inUse) {
+			if (inUse.isEmpty())
+				discardStale();
+			if (!folder.isDirectory() && !folder.mkdirs())
+				return null;
+			if (!inUse.add(partial))
+				return null;
+		}
+		return partial;
+	}
+
+	/**
+	 * Releases a partial file acquired by {@link #acquire(IArtifactDescriptor, URI)}.
+	 */
+	public void release(File partial) {
+		synchronized (inUse) {
+			inUse.remove(partial);
+		}
+	}
+
+	private void discardStale() {
+		File[] partials = folder.listFiles();
+		if (partials == null)
+			return;
+		long oldest = System.currentTimeMillis() - MAX_AGE;
+		for (int i = 0; i < partials.length; i++) {
+			if (partials[i].getName().endsWith(PARTIAL_EXTENSION) && partials[i].lastModified() < oldest && !inUse.contains(partials[i]))
+				partials[i].delete();
+		}
+	}
+
+	/**
+	 * Checks that the given file holds the complete download described by the descriptor,
+	 * that is it has the expected size and, if the descriptor specifies one, the expected MD5 hash.
+	 */
+	public static IStatus validate(File partial, IArtifactDescriptor descriptor) {
+		long expectedSize = getExpectedSize(descriptor);
+		if (expectedSize >= 0 && partial.length() != expectedSize)
+			return new Status(IStatus.ERROR, Activator.ID, NLS.bind(Messages.partial_download_wrong_size, new Object[] {descriptor.getArtifactKey(), Long.toString(partial.length()), Long.toString(expectedSize)}));
+		String expectedMD5 = descriptor.getProperty(IArtifactDescriptor.DOWNLOAD_MD5);
+		if (expectedMD5 == null)
+			return Status.OK_STATUS;
+		MD5Verifier verifier = new MD5Verifier(expectedMD5);
+		verifier.link(new OutputStream() {
+			public void write(int b) {
+				// only the hash is of interest
+			}
+
+			public void write(byte[] b, int off, int len) {
+				// only the hash is of interest
+			}
+		}, new NullProgressMonitor());
+		try {
+			FileUtils.copyStream(new FileInputStream(partial), true, verifier, true);
+		} catch (IOException e) {
+			return new Status(IStatus.ERROR, Activator.ID, NLS.bind(Messages.partial_download_unreadable, descriptor.getArtifactKey()), e);
+		}
+		return verifier.getStatus();
+	}
+}
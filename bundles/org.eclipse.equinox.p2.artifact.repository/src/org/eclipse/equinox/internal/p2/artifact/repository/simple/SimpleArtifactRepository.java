@@ -17,7 +17,6 @@ import java.io.*;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
-import java.util.Map.Entry;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
 import org.eclipse.core.runtime.*;
@@ -30,7 +29,6 @@ import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
 import org.eclipse.equinox.internal.p2.metadata.expression.CompoundIterator;
 import org.eclipse.equinox.internal.p2.metadata.index.IndexProvider;
 import org.eclipse.equinox.internal.p2.repository.RepositoryTransport;
-import org.eclipse.equinox.internal.p2.repository.Transport;
 import org.eclipse.equinox.internal.provisional.p2.artifact.repository.processing.*;
 import org.eclipse.equinox.internal.provisional.p2.repository.IStateful;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
@@ -212,12 +210,27 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	protected Set<SimpleArtifactDescriptor> artifactDescriptors = new HashSet<SimpleArtifactDescriptor>();
 	/**
 	 * Map<IArtifactKey,List<IArtifactDescriptor>> containing the index of artifacts in the repository.
+	 * The map and its lists are never modified once published, so the map is read without locking.
+	 * Changes are made to a copy while holding the lock on the repository, and the copy is published
+	 * once the change is complete or, while batches are in progress, once the last of them completes.
+	 * Threads other than the one holding the lock thus never see a batch partially applied.
 	 */
-	private Map<IArtifactKey, List<IArtifactDescriptor>> artifactMap = new HashMap<IArtifactKey, List<IArtifactDescriptor>>();
-	private transient BlobStore blobStore;
-	transient private Mapper mapper = new Mapper();
-	private KeyIndex keyIndex;
-	private boolean snapshotNeeded = false;
+	private volatile Map<IArtifactKey, List<IArtifactDescriptor>> artifactMap = new HashMap<IArtifactKey, List<IArtifactDescriptor>>();
+	// the copy of the artifact map being changed, guarded by the lock on the repository
+	private Map<IArtifactKey, List<IArtifactDescriptor>> changedArtifactMap;
+	private transient volatile BlobStore blobStore;
+	transient private volatile Mapper mapper = new Mapper();
+	private volatile KeyIndexSnapshot keyIndex;
+
+	private static final class KeyIndexSnapshot {
+		final Map<IArtifactKey, List<IArtifactDescriptor>> artifactMap;
+		final KeyIndex index;
+
+		KeyIndexSnapshot(Map<IArtifactKey, List<IArtifactDescriptor>> artifactMap) {
+			this.artifactMap = artifactMap;
+			this.index = new KeyIndex(artifactMap.keySet());
+		}
+	}
 
 	static final private String PUBLISH_PACK_FILES_AS_SIBLINGS = "publishPackFilesAsSiblings"; //$NON-NLS-1$
 
@@ -226,8 +239,10 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	protected String[][] mappingRules = DEFAULT_MAPPING_RULES;
 
 	private MirrorSelector mirrors;
+	private PartialDownloadArea partialDownloadArea;
 
-	private boolean disableSave = false;
+	// the number of batches in progress, the repository is saved when the last one completes
+	private volatile int batchDepth = 0;
 
 	static void delete(File toDelete) {
 		if (toDelete.isDirectory()) {
@@ -262,45 +277,63 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		this.mappingRules = mappingRules;
 		for (SimpleArtifactDescriptor desc : artifactDescriptors)
 			mapDescriptor(desc);
+		publishArtifactMap();
+	}
+
+	/*
+	 * Returns the artifact map to read. The thread holding the lock on the repository reads its
+	 * own changes, including those of the batches in progress.
+	 */
+	private Map<IArtifactKey, List<IArtifactDescriptor>> getArtifactMap() {
+		if (Thread.holdsLock(this) && changedArtifactMap != null)
+			return changedArtifactMap;
+		return artifactMap;
+	}
+
+	private synchronized Map<IArtifactKey, List<IArtifactDescriptor>> getChangedArtifactMap() {
+		if (changedArtifactMap == null)
+			changedArtifactMap = new HashMap<IArtifactKey, List<IArtifactDescriptor>>(artifactMap);
+		return changedArtifactMap;
+	}
+
+	/*
+	 * Publishes the changes made to the artifact map unless batches are in progress.
+	 */
+	private synchronized void publishArtifactMap() {
+		if (batchDepth > 0 || changedArtifactMap == null)
+			return;
+		artifactMap = changedArtifactMap;
+		changedArtifactMap = null;
 	}
 
 	private synchronized void mapDescriptor(IArtifactDescriptor descriptor) {
 		IArtifactKey key = descriptor.getArtifactKey();
-		if (snapshotNeeded) {
-			cloneAritfactMap();
-			snapshotNeeded = false;
-		}
-		List<IArtifactDescriptor> descriptors = artifactMap.get(key);
+		Map<IArtifactKey, List<IArtifactDescriptor>> map = getChangedArtifactMap();
+		List<IArtifactDescriptor> descriptors = map.get(key);
+		List<IArtifactDescriptor> newDescriptors;
 		if (descriptors == null) {
-			descriptors = new ArrayList<IArtifactDescriptor>();
-			artifactMap.put(key, descriptors);
+			newDescriptors = Collections.singletonList(descriptor);
+		} else {
+			newDescriptors = new ArrayList<IArtifactDescriptor>(descriptors.size() + 1);
+			newDescriptors.addAll(descriptors);
+			newDescriptors.add(descriptor);
 		}
-		descriptors.add(descriptor);
-		keyIndex = null;
+		map.put(key, newDescriptors);
 	}
 
 	private synchronized void unmapDescriptor(IArtifactDescriptor descriptor) {
 		IArtifactKey key = descriptor.getArtifactKey();
-		List<IArtifactDescriptor> descriptors = artifactMap.get(key);
+		Map<IArtifactKey, List<IArtifactDescriptor>> map = getChangedArtifactMap();
+		List<IArtifactDescriptor> descriptors = map.get(key);
 		if (descriptors == null)
 			return;
 
-		if (snapshotNeeded) {
-			cloneAritfactMap();
-			snapshotNeeded = false;
-			descriptors = artifactMap.get(key);
-		}
-		descriptors.remove(descriptor);
-		if (descriptors.isEmpty())
-			artifactMap.remove(key);
-		keyIndex = null;
-	}
-
-	private void cloneAritfactMap() {
-		HashMap<IArtifactKey, List<IArtifactDescriptor>> clone = new HashMap<IArtifactKey, List<IArtifactDescriptor>>(artifactMap.size());
-		for (Entry<IArtifactKey, List<IArtifactDescriptor>> entry : artifactMap.entrySet())
-			clone.put(entry.getKey(), new ArrayList<IArtifactDescriptor>(entry.getValue()));
-		artifactMap = clone;
+		List<IArtifactDescriptor> newDescriptors = new ArrayList<IArtifactDescriptor>(descriptors);
+		newDescriptors.remove(descriptor);
+		if (newDescriptors.isEmpty())
+			map.remove(key);
+		else
+			map.put(key, newDescriptors);
 	}
 
 	public SimpleArtifactRepository(IProvisioningAgent agent, String repositoryName, URI location, Map<String, String> properties) {
@@ -329,6 +362,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		SimpleArtifactDescriptor internalDescriptor = createInternalDescriptor(toAdd);
 		artifactDescriptors.add(internalDescriptor);
 		mapDescriptor(internalDescriptor);
+		publishArtifactMap();
 		save();
 	}
 
@@ -365,6 +399,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 			artifactDescriptors.add(internalDescriptor);
 			mapDescriptor(internalDescriptor);
 		}
+		publishArtifactMap();
 		save();
 	}
 
@@ -416,16 +451,19 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return buffer.toString();
 	}
 
-	public synchronized boolean contains(IArtifactDescriptor descriptor) {
+	public boolean contains(IArtifactDescriptor descriptor) {
+		List<IArtifactDescriptor> descriptors = getArtifactMap().get(descriptor.getArtifactKey());
+		if (descriptors == null)
+			return false;
 		SimpleArtifactDescriptor simpleDescriptor = createInternalDescriptor(descriptor);
-		return artifactDescriptors.contains(simpleDescriptor);
+		return descriptors.contains(simpleDescriptor);
 	}
 
-	public synchronized boolean contains(IArtifactKey key) {
-		return artifactMap.containsKey(key);
+	public boolean contains(IArtifactKey key) {
+		return getArtifactMap().containsKey(key);
 	}
 
-	public synchronized URI createLocation(ArtifactDescriptor descriptor) {
+	public URI createLocation(ArtifactDescriptor descriptor) {
 		if (flatButPackedEnabled(descriptor)) {
 			return getLocationForPackedButFlatArtifacts(descriptor);
 		}
@@ -506,7 +544,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		if (baseLocation == null)
 			return new Status(IStatus.ERROR, Activator.ID, NLS.bind(Messages.no_location, descriptor));
 		URI mirrorLocation = getMirror(baseLocation, monitor);
-		IStatus status = downloadArtifact(descriptor, mirrorLocation, destination, monitor);
+		IStatus status = downloadArtifact(descriptor, baseLocation, mirrorLocation, destination, monitor);
 		IStatus result = reportStatus(descriptor, destination, status);
 		// if the original download went reasonably but the reportStatus found some issues
 		// (e..g, in the processing steps/validators) then mark the mirror as bad and return
@@ -522,8 +560,8 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return status.getCode() == CODE_RETRY ? status : result;
 	}
 
-	private IStatus downloadArtifact(IArtifactDescriptor descriptor, URI mirrorLocation, OutputStream destination, IProgressMonitor monitor) {
-		IStatus result = getTransport().download(mirrorLocation, destination, monitor);
+	private IStatus downloadArtifact(IArtifactDescriptor descriptor, URI baseLocation, URI mirrorLocation, OutputStream destination, IProgressMonitor monitor) {
+		IStatus result = transfer(descriptor, baseLocation, mirrorLocation, destination, monitor);
 		if (mirrors != null)
 			mirrors.reportResult(mirrorLocation.toString(), result);
 		if (result.isOK() || result.getSeverity() == IStatus.CANCEL)
@@ -539,6 +577,63 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return result;
 	}
 
+	/**
+	 * Transfers the artifact found at the given location into the destination. A remote artifact
+	 * of known size is first downloaded into the partial download area of the agent, so that a
+	 * failed download is continued by the next attempt instead of starting over, even when that
+	 * attempt uses another mirror.
+	 * @param baseLocation The location of the artifact in this repository
+	 * @param location The location to download the artifact from, possibly a mirror
+	 */
+	private IStatus transfer(IArtifactDescriptor descriptor, URI baseLocation, URI location, OutputStream destination, IProgressMonitor monitor) {
+		long expectedSize = PartialDownloadArea.getExpectedSize(descriptor);
+		PartialDownloadArea area = (expectedSize < 0 || isLocal()) ? null : getPartialDownloadArea();
+		File partial = area == null ? null : area.acquire(descriptor, baseLocation);
+		if (partial == null)
+			return getTransport().download(location, destination, monitor);
+		try {
+			if (partial.length() > expectedSize)
+				partial.delete();
+			while (true) {
+				boolean resumed = partial.length() > 0;
+				IStatus result = Status.OK_STATUS;
+				if (partial.length() < expectedSize)
+					result = getTransport().download(location, partial, monitor);
+				if (!result.isOK())
+					return statusOn(destination, result);
+				IStatus validation = PartialDownloadArea.validate(partial, descriptor);
+				if (!validation.isOK()) {
+					// the content cannot be continued, the server may have ignored the requested range
+					partial.delete();
+					if (resumed)
+						continue;
+					return statusOn(destination, validation);
+				}
+				try {
+					FileUtils.copyStream(new FileInputStream(partial), true, destination, false);
+				} catch (IOException e) {
+					return statusOn(destination, new Status(IStatus.ERROR, Activator.ID, NLS.bind(Messages.io_failedRead, location), e));
+				}
+				partial.delete();
+				return statusOn(destination, result);
+			}
+		} finally {
+			area.release(partial);
+		}
+	}
+
+	private static IStatus statusOn(OutputStream destination, IStatus status) {
+		if (destination instanceof IStateful)
+			((IStateful) destination).setStatus(status);
+		return status;
+	}
+
+	private synchronized PartialDownloadArea getPartialDownloadArea() {
+		if (partialDownloadArea == null)
+			partialDownloadArea = PartialDownloadArea.getArea(getProvisioningAgent());
+		return partialDownloadArea;
+	}
+
 	/**
 	 * Returns an equivalent mirror location for the given artifact location.
 	 * @param baseLocation The location of the artifact in this repository
@@ -580,8 +675,8 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return downloadArtifact(descriptor, destination, monitor);
 	}
 
-	public synchronized IArtifactDescriptor[] getArtifactDescriptors(IArtifactKey key) {
-		List<IArtifactDescriptor> result = artifactMap.get(key);
+	public IArtifactDescriptor[] getArtifactDescriptors(IArtifactKey key) {
+		List<IArtifactDescriptor> result = getArtifactMap().get(key);
 		if (result == null)
 			return new IArtifactDescriptor[0];
 
@@ -643,8 +738,8 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return (monitor.isCanceled() ? Status.CANCEL_STATUS : overallStatus);
 	}
 
-	public synchronized IArtifactDescriptor getCompleteArtifactDescriptor(IArtifactKey key) {
-		List<IArtifactDescriptor> descriptors = artifactMap.get(key);
+	public IArtifactDescriptor getCompleteArtifactDescriptor(IArtifactKey key) {
+		List<IArtifactDescriptor> descriptors = getArtifactMap().get(key);
 		if (descriptors == null)
 			return null;
 
@@ -678,7 +773,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return mapper.map(getLocation(), key.getClassifier(), key.getId(), key.getVersion().toString(), descriptor.getProperties());
 	}
 
-	public synchronized URI getLocation(IArtifactDescriptor descriptor) {
+	public URI getLocation(IArtifactDescriptor descriptor) {
 		if (flatButPackedEnabled(descriptor)) {
 			return getLocationForPackedButFlatArtifacts(descriptor);
 		}
@@ -809,7 +904,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return mappingRules;
 	}
 
-	private Transport getTransport() {
+	private RepositoryTransport getTransport() {
 		return RepositoryTransport.getInstance();
 	}
 
@@ -823,8 +918,9 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	}
 
 	private synchronized void initializeMapper() {
-		mapper = new Mapper();
-		mapper.initialize(Activator.getContext(), mappingRules);
+		Mapper newMapper = new Mapper();
+		newMapper.initialize(Activator.getContext(), mappingRules);
+		mapper = newMapper;
 	}
 
 	private boolean isFolderBased(IArtifactDescriptor descriptor) {
@@ -866,12 +962,15 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		boolean changed = false;
 		for (int i = 0; i < toRemove.length; i++)
 			changed |= doRemoveArtifact(toRemove[i]);
+		publishArtifactMap();
 		if (changed)
 			save();
 	}
 
 	public synchronized void removeDescriptor(IArtifactDescriptor descriptor) {
-		if (doRemoveArtifact(descriptor))
+		boolean changed = doRemoveArtifact(descriptor);
+		publishArtifactMap();
+		if (changed)
 			save();
 	}
 
@@ -880,6 +979,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		boolean changed = false;
 		for (int i = 0; i < toRemove.length; i++)
 			changed |= doRemoveArtifact(toRemove[i]);
+		publishArtifactMap();
 		if (changed)
 			save();
 	}
@@ -926,7 +1026,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	}
 
 	public void save() {
-		if (disableSave)
+		if (batchDepth > 0)
 			return;
 		boolean compress = "true".equalsIgnoreCase(getProperty(PROP_COMPRESSED)); //$NON-NLS-1$
 		save(compress);
@@ -1008,11 +1108,8 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	public IQueryable<IArtifactDescriptor> descriptorQueryable() {
 		return new IQueryable<IArtifactDescriptor>() {
 			public IQueryResult<IArtifactDescriptor> query(IQuery<IArtifactDescriptor> query, IProgressMonitor monitor) {
-				synchronized (SimpleArtifactRepository.this) {
-					snapshotNeeded = true;
-					Collection<List<IArtifactDescriptor>> descs = SimpleArtifactRepository.this.artifactMap.values();
-					return query.perform(new CompoundIterator<IArtifactDescriptor>(descs.iterator()));
-				}
+				Collection<List<IArtifactDescriptor>> descs = getArtifactMap().values();
+				return query.perform(new CompoundIterator<IArtifactDescriptor>(descs.iterator()));
 			}
 		};
 	}
@@ -1021,25 +1118,46 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return IndexProvider.query(this, query, monitor);
 	}
 
-	public synchronized Iterator<IArtifactKey> everything() {
-		snapshotNeeded = true;
-		return artifactMap.keySet().iterator();
+	public Iterator<IArtifactKey> everything() {
+		return Collections.unmodifiableSet(getArtifactMap().keySet()).iterator();
 	}
 
 	public IStatus executeBatch(IRunnableWithProgress runnable, IProgressMonitor monitor) {
+		synchronized (this) {
+			return runBatch(runnable, monitor);
+		}
+	}
+
+	/**
+	 * Executes a batch like {@link #executeBatch(IRunnableWithProgress, IProgressMonitor)}
+	 * without locking the repository while the runnable runs, so that the runnable may add
+	 * descriptors from several threads. Other threads may modify the repository while the
+	 * batch is in progress and batches may overlap, in which case the repository is saved
+	 * when the last batch in progress completes. The descriptors added or removed while
+	 * batches are in progress are seen by readers once the last batch completes.
+	 */
+	public IStatus executeConcurrentBatch(IRunnableWithProgress runnable, IProgressMonitor monitor) {
+		return runBatch(runnable, monitor);
+	}
+
+	private IStatus runBatch(IRunnableWithProgress runnable, IProgressMonitor monitor) {
 		IStatus result = null;
 		synchronized (this) {
-			try {
-				disableSave = true;
-				runnable.run(monitor);
-			} catch (OperationCanceledException oce) {
-				return new Status(IStatus.CANCEL, Activator.ID, oce.getMessage(), oce);
-			} catch (Throwable e) {
-				result = new Status(IStatus.ERROR, Activator.ID, e.getMessage(), e);
-			} finally {
-				disableSave = false;
+			batchDepth++;
+		}
+		try {
+			runnable.run(monitor);
+		} catch (OperationCanceledException oce) {
+			return new Status(IStatus.CANCEL, Activator.ID, oce.getMessage(), oce);
+		} catch (Throwable e) {
+			result = new Status(IStatus.ERROR, Activator.ID, e.getMessage(), e);
+		} finally {
+			synchronized (this) {
 				try {
-					save();
+					if (--batchDepth == 0) {
+						publishArtifactMap();
+						save();
+					}
 				} catch (Exception e) {
 					if (result != null)
 						result = new MultiStatus(Activator.ID, IStatus.ERROR, new IStatus[] {result}, e.getMessage(), e);
@@ -1053,12 +1171,18 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return result;
 	}
 
-	public synchronized IIndex<IArtifactKey> getIndex(String memberName) {
+	public IIndex<IArtifactKey> getIndex(String memberName) {
 		if (ArtifactKey.MEMBER_ID.equals(memberName)) {
-			snapshotNeeded = true;
-			if (keyIndex == null)
-				keyIndex = new KeyIndex(artifactMap.keySet());
-			return keyIndex;
+			Map<IArtifactKey, List<IArtifactDescriptor>> map = getArtifactMap();
+			// the changes in progress are indexed anew, the published maps are indexed once
+			if (map != artifactMap)
+				return new KeyIndex(map.keySet());
+			KeyIndexSnapshot snapshot = keyIndex;
+			if (snapshot == null || snapshot.artifactMap != map) {
+				snapshot = new KeyIndexSnapshot(map);
+				keyIndex = snapshot;
+			}
+			return snapshot.index;
 		}
 		return null;
 	}
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others. All rights reserved. This
+ * program and the accompanying materials are made available under the terms of
+ * the Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors: IBM Corporation - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.equinox.internal.p2.director;
+
+import java.util.*;
+import org.eclipse.equinox.internal.p2.core.helpers.Tracing;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.IRequirement;
+
+/**
+ * Remembers, across successive encodings of a problem by the {@link Projector}, the
+ * units matching each requirement. Looking up the matches of the requirements is the
+ * largest part of the encoding, and successive plans for the same profile mostly
+ * involve the same units.
+ * <p>
+ * Before each encoding the cache is given the units of the new problem. The cached
+ * matches of a requirement are discarded when a unit that is new to the problem or
+ * no longer part of it matches the requirement. When the selection context changes,
+ * or too many units changed, the cache is cleared.
+ * </p><p>
+ * The cache is not thread safe; it must be used by one encoding at a time.
+ * </p>
+ */
+public class EncodingCache {
+	/**
+	 * The fraction of the units that may change before the cache is cleared rather than updated.
+	 */
+	private static final int MAX_CHANGE_RATIO = 4;
+
+	static final class Matches {
+		final List<IInstallableUnit> applicable;
+		final boolean filtered;
+
+		Matches(List<IInstallableUnit> applicable, boolean filtered) {
+			this.applicable = applicable;
+			this.filtered = filtered;
+		}
+	}
+
+	private Map<String, String> selectionContext;
+	private Map<IInstallableUnit, Boolean> units = new IdentityHashMap<IInstallableUnit, Boolean>();
+	private final Map<IRequirement, Matches> matches = new HashMap<IRequirement, Matches>();
+	private int hits;
+	private int misses;
+
+	/**
+	 * Updates the cache for a problem with the given units and selection context.
+	 */
+	public void prepare(Collection<IInstallableUnit> newUnits, Map<String, String> newSelectionContext) {
+		hits = 0;
+		misses = 0;
+		Map<IInstallableUnit, Boolean> unitSet = new IdentityHashMap<IInstallableUnit, Boolean>(newUnits.size() * 2);
+		for (IInstallableUnit iu : newUnits)
+			unitSet.put(iu, Boolean.TRUE);
+
+		if (!newSelectionContext.equals(selectionContext)) {
+			matches.clear();
+		} else if (!matches.isEmpty()) {
+			List<IInstallableUnit> changed = new ArrayList<IInstallableUnit>();
+			for (IInstallableUnit iu : unitSet.keySet()) {
+				if (!units.containsKey(iu))
+					changed.add(iu);
+			}
+			for (IInstallableUnit iu : units.keySet()) {
+				if (!unitSet.containsKey(iu))
+					changed.add(iu);
+			}
+			if (changed.size() * MAX_CHANGE_RATIO > unitSet.size())
+				matches.clear();
+			else if (!changed.isEmpty())
+				invalidate(changed);
+		}
+		selectionContext = new HashMap<String, String>(newSelectionContext);
+		units = unitSet;
+	}
+
+	private void invalidate(List<IInstallableUnit> changed) {
+		for (Iterator<IRequirement> iterator = matches.keySet().iterator(); iterator.hasNext();) {
+			IRequirement req = iterator.next();
+			for (IInstallableUnit iu : changed) {
+				if (req.isMatch(iu)) {
+					iterator.remove();
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the cached matches of the given requirement, or <code>null</code>.
+	 */
+	Matches get(IRequirement req) {
+		Matches result = matches.get(req);
+		if (result == null)
+			misses++;
+		else
+			hits++;
+		return result;
+	}
+
+	void put(IRequirement req, List<IInstallableUnit> applicable, boolean filtered) {
+		matches.put(req, new Matches(Collections.unmodifiableList(applicable), filtered));
+	}
+
+	/**
+	 * Returns the number of requirements whose matches are cached.
+	 */
+	public int size() {
+		return matches.size();
+	}
+
+	void traceStatistics() {
+		Tracing.debug("Encoding cache: " + hits + " hits, " + misses + " misses, " + matches.size() + " entries"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+	}
+}
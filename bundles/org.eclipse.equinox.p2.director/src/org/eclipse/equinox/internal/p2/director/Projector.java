@@ -69,6 +69,8 @@ public class Projector {
 	private Map<IInstallableUnit, AbstractVariable> nonGreedyVariables = new HashMap<IInstallableUnit, AbstractVariable>();
 	private Map<AbstractVariable, List<Object>> nonGreedyProvider = new HashMap<AbstractVariable, List<Object>>(); //Keeps track of all the "object" that provide an IU that is non greedly requested  
 
+	private EncodingCache encodingCache;
+
 	static class AbstractVariable {
 		//		private String name;
 
@@ -155,6 +157,14 @@ public class Projector {
 		this.considerMetaRequirements = considerMetaRequirements;
 	}
 
+	/**
+	 * Sets the cache used to look up the matches of requirements during the encoding.
+	 * The cache is updated for the problem being encoded.
+	 */
+	public void setEncodingCache(EncodingCache cache) {
+		encodingCache = cache;
+	}
+
 	protected boolean isInstalled(IInstallableUnit iu) {
 		return !lastState.query(QueryUtil.createIUQuery(iu), null).isEmpty();
 	}
@@ -191,6 +201,8 @@ public class Projector {
 				iusToOrder.add(iusToEncode.next());
 			}
 			Collections.sort(iusToOrder);
+			if (encodingCache != null)
+				encodingCache.prepare(iusToOrder, selectionContext.getProperties());
 			iusToEncode = iusToOrder.iterator();
 			while (iusToEncode.hasNext()) {
 				if (monitor.isCanceled()) {
@@ -212,6 +224,8 @@ public class Projector {
 			if (DEBUG) {
 				long stop = System.currentTimeMillis();
 				Tracing.debug("Projection complete: " + (stop - start)); //$NON-NLS-1$
+				if (encodingCache != null)
+					encodingCache.traceStatistics();
 			}
 			if (DEBUG_ENCODING) {
 				System.out.println(solver.toString());
@@ -883,6 +897,13 @@ public class Projector {
 	 * @return a list of mandatory requirements if any, an empty list if req.isOptional().
 	 */
 	private List<IInstallableUnit> getApplicableMatches(IRequirement req) {
+		if (encodingCache != null) {
+			EncodingCache.Matches cached = encodingCache.get(req);
+			if (cached != null) {
+				emptyBecauseFiltered = cached.filtered;
+				return cached.applicable;
+			}
+		}
 		List<IInstallableUnit> target = new ArrayList<IInstallableUnit>();
 		IQueryResult<IInstallableUnit> matches = picker.query(QueryUtil.createMatchQuery(req.getMatches()), null);
 		for (Iterator<IInstallableUnit> iterator = matches.iterator(); iterator.hasNext();) {
@@ -892,6 +913,8 @@ public class Projector {
 			}
 		}
 		emptyBecauseFiltered = !matches.isEmpty() && target.isEmpty();
+		if (encodingCache != null)
+			encodingCache.put(req, target, emptyBecauseFiltered);
 		return target;
 	}
 
@@ -16,18 +16,21 @@ import java.util.List;
 import org.eclipse.equinox.internal.p2.core.helpers.CollectionUtils;
 import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
 import org.eclipse.equinox.internal.p2.metadata.TranslationSupport;
-import org.eclipse.equinox.internal.p2.metadata.index.CapabilityIndex;
-import org.eclipse.equinox.internal.p2.metadata.index.IndexProvider;
+import org.eclipse.equinox.internal.p2.metadata.index.*;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 import org.eclipse.equinox.p2.metadata.KeyWithLocale;
 import org.eclipse.equinox.p2.metadata.index.IIndex;
 
 public class QueryableArray extends IndexProvider<IInstallableUnit> {
+	private final IInstallableUnit[] units;
 	private final List<IInstallableUnit> dataSet;
 	private IIndex<IInstallableUnit> capabilityIndex;
+	private IIndex<IInstallableUnit> idIndex;
+	private SymbolTable symbols;
 	private TranslationSupport translationSupport;
 
 	public QueryableArray(IInstallableUnit[] ius) {
+		units = ius;
 		dataSet = CollectionUtils.unmodifiableList(ius);
 	}
 
@@ -38,12 +41,23 @@ public class QueryableArray extends IndexProvider<IInstallableUnit> {
 	public synchronized IIndex<IInstallableUnit> getIndex(String memberName) {
 		if (InstallableUnit.MEMBER_PROVIDED_CAPABILITIES.equals(memberName)) {
 			if (capabilityIndex == null)
-				capabilityIndex = new CapabilityIndex(dataSet.iterator());
+				capabilityIndex = new CompactCapabilityIndex(units, getSymbols());
 			return capabilityIndex;
 		}
+		if (InstallableUnit.MEMBER_ID.equals(memberName)) {
+			if (idIndex == null)
+				idIndex = new CompactIdIndex(units, getSymbols());
+			return idIndex;
+		}
 		return null;
 	}
 
+	private SymbolTable getSymbols() {
+		if (symbols == null)
+			symbols = new SymbolTable(units.length);
+		return symbols;
+	}
+
 	public synchronized Object getManagedProperty(Object client, String memberName, Object key) {
 		if (!(client instanceof IInstallableUnit))
 			return null;
@@ -11,6 +11,7 @@
  ******************************************************************************/
 package org.eclipse.equinox.internal.p2.director;
 
+import java.lang.ref.SoftReference;
 import java.lang.reflect.Method;
 import java.net.URI;
 import java.util.*;
@@ -21,9 +22,11 @@ import org.eclipse.equinox.internal.p2.director.Explanation.MissingIU;
 import org.eclipse.equinox.internal.p2.metadata.IRequiredCapability;
 import org.eclipse.equinox.internal.p2.metadata.query.UpdateQuery;
 import org.eclipse.equinox.internal.p2.rollback.FormerState;
+import org.eclipse.equinox.internal.provisional.p2.core.eventbus.*;
 import org.eclipse.equinox.internal.provisional.p2.director.*;
 import org.eclipse.equinox.p2.core.IAgentLocation;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
+import org.eclipse.equinox.p2.core.spi.IAgentService;
 import org.eclipse.equinox.p2.engine.*;
 import org.eclipse.equinox.p2.engine.query.IUProfilePropertyQuery;
 import org.eclipse.equinox.p2.metadata.*;
@@ -32,7 +35,7 @@ import org.eclipse.equinox.p2.planner.*;
 import org.eclipse.equinox.p2.query.*;
 import org.eclipse.osgi.util.NLS;
 
-public class SimplePlanner implements IPlanner {
+public class SimplePlanner implements IPlanner, IAgentService {
 	private static boolean DEBUG = Tracing.DEBUG_PLANNER_OPERANDS;
 
 	private static final int ExpandWork = 12;
@@ -41,6 +44,12 @@ public class SimplePlanner implements IPlanner {
 	private static final String ID_IU_FOR_ACTIONS = "org.eclipse.equinox.p2.engine.actions.root"; //$NON-NLS-1$
 	private static final String EXPLANATION = "org.eclipse.equinox.p2.director.explain"; //$NON-NLS-1$
 	private static final String CONSIDER_METAREQUIREMENTS = "org.eclipse.equinox.p2.planner.resolveMetaRequirements"; //$NON-NLS-1$
+	/**
+	 * Provisioning context property enabling the parallel expansion of the requirements by
+	 * the slicer. The value is either <code>true</code>, to use one thread per processor, or
+	 * the number of threads to use.
+	 */
+	public static final String PARALLEL_SLICING = "org.eclipse.equinox.p2.planner.parallelSlicing"; //$NON-NLS-1$
 
 	static final int UNSATISFIABLE = 1; //status code indicating that the problem is not satisfiable
 
@@ -48,6 +57,20 @@ public class SimplePlanner implements IPlanner {
 	private final IProfileRegistry profileRegistry;
 	private final IEngine engine;
 
+	// The encoding cache of the last profile planned for, softly referenced. The cache is
+	// taken out while it is in use so that concurrent plans for the same profile do not
+	// share it, and dropped when its profile is removed.
+	private final Object encodingCacheLock = new Object();
+	private String encodingCacheProfileId;
+	private SoftReference<EncodingCache> encodingCache;
+
+	private final ProvisioningListener profileListener = new SynchronousProvisioningListener() {
+		public void notify(EventObject o) {
+			if (o instanceof IProfileEvent && ((IProfileEvent) o).getReason() == IProfileEvent.REMOVED)
+				dropEncodingCache(((IProfileEvent) o).getProfileId());
+		}
+	};
+
 	private IProvisioningPlan generateProvisioningPlan(Collection<IInstallableUnit> fromState, Collection<IInstallableUnit> toState, ProfileChangeRequest changeRequest, IProvisioningPlan installerPlan, ProvisioningContext context) {
 		IProvisioningPlan plan = engine.createPlan(changeRequest.getProfile(), context);
 		planIUOperations(plan, fromState, toState);
@@ -282,6 +305,79 @@ public class SimplePlanner implements IPlanner {
 		Assert.isNotNull(profileRegistry);
 	}
 
+	/*(non-Javadoc)
+	 * @see org.eclipse.equinox.p2.core.spi.IAgentService#start()
+	 */
+	public void start() {
+		IProvisioningEventBus eventBus = (IProvisioningEventBus) agent.getService(IProvisioningEventBus.SERVICE_NAME);
+		if (eventBus != null)
+			eventBus.addListener(profileListener);
+	}
+
+	/*(non-Javadoc)
+	 * @see org.eclipse.equinox.p2.core.spi.IAgentService#stop()
+	 */
+	public void stop() {
+		IProvisioningEventBus eventBus = (IProvisioningEventBus) agent.getService(IProvisioningEventBus.SERVICE_NAME);
+		if (eventBus != null)
+			eventBus.removeListener(profileListener);
+		synchronized (encodingCacheLock) {
+			encodingCacheProfileId = null;
+			encodingCache = null;
+		}
+	}
+
+	private EncodingCache takeEncodingCache(String profileId) {
+		synchronized (encodingCacheLock) {
+			EncodingCache cache = null;
+			if (profileId.equals(encodingCacheProfileId)) {
+				cache = encodingCache.get();
+				encodingCacheProfileId = null;
+				encodingCache = null;
+			}
+			return cache == null ? new EncodingCache() : cache;
+		}
+	}
+
+	private void returnEncodingCache(String profileId, EncodingCache cache) {
+		synchronized (encodingCacheLock) {
+			encodingCacheProfileId = profileId;
+			encodingCache = new SoftReference<EncodingCache>(cache);
+		}
+	}
+
+	void dropEncodingCache(String profileId) {
+		synchronized (encodingCacheLock) {
+			if (profileId.equals(encodingCacheProfileId)) {
+				encodingCacheProfileId = null;
+				encodingCache = null;
+			}
+		}
+	}
+
+	/**
+	 * <em>Not for general use: public for testing purposes only.</em>
+	 * Returns whether an encoding cache is kept for the given profile.
+	 */
+	public boolean hasEncodingCache(String profileId) {
+		synchronized (encodingCacheLock) {
+			return profileId.equals(encodingCacheProfileId) && encodingCache.get() != null;
+		}
+	}
+
+	private static int getSlicingParallelism(ProvisioningContext context) {
+		String value = context == null ? null : context.getProperty(PARALLEL_SLICING);
+		if (value == null)
+			return 1;
+		if (Boolean.TRUE.toString().equalsIgnoreCase(value))
+			return Runtime.getRuntime().availableProcessors();
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			return 1;
+		}
+	}
+
 	private boolean satisfyMetaRequirements(Map<String, String> props) {
 		if (props == null)
 			return true;
@@ -316,6 +412,7 @@ public class SimplePlanner implements IPlanner {
 			IInstallableUnit[] availableIUs = gatherAvailableInstallableUnits(extraIUs.toArray(new IInstallableUnit[extraIUs.size()]), context, sub.newChild(ExpandWork / 4));
 
 			Slicer slicer = new Slicer(new QueryableArray(availableIUs), newSelectionContext, satisfyMetaRequirements(profileChangeRequest.getProfileProperties()));
+			slicer.setParallelism(getSlicingParallelism(context));
 			IQueryable<IInstallableUnit> slice = slicer.slice(new IInstallableUnit[] {(IInstallableUnit) updatedPlan[0]}, sub.newChild(ExpandWork / 4));
 			if (slice == null) {
 				IProvisioningPlan plan = engine.createPlan(profile, context);
@@ -324,9 +421,16 @@ public class SimplePlanner implements IPlanner {
 			}
 			@SuppressWarnings("unchecked")
 			final IQueryable<IInstallableUnit>[] queryables = new IQueryable[] {slice, new QueryableArray(profileChangeRequest.getAdditions().toArray(new IInstallableUnit[profileChangeRequest.getAdditions().size()]))};
-			slice = new CompoundQueryable<IInstallableUnit>(queryables);
+			slice = new CompoundQueryable<IInstallableUnit>(queryables, true);
 			Projector projector = new Projector(slice, newSelectionContext, slicer.getNonGreedyIUs(), satisfyMetaRequirements(profileChangeRequest.getProfileProperties()));
-			projector.encode((IInstallableUnit) updatedPlan[0], (IInstallableUnit[]) updatedPlan[1], profile, profileChangeRequest.getAdditions(), sub.newChild(ExpandWork / 4));
+			EncodingCache encodingCache = takeEncodingCache(profile.getProfileId());
+			projector.setEncodingCache(encodingCache);
+			try {
+				projector.encode((IInstallableUnit) updatedPlan[0], (IInstallableUnit[]) updatedPlan[1], profile, profileChangeRequest.getAdditions(), sub.newChild(ExpandWork / 4));
+			} finally {
+				projector.setEncodingCache(null);
+				returnEncodingCache(profile.getProfileId(), encodingCache);
+			}
 			IStatus s = projector.invokeSolver(sub.newChild(ExpandWork / 4));
 			if (s.getSeverity() == IStatus.CANCEL) {
 				IProvisioningPlan plan = engine.createPlan(profile, context);
@@ -13,6 +13,7 @@ package org.eclipse.equinox.internal.p2.director;
 
 import java.util.*;
 import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.p2.core.helpers.Tracing;
 import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
@@ -24,6 +25,10 @@ import org.eclipse.osgi.util.NLS;
 
 public class Slicer {
 	private static boolean DEBUG = false;
+	/**
+	 * The number of units of a frontier expanded by one task in parallel mode.
+	 */
+	private static final int CHUNK_SIZE = 16;
 	private final IQueryable<IInstallableUnit> possibilites;
 	private final boolean considerMetaRequirements;
 	protected final IInstallableUnit selectionContext;
@@ -33,6 +38,23 @@ public class Slicer {
 	private LinkedList<IInstallableUnit> toProcess;
 	private Set<IInstallableUnit> considered; //IUs to add to the slice
 	private Set<IInstallableUnit> nonGreedyIUs = new HashSet<IInstallableUnit>(); //IUs that are brought in by non greedy dependencies
+	private int parallelism = 1;
+
+	/**
+	 * The outcome of expanding the requirements of one unit. Expansions are computed
+	 * without touching the state of the slicer so that they can be computed concurrently,
+	 * and are then applied in the order the units were queued.
+	 */
+	private static final class Expansion {
+		final IInstallableUnit iu;
+		final List<IInstallableUnit> matches = new ArrayList<IInstallableUnit>();
+		final List<IInstallableUnit> nonGreedy = new ArrayList<IInstallableUnit>();
+		final List<IStatus> problems = new ArrayList<IStatus>(1);
+
+		Expansion(IInstallableUnit iu) {
+			this.iu = iu;
+		}
+	}
 
 	public Slicer(IQueryable<IInstallableUnit> input, Map<String, String> context, boolean considerMetaRequirements) {
 		this(input, InstallableUnit.contextIU(context), considerMetaRequirements);
@@ -46,6 +68,19 @@ public class Slicer {
 		result = new MultiStatus(DirectorActivator.PI_DIRECTOR, IStatus.OK, Messages.Planner_Problems_resolving_plan, null);
 	}
 
+	/**
+	 * Sets the number of threads used to expand the requirements of the units being sliced.
+	 * With more than one thread, all the units at the same distance from the roots are
+	 * expanded concurrently. The resulting slice and status are the same as when slicing
+	 * with a single thread, provided the queryable the slicer was created with can be
+	 * queried concurrently.
+	 * 
+	 * @param parallelism the number of threads, <code>1</code> (the default) to slice in the calling thread
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
 	public IQueryable<IInstallableUnit> slice(IInstallableUnit[] ius, IProgressMonitor monitor) {
 		try {
 			long start = 0;
@@ -57,12 +92,13 @@ public class Slicer {
 			validateInput(ius);
 			considered = new HashSet<IInstallableUnit>(Arrays.asList(ius));
 			toProcess = new LinkedList<IInstallableUnit>(considered);
-			while (!toProcess.isEmpty()) {
-				if (monitor.isCanceled()) {
-					result.merge(Status.CANCEL_STATUS);
-					throw new OperationCanceledException();
+			if (parallelism > 1) {
+				processInParallel(monitor);
+			} else {
+				while (!toProcess.isEmpty()) {
+					checkCanceled(monitor);
+					processIU(toProcess.removeFirst());
 				}
-				processIU(toProcess.removeFirst());
 			}
 			if (DEBUG) {
 				long stop = System.currentTimeMillis();
@@ -78,6 +114,125 @@ public class Slicer {
 		return new QueryableArray(considered.toArray(new IInstallableUnit[considered.size()]));
 	}
 
+	private void checkCanceled(IProgressMonitor monitor) {
+		if (monitor.isCanceled()) {
+			result.merge(Status.CANCEL_STATUS);
+			throw new OperationCanceledException();
+		}
+	}
+
+	/*
+	 * Processes the queue one frontier at a time. The units of a frontier are expanded
+	 * concurrently, then the expansions are applied in queue order, which queues the next
+	 * frontier and reports the problems in the same order as the sequential traversal.
+	 */
+	private void processInParallel(IProgressMonitor monitor) {
+		while (!toProcess.isEmpty()) {
+			checkCanceled(monitor);
+			IInstallableUnit[] frontier = toProcess.toArray(new IInstallableUnit[toProcess.size()]);
+			toProcess.clear();
+			Expansion[] expansions = new Expansion[frontier.length];
+			if (frontier.length <= CHUNK_SIZE) {
+				for (int i = 0; i < frontier.length; i++)
+					expansions[i] = expand(frontier[i]);
+			} else {
+				expandInParallel(frontier, expansions, monitor);
+				checkCanceled(monitor);
+			}
+			for (int i = 0; i < expansions.length; i++)
+				apply(expansions[i]);
+		}
+	}
+
+	/*
+	 * Expands the units of a frontier in chunks handed out to the calling thread and to at most
+	 * parallelism - 1 jobs. The calling thread claims chunks as well and only waits for the jobs
+	 * that have started, so the frontier is expanded even when no job gets to run, for instance
+	 * while the job manager is suspended.
+	 */
+	private void expandInParallel(final IInstallableUnit[] frontier, final Expansion[] expansions, final IProgressMonitor monitor) {
+		// the index of the next chunk and the number of jobs at work, guarded by next
+		final int[] next = new int[1];
+		final int[] running = new int[1];
+		final Throwable[] failure = new Throwable[1];
+		final Runnable expander = new Runnable() {
+			public void run() {
+				while (!monitor.isCanceled()) {
+					int start;
+					synchronized (next) {
+						start = next[0]++ * CHUNK_SIZE;
+					}
+					if (start >= frontier.length)
+						return;
+					int end = Math.min(start + CHUNK_SIZE, frontier.length);
+					for (int i = start; i < end; i++)
+						expansions[i] = expand(frontier[i]);
+				}
+			}
+		};
+		int helpers = Math.min(parallelism, (frontier.length + CHUNK_SIZE - 1) / CHUNK_SIZE) - 1;
+		Job[] jobs = new Job[helpers];
+		for (int i = 0; i < helpers; i++) {
+			jobs[i] = new Job("Slicer") { //$NON-NLS-1$
+				protected IStatus run(IProgressMonitor jobMonitor) {
+					synchronized (next) {
+						if (next[0] * CHUNK_SIZE >= frontier.length)
+							return Status.OK_STATUS;
+						running[0]++;
+					}
+					try {
+						expander.run();
+					} catch (RuntimeException e) {
+						fail(e);
+					} catch (Error e) {
+						fail(e);
+					} finally {
+						synchronized (next) {
+							running[0]--;
+							next.notifyAll();
+						}
+					}
+					return Status.OK_STATUS;
+				}
+
+				private void fail(Throwable t) {
+					synchronized (next) {
+						if (failure[0] == null)
+							failure[0] = t;
+					}
+				}
+			};
+			jobs[i].setSystem(true);
+			jobs[i].schedule();
+		}
+		try {
+			expander.run();
+		} finally {
+			for (int i = 0; i < helpers; i++)
+				jobs[i].cancel();
+			waitFor(next, running);
+		}
+		if (failure[0] instanceof RuntimeException)
+			throw (RuntimeException) failure[0];
+		if (failure[0] instanceof Error)
+			throw (Error) failure[0];
+	}
+
+	private static void waitFor(Object lock, int[] running) {
+		boolean interrupted = false;
+		synchronized (lock) {
+			while (running[0] > 0) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
 	public MultiStatus getStatus() {
 		return result;
 	}
@@ -102,33 +257,51 @@ public class Slicer {
 	}
 
 	protected void processIU(IInstallableUnit iu) {
-		iu = iu.unresolved();
-
-		Map<Version, IInstallableUnit> iuSlice = slice.get(iu.getId());
-		if (iuSlice == null) {
+		apply(expand(iu));
+	}
 
-			iuSlice = new HashMap<Version, IInstallableUnit>();
-			slice.put(iu.getId(), iuSlice);
-		}
-		iuSlice.put(iu.getVersion(), iu);
-		if (!isApplicable(iu)) {
-			return;
-		}
+	/*
+	 * Computes the expansion of the given unit. This must not modify the state of the slicer
+	 * since expansions are computed concurrently in parallel mode.
+	 */
+	private Expansion expand(IInstallableUnit iu) {
+		Expansion expansion = new Expansion(iu.unresolved());
+		if (!isApplicable(expansion.iu))
+			return expansion;
 
-		Collection<IRequirement> reqs = getRequirements(iu);
-		if (reqs.isEmpty())
-			return;
+		Collection<IRequirement> reqs = getRequirements(expansion.iu);
 		for (IRequirement req : reqs) {
 			if (!isApplicable(req))
 				continue;
 
 			if (!isGreedy(req)) {
-				nonGreedyIUs.addAll(possibilites.query(QueryUtil.createMatchQuery(req.getMatches()), null).toUnmodifiableSet());
+				expansion.nonGreedy.addAll(possibilites.query(QueryUtil.createMatchQuery(req.getMatches()), null).toUnmodifiableSet());
 				continue;
 			}
 
-			expandRequirement(iu, req);
+			expandRequirement(expansion, req);
 		}
+		return expansion;
+	}
+
+	private void apply(Expansion expansion) {
+		IInstallableUnit iu = expansion.iu;
+		Map<Version, IInstallableUnit> iuSlice = slice.get(iu.getId());
+		if (iuSlice == null) {
+
+			iuSlice = new HashMap<Version, IInstallableUnit>();
+			slice.put(iu.getId(), iuSlice);
+		}
+		iuSlice.put(iu.getVersion(), iu);
+
+		nonGreedyIUs.addAll(expansion.nonGreedy);
+		for (IInstallableUnit match : expansion.matches) {
+			Map<Version, IInstallableUnit> matchSlice = slice.get(match.getId());
+			if (matchSlice == null || !matchSlice.containsKey(match.getVersion()))
+				consider(match);
+		}
+		for (IStatus problem : expansion.problems)
+			result.add(problem);
 	}
 
 	protected boolean isGreedy(IRequirement req) {
@@ -161,7 +334,7 @@ public class Slicer {
 		return aggregatedRequirements;
 	}
 
-	private void expandRequirement(IInstallableUnit iu, IRequirement req) {
+	private void expandRequirement(Expansion expansion, IRequirement req) {
 		if (req.getMax() == 0)
 			return;
 		IQueryResult<IInstallableUnit> matches = possibilites.query(QueryUtil.createMatchQuery(req.getMatches()), null);
@@ -171,17 +344,15 @@ public class Slicer {
 			if (!isApplicable(match))
 				continue;
 			validMatches++;
-			Map<Version, IInstallableUnit> iuSlice = slice.get(match.getId());
-			if (iuSlice == null || !iuSlice.containsKey(match.getVersion()))
-				consider(match);
+			expansion.matches.add(match);
 		}
 
 		if (validMatches == 0) {
 			if (req.getMin() == 0) {
 				if (DEBUG)
-					System.out.println("No IU found to satisfy optional dependency of " + iu + " on req " + req); //$NON-NLS-1$//$NON-NLS-2$
+					System.out.println("No IU found to satisfy optional dependency of " + expansion.iu + " on req " + req); //$NON-NLS-1$//$NON-NLS-2$
 			} else {
-				result.add(new Status(IStatus.WARNING, DirectorActivator.PI_DIRECTOR, NLS.bind(Messages.Planner_Unsatisfied_dependency, iu, req)));
+				expansion.problems.add(new Status(IStatus.WARNING, DirectorActivator.PI_DIRECTOR, NLS.bind(Messages.Planner_Unsatisfied_dependency, expansion.iu, req)));
 			}
 		}
 	}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2009 IBM Corporation and others.
+ * Copyright (c) 2007, 2010 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -23,6 +23,9 @@ import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactRequest;
 
 public class DownloadManager {
+	private static final int DEFAULT_DOWNLOAD_THREADS = 16;
+	private static final int DEFAULT_DOWNLOAD_THREADS_PER_HOST = 4;
+
 	private ProvisioningContext provContext = null;
 	ArrayList<IArtifactRequest> requestsToProcess = new ArrayList<IArtifactRequest>();
 	private IProvisioningAgent agent = null;
@@ -82,6 +85,30 @@ public class DownloadManager {
 	}
 
 	private void fetch(IArtifactRepository[] repositories, IProgressMonitor mon) {
+		int threads = getIntProperty(EngineActivator.PROP_DOWNLOAD_THREADS, DEFAULT_DOWNLOAD_THREADS);
+		if (threads <= 1) {
+			fetchSequentially(repositories, mon);
+			return;
+		}
+		int threadsPerHost = getIntProperty(EngineActivator.PROP_DOWNLOAD_THREADS_PER_HOST, DEFAULT_DOWNLOAD_THREADS_PER_HOST);
+		DownloadScheduler scheduler = new DownloadScheduler(repositories, requestsToProcess, threads, threadsPerHost);
+		scheduler.run(mon);
+		filterUnfetched();
+	}
+
+	private static int getIntProperty(String key, int defaultValue) {
+		String value = EngineActivator.getContext().getProperty(key);
+		if (value != null) {
+			try {
+				return Integer.parseInt(value);
+			} catch (NumberFormatException e) {
+				// use the default
+			}
+		}
+		return defaultValue;
+	}
+
+	private void fetchSequentially(IArtifactRepository[] repositories, IProgressMonitor mon) {
 		SubMonitor monitor = SubMonitor.convert(mon, requestsToProcess.size());
 		for (int i = 0; i < repositories.length && !requestsToProcess.isEmpty() && !monitor.isCanceled(); i++) {
 			IArtifactRequest[] requests = getRequestsForRepository(repositories[i]);
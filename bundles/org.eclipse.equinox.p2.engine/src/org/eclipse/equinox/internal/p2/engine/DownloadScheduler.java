@@ -0,0 +1,457 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+import java.net.URI;
+import java.util.*;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.equinox.p2.metadata.IArtifactKey;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactRequest;
+
+/**
+ * Processes artifact requests against a set of repositories from a single work queue.
+ * <p>
+ * Every request is assigned to one of the repositories containing its artifact. Among
+ * those, a repository on the local file system is preferred, otherwise the request is
+ * given to the repository whose host currently has the fewest downloads in progress.
+ * The number of concurrent downloads from one remote host is bounded. When a repository
+ * fails to provide an artifact, the request is queued again for the remaining repositories
+ * containing the artifact, in the order the repositories were given.
+ * </p><p>
+ * The scheduler starts with a few workers and adjusts their number to the measured
+ * throughput: a worker is added as long as adding the previous one increased the
+ * throughput, and removed again when it did not. The workers are jobs; while none
+ * of them is running, for instance because the job manager is suspended, the thread
+ * running the scheduler processes the requests itself.
+ * </p>
+ */
+public class DownloadScheduler {
+	/**
+	 * The interval in milliseconds at which the throughput is measured.
+	 */
+	private static final long SAMPLE_INTERVAL = 1000;
+	/**
+	 * The minimal throughput increase after adding a worker for the worker to be kept.
+	 */
+	private static final double GROWTH_THRESHOLD = 1.05;
+	/**
+	 * The number of samples to wait before adding a worker again after removing one.
+	 */
+	private static final int HOLD_SAMPLES = 5;
+	private static final int INITIAL_WORKERS = 4;
+	/**
+	 * The size assumed for artifacts whose download size is unknown.
+	 */
+	private static final long NOMINAL_ARTIFACT_SIZE = 64 * 1024;
+
+	private static final class Download {
+		final IArtifactRequest request;
+		final IArtifactRepository[] candidates;
+		final boolean[] tried;
+		int current = -1;
+
+		Download(IArtifactRequest request, IArtifactRepository[] candidates) {
+			this.request = request;
+			this.candidates = candidates;
+			this.tried = new boolean[candidates.length];
+		}
+	}
+
+	private static final class Host {
+		final int limit;
+		int active;
+
+		Host(int limit) {
+			this.limit = limit;
+		}
+
+		boolean isAvailable() {
+			return limit <= 0 || active < limit;
+		}
+	}
+
+	/**
+	 * The monitor given to the repositories for a download. Progress is not reported
+	 * since the downloads run concurrently, but the download is canceled as soon as the
+	 * worker, the scheduler or the caller of the scheduler is canceled.
+	 */
+	private final class DownloadMonitor extends NullProgressMonitor {
+		private final IProgressMonitor workerMonitor;
+
+		DownloadMonitor(IProgressMonitor workerMonitor) {
+			this.workerMonitor = workerMonitor;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.eclipse.core.runtime.NullProgressMonitor#isCanceled()
+		 */
+		public boolean isCanceled() {
+			if (super.isCanceled() || canceled || workerMonitor.isCanceled())
+				return true;
+			IProgressMonitor caller = callerMonitor;
+			return caller != null && caller.isCanceled();
+		}
+	}
+
+	private final class Worker extends Job {
+		Worker() {
+			super(Messages.download_artifact);
+			setSystem(true);
+		}
+
+		/* (non-Javadoc)
+		 * @see org.eclipse.core.runtime.jobs.Job#belongsTo(java.lang.Object)
+		 */
+		public boolean belongsTo(Object family) {
+			return family == DownloadScheduler.this;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.eclipse.core.runtime.jobs.Job#run(org.eclipse.core.runtime.IProgressMonitor)
+		 */
+		protected IStatus run(IProgressMonitor monitor) {
+			synchronized (DownloadScheduler.this) {
+				if (canceled || remaining == 0) {
+					// the work has been done without this worker
+					workers--;
+					return Status.OK_STATUS;
+				}
+				running++;
+			}
+			IProgressMonitor downloadMonitor = new DownloadMonitor(monitor);
+			Download download;
+			while ((download = take()) != null)
+				perform(download, downloadMonitor);
+			return Status.OK_STATUS;
+		}
+	}
+
+	private final IArtifactRepository[] repositories;
+	private final int maxWorkers;
+	private final int maxPerHost;
+	private final LinkedList<Download> pending = new LinkedList<Download>();
+	private final Map<String, Host> hosts = new HashMap<String, Host>();
+	private int remaining;
+	private int processed;
+	// the workers scheduled, and those of them that have started
+	private int workers;
+	private int running;
+	private int targetWorkers;
+	// Read without holding the lock by the monitors of the downloads in progress
+	private volatile boolean canceled;
+	private volatile IProgressMonitor callerMonitor;
+	private long completedBytes;
+
+	// Adaptation state, only accessed by the thread running the scheduler
+	private double lastThroughput = -1;
+	private boolean lastGrew;
+	private int hold;
+
+	/**
+	 * Creates a scheduler for the given requests.
+	 *
+	 * @param repositories the repositories to download from, in the order of preference
+	 * @param requests the requests to process
+	 * @param maxWorkers the maximal number of concurrent downloads
+	 * @param maxPerHost the maximal number of concurrent downloads from one remote host,
+	 * or <code>0</code> for no limit
+	 */
+	public DownloadScheduler(IArtifactRepository[] repositories, Collection<IArtifactRequest> requests, int maxWorkers, int maxPerHost) {
+		this.repositories = repositories;
+		this.maxWorkers = Math.max(1, maxWorkers);
+		this.maxPerHost = Math.max(0, maxPerHost);
+		for (IArtifactRequest request : requests)
+			addRequest(request);
+	}
+
+	private void addRequest(IArtifactRequest request) {
+		IArtifactKey key = request.getArtifactKey();
+		ArrayList<IArtifactRepository> candidates = new ArrayList<IArtifactRepository>(repositories.length);
+		for (int i = 0; i < repositories.length; i++) {
+			if (repositories[i].contains(key))
+				candidates.add(repositories[i]);
+		}
+		if (candidates.isEmpty())
+			return;
+		for (IArtifactRepository candidate : candidates) {
+			String host = getHost(candidate);
+			if (!hosts.containsKey(host))
+				hosts.put(host, new Host(isLocal(candidate) ? 0 : maxPerHost));
+		}
+		pending.add(new Download(request, candidates.toArray(new IArtifactRepository[candidates.size()])));
+		remaining++;
+	}
+
+	private static String getHost(IArtifactRepository repository) {
+		URI location = repository.getLocation();
+		if (location == null)
+			return ""; //$NON-NLS-1$
+		String host = location.getHost();
+		if (host != null)
+			return host + ':' + location.getPort();
+		return location.getScheme() == null ? "" : location.getScheme(); //$NON-NLS-1$
+	}
+
+	private static boolean isLocal(IArtifactRepository repository) {
+		URI location = repository.getLocation();
+		if (location == null || location.getHost() != null)
+			return false;
+		String scheme = location.getScheme();
+		return "file".equals(scheme) || "jar".equals(scheme); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Returns the number of requests that can be processed by at least one of the repositories.
+	 */
+	public synchronized int getRequestCount() {
+		return remaining + processed;
+	}
+
+	/**
+	 * Processes the requests and returns when all of them have been attempted against
+	 * every repository containing their artifact, or the monitor has been canceled.
+	 * The outcome of each request is available from the request itself.
+	 *
+	 * @return {@link Status#CANCEL_STATUS} if the downloads were canceled, and
+	 * {@link Status#OK_STATUS} otherwise
+	 */
+	public IStatus run(IProgressMonitor monitor) {
+		SubMonitor subMonitor = SubMonitor.convert(monitor, getRequestCount());
+		callerMonitor = monitor;
+		try {
+			synchronized (this) {
+				targetWorkers = Math.min(Math.min(INITIAL_WORKERS, maxWorkers), remaining);
+				for (int i = 0; i < targetWorkers; i++)
+					startWorker();
+			}
+			int reported = 0;
+			long sampleStart = System.currentTimeMillis();
+			long sampleBytes = 0;
+			IProgressMonitor downloadMonitor = new DownloadMonitor(new NullProgressMonitor());
+			while (true) {
+				int done;
+				Download download = null;
+				synchronized (this) {
+					if (!canceled && subMonitor.isCanceled()) {
+						canceled = true;
+						notifyAll();
+					}
+					if (remaining == 0 || (canceled && running == 0))
+						break;
+					// do the work of the workers that have not started
+					if (running == 0 && !canceled)
+						download = claim();
+					if (download == null) {
+						try {
+							wait(SAMPLE_INTERVAL);
+						} catch (InterruptedException e) {
+							canceled = true;
+							notifyAll();
+						}
+					}
+				}
+				if (download != null)
+					perform(download, downloadMonitor);
+				synchronized (this) {
+					done = processed;
+					long now = System.currentTimeMillis();
+					if (!canceled && now - sampleStart >= SAMPLE_INTERVAL) {
+						adapt((double) (completedBytes - sampleBytes) / (now - sampleStart));
+						sampleStart = now;
+						sampleBytes = completedBytes;
+					}
+				}
+				subMonitor.worked(done - reported);
+				reported = done;
+			}
+			// wait for the workers to leave before handing the results back
+			Job.getJobManager().cancel(this);
+			synchronized (this) {
+				notifyAll();
+				while (running > 0) {
+					try {
+						wait(SAMPLE_INTERVAL);
+					} catch (InterruptedException e) {
+						break;
+					}
+				}
+			}
+			return canceled ? Status.CANCEL_STATUS : Status.OK_STATUS;
+		} finally {
+			callerMonitor = null;
+			subMonitor.done();
+		}
+	}
+
+	/**
+	 * Adjusts the number of workers to the throughput of the last sample. Must be
+	 * called while holding the lock of the scheduler.
+	 */
+	private void adapt(double throughput) {
+		boolean grow = false;
+		if (lastGrew && throughput < lastThroughput * GROWTH_THRESHOLD) {
+			// the last worker did not pay off
+			if (targetWorkers > 1)
+				targetWorkers--;
+			hold = HOLD_SAMPLES;
+		} else if (hold > 0) {
+			hold--;
+		} else {
+			grow = targetWorkers < maxWorkers && pending.size() > 0;
+		}
+		lastThroughput = throughput;
+		lastGrew = grow;
+		if (grow) {
+			targetWorkers++;
+			if (workers < targetWorkers)
+				startWorker();
+		}
+		notifyAll();
+	}
+
+	private void startWorker() {
+		workers++;
+		new Worker().schedule();
+	}
+
+	/**
+	 * Returns the next download to process, or <code>null</code> if the calling
+	 * worker should stop.
+	 */
+	synchronized Download take() {
+		while (true) {
+			if (canceled || remaining == 0 || workers > targetWorkers) {
+				workers--;
+				running--;
+				notifyAll();
+				return null;
+			}
+			Download download = claim();
+			if (download != null)
+				return download;
+			// all pending downloads wait for a busy host, or failures may still be queued again
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				canceled = true;
+			}
+		}
+	}
+
+	/**
+	 * Removes the next download that can be processed from the queue and returns it, or
+	 * returns <code>null</code> if there is none. Must be called while holding the lock
+	 * of the scheduler.
+	 */
+	private Download claim() {
+		for (Iterator<Download> iterator = pending.iterator(); iterator.hasNext();) {
+			Download download = iterator.next();
+			int index = select(download);
+			if (index < 0)
+				continue;
+			iterator.remove();
+			download.tried[index] = true;
+			download.current = index;
+			hosts.get(getHost(download.candidates[index])).active++;
+			return download;
+		}
+		return null;
+	}
+
+	void perform(Download download, IProgressMonitor downloadMonitor) {
+		IArtifactRepository repository = download.candidates[download.current];
+		IStatus status;
+		try {
+			status = repository.getArtifacts(new IArtifactRequest[] {download.request}, downloadMonitor);
+		} catch (RuntimeException e) {
+			status = new Status(IStatus.ERROR, EngineActivator.ID, e.getMessage(), e);
+		}
+		completed(download, repository, status);
+	}
+
+	/**
+	 * Returns the index of the candidate to use for the given download, or <code>-1</code>
+	 * if all untried candidates are on hosts that are busy.
+	 */
+	private int select(Download download) {
+		int best = -1;
+		int bestActive = Integer.MAX_VALUE;
+		for (int i = 0; i < download.candidates.length; i++) {
+			if (download.tried[i])
+				continue;
+			Host host = hosts.get(getHost(download.candidates[i]));
+			if (!host.isAvailable())
+				continue;
+			if (host.limit <= 0)
+				return i;
+			if (host.active < bestActive) {
+				best = i;
+				bestActive = host.active;
+			}
+		}
+		return best;
+	}
+
+	void completed(Download download, IArtifactRepository repository, IStatus status) {
+		long size = 0;
+		if (status.isOK())
+			size = getDownloadSize(repository, download.request.getArtifactKey());
+		synchronized (this) {
+			hosts.get(getHost(repository)).active--;
+			if (status.getSeverity() == IStatus.CANCEL) {
+				canceled = true;
+			} else if (isDone(download)) {
+				remaining--;
+				processed++;
+				completedBytes += size;
+			} else {
+				pending.addFirst(download);
+			}
+			notifyAll();
+		}
+	}
+
+	private static boolean isDone(Download download) {
+		IStatus result = download.request.getResult();
+		if (result != null && result.isOK())
+			return true;
+		for (int i = 0; i < download.tried.length; i++) {
+			if (!download.tried[i])
+				return false;
+		}
+		return true;
+	}
+
+	private static long getDownloadSize(IArtifactRepository repository, IArtifactKey key) {
+		IArtifactDescriptor[] descriptors;
+		try {
+			descriptors = repository.getArtifactDescriptors(key);
+		} catch (RuntimeException e) {
+			return NOMINAL_ARTIFACT_SIZE;
+		}
+		if (descriptors != null) {
+			for (int i = 0; i < descriptors.length; i++) {
+				String size = descriptors[i].getProperty(IArtifactDescriptor.DOWNLOAD_SIZE);
+				if (size != null) {
+					try {
+						return Long.parseLong(size);
+					} catch (NumberFormatException e) {
+						// try the next descriptor
+					}
+				}
+			}
+		}
+		return NOMINAL_ARTIFACT_SIZE;
+	}
+}
@@ -28,6 +28,27 @@ public class EngineActivator implements BundleActivator {
 	 */
 	public static final String PROFILE_FORMAT_UNCOMPRESSED = "uncompressed"; //$NON-NLS-1$
 
+	/**
+	 * System property enabling journaled profile persistence. When set to "true" an update of
+	 * a profile is appended as a delta to the journal of the latest complete profile file rather
+	 * than writing a complete new profile file. Profile registries written in this mode cannot be
+	 * read correctly by engines that do not know about profile journals.
+	 */
+	public static final String PROP_PROFILE_JOURNAL = "eclipse.p2.profileJournal"; //$NON-NLS-1$
+
+	/**
+	 * System property specifying the maximal number of artifacts downloaded concurrently
+	 * across all repositories. A value of 1 downloads from one repository at a time, leaving
+	 * it to each repository whether to download its artifacts concurrently.
+	 */
+	public static final String PROP_DOWNLOAD_THREADS = "eclipse.p2.download.threads"; //$NON-NLS-1$
+
+	/**
+	 * System property specifying the maximal number of artifacts downloaded concurrently
+	 * from a single remote host. A value of 0 means no limit.
+	 */
+	public static final String PROP_DOWNLOAD_THREADS_PER_HOST = "eclipse.p2.download.threadsPerHost"; //$NON-NLS-1$
+
 	/**
 	 * System property specifying how the engine should handle unsigned artifacts.
 	 * If this property is undefined, the default value is assumed to be "prompt".
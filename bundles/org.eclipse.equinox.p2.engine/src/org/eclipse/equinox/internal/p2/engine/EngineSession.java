@@ -42,6 +42,9 @@ public class EngineSession {
 	boolean currentPhaseActive;
 
 	private List<ActionsRecord> currentActionRecords;
+	// the operand being performed by each thread while the operands of a phase are performed concurrently, null otherwise
+	private Map<Thread, ActionsRecord> concurrentRecords;
+	// the operand most recently started
 	private ActionsRecord currentRecord;
 
 	private IProfile profile;
@@ -165,6 +168,7 @@ public class EngineSession {
 			}
 			currentPhaseActive = false;
 			currentActionRecords = null;
+			concurrentRecords = null;
 			currentRecord = null;
 		}
 		currentPhase = null;
@@ -291,38 +295,52 @@ public class EngineSession {
 			debugPhaseExit(phase);
 	}
 
-	void recordOperandStart(Operand operand) {
+	/**
+	 * Sets whether the operands of the current phase are performed concurrently, in which
+	 * case the operand started by each thread is recorded separately.
+	 */
+	synchronized void setConcurrentOperands(boolean concurrent) {
+		concurrentRecords = concurrent ? new HashMap<Thread, ActionsRecord>() : null;
+	}
+
+	synchronized void recordOperandStart(Operand operand) {
 		if (operand == null)
 			throw new IllegalArgumentException(Messages.null_operand);
 
-		if (currentRecord != null)
+		if (getOperandRecord() != null)
 			throw new IllegalStateException(Messages.operand_started);
 
 		currentRecord = new ActionsRecord(operand);
+		if (concurrentRecords != null)
+			concurrentRecords.put(Thread.currentThread(), currentRecord);
 		currentActionRecords.add(currentRecord);
 
 		if (DebugHelper.DEBUG_ENGINE_SESSION)
 			debugOperandStart(operand);
 	}
 
-	void recordOperandEnd(Operand operand) {
-		if (currentRecord == null)
+	synchronized void recordOperandEnd(Operand operand) {
+		ActionsRecord record = getOperandRecord();
+		if (record == null)
 			throw new IllegalStateException(Messages.operand_not_started);
 
-		if (currentRecord.operand != operand)
+		if (record.operand != operand)
 			throw new IllegalArgumentException(Messages.not_current_operand);
 
-		currentRecord = null;
+		if (concurrentRecords != null)
+			concurrentRecords.remove(Thread.currentThread());
+		if (currentRecord == record)
+			currentRecord = null;
 
 		if (DebugHelper.DEBUG_ENGINE_SESSION)
 			debugOperandEnd(operand);
 	}
 
-	void recordActionExecute(ProvisioningAction action, Map<String, Object> parameters) {
+	synchronized void recordActionExecute(ProvisioningAction action, Map<String, Object> parameters) {
 		if (action == null)
 			throw new IllegalArgumentException(Messages.null_action);
 
-		currentRecord.actions.add(action);
+		getOperandRecord().actions.add(action);
 
 		Touchpoint touchpoint = action.getTouchpoint();
 		if (touchpoint != null)
@@ -337,7 +355,7 @@ public class EngineSession {
 			debugActionUndo(action, parameters);
 	}
 
-	public String getContextString(Phase phase, Operand operand, ProvisioningAction action) {
+	public synchronized String getContextString(Phase phase, Operand operand, ProvisioningAction action) {
 		if (action instanceof ParameterizedProvisioningAction) {
 			ParameterizedProvisioningAction parameterizedAction = (ParameterizedProvisioningAction) action;
 			action = parameterizedAction.getAction();
@@ -346,16 +364,34 @@ public class EngineSession {
 		return message;
 	}
 
-	public String getContextString() {
+	public synchronized String getContextString() {
 		String message = NLS.bind(Messages.session_context, new Object[] {profile.getProfileId(), getCurrentPhaseId(), getCurrentOperandId(), getCurrentActionId()});
 		return message;
 	}
 
+	/**
+	 * Returns the operand performed by the calling thread.
+	 */
+	private ActionsRecord getOperandRecord() {
+		if (concurrentRecords == null)
+			return currentRecord;
+		return concurrentRecords.get(Thread.currentThread());
+	}
+
+	/**
+	 * Returns the operand performed by the calling thread, or the operand most recently started.
+	 */
+	private ActionsRecord getCurrentRecord() {
+		ActionsRecord record = getOperandRecord();
+		return record != null ? record : currentRecord;
+	}
+
 	private Object getCurrentActionId() {
-		if (currentRecord == null || currentRecord.actions.isEmpty())
+		ActionsRecord record = getCurrentRecord();
+		if (record == null || record.actions.isEmpty())
 			return EMPTY_STRING;
 
-		Object currentAction = currentRecord.actions.get(currentRecord.actions.size() - 1);
+		Object currentAction = record.actions.get(record.actions.size() - 1);
 		if (currentAction instanceof ParameterizedProvisioningAction) {
 			ParameterizedProvisioningAction parameterizedAction = (ParameterizedProvisioningAction) currentAction;
 			currentAction = parameterizedAction.getAction();
@@ -370,9 +406,10 @@ public class EngineSession {
 	}
 
 	private String getCurrentOperandId() {
-		if (currentRecord == null)
+		ActionsRecord record = getCurrentRecord();
+		if (record == null)
 			return EMPTY_STRING;
-		return currentRecord.operand.toString();
+		return record.operand.toString();
 	}
 
 	private static void debugPhaseEnter(Phase phase) {
@@ -79,6 +79,23 @@ public abstract class InstallableUnitPhase extends Phase {
 
 	protected abstract List<ProvisioningAction> getActions(InstallableUnitOperand operand);
 
+	Collection<Touchpoint> getOperandTouchpoints(Operand operand) {
+		if (!(operand instanceof InstallableUnitOperand))
+			return super.getOperandTouchpoints(operand);
+
+		InstallableUnitOperand iuOperand = (InstallableUnitOperand) operand;
+		Set<Touchpoint> touchpoints = new HashSet<Touchpoint>(2);
+		IInstallableUnit[] units = new IInstallableUnit[] {iuOperand.first(), iuOperand.second()};
+		for (int i = 0; i < units.length; i++) {
+			if (units[i] == null)
+				continue;
+			Touchpoint touchpoint = getActionManager().getTouchpointPoint(units[i].getTouchpointType());
+			if (touchpoint != null)
+				touchpoints.add(touchpoint);
+		}
+		return touchpoints;
+	}
+
 	final public boolean isApplicable(Operand operand) {
 		if (!(operand instanceof InstallableUnitOperand))
 			return false;
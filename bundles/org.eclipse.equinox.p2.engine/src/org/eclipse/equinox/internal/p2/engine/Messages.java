@@ -34,6 +34,7 @@ public class Messages extends NLS {
 
 	public static String committing;
 	public static String download_artifact;
+	public static String perform_operands;
 	public static String download_no_repository;
 	public static String Engine_Operation_Canceled_By_User;
 	public static String error_parsing_profile;
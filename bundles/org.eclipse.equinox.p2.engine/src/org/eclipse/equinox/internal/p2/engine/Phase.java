@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2009 IBM Corporation and others.
+ *  Copyright (c) 2007, 2010 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -12,6 +12,8 @@ package org.eclipse.equinox.internal.p2.engine;
 
 import java.util.*;
 import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.equinox.internal.p2.core.helpers.CollectionUtils;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.p2.engine.IProfile;
 import org.eclipse.equinox.p2.engine.ProvisioningContext;
@@ -32,16 +34,47 @@ public abstract class Phase {
 	protected static final String PARM_FORCED = "forced"; //$NON-NLS-1$
 	protected static final String PARM_TOUCHPOINT = "touchpoint"; //$NON-NLS-1$
 
+	/**
+	 * Provisioning context property enabling the concurrent execution of the operands of
+	 * the phases that support it. The value is either <code>true</code>, to use one thread
+	 * per processor, or the number of threads to use.
+	 */
+	public static final String PARALLEL_PHASES = "org.eclipse.equinox.p2.engine.parallelPhases"; //$NON-NLS-1$
+
+	/**
+	 * The parameters of the operand being performed. When the operands of a phase are
+	 * performed concurrently, each thread has its own.
+	 */
+	private static final class OperandState {
+		Map<String, Object> operandParameters;
+		final Map<Touchpoint, Map<String, Object>> touchpointToTouchpointOperandParameters = new HashMap<Touchpoint, Map<String, Object>>();
+	}
+
+	/**
+	 * An applicable operand and its actions.
+	 */
+	private static final class PendingOperand {
+		final int index;
+		final Operand operand;
+		final List<ProvisioningAction> actions;
+
+		PendingOperand(int index, Operand operand, List<ProvisioningAction> actions) {
+			this.index = index;
+			this.operand = operand;
+			this.actions = actions;
+		}
+	}
+
 	protected final String phaseId;
 	protected final int weight;
 	protected final boolean forced;
 	protected int prePerformWork = 1000;
 	protected int mainPerformWork = 10000;
 	protected int postPerformWork = 1000;
-	private Map<String, Object> operandParameters = null;
+	// the state of the operands in progress, kept when an operand fails since it is needed to undo the operand
+	private final Map<Operand, OperandState> operandStates = new HashMap<Operand, OperandState>();
 	private Map<String, Object> phaseParameters = new HashMap<String, Object>();
 	private Map<Touchpoint, Map<String, Object>> touchpointToTouchpointPhaseParameters = new HashMap<Touchpoint, Map<String, Object>>();
-	private Map<Touchpoint, Map<String, Object>> touchpointToTouchpointOperandParameters = new HashMap<Touchpoint, Map<String, Object>>();
 	ActionManager actionManager; // injected from phaseset
 
 	protected Phase(String phaseId, int weight, boolean forced) {
@@ -101,7 +134,15 @@ public abstract class Phase {
 	}
 
 	private void mainPerform(MultiStatus status, EngineSession session, Operand[] operands, SubMonitor subMonitor) {
-		IProfile profile = session.getProfile();
+		int parallelism = isParallelizable() ? getParallelism(session.getProvisioningContext()) : 1;
+		if (parallelism > 1) {
+			List<List<PendingOperand>> groups = partition(operands);
+			if (groups.size() > 1) {
+				new OperandScheduler(session, groups, parallelism).run(status, subMonitor);
+				return;
+			}
+		}
+
 		subMonitor.beginTask(null, operands.length);
 		for (int i = 0; i < operands.length; i++) {
 			subMonitor.setWorkRemaining(operands.length - i);
@@ -111,57 +152,164 @@ public abstract class Phase {
 			if (!isApplicable(operand))
 				continue;
 
-			session.recordOperandStart(operand);
-			List<ProvisioningAction> actions = getActions(operand);
-			operandParameters = new HashMap<String, Object>(phaseParameters);
-			operandParameters.put(PARM_OPERAND, operand);
-			mergeStatus(status, initializeOperand(profile, operand, operandParameters, subMonitor));
-			if (status.matches(IStatus.ERROR | IStatus.CANCEL)) {
-				operandParameters = null;
+			if (!performOperand(status, session, operand, getActions(operand), new OperandState(), subMonitor))
 				return;
-			}
+			subMonitor.worked(1);
+		}
+	}
 
-			final IInstallableUnit iu = (IInstallableUnit) operandParameters.get(InstallableUnitPhase.PARM_IU);
-			if (iu != null)
-				operandParameters.put(IActionExecutor.PARM_ACTION_EXECUTOR, new ActionExecutor(profile, session, operand, subMonitor, iu.getTouchpointType()));
+	/**
+	 * Performs the given operand. Returns <code>false</code> if the operand failed or
+	 * was canceled, in which case the given status reports why and the state is kept
+	 * until the operand is undone.
+	 */
+	private boolean performOperand(MultiStatus status, EngineSession session, Operand operand, List<ProvisioningAction> actions, OperandState state, IProgressMonitor monitor) {
+		IProfile profile = session.getProfile();
+		session.recordOperandStart(operand);
+		synchronized (operandStates) {
+			operandStates.put(operand, state);
+		}
+		state.operandParameters = new HashMap<String, Object>(phaseParameters);
+		state.operandParameters.put(PARM_OPERAND, operand);
+		mergeStatus(status, initializeOperand(profile, operand, state.operandParameters, monitor));
+		if (status.matches(IStatus.ERROR | IStatus.CANCEL)) {
+			state.operandParameters = null;
+			return false;
+		}
 
-			Touchpoint operandTouchpoint = (Touchpoint) operandParameters.get(PARM_TOUCHPOINT);
-			if (operandTouchpoint != null) {
-				mergeStatus(status, initializeTouchpointParameters(profile, operand, operandTouchpoint, subMonitor));
-				if (status.matches(IStatus.ERROR | IStatus.CANCEL))
-					return;
+		final IInstallableUnit iu = (IInstallableUnit) state.operandParameters.get(InstallableUnitPhase.PARM_IU);
+		if (iu != null)
+			state.operandParameters.put(IActionExecutor.PARM_ACTION_EXECUTOR, new ActionExecutor(profile, session, operand, state, monitor, iu.getTouchpointType()));
+
+		Touchpoint operandTouchpoint = (Touchpoint) state.operandParameters.get(PARM_TOUCHPOINT);
+		if (operandTouchpoint != null) {
+			mergeStatus(status, initializeTouchpointParameters(profile, operand, operandTouchpoint, state, monitor));
+			if (status.matches(IStatus.ERROR | IStatus.CANCEL))
+				return false;
 
-				operandParameters = touchpointToTouchpointOperandParameters.get(operandTouchpoint);
+			state.operandParameters = state.touchpointToTouchpointOperandParameters.get(operandTouchpoint);
+		}
+
+		state.operandParameters = Collections.unmodifiableMap(state.operandParameters);
+		if (actions != null) {
+			for (int j = 0; j < actions.size(); j++) {
+				ProvisioningAction action = actions.get(j);
+				executeAction(status, action, profile, session, operand, state, monitor);
+				if (status.matches(IStatus.ERROR | IStatus.CANCEL))
+					return false;
 			}
+		}
+		mergeStatus(status, touchpointCompleteOperand(profile, operand, state, monitor));
+		mergeStatus(status, completeOperand(profile, operand, state.operandParameters, monitor));
+		if (status.matches(IStatus.ERROR | IStatus.CANCEL))
+			return false;
+		state.operandParameters = null;
+		synchronized (operandStates) {
+			operandStates.remove(operand);
+		}
+		session.recordOperandEnd(operand);
+		return true;
+	}
 
-			operandParameters = Collections.unmodifiableMap(operandParameters);
-			if (actions != null) {
-				for (int j = 0; j < actions.size(); j++) {
-					ProvisioningAction action = actions.get(j);
-					executeAction(status, action, profile, session, operand, subMonitor);
-					if (status.matches(IStatus.ERROR | IStatus.CANCEL))
-						return;
+	/**
+	 * Returns whether the operands of this phase may be performed concurrently when they
+	 * have no touchpoint in common. Phases gathering results across operands in their
+	 * phase parameters must perform their operands one at a time.
+	 */
+	protected boolean isParallelizable() {
+		return false;
+	}
+
+	/**
+	 * Returns the touchpoints the given operand is initialized with, in addition to the
+	 * touchpoints of its actions.
+	 */
+	Collection<Touchpoint> getOperandTouchpoints(Operand operand) {
+		return CollectionUtils.emptyList();
+	}
+
+	private static int getParallelism(ProvisioningContext context) {
+		String value = context == null ? null : context.getProperty(PARALLEL_PHASES);
+		if (value == null)
+			return 1;
+		if (Boolean.TRUE.toString().equalsIgnoreCase(value))
+			return Runtime.getRuntime().availableProcessors();
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			return 1;
+		}
+	}
+
+	/**
+	 * Partitions the applicable operands into groups that can be performed concurrently.
+	 * A touchpoint keeps state across the operands of a phase, so the operands using a
+	 * common touchpoint are in the same group, and so are the operands using none. Each
+	 * group keeps the order of its operands.
+	 */
+	private List<List<PendingOperand>> partition(Operand[] operands) {
+		List<PendingOperand> pending = new ArrayList<PendingOperand>(operands.length);
+		for (int i = 0; i < operands.length; i++) {
+			if (isApplicable(operands[i]))
+				pending.add(new PendingOperand(pending.size(), operands[i], getActions(operands[i])));
+		}
+
+		// union-find over the operands, joined by the touchpoints they have in common
+		int[] parents = new int[pending.size()];
+		Map<Touchpoint, PendingOperand> owners = new HashMap<Touchpoint, PendingOperand>();
+		for (int i = 0; i < parents.length; i++) {
+			parents[i] = i;
+			PendingOperand current = pending.get(i);
+			Set<Touchpoint> touchpoints = new HashSet<Touchpoint>(getOperandTouchpoints(current.operand));
+			if (current.actions != null) {
+				for (ProvisioningAction action : current.actions) {
+					if (action.getTouchpoint() != null)
+						touchpoints.add(action.getTouchpoint());
 				}
 			}
-			mergeStatus(status, touchpointCompleteOperand(profile, operand, operandParameters, subMonitor));
-			mergeStatus(status, completeOperand(profile, operand, operandParameters, subMonitor));
-			if (status.matches(IStatus.ERROR | IStatus.CANCEL))
-				return;
-			operandParameters = null;
-			session.recordOperandEnd(operand);
-			subMonitor.worked(1);
+			if (touchpoints.isEmpty())
+				touchpoints.add(null);
+			for (Touchpoint touchpoint : touchpoints) {
+				PendingOperand owner = owners.get(touchpoint);
+				if (owner == null)
+					owners.put(touchpoint, current);
+				else
+					parents[find(parents, i)] = find(parents, owner.index);
+			}
 		}
+
+		// the groups are in the order of their first operand
+		List<List<PendingOperand>> groups = new ArrayList<List<PendingOperand>>();
+		int[] groupIndexes = new int[parents.length];
+		Arrays.fill(groupIndexes, -1);
+		for (int i = 0; i < parents.length; i++) {
+			int root = find(parents, i);
+			if (groupIndexes[root] < 0) {
+				groupIndexes[root] = groups.size();
+				groups.add(new ArrayList<PendingOperand>());
+			}
+			groups.get(groupIndexes[root]).add(pending.get(i));
+		}
+		return groups;
 	}
 
-	void executeAction(MultiStatus status, ProvisioningAction action, IProfile profile, EngineSession session, Operand operand, IProgressMonitor monitor) throws LinkageError {
-		Map<String, Object> parameters = operandParameters;
+	private static int find(int[] parents, int i) {
+		while (parents[i] != i) {
+			parents[i] = parents[parents[i]];
+			i = parents[i];
+		}
+		return i;
+	}
+
+	private void executeAction(MultiStatus status, ProvisioningAction action, IProfile profile, EngineSession session, Operand operand, OperandState state, IProgressMonitor monitor) throws LinkageError {
+		Map<String, Object> parameters = state.operandParameters;
 		Touchpoint touchpoint = action.getTouchpoint();
 		if (touchpoint != null) {
-			mergeStatus(status, initializeTouchpointParameters(profile, operand, touchpoint, monitor));
+			mergeStatus(status, initializeTouchpointParameters(profile, operand, touchpoint, state, monitor));
 			if (status.matches(IStatus.ERROR | IStatus.CANCEL))
 				return;
 
-			parameters = touchpointToTouchpointOperandParameters.get(touchpoint);
+			parameters = state.touchpointToTouchpointOperandParameters.get(touchpoint);
 		}
 		IStatus actionStatus = null;
 		try {
@@ -188,25 +336,28 @@ public abstract class Phase {
 		mergeStatus(status, actionStatus);
 	}
 
-	private IStatus initializeTouchpointParameters(IProfile profile, Operand operand, Touchpoint touchpoint, IProgressMonitor monitor) {
-		if (touchpointToTouchpointOperandParameters.containsKey(touchpoint))
+	private IStatus initializeTouchpointParameters(IProfile profile, Operand operand, Touchpoint touchpoint, OperandState state, IProgressMonitor monitor) {
+		if (state.touchpointToTouchpointOperandParameters.containsKey(touchpoint))
 			return Status.OK_STATUS;
 
-		Map<String, Object> touchpointPhaseParameters = touchpointToTouchpointPhaseParameters.get(touchpoint);
-		if (touchpointPhaseParameters == null) {
-			touchpointPhaseParameters = new HashMap<String, Object>(phaseParameters);
-			IStatus status = touchpoint.initializePhase(monitor, profile, phaseId, touchpointPhaseParameters);
-			if (status != null && status.matches(IStatus.ERROR | IStatus.CANCEL))
-				return status;
-			touchpointToTouchpointPhaseParameters.put(touchpoint, touchpointPhaseParameters);
+		Map<String, Object> touchpointPhaseParameters;
+		synchronized (touchpointToTouchpointPhaseParameters) {
+			touchpointPhaseParameters = touchpointToTouchpointPhaseParameters.get(touchpoint);
+			if (touchpointPhaseParameters == null) {
+				touchpointPhaseParameters = new HashMap<String, Object>(phaseParameters);
+				IStatus status = touchpoint.initializePhase(monitor, profile, phaseId, touchpointPhaseParameters);
+				if (status != null && status.matches(IStatus.ERROR | IStatus.CANCEL))
+					return status;
+				touchpointToTouchpointPhaseParameters.put(touchpoint, touchpointPhaseParameters);
+			}
 		}
 
 		Map<String, Object> touchpointOperandParameters = new HashMap<String, Object>(touchpointPhaseParameters);
-		touchpointOperandParameters.putAll(operandParameters);
+		touchpointOperandParameters.putAll(state.operandParameters);
 		IStatus status = touchpoint.initializeOperand(profile, touchpointOperandParameters);
 		if (status != null && status.matches(IStatus.ERROR | IStatus.CANCEL))
 			return status;
-		touchpointToTouchpointOperandParameters.put(touchpoint, touchpointOperandParameters);
+		state.touchpointToTouchpointOperandParameters.put(touchpoint, touchpointOperandParameters);
 		return Status.OK_STATUS;
 	}
 
@@ -225,33 +376,39 @@ public abstract class Phase {
 	}
 
 	void undo(MultiStatus status, EngineSession session, IProfile profile, Operand operand, ProvisioningAction[] actions, ProvisioningContext context) {
-		if (operandParameters == null) {
-			operandParameters = new HashMap<String, Object>(phaseParameters);
-			operandParameters.put(PARM_OPERAND, operand);
-			mergeStatus(status, initializeOperand(profile, operand, operandParameters, new NullProgressMonitor()));
-			Touchpoint operandTouchpoint = (Touchpoint) operandParameters.get(PARM_TOUCHPOINT);
+		// the state of an operand that failed is reused, the other operands are initialized again
+		OperandState state;
+		synchronized (operandStates) {
+			state = operandStates.remove(operand);
+		}
+		if (state == null || state.operandParameters == null) {
+			state = new OperandState();
+			state.operandParameters = new HashMap<String, Object>(phaseParameters);
+			state.operandParameters.put(PARM_OPERAND, operand);
+			mergeStatus(status, initializeOperand(profile, operand, state.operandParameters, new NullProgressMonitor()));
+			Touchpoint operandTouchpoint = (Touchpoint) state.operandParameters.get(PARM_TOUCHPOINT);
 			if (operandTouchpoint != null) {
-				mergeStatus(status, initializeTouchpointParameters(profile, operand, operandTouchpoint, new NullProgressMonitor()));
+				mergeStatus(status, initializeTouchpointParameters(profile, operand, operandTouchpoint, state, new NullProgressMonitor()));
 				if (status.matches(IStatus.ERROR | IStatus.CANCEL))
 					return;
 
-				operandParameters = touchpointToTouchpointOperandParameters.get(operandTouchpoint);
+				state.operandParameters = state.touchpointToTouchpointOperandParameters.get(operandTouchpoint);
 			}
-			final IInstallableUnit iu = (IInstallableUnit) operandParameters.get(InstallableUnitPhase.PARM_IU);
+			final IInstallableUnit iu = (IInstallableUnit) state.operandParameters.get(InstallableUnitPhase.PARM_IU);
 			if (iu != null)
-				operandParameters.put(IActionExecutor.PARM_ACTION_EXECUTOR, new ActionExecutor(profile, session, operand, new NullProgressMonitor(), iu.getTouchpointType()));
-			operandParameters = Collections.unmodifiableMap(operandParameters);
+				state.operandParameters.put(IActionExecutor.PARM_ACTION_EXECUTOR, new ActionExecutor(profile, session, operand, state, new NullProgressMonitor(), iu.getTouchpointType()));
+			state.operandParameters = Collections.unmodifiableMap(state.operandParameters);
 		}
 		for (int j = 0; j < actions.length; j++) {
 			ProvisioningAction action = actions[j];
-			Map<String, Object> parameters = operandParameters;
+			Map<String, Object> parameters = state.operandParameters;
 			Touchpoint touchpoint = action.getTouchpoint();
 			if (touchpoint != null) {
-				mergeStatus(status, initializeTouchpointParameters(profile, operand, touchpoint, new NullProgressMonitor()));
+				mergeStatus(status, initializeTouchpointParameters(profile, operand, touchpoint, state, new NullProgressMonitor()));
 				if (status.matches(IStatus.ERROR))
 					return;
 
-				parameters = touchpointToTouchpointOperandParameters.get(touchpoint);
+				parameters = state.touchpointToTouchpointOperandParameters.get(touchpoint);
 			}
 			IStatus actionStatus = null;
 			try {
@@ -271,9 +428,8 @@ public abstract class Phase {
 				result.merge(actionStatus);
 			}
 		}
-		mergeStatus(status, touchpointCompleteOperand(profile, operand, operandParameters, new NullProgressMonitor()));
-		mergeStatus(status, completeOperand(profile, operand, operandParameters, new NullProgressMonitor()));
-		operandParameters = null;
+		mergeStatus(status, touchpointCompleteOperand(profile, operand, state, new NullProgressMonitor()));
+		mergeStatus(status, completeOperand(profile, operand, state.operandParameters, new NullProgressMonitor()));
 	}
 
 	public boolean isApplicable(Operand operand) {
@@ -306,17 +462,17 @@ public abstract class Phase {
 		return Status.OK_STATUS;
 	}
 
-	IStatus touchpointCompleteOperand(IProfile profile, Operand operand, Map<String, Object> parameters, IProgressMonitor monitor) {
-		if (touchpointToTouchpointOperandParameters.isEmpty())
+	private IStatus touchpointCompleteOperand(IProfile profile, Operand operand, OperandState state, IProgressMonitor monitor) {
+		if (state.touchpointToTouchpointOperandParameters.isEmpty())
 			return Status.OK_STATUS;
 
 		MultiStatus status = new MultiStatus(EngineActivator.ID, IStatus.OK, null, null);
-		for (Map.Entry<Touchpoint, Map<String, Object>> entry : touchpointToTouchpointOperandParameters.entrySet()) {
+		for (Map.Entry<Touchpoint, Map<String, Object>> entry : state.touchpointToTouchpointOperandParameters.entrySet()) {
 			Touchpoint touchpoint = entry.getKey();
 			Map<String, Object> touchpointParameters = entry.getValue();
 			mergeStatus(status, touchpoint.completeOperand(profile, touchpointParameters));
 		}
-		touchpointToTouchpointOperandParameters.clear();
+		state.touchpointToTouchpointOperandParameters.clear();
 		return status;
 	}
 
@@ -334,18 +490,205 @@ public abstract class Phase {
 		return NLS.bind(Messages.phase_error, getClass().getName());
 	}
 
+	/**
+	 * Performs groups of operands concurrently. The operands of a group are performed in
+	 * order by a single worker. Once an operand fails or the monitor is canceled, the workers
+	 * stop before their next operand. The operands are recorded by the session as they are
+	 * performed, so the rollback undoes exactly the operands that ran. The calling thread
+	 * performs groups as well, so all groups are performed even when no worker gets to run.
+	 */
+	private final class OperandScheduler {
+		private final class Worker extends Job {
+			Worker() {
+				super(Messages.perform_operands);
+				setSystem(true);
+			}
+
+			/* (non-Javadoc)
+			 * @see org.eclipse.core.runtime.jobs.Job#run(org.eclipse.core.runtime.IProgressMonitor)
+			 */
+			protected IStatus run(IProgressMonitor monitor) {
+				synchronized (OperandScheduler.this) {
+					if (isStopped() || next == groups.size())
+						return Status.OK_STATUS;
+					running++;
+				}
+				try {
+					int index;
+					while ((index = take()) >= 0)
+						performGroup(index);
+				} finally {
+					synchronized (OperandScheduler.this) {
+						running--;
+						OperandScheduler.this.notifyAll();
+					}
+				}
+				return Status.OK_STATUS;
+			}
+		}
+
+		private final EngineSession session;
+		private final List<List<PendingOperand>> groups;
+		private final MultiStatus[] statuses;
+		private final int maxWorkers;
+		private IProgressMonitor callerMonitor;
+		// the monitor given to the operands, canceled when the workers must stop
+		private final IProgressMonitor operandMonitor = new NullProgressMonitor() {
+			public boolean isCanceled() {
+				return isStopped();
+			}
+		};
+		private int next;
+		// the workers that have started
+		private int running;
+		private int processed;
+		private boolean stopped;
+		private boolean canceled;
+
+		OperandScheduler(EngineSession session, List<List<PendingOperand>> groups, int maxWorkers) {
+			this.session = session;
+			this.groups = groups;
+			this.maxWorkers = maxWorkers;
+			statuses = new MultiStatus[groups.size()];
+			for (int i = 0; i < statuses.length; i++)
+				statuses[i] = new MultiStatus(EngineActivator.ID, IStatus.OK, null, null);
+		}
+
+		/**
+		 * Performs all groups and merges their outcome into the given status, in the order
+		 * of the groups.
+		 */
+		void run(MultiStatus status, SubMonitor subMonitor) {
+			int total = 0;
+			for (List<PendingOperand> group : groups)
+				total += group.size();
+			subMonitor.beginTask(null, total);
+			callerMonitor = subMonitor;
+
+			session.setConcurrentOperands(true);
+			// one worker less, the calling thread is the last one
+			Job[] jobs = new Job[Math.min(maxWorkers, groups.size()) - 1];
+			for (int i = 0; i < jobs.length; i++) {
+				jobs[i] = new Worker();
+				jobs[i].schedule();
+			}
+			int reported = 0;
+			try {
+				int index;
+				while ((index = take()) >= 0) {
+					performGroup(index);
+					reported = reportProgress(subMonitor, reported);
+				}
+			} finally {
+				// the workers that have not started are not needed anymore
+				for (int i = 0; i < jobs.length; i++)
+					jobs[i].cancel();
+				boolean interrupted = false;
+				while (true) {
+					synchronized (this) {
+						if (running == 0)
+							break;
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							interrupted = true;
+							canceled = true;
+							stopped = true;
+						}
+					}
+					reported = reportProgress(subMonitor, reported);
+				}
+				reportProgress(subMonitor, reported);
+				session.setConcurrentOperands(false);
+				if (interrupted)
+					Thread.currentThread().interrupt();
+			}
+
+			for (int i = 0; i < statuses.length; i++)
+				mergeStatus(status, statuses[i]);
+			if (canceled && !status.matches(IStatus.ERROR | IStatus.CANCEL))
+				throw new OperationCanceledException();
+		}
+
+		private int reportProgress(IProgressMonitor monitor, int reported) {
+			int done;
+			synchronized (this) {
+				done = processed;
+			}
+			monitor.worked(done - reported);
+			return done;
+		}
+
+		synchronized int take() {
+			if (isStopped() || next == groups.size())
+				return -1;
+			return next++;
+		}
+
+		/**
+		 * Returns whether the workers must stop, either because an operand failed or
+		 * because the caller canceled the phase.
+		 */
+		synchronized boolean isStopped() {
+			if (!stopped && callerMonitor.isCanceled()) {
+				canceled = true;
+				stopped = true;
+			}
+			return stopped;
+		}
+
+		void performGroup(int index) {
+			MultiStatus status = statuses[index];
+			OperandState state = new OperandState();
+			boolean failed = true;
+			try {
+				for (PendingOperand pending : groups.get(index)) {
+					if (isStopped())
+						break;
+					if (!performOperand(status, session, pending.operand, pending.actions, state, operandMonitor))
+						return;
+					synchronized (this) {
+						processed++;
+						notifyAll();
+					}
+				}
+				failed = false;
+			} catch (OperationCanceledException e) {
+				status.add(new Status(IStatus.CANCEL, EngineActivator.ID, e.getMessage(), e));
+			} catch (RuntimeException e) {
+				// "perform" calls user code and might throw an unchecked exception
+				// we catch the error here to gather information on where the problem occurred.
+				status.add(new Status(IStatus.ERROR, EngineActivator.ID, e.getMessage(), e));
+			} catch (LinkageError e) {
+				// Catch linkage errors as these are generally recoverable but let other Errors propagate (see bug 222001)
+				status.add(new Status(IStatus.ERROR, EngineActivator.ID, e.getMessage(), e));
+			} finally {
+				if (failed) {
+					// other errors propagate, the operand still has to be undone
+					if (status.isOK())
+						status.add(new Status(IStatus.ERROR, EngineActivator.ID, getProblemMessage(), null));
+					synchronized (this) {
+						stopped = true;
+					}
+				}
+			}
+		}
+	}
+
 	private class ActionExecutor implements IActionExecutor {
 
 		private final ITouchpointType touchpointType;
 		private final Operand operand;
+		private final OperandState state;
 		private final IProgressMonitor monitor;
 		private final IProfile profile;
 		private final EngineSession session;
 
-		ActionExecutor(IProfile profile, EngineSession session, Operand operand, IProgressMonitor monitor, ITouchpointType touchpointType) {
+		ActionExecutor(IProfile profile, EngineSession session, Operand operand, OperandState state, IProgressMonitor monitor, ITouchpointType touchpointType) {
 			this.profile = profile;
 			this.session = session;
 			this.operand = operand;
+			this.state = state;
 			this.monitor = monitor;
 			this.touchpointType = touchpointType;
 		}
@@ -373,7 +716,7 @@ public abstract class Phase {
 						final ProvisioningAction provisionAction = actions.get(0);
 
 						final MultiStatus status = new MultiStatus(EngineActivator.ID, IStatus.OK, null, null);
-						executeAction(status, provisionAction, profile, session, operand, monitor);
+						executeAction(status, provisionAction, profile, session, operand, state, monitor);
 						return status;
 					}
 
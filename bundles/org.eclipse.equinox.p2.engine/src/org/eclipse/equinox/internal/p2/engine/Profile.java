@@ -18,13 +18,13 @@ import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.equinox.internal.p2.core.helpers.CollectionUtils;
 import org.eclipse.equinox.internal.p2.core.helpers.OrderedProperties;
 import org.eclipse.equinox.internal.p2.metadata.*;
+import org.eclipse.equinox.internal.p2.metadata.expression.*;
 import org.eclipse.equinox.internal.p2.metadata.index.*;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.engine.IProfile;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 import org.eclipse.equinox.p2.metadata.KeyWithLocale;
-import org.eclipse.equinox.p2.metadata.expression.IEvaluationContext;
-import org.eclipse.equinox.p2.metadata.expression.IExpression;
+import org.eclipse.equinox.p2.metadata.expression.*;
 import org.eclipse.equinox.p2.metadata.index.IIndex;
 import org.eclipse.equinox.p2.query.IQuery;
 import org.eclipse.equinox.p2.query.IQueryResult;
@@ -33,11 +33,121 @@ import org.eclipse.osgi.util.NLS;
 public class Profile extends IndexProvider<IInstallableUnit> implements IProfile {
 
 	/**
-	 * An index that limits the candidates to those units that has profile properties
+	 * An index that limits the candidates to those units that have the profile properties
+	 * required by the expression, such as <code>profileProperties[$0] == $1</code> or
+	 * <code>profileProperties[$0] != null</code>. The index is kept up to date as profile
+	 * properties are set and removed.
 	 */
-	class ProfilePropertyIndex implements IIndex<IInstallableUnit> {
+	class ProfilePropertyIndex extends Index<IInstallableUnit> {
+		private final Map<String, Set<IInstallableUnit>> unitsByKey = new HashMap<String, Set<IInstallableUnit>>();
+
+		ProfilePropertyIndex() {
+			for (Entry<IInstallableUnit, OrderedProperties> entry : iuProperties.entrySet())
+				for (String key : entry.getValue().keySet())
+					add(key, entry.getKey());
+		}
+
+		void add(String key, IInstallableUnit iu) {
+			Set<IInstallableUnit> units = unitsByKey.get(key);
+			if (units == null) {
+				units = new HashSet<IInstallableUnit>();
+				unitsByKey.put(key, units);
+			}
+			units.add(iu);
+		}
+
+		void remove(String key, IInstallableUnit iu) {
+			Set<IInstallableUnit> units = unitsByKey.get(key);
+			if (units != null && units.remove(iu) && units.isEmpty())
+				unitsByKey.remove(key);
+		}
+
+		void removeAll(IInstallableUnit iu, Collection<String> keys) {
+			for (String key : keys)
+				remove(key, iu);
+		}
+
+		public Iterator<IInstallableUnit> getCandidates(IEvaluationContext ctx, IExpression variable, IExpression booleanExpr) {
+			Object queriedKeys = getQueriedIDs(ctx, variable, InstallableUnit.MEMBER_PROFILE_PROPERTIES, booleanExpr, null);
+			if (queriedKeys == null)
+				return null;
+
+			// The candidates are copied so that the profile can change while they are iterated
+			Collection<IInstallableUnit> candidates = new ArrayList<IInstallableUnit>();
+			if (queriedKeys == Boolean.FALSE)
+				return candidates.iterator();
+			synchronized (Profile.this) {
+				if (queriedKeys instanceof Collection<?>) {
+					Set<IInstallableUnit> collector = new HashSet<IInstallableUnit>();
+					for (Object key : (Collection<?>) queriedKeys) {
+						Set<IInstallableUnit> units = unitsByKey.get(key);
+						if (units != null)
+							collector.addAll(units);
+					}
+					candidates.addAll(collector);
+				} else {
+					Set<IInstallableUnit> units = unitsByKey.get(queriedKeys);
+					if (units != null)
+						candidates.addAll(units);
+				}
+			}
+			return candidates.iterator();
+		}
+
+		protected Object getQueriedIDs(IEvaluationContext ctx, IExpression variable, String memberName, IExpression booleanExpr, Object queriedKeys) {
+			IExpression expr = booleanExpr;
+			if (expr instanceof IMatchExpression<?>) {
+				ctx = ((IMatchExpression<?>) expr).createContext();
+				expr = ((Unary) expr).operand;
+			}
+			int type = expr.getExpressionType();
+			if (type != IExpression.TYPE_EQUALS && type != IExpression.TYPE_NOT_EQUALS)
+				return super.getQueriedIDs(ctx, variable, memberName, expr, queriedKeys);
+
+			Binary comparison = (Binary) expr;
+			Object key = getQueriedKey(ctx, variable, comparison.lhs, comparison.rhs, type);
+			if (key == null)
+				key = getQueriedKey(ctx, variable, comparison.rhs, comparison.lhs, type);
+			return key == null ? null : concatenateUnique(queriedKeys, key);
+		}
+
+		/**
+		 * Returns the key of the compared property when the comparison can only be true for
+		 * units having that property, or <code>null</code>.
+		 */
+		private Object getQueriedKey(IEvaluationContext ctx, IExpression variable, Expression property, Expression value, int type) {
+			if (property.getExpressionType() != IExpression.TYPE_AT)
+				return null;
+			Binary at = (Binary) property;
+			if (!isIndexedMember(at.lhs, variable, InstallableUnit.MEMBER_PROFILE_PROPERTIES))
+				return null;
+			try {
+				// Units without the property match == null and != anything but null
+				if ((value.evaluate(ctx) == null) != (type == IExpression.TYPE_NOT_EQUALS))
+					return null;
+				return at.rhs.evaluate(ctx);
+			} catch (IllegalArgumentException e) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Gives the candidates of an index over the units of this profile, copied under the
+	 * profile lock so that units can be added and removed while the candidates are iterated.
+	 */
+	class SynchronizedIndex implements IIndex<IInstallableUnit> {
+		private final IIndex<IInstallableUnit> index;
+
+		SynchronizedIndex(IIndex<IInstallableUnit> index) {
+			this.index = index;
+		}
+
 		public Iterator<IInstallableUnit> getCandidates(IEvaluationContext ctx, IExpression variable, IExpression booleanExpr) {
-			return iuProperties.keySet().iterator();
+			synchronized (Profile.this) {
+				Iterator<IInstallableUnit> candidates = index.getCandidates(ctx, variable, booleanExpr);
+				return candidates == null ? null : copy(candidates);
+			}
 		}
 	}
 
@@ -49,9 +159,9 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 
 	private IIndex<IInstallableUnit> idIndex;
 
-	private IIndex<IInstallableUnit> propertiesIndex;
+	private ProfilePropertyIndex propertiesIndex;
 
-	private IIndex<IInstallableUnit> capabilityIndex;
+	private CapabilityIndex capabilityIndex;
 
 	private TranslationSupport translationSupport;
 
@@ -188,14 +298,15 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 	public synchronized IIndex<IInstallableUnit> getIndex(String memberName) {
 		if (InstallableUnit.MEMBER_ID.equals(memberName)) {
 			if (idIndex == null)
-				idIndex = new IdIndex(ius);
+				idIndex = new SynchronizedIndex(new IdIndex(ius));
 			return idIndex;
 		}
 
 		if (InstallableUnit.MEMBER_PROVIDED_CAPABILITIES.equals(memberName)) {
 			if (capabilityIndex == null)
 				capabilityIndex = new CapabilityIndex(ius.iterator());
-			return capabilityIndex;
+			// the index is kept up to date under the profile lock, so it is also read under the lock
+			return new SynchronizedIndex(capabilityIndex);
 		}
 
 		if (InstallableUnit.MEMBER_PROFILE_PROPERTIES.equals(memberName)) {
@@ -206,8 +317,18 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 		return null;
 	}
 
-	public Iterator<IInstallableUnit> everything() {
-		return ius.iterator();
+	/**
+	 * Returns a copy of the units of this profile, which can change while the copy is iterated.
+	 */
+	public synchronized Iterator<IInstallableUnit> everything() {
+		return copy(ius.iterator());
+	}
+
+	static Iterator<IInstallableUnit> copy(Iterator<IInstallableUnit> units) {
+		List<IInstallableUnit> copy = new ArrayList<IInstallableUnit>();
+		while (units.hasNext())
+			copy.add(units.next());
+		return copy.iterator();
 	}
 
 	public Object getManagedProperty(Object client, String memberName, Object key) {
@@ -226,7 +347,7 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 		return null;
 	}
 
-	public IQueryResult<IInstallableUnit> available(IQuery<IInstallableUnit> query, IProgressMonitor monitor) {
+	public synchronized IQueryResult<IInstallableUnit> available(IQuery<IInstallableUnit> query, IProgressMonitor monitor) {
 		if (surrogateProfileHandler != null)
 			return surrogateProfileHandler.queryProfile(this, query, monitor);
 		return query(query, new NullProgressMonitor());
@@ -235,7 +356,7 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 	/* (non-Javadoc)
 	 * @see org.eclipse.equinox.internal.provisional.p2.engine.IProfile#getInstallableUnitProperty(org.eclipse.equinox.internal.provisional.p2.metadata.IInstallableUnit, java.lang.String)
 	 */
-	public String getInstallableUnitProperty(IInstallableUnit iu, String key) {
+	public synchronized String getInstallableUnitProperty(IInstallableUnit iu, String key) {
 		OrderedProperties properties = iuProperties.get(iu);
 		if (properties == null)
 			return null;
@@ -243,7 +364,7 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 		return properties.getProperty(key);
 	}
 
-	public String setInstallableUnitProperty(IInstallableUnit iu, String key, String value) {
+	public synchronized String setInstallableUnitProperty(IInstallableUnit iu, String key, String value) {
 		//		String iuKey = createIUKey(iu);
 		OrderedProperties properties = iuProperties.get(iu);
 		if (properties == null) {
@@ -252,10 +373,12 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 		}
 
 		changed = true;
+		if (propertiesIndex != null)
+			propertiesIndex.add(key, iu);
 		return (String) properties.setProperty(key, value);
 	}
 
-	public String removeInstallableUnitProperty(IInstallableUnit iu, String key) {
+	public synchronized String removeInstallableUnitProperty(IInstallableUnit iu, String key) {
 		//		String iuKey = createIUKey(iu);
 		OrderedProperties properties = iuProperties.get(iu);
 		if (properties == null)
@@ -264,6 +387,8 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 		String oldValue = properties.remove(key);
 		if (properties.isEmpty())
 			iuProperties.remove(iu);
+		if (propertiesIndex != null)
+			propertiesIndex.remove(key, iu);
 
 		changed = true;
 		return oldValue;
@@ -305,17 +430,21 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 		changed = true;
 	}
 
-	public void addInstallableUnit(IInstallableUnit iu) {
+	public synchronized void addInstallableUnit(IInstallableUnit iu) {
 		iu = iu.unresolved();
 		if (ius.contains(iu))
 			return;
 
 		ius.add(iu);
+		if (capabilityIndex != null)
+			capabilityIndex.addUnit(iu);
 		changed = true;
 	}
 
-	public void removeInstallableUnit(IInstallableUnit iu) {
+	public synchronized void removeInstallableUnit(IInstallableUnit iu) {
 		iu = iu.unresolved();
+		if (capabilityIndex != null && ius.contains(iu))
+			capabilityIndex.removeUnit(iu);
 		ius.remove(iu);
 		changed = true;
 	}
@@ -323,7 +452,7 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 	/* (non-Javadoc)
 	 * @see org.eclipse.equinox.internal.provisional.p2.engine.IProfile#getInstallableUnitProperties(org.eclipse.equinox.internal.provisional.p2.metadata.IInstallableUnit)
 	 */
-	public Map<String, String> getInstallableUnitProperties(IInstallableUnit iu) {
+	public synchronized Map<String, String> getInstallableUnitProperties(IInstallableUnit iu) {
 		OrderedProperties properties = iuProperties.get(iu);
 		if (properties == null)
 			properties = new OrderedProperties();
@@ -344,9 +473,11 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 		changed = isChanged;
 	}
 
-	public void clearInstallableUnits() {
+	public synchronized void clearInstallableUnits() {
 		ius.clear();
 		iuProperties.clear();
+		capabilityIndex = null;
+		propertiesIndex = null;
 		changed = true;
 	}
 
@@ -383,12 +514,14 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 		}
 	}
 
-	public void clearInstallableUnitProperties(IInstallableUnit iu) {
-		iuProperties.remove(iu);
+	public synchronized void clearInstallableUnitProperties(IInstallableUnit iu) {
+		OrderedProperties properties = iuProperties.remove(iu);
+		if (properties != null && propertiesIndex != null)
+			propertiesIndex.removeAll(iu, properties.keySet());
 		changed = true;
 	}
 
-	public void clearOrphanedInstallableUnitProperties() {
+	public synchronized void clearOrphanedInstallableUnitProperties() {
 		Set<IInstallableUnit> keys = iuProperties.keySet();
 		//		Set orphans = new HashSet();
 		Collection<IInstallableUnit> toRemove = new ArrayList<IInstallableUnit>();
@@ -398,7 +531,9 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 		}
 
 		for (IInstallableUnit iu : toRemove) {
-			iuProperties.remove(iu);
+			OrderedProperties properties = iuProperties.remove(iu);
+			if (propertiesIndex != null)
+				propertiesIndex.removeAll(iu, properties.keySet());
 		}
 		//		List iuKeys = new ArrayList();
 		//		for (Iterator it = ius.iterator(); it.hasNext();)
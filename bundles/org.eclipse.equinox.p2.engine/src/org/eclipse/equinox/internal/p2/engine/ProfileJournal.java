@@ -0,0 +1,276 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others. All rights reserved. This
+ * program and the accompanying materials are made available under the terms of
+ * the Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors: IBM Corporation - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append-only log of the changes made to a profile after a checkpoint, that is after
+ * a complete profile file has been written. The journal of the checkpoint
+ * <code>{timestamp}.profile.gz</code> is stored next to it as <code>{timestamp}.journal</code>.
+ * <p>
+ * Every entry consists of the timestamp of the profile state it describes, the kind of
+ * the entry, the length of its payload and the payload itself. The payload of a delta
+ * entry is a gzipped profile delta as written by {@link ProfileWriter#writeProfileDelta}.
+ * A removal entry has no payload and hides the profile state with the given timestamp,
+ * which may be the checkpoint itself. Removed deltas are still replayed since the
+ * states following them depend on them.
+ * </p><p>
+ * An incomplete entry at the end of the file, left behind by an interrupted write, is
+ * ignored and truncated before the next entry is appended.
+ * </p>
+ */
+public class ProfileJournal {
+	public static final String JOURNAL_EXT = ".journal"; //$NON-NLS-1$
+
+	private static final byte ENTRY_DELTA = 0;
+	private static final byte ENTRY_REMOVED = 1;
+
+	private static class Entry {
+		final long timestamp;
+		final byte kind;
+		final int length;
+
+		Entry(long timestamp, byte kind, int length) {
+			this.timestamp = timestamp;
+			this.kind = kind;
+			this.length = length;
+		}
+	}
+
+	private final File file;
+	private final long checkpoint;
+	private final List<Entry> entries = new ArrayList<Entry>();
+	private long length;
+
+	public static File getJournalFile(File profileDirectory, long checkpoint) {
+		return new File(profileDirectory, Long.toString(checkpoint) + JOURNAL_EXT);
+	}
+
+	/**
+	 * Opens the journal of the checkpoint with the given timestamp. The journal file does
+	 * not need to exist.
+	 */
+	public ProfileJournal(File profileDirectory, long checkpoint) throws IOException {
+		this.file = getJournalFile(profileDirectory, checkpoint);
+		this.checkpoint = checkpoint;
+		if (file.exists())
+			readEntries();
+	}
+
+	private void readEntries() throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			while (true) {
+				long timestamp;
+				byte kind;
+				int entryLength;
+				try {
+					timestamp = in.readLong();
+					kind = in.readByte();
+					entryLength = in.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+				if (entryLength < 0 || !skipFully(in, entryLength))
+					break;
+				entries.add(new Entry(timestamp, kind, entryLength));
+				length += 8 + 1 + 4 + entryLength;
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static boolean skipFully(InputStream in, long count) throws IOException {
+		while (count > 0) {
+			long skipped = in.skip(count);
+			if (skipped <= 0) {
+				// skip may return 0 before the end of the stream is reached
+				if (in.read() < 0)
+					return false;
+				skipped = 1;
+			}
+			count -= skipped;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the timestamp of the checkpoint this journal belongs to.
+	 */
+	public long getCheckpoint() {
+		return checkpoint;
+	}
+
+	/**
+	 * Returns the number of deltas recorded in this journal.
+	 */
+	public int getDeltaCount() {
+		int count = 0;
+		for (Entry entry : entries) {
+			if (entry.kind == ENTRY_DELTA)
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the size in bytes of the complete entries of this journal.
+	 */
+	public long length() {
+		return length;
+	}
+
+	/**
+	 * Returns the timestamp of the most recent profile state recorded by the checkpoint
+	 * and this journal, regardless of whether that state has been removed.
+	 */
+	public long getLatestTimestamp() {
+		long latest = checkpoint;
+		for (Entry entry : entries) {
+			if (entry.kind == ENTRY_DELTA)
+				latest = entry.timestamp;
+		}
+		return latest;
+	}
+
+	/**
+	 * Returns whether the checkpoint or a delta of this journal describes the profile state
+	 * with the given timestamp, and that state has not been removed.
+	 */
+	public boolean contains(long timestamp) {
+		if (isRemoved(timestamp))
+			return false;
+		if (timestamp == checkpoint)
+			return true;
+		for (Entry entry : entries) {
+			if (entry.kind == ENTRY_DELTA && entry.timestamp == timestamp)
+				return true;
+		}
+		return false;
+	}
+
+	private boolean isRemoved(long timestamp) {
+		for (Entry entry : entries) {
+			if (entry.kind == ENTRY_REMOVED && entry.timestamp == timestamp)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the timestamps of the profile states of the checkpoint and this journal
+	 * that have not been removed, in the order they were recorded.
+	 */
+	public long[] getTimestamps() {
+		List<Long> timestamps = new ArrayList<Long>(entries.size() + 1);
+		if (!isRemoved(checkpoint))
+			timestamps.add(new Long(checkpoint));
+		for (Entry entry : entries) {
+			if (entry.kind == ENTRY_DELTA && !isRemoved(entry.timestamp))
+				timestamps.add(new Long(entry.timestamp));
+		}
+		long[] result = new long[timestamps.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = timestamps.get(i).longValue();
+		return result;
+	}
+
+	/**
+	 * Reads the payloads of all deltas up to and including the one for the given timestamp,
+	 * in the order they need to be applied to the checkpoint.
+	 */
+	public List<byte[]> readDeltas(long timestamp) throws IOException {
+		List<byte[]> deltas = new ArrayList<byte[]>();
+		if (entries.isEmpty())
+			return deltas;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			for (Entry entry : entries) {
+				in.readLong();
+				in.readByte();
+				in.readInt();
+				if (entry.kind != ENTRY_DELTA) {
+					skipFully(in, entry.length);
+					continue;
+				}
+				if (entry.timestamp > timestamp)
+					break;
+				byte[] delta = new byte[entry.length];
+				in.readFully(delta);
+				deltas.add(delta);
+			}
+		} finally {
+			in.close();
+		}
+		return deltas;
+	}
+
+	/**
+	 * Appends a delta producing the profile state with the given timestamp.
+	 */
+	public void appendDelta(long timestamp, byte[] delta) throws IOException {
+		append(new Entry(timestamp, ENTRY_DELTA, delta.length), delta);
+	}
+
+	/**
+	 * Records that the profile state with the given timestamp has been removed.
+	 */
+	public void appendRemoval(long timestamp) throws IOException {
+		append(new Entry(timestamp, ENTRY_REMOVED, 0), new byte[0]);
+	}
+
+	private void append(Entry entry, byte[] payload) throws IOException {
+		if (file.exists() && file.length() != length)
+			truncate();
+		DataOutputStream out = null;
+		boolean written = false;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+			out.writeLong(entry.timestamp);
+			out.writeByte(entry.kind);
+			out.writeInt(entry.length);
+			out.write(payload);
+			out.close();
+			out = null;
+			written = true;
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+			if (!written && file.exists())
+				truncate();
+		}
+		entries.add(entry);
+		length += 8 + 1 + 4 + payload.length;
+	}
+
+	private void truncate() throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+		try {
+			raf.setLength(length);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Deletes the journal file.
+	 */
+	public boolean delete() {
+		return !file.exists() || file.delete();
+	}
+}
@@ -10,11 +10,10 @@
  *******************************************************************************/
 package org.eclipse.equinox.internal.p2.engine;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.*;
 import org.eclipse.equinox.internal.p2.metadata.repository.io.MetadataParser;
-import org.eclipse.equinox.p2.metadata.IInstallableUnit;
-import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.query.QueryUtil;
 import org.osgi.framework.BundleContext;
 import org.xml.sax.Attributes;
 
@@ -140,8 +139,10 @@ public abstract class ProfileParser extends MetadataParser implements ProfileXML
 		}
 
 		protected void finished() {
-			if (isValidXML() && iuIdentity != null && propertiesHandler != null) {
-				iusPropertiesMap.put(iuIdentity, propertiesHandler.getProperties());
+			if (isValidXML() && iuIdentity != null) {
+				// an element without properties is written by a delta whose unit lost all its properties
+				Map<String, String> properties = propertiesHandler != null ? propertiesHandler.getProperties() : new HashMap<String, String>(0);
+				iusPropertiesMap.put(iuIdentity, properties);
 			}
 		}
 
@@ -177,4 +178,195 @@ public abstract class ProfileParser extends MetadataParser implements ProfileXML
 			}
 		}
 	}
+
+	/**
+	 * Handler for a single profile delta as written by {@link ProfileWriter#writeProfileDelta(Profile, Profile, long)}.
+	 */
+	protected class DeltaHandler extends RootHandler {
+
+		private final String[] required = new String[] {ID_ATTRIBUTE, TIMESTAMP_ATTRIBUTE};
+
+		private String profileId;
+		private String timestamp;
+		private PropertiesHandler propertiesHandler;
+		private RemovedPropertiesHandler removedPropertiesHandler;
+		private InstallableUnitsHandler unitsHandler;
+		private RemovedUnitsHandler removedUnitsHandler;
+		private IUsPropertiesHandler iusPropertiesHandler;
+
+		protected void handleRootAttributes(Attributes attributes) {
+			String[] values = parseRequiredAttributes(attributes, required);
+			profileId = values[0];
+			timestamp = values[1];
+		}
+
+		public void startElement(String name, Attributes attributes) {
+			if (PROPERTIES_ELEMENT.equals(name)) {
+				if (propertiesHandler == null) {
+					propertiesHandler = new PropertiesHandler(this, attributes);
+				} else {
+					duplicateElement(this, name, attributes);
+				}
+			} else if (REMOVED_PROPERTIES_ELEMENT.equals(name)) {
+				if (removedPropertiesHandler == null) {
+					removedPropertiesHandler = new RemovedPropertiesHandler(this, attributes);
+				} else {
+					duplicateElement(this, name, attributes);
+				}
+			} else if (INSTALLABLE_UNITS_ELEMENT.equals(name)) {
+				if (unitsHandler == null) {
+					unitsHandler = new InstallableUnitsHandler(this, attributes);
+				} else {
+					duplicateElement(this, name, attributes);
+				}
+			} else if (REMOVED_UNITS_ELEMENT.equals(name)) {
+				if (removedUnitsHandler == null) {
+					removedUnitsHandler = new RemovedUnitsHandler(this, attributes);
+				} else {
+					duplicateElement(this, name, attributes);
+				}
+			} else if (IUS_PROPERTIES_ELEMENT.equals(name)) {
+				if (iusPropertiesHandler == null) {
+					iusPropertiesHandler = new IUsPropertiesHandler(this, attributes);
+				} else {
+					duplicateElement(this, name, attributes);
+				}
+			} else {
+				invalidElement(name, attributes);
+			}
+		}
+
+		public String getProfileId() {
+			return profileId;
+		}
+
+		public long getTimestamp() {
+			try {
+				return Long.parseLong(timestamp);
+			} catch (NumberFormatException e) {
+				return 0;
+			}
+		}
+
+		/**
+		 * Applies this delta to the given profile.
+		 */
+		public void apply(Profile profile) {
+			if (removedPropertiesHandler != null) {
+				for (String key : removedPropertiesHandler.getKeys())
+					profile.removeProperty(key);
+			}
+			if (propertiesHandler != null)
+				profile.addProperties(propertiesHandler.getProperties());
+
+			if (removedUnitsHandler != null) {
+				for (IVersionedId removed : removedUnitsHandler.getUnits()) {
+					Iterator<IInstallableUnit> matches = profile.query(QueryUtil.createIUQuery(removed), null).iterator();
+					if (matches.hasNext()) {
+						IInstallableUnit iu = matches.next();
+						profile.removeInstallableUnit(iu);
+						profile.clearInstallableUnitProperties(iu);
+					}
+				}
+			}
+			if (unitsHandler != null) {
+				IInstallableUnit[] added = unitsHandler.getUnits();
+				for (int i = 0; i < added.length; i++)
+					profile.addInstallableUnit(added[i]);
+			}
+
+			if (iusPropertiesHandler == null)
+				return;
+			Map<String, Map<String, String>> iusPropertiesMap = iusPropertiesHandler.getIUsPropertiesMap();
+			if (iusPropertiesMap.isEmpty())
+				return;
+			for (Iterator<IInstallableUnit> it = profile.query(QueryUtil.createIUAnyQuery(), null).iterator(); it.hasNext();) {
+				IInstallableUnit iu = it.next();
+				Map<String, String> iuProperties = iusPropertiesMap.get(iu.getId() + "_" + iu.getVersion().toString()); //$NON-NLS-1$
+				if (iuProperties == null)
+					continue;
+				profile.clearInstallableUnitProperties(iu);
+				profile.addInstallableUnitProperties(iu, iuProperties);
+			}
+		}
+	}
+
+	protected class RemovedPropertiesHandler extends AbstractHandler {
+
+		private List<String> keys;
+
+		public RemovedPropertiesHandler(AbstractHandler parentHandler, Attributes attributes) {
+			super(parentHandler, REMOVED_PROPERTIES_ELEMENT);
+			String sizeStr = parseOptionalAttribute(attributes, COLLECTION_SIZE_ATTRIBUTE);
+			keys = new ArrayList<String>(sizeStr != null ? Integer.parseInt(sizeStr) : 4);
+		}
+
+		public List<String> getKeys() {
+			return keys;
+		}
+
+		public void startElement(String name, Attributes attributes) {
+			if (name.equals(PROPERTY_ELEMENT)) {
+				new RemovedPropertyHandler(this, attributes, keys);
+			} else {
+				invalidElement(name, attributes);
+			}
+		}
+	}
+
+	protected class RemovedPropertyHandler extends AbstractHandler {
+
+		private final String[] required = new String[] {PROPERTY_NAME_ATTRIBUTE};
+
+		public RemovedPropertyHandler(AbstractHandler parentHandler, Attributes attributes, List<String> keys) {
+			super(parentHandler, PROPERTY_ELEMENT);
+			String key = parseRequiredAttributes(attributes, required)[0];
+			if (key != null)
+				keys.add(key);
+		}
+
+		public void startElement(String name, Attributes attributes) {
+			invalidElement(name, attributes);
+		}
+	}
+
+	protected class RemovedUnitsHandler extends AbstractHandler {
+
+		private List<IVersionedId> units;
+
+		public RemovedUnitsHandler(AbstractHandler parentHandler, Attributes attributes) {
+			super(parentHandler, REMOVED_UNITS_ELEMENT);
+			String sizeStr = parseOptionalAttribute(attributes, COLLECTION_SIZE_ATTRIBUTE);
+			units = new ArrayList<IVersionedId>(sizeStr != null ? Integer.parseInt(sizeStr) : 4);
+		}
+
+		public List<IVersionedId> getUnits() {
+			return units;
+		}
+
+		public void startElement(String name, Attributes attributes) {
+			if (name.equals(INSTALLABLE_UNIT_ELEMENT)) {
+				new RemovedUnitHandler(this, attributes, units);
+			} else {
+				invalidElement(name, attributes);
+			}
+		}
+	}
+
+	protected class RemovedUnitHandler extends AbstractHandler {
+
+		private final String[] required = new String[] {ID_ATTRIBUTE, VERSION_ATTRIBUTE};
+
+		public RemovedUnitHandler(AbstractHandler parentHandler, Attributes attributes, List<IVersionedId> units) {
+			super(parentHandler, INSTALLABLE_UNIT_ELEMENT);
+			String[] values = parseRequiredAttributes(attributes, required);
+			Version version = checkVersion(INSTALLABLE_UNIT_ELEMENT, VERSION_ATTRIBUTE, values[1]);
+			if (values[0] != null)
+				units.add(new VersionedId(values[0], version));
+		}
+
+		public void startElement(String name, Attributes attributes) {
+			invalidElement(name, attributes);
+		}
+	}
 }
@@ -21,6 +21,16 @@ import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 
 public class ProfileWriter extends MetadataWriter implements ProfileXMLConstants {
 
+	private static final Comparator<IInstallableUnit> UNIT_ORDER = new Comparator<IInstallableUnit>() {
+		public int compare(IInstallableUnit iu1, IInstallableUnit iu2) {
+			int IdCompare = iu1.getId().compareTo(iu2.getId());
+			if (IdCompare != 0)
+				return IdCompare;
+
+			return iu1.getVersion().compareTo(iu2.getVersion());
+		}
+	};
+
 	public ProfileWriter(OutputStream output, ProcessingInstruction[] processingInstructions) throws IOException {
 		super(output, processingInstructions);
 	}
@@ -31,21 +41,110 @@ public class ProfileWriter extends MetadataWriter implements ProfileXMLConstants
 		attribute(TIMESTAMP_ATTRIBUTE, Long.toString(profile.getTimestamp()));
 		writeProperties(profile.getProperties());
 		ArrayList<IInstallableUnit> ius = new ArrayList<IInstallableUnit>(profile.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet());
-		Collections.sort(ius, new Comparator<IInstallableUnit>() {
-			public int compare(IInstallableUnit iu1, IInstallableUnit iu2) {
-				int IdCompare = iu1.getId().compareTo(iu2.getId());
-				if (IdCompare != 0)
-					return IdCompare;
-
-				return iu1.getVersion().compareTo(iu2.getVersion());
-			}
-		});
+		Collections.sort(ius, UNIT_ORDER);
 		writeInstallableUnits(ius.iterator(), ius.size());
 		writeInstallableUnitsProperties(ius.iterator(), ius.size(), profile);
 		end(PROFILE_ELEMENT);
 		flush();
 	}
 
+	/**
+	 * Writes the changes that turn the <code>previous</code> state of a profile into
+	 * the given <code>profile</code>. The resulting document is read back by
+	 * {@link ProfileParser.DeltaHandler}. The properties of a unit whose properties
+	 * changed are written out completely.
+	 */
+	public void writeProfileDelta(Profile previous, Profile profile, long timestamp) {
+		start(DELTA_ELEMENT);
+		attribute(ID_ATTRIBUTE, profile.getProfileId());
+		attribute(TIMESTAMP_ATTRIBUTE, Long.toString(timestamp));
+
+		Map<String, String> previousProperties = previous.getLocalProperties();
+		Map<String, String> properties = profile.getLocalProperties();
+		Map<String, String> changedProperties = new LinkedHashMap<String, String>();
+		for (Map.Entry<String, String> entry : properties.entrySet()) {
+			if (!entry.getValue().equals(previousProperties.get(entry.getKey())))
+				changedProperties.put(entry.getKey(), entry.getValue());
+		}
+		List<String> removedProperties = new ArrayList<String>();
+		for (String key : previousProperties.keySet()) {
+			if (!properties.containsKey(key))
+				removedProperties.add(key);
+		}
+		writeProperties(changedProperties);
+		writeRemovedProperties(removedProperties);
+
+		Set<IInstallableUnit> previousUnits = previous.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet();
+		Set<IInstallableUnit> units = profile.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet();
+		ArrayList<IInstallableUnit> ius = new ArrayList<IInstallableUnit>(units);
+		Collections.sort(ius, UNIT_ORDER);
+		ArrayList<IInstallableUnit> addedUnits = new ArrayList<IInstallableUnit>();
+		ArrayList<IInstallableUnit> changedUnits = new ArrayList<IInstallableUnit>();
+		for (IInstallableUnit iu : ius) {
+			Map<String, String> iuProperties = profile.getInstallableUnitProperties(iu);
+			if (!previousUnits.contains(iu)) {
+				addedUnits.add(iu);
+				if (!iuProperties.isEmpty())
+					changedUnits.add(iu);
+			} else if (!iuProperties.equals(previous.getInstallableUnitProperties(iu)))
+				changedUnits.add(iu);
+		}
+		ArrayList<IInstallableUnit> removedUnits = new ArrayList<IInstallableUnit>();
+		for (IInstallableUnit iu : previousUnits) {
+			if (!units.contains(iu))
+				removedUnits.add(iu);
+		}
+		Collections.sort(removedUnits, UNIT_ORDER);
+
+		writeInstallableUnits(addedUnits.iterator(), addedUnits.size());
+		writeRemovedUnits(removedUnits);
+		writeChangedInstallableUnitsProperties(changedUnits, profile);
+		end(DELTA_ELEMENT);
+		flush();
+	}
+
+	private void writeRemovedProperties(List<String> keys) {
+		if (keys.isEmpty())
+			return;
+		start(REMOVED_PROPERTIES_ELEMENT);
+		attribute(COLLECTION_SIZE_ATTRIBUTE, keys.size());
+		for (String key : keys) {
+			start(PROPERTY_ELEMENT);
+			attribute(PROPERTY_NAME_ATTRIBUTE, key);
+			end(PROPERTY_ELEMENT);
+		}
+		end(REMOVED_PROPERTIES_ELEMENT);
+	}
+
+	private void writeRemovedUnits(List<IInstallableUnit> units) {
+		if (units.isEmpty())
+			return;
+		start(REMOVED_UNITS_ELEMENT);
+		attribute(COLLECTION_SIZE_ATTRIBUTE, units.size());
+		for (IInstallableUnit iu : units) {
+			start(INSTALLABLE_UNIT_ELEMENT);
+			attribute(ID_ATTRIBUTE, iu.getId());
+			attribute(VERSION_ATTRIBUTE, iu.getVersion().toString());
+			end(INSTALLABLE_UNIT_ELEMENT);
+		}
+		end(REMOVED_UNITS_ELEMENT);
+	}
+
+	private void writeChangedInstallableUnitsProperties(List<IInstallableUnit> units, Profile profile) {
+		if (units.isEmpty())
+			return;
+		start(IUS_PROPERTIES_ELEMENT);
+		attribute(COLLECTION_SIZE_ATTRIBUTE, units.size());
+		for (IInstallableUnit iu : units) {
+			start(IU_PROPERTIES_ELEMENT);
+			attribute(ID_ATTRIBUTE, iu.getId());
+			attribute(VERSION_ATTRIBUTE, iu.getVersion().toString());
+			writeProperties(profile.getInstallableUnitProperties(iu));
+			end(IU_PROPERTIES_ELEMENT);
+		}
+		end(IUS_PROPERTIES_ELEMENT);
+	}
+
 	private void writeInstallableUnitsProperties(Iterator<IInstallableUnit> it, int size, IProfile profile) {
 		if (size == 0)
 			return;
@@ -43,6 +43,11 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	public static final String DEFAULT_STORAGE_DIR = "profileRegistry"; //$NON-NLS-1$
 	private static final String DATA_EXT = ".data"; //$NON-NLS-1$
 
+	// The maximum number of deltas appended to a journal before a new checkpoint is written
+	private static final int MAX_JOURNAL_DELTAS = 100;
+	// The size a journal may always grow to, even if its checkpoint is smaller
+	private static final long MIN_JOURNAL_SIZE = 64 * 1024;
+
 	protected final IProvisioningAgent agent;
 
 	/**
@@ -182,20 +187,68 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		if (!profileDirectory.isDirectory())
 			return null;
 
+		ProfileJournal journal = findJournal(profileDirectory, timestamp);
+		File profileFile;
+		if (journal != null) {
+			// the state is either the checkpoint of the journal or produced by one of its deltas
+			if (!journal.contains(timestamp))
+				return null;
+			profileFile = findProfileFile(profileDirectory, journal.getCheckpoint());
+		} else
+			profileFile = findProfileFile(profileDirectory, timestamp);
+		if (profileFile == null)
+			return null;
+
+		Parser parser = new Parser(EngineActivator.getContext(), EngineActivator.ID);
+		try {
+			parser.parse(profileFile);
+			if (journal != null)
+				parser.addDeltas(id, journal.readDeltas(timestamp));
+		} catch (IOException e) {
+			LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, profileFile), e));
+		}
+		return parser.getProfileMap().get(id);
+	}
+
+	private File findProfileFile(File profileDirectory, long timestamp) {
 		File profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_GZ_EXT);
 		if (!profileFile.exists()) {
 			profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_EXT);
 			if (!profileFile.exists())
 				return null;
 		}
+		return profileFile;
+	}
 
-		Parser parser = new Parser(EngineActivator.getContext(), EngineActivator.ID);
+	/**
+	 * Returns the journal of the most recent checkpoint that is not newer than the given
+	 * timestamp, or <code>null</code> if that checkpoint does not have a journal.
+	 */
+	private ProfileJournal findJournal(File profileDirectory, long timestamp) {
+		long checkpoint = -1;
+		File[] profileFiles = profileDirectory.listFiles(new FileFilter() {
+			public boolean accept(File pathname) {
+				return (pathname.getName().endsWith(PROFILE_GZ_EXT) || pathname.getName().endsWith(PROFILE_EXT)) && pathname.isFile();
+			}
+		});
+		for (int i = 0; i < profileFiles.length; i++) {
+			String fileName = profileFiles[i].getName();
+			try {
+				long profileTimestamp = Long.parseLong(fileName.substring(0, fileName.indexOf(PROFILE_EXT)));
+				if (profileTimestamp <= timestamp && profileTimestamp > checkpoint)
+					checkpoint = profileTimestamp;
+			} catch (NumberFormatException e) {
+				// ignore
+			}
+		}
+		if (checkpoint == -1 || !ProfileJournal.getJournalFile(profileDirectory, checkpoint).exists())
+			return null;
 		try {
-			parser.parse(profileFile);
+			return new ProfileJournal(profileDirectory, checkpoint);
 		} catch (IOException e) {
-			LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, profileFile), e));
+			LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, ProfileJournal.getJournalFile(profileDirectory, checkpoint)), e));
+			return null;
 		}
-		return parser.getProfileMap().get(id);
 	}
 
 	public synchronized long[] listProfileTimestamps(String id) {
@@ -216,14 +269,38 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		});
 
 		long[] timestamps = new long[profileFiles.length];
+		int count = 0;
 		for (int i = 0; i < profileFiles.length; i++) {
 			String filename = profileFiles[i].getName();
 			int extensionIndex = filename.lastIndexOf(PROFILE_EXT);
+			long timestamp;
 			try {
-				timestamps[i] = Long.parseLong(filename.substring(0, extensionIndex));
+				timestamp = Long.parseLong(filename.substring(0, extensionIndex));
 			} catch (NumberFormatException e) {
 				throw new IllegalStateException("Incompatible profile file name. Expected format is {timestamp}" + PROFILE_GZ_EXT + " (or {timestamp}" + PROFILE_EXT + ") but was " + filename + "."); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
 			}
+			// a checkpoint with a journal contributes all the states recorded in the journal
+			long[] states = new long[] {timestamp};
+			File journalFile = ProfileJournal.getJournalFile(profileDirectory, timestamp);
+			if (journalFile.exists()) {
+				try {
+					states = new ProfileJournal(profileDirectory, timestamp).getTimestamps();
+				} catch (IOException e) {
+					LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, journalFile), e));
+				}
+			}
+			if (count + states.length > timestamps.length) {
+				long[] grown = new long[Math.max(timestamps.length * 2, count + states.length)];
+				System.arraycopy(timestamps, 0, grown, 0, count);
+				timestamps = grown;
+			}
+			System.arraycopy(states, 0, timestamps, count, states.length);
+			count += states.length;
+		}
+		if (count != timestamps.length) {
+			long[] trimmed = new long[count];
+			System.arraycopy(timestamps, 0, trimmed, 0, count);
+			timestamps = trimmed;
 		}
 		Arrays.sort(timestamps);
 		return timestamps;
@@ -291,6 +368,9 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		ProfileLock lock = profileLocks.get(id);
 		lock.checkLocked();
 
+		// the delta has to be computed before the current state is replaced
+		boolean journaled = shouldJournal() && journalProfile(current, profile);
+
 		current.clearLocalProperties();
 		current.clearInstallableUnits();
 
@@ -303,7 +383,10 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 			if (iuProperties != null)
 				current.addInstallableUnitProperties(iu, iuProperties);
 		}
-		saveProfile(current);
+		if (journaled)
+			current.setChanged(false);
+		else
+			saveProfile(current);
 		profile.clearOrphanedInstallableUnitProperties();
 		profile.setTimestamp(current.getTimestamp());
 		broadcastChangeEvent(id, IProfileEvent.CHANGED);
@@ -387,15 +470,40 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		if (!profileDirectory.isDirectory())
 			return;
 
-		File profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_GZ_EXT);
-		if (!profileFile.exists()) {
-			profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_EXT);
-			if (!profileFile.exists())
-				return;
+		ProfileJournal journal = findJournal(profileDirectory, timestamp);
+		if (journal != null) {
+			removeJournaledProfile(id, profileDirectory, journal, timestamp);
+			return;
 		}
+
+		File profileFile = findProfileFile(profileDirectory, timestamp);
+		if (profileFile == null)
+			return;
 		FileUtils.deleteAll(profileFile);
 	}
 
+	/**
+	 * Removes a profile state recorded by a checkpoint with a journal. The journal is append-only,
+	 * so the state is only marked as removed. The checkpoint and its journal are deleted once all
+	 * of their states have been removed, unless they hold the current state of the profile.
+	 */
+	private void removeJournaledProfile(String id, File profileDirectory, ProfileJournal journal, long timestamp) throws ProvisionException {
+		if (!journal.contains(timestamp))
+			return;
+		try {
+			journal.appendRemoval(timestamp);
+		} catch (IOException e) {
+			throw new ProvisionException(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_persisting_profile, id), e));
+		}
+		if (journal.getTimestamps().length > 0)
+			return;
+		File checkpointFile = findProfileFile(profileDirectory, journal.getCheckpoint());
+		if (checkpointFile != null && !checkpointFile.equals(findLatestProfileFile(profileDirectory))) {
+			FileUtils.deleteAll(checkpointFile);
+			journal.delete();
+		}
+	}
+
 	private void broadcastChangeEvent(String profileId, int reason) {
 		if (eventBus != null)
 			eventBus.publishEvent(new ProfileEvent(profileId, reason));
@@ -431,6 +539,11 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 					if (profileFile != null) {
 						try {
 							parser.parse(profileFile);
+							long checkpoint = parseTimestamp(profileFile);
+							if (ProfileJournal.getJournalFile(profileDirectories[i], checkpoint).exists()) {
+								profileFile = ProfileJournal.getJournalFile(profileDirectories[i], checkpoint);
+								parser.addDeltas(profileId, new ProfileJournal(profileDirectories[i], checkpoint).readDeltas(Long.MAX_VALUE));
+							}
 						} catch (IOException e) {
 							LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, profileFile), e));
 						}
@@ -471,6 +584,57 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		return latest;
 	}
 
+	private static long parseTimestamp(File profileFile) {
+		String fileName = profileFile.getName();
+		return Long.parseLong(fileName.substring(0, fileName.indexOf(PROFILE_EXT)));
+	}
+
+	/**
+	 * Appends the changes turning the persisted state of a profile into the given update to the
+	 * journal of the latest checkpoint of the profile. Returns <code>false</code> if a complete
+	 * profile file needs to be written instead, either because the journal has outgrown the
+	 * checkpoint or because it could not be written.
+	 */
+	private boolean journalProfile(Profile current, Profile update) {
+		File profileDirectory = new File(store, escape(current.getProfileId()) + PROFILE_EXT);
+		File checkpointFile = findLatestProfileFile(profileDirectory);
+		if (checkpointFile == null)
+			return false;
+
+		long previousTimestamp = current.getTimestamp();
+		try {
+			ProfileJournal journal = new ProfileJournal(profileDirectory, parseTimestamp(checkpointFile));
+			// the journal must end with the state that is being updated
+			if (journal.getLatestTimestamp() != previousTimestamp)
+				return false;
+			// replaying the journal should not cost much more than reading another checkpoint
+			if (journal.getDeltaCount() >= MAX_JOURNAL_DELTAS || journal.length() >= Math.max(checkpointFile.length(), MIN_JOURNAL_SIZE))
+				return false;
+
+			long currentTimestamp = System.currentTimeMillis();
+			if (currentTimestamp <= previousTimestamp)
+				currentTimestamp = previousTimestamp + 1;
+
+			ByteArrayOutputStream delta = new ByteArrayOutputStream();
+			OutputStream os = new GZIPOutputStream(delta);
+			try {
+				Writer writer = new Writer(os);
+				writer.writeProfileDelta(current, update, currentTimestamp);
+			} finally {
+				os.close();
+			}
+
+			if (DebugHelper.DEBUG_PROFILE_REGISTRY)
+				DebugHelper.debug(PROFILE_REGISTRY, "Appending profile delta " + currentTimestamp + " to: " + ProfileJournal.getJournalFile(profileDirectory, journal.getCheckpoint()).getAbsolutePath()); //$NON-NLS-1$ //$NON-NLS-2$
+			journal.appendDelta(currentTimestamp, delta.toByteArray());
+			current.setTimestamp(currentTimestamp);
+			return true;
+		} catch (IOException e) {
+			LogHelper.log(new Status(IStatus.WARNING, EngineActivator.ID, NLS.bind(Messages.error_persisting_profile, current.getProfileId()), e));
+			return false;
+		}
+	}
+
 	private void saveProfile(Profile profile) {
 		File profileDirectory = new File(store, escape(profile.getProfileId()) + PROFILE_EXT);
 		profileDirectory.mkdir();
@@ -527,6 +691,15 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		return profile.available(QueryUtil.createIUQuery("org.eclipse.equinox.p2.engine", new VersionRange("[0.0.0, 1.0.101)")), null).isEmpty(); //$NON-NLS-1$//$NON-NLS-2$
 	}
 
+	/**
+	 * Returns whether profile updates should be appended to a journal rather than written
+	 * as complete profile files.
+	 */
+	private boolean shouldJournal() {
+		String journal = EngineActivator.getContext().getProperty(EngineActivator.PROP_PROFILE_JOURNAL);
+		return Boolean.valueOf(journal).booleanValue();
+	}
+
 	private void deleteProfile(String profileId) {
 		File profileDirectory = new File(store, escape(profileId) + PROFILE_EXT);
 		FileUtils.deleteAll(profileDirectory);
@@ -593,6 +766,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	 */
 	class Parser extends ProfileParser {
 		private final Map<String, ProfileHandler> profileHandlers = new HashMap<String, ProfileHandler>();
+		private final Map<String, List<byte[]>> profileDeltas = new HashMap<String, List<byte[]>>();
 
 		public Parser(BundleContext context, String bundleId) {
 			super(context, bundleId);
@@ -602,6 +776,14 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 			profileHandlers.put(profileId, new ProfileHandler(profileId));
 		}
 
+		/**
+		 * Adds the gzipped deltas to apply, in order, to the profile with the given id once it
+		 * has been read from its checkpoint.
+		 */
+		public void addDeltas(String profileId, List<byte[]> deltas) {
+			profileDeltas.put(profileId, deltas);
+		}
+
 		public void parse(File file) throws IOException {
 			InputStream is;
 			if (file.getName().endsWith(PROFILE_GZ_EXT)) {
@@ -631,6 +813,25 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 			}
 		}
 
+		public synchronized DeltaHandler parseDelta(InputStream stream) throws IOException {
+			this.status = null;
+			try {
+				getParser();
+				DeltaHandler deltaHandler = new DeltaHandler();
+				xmlReader.setContentHandler(new ProfileDocHandler(DELTA_ELEMENT, deltaHandler));
+				xmlReader.parse(new InputSource(stream));
+				if (!isValidXML())
+					throw new IOException(getStatus().getMessage());
+				return deltaHandler;
+			} catch (SAXException e) {
+				throw new IOException(e.getMessage());
+			} catch (ParserConfigurationException e) {
+				throw new IOException(e.getMessage());
+			} finally {
+				stream.close();
+			}
+		}
+
 		protected Object getRootObject() {
 			return this;
 		}
@@ -675,10 +876,28 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 					}
 				}
 			}
+			applyDeltas(profile);
 			profile.setChanged(false);
 			profileMap.put(profileId, profile);
 		}
 
+		private void applyDeltas(Profile profile) {
+			List<byte[]> deltas = profileDeltas.get(profile.getProfileId());
+			if (deltas == null)
+				return;
+			for (byte[] delta : deltas) {
+				try {
+					DeltaHandler deltaHandler = parseDelta(new BufferedInputStream(new GZIPInputStream(new ByteArrayInputStream(delta))));
+					deltaHandler.apply(profile);
+					profile.setTimestamp(deltaHandler.getTimestamp());
+				} catch (IOException e) {
+					// later deltas depend on this one, so the profile is left at the last good state
+					LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, profile.getProfileId()), e));
+					return;
+				}
+			}
+		}
+
 		private final class ProfileDocHandler extends DocHandler {
 
 			public ProfileDocHandler(String rootName, RootHandler rootHandler) {
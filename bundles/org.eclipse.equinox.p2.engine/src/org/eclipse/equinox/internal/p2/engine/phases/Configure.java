@@ -39,6 +39,10 @@ public class Configure extends InstallableUnitPhase {
 		return getActions(unit, phaseId);
 	}
 
+	protected boolean isParallelizable() {
+		return true;
+	}
+
 	protected String getProblemMessage() {
 		return Messages.Phase_Configure_Error;
 	}
@@ -106,6 +106,10 @@ public class Install extends InstallableUnitPhase {
 		return actions;
 	}
 
+	protected boolean isParallelizable() {
+		return true;
+	}
+
 	protected String getProblemMessage() {
 		return Messages.Phase_Install_Error;
 	}
@@ -45,6 +45,10 @@ public class Unconfigure extends InstallableUnitPhase {
 		return getActions(unit, phaseId);
 	}
 
+	protected boolean isParallelizable() {
+		return true;
+	}
+
 	protected String getProblemMessage() {
 		return Messages.Phase_Unconfigure_Error;
 	}
@@ -107,6 +107,10 @@ public class Uninstall extends InstallableUnitPhase {
 		return actions;
 	}
 
+	protected boolean isParallelizable() {
+		return true;
+	}
+
 	protected String getProblemMessage() {
 		return Messages.Phase_Uninstall_Error;
 	}
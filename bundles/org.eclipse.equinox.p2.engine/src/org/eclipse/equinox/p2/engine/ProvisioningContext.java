@@ -16,6 +16,7 @@ import java.net.URI;
 import java.util.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.engine.DebugHelper;
+import org.eclipse.equinox.internal.p2.repository.helpers.AbstractRepositoryManager;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.metadata.IArtifactKey;
@@ -152,7 +153,8 @@ public class ProvisioningContext {
 		Arrays.sort(repositories, LOCAL_FIRST_COMPARATOR);
 
 		List<IArtifactRepository> repos = new ArrayList<IArtifactRepository>();
-		SubMonitor sub = SubMonitor.convert(monitor, (repositories.length + 1) * 100);
+		SubMonitor sub = SubMonitor.convert(monitor, (repositories.length * 2 + 1) * 100);
+		loadRepositories(repoManager, repositories, sub.newChild(repositories.length * 100));
 		for (int i = 0; i < repositories.length; i++) {
 			if (sub.isCanceled())
 				throw new OperationCanceledException();
@@ -167,8 +169,10 @@ public class ProvisioningContext {
 		}
 		// Are there any extra artifact repository references to consider?
 		if (referencedArtifactRepositories != null && referencedArtifactRepositories.size() > 0 && shouldFollowArtifactReferences()) {
-			SubMonitor innerSub = SubMonitor.convert(sub.newChild(100), referencedArtifactRepositories.size() * 100);
-			for (URI referencedURI : referencedArtifactRepositories.values()) {
+			SubMonitor innerSub = SubMonitor.convert(sub.newChild(100), referencedArtifactRepositories.size() * 200);
+			Collection<URI> referencedURIs = referencedArtifactRepositories.values();
+			loadRepositories(repoManager, referencedURIs.toArray(new URI[referencedURIs.size()]), innerSub.newChild(referencedURIs.size() * 100));
+			for (URI referencedURI : referencedURIs) {
 				try {
 					repos.add(repoManager.loadRepository(referencedURI, innerSub.newChild(100)));
 				} catch (ProvisionException e) {
@@ -184,7 +188,8 @@ public class ProvisioningContext {
 		URI[] repositories = metadataRepositories == null ? repoManager.getKnownRepositories(IRepositoryManager.REPOSITORIES_ALL) : metadataRepositories;
 
 		HashMap<String, IMetadataRepository> repos = new HashMap<String, IMetadataRepository>();
-		SubMonitor sub = SubMonitor.convert(monitor, repositories.length * 100);
+		SubMonitor sub = SubMonitor.convert(monitor, repositories.length * 200);
+		loadRepositories(repoManager, repositories, sub.newChild(repositories.length * 100));
 
 		// Clear out the list of remembered artifact repositories
 		referencedArtifactRepositories = new HashMap<String, URI>();
@@ -198,6 +203,15 @@ public class ProvisioningContext {
 		return set;
 	}
 
+	/**
+	 * Loads the repositories at the given locations, several at a time, when the manager
+	 * supports it. The repositories are then retrieved one by one from the manager.
+	 */
+	private static void loadRepositories(IRepositoryManager<?> manager, URI[] locations, IProgressMonitor monitor) {
+		if (manager instanceof AbstractRepositoryManager<?> && locations.length > 1)
+			((AbstractRepositoryManager<?>) manager).loadRepositories(locations, monitor);
+	}
+
 	private void loadMetadataRepository(IMetadataRepositoryManager manager, URI location, HashMap<String, IMetadataRepository> repos, boolean followMetadataRepoReferences, IProgressMonitor monitor) {
 		// if we've already processed this repo, don't do it again.  This keeps us from getting
 		// caught up in circular references.
@@ -15,8 +15,8 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.equinox.internal.p2.core.helpers.Tracing;
 import org.eclipse.equinox.p2.metadata.IArtifactKey;
-import org.eclipse.equinox.p2.query.*;
 import org.eclipse.equinox.p2.repository.IRunnableWithProgress;
+import org.eclipse.equinox.p2.repository.artifact.ArtifactKeyQuery;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
 
 /**
@@ -35,14 +35,26 @@ public class CoreGarbageCollector {
 	 * in aRepository that are not mapped to by an IArtifactKey in markSet
 	 */
 	public synchronized void clean(IArtifactKey[] markSet, final IArtifactRepository aRepository) {
-		Set<IArtifactKey> set = new HashSet<IArtifactKey>(Arrays.asList(markSet));
-		//this query will match all artifact keys that are not in the given set
-		IQuery<IArtifactKey> query = QueryUtil.createQuery(IArtifactKey.class, "unique($0)", set); //$NON-NLS-1$
-		final IQueryResult<IArtifactKey> inactive = aRepository.query(query, null);
+		clean(new HashSet<IArtifactKey>(Arrays.asList(markSet)), aRepository);
+	}
+
+	/**
+	 * Given a set of IArtifactKeys and an IArtifactRepository, removes all artifacts
+	 * in aRepository that are not mapped to by an IArtifactKey in markSet. The keys of
+	 * the repository are checked against the set one by one and the artifacts are removed
+	 * in a single batch, so the repository is saved once.
+	 */
+	public synchronized void clean(final Set<IArtifactKey> markSet, final IArtifactRepository aRepository) {
 		aRepository.executeBatch(new IRunnableWithProgress() {
 			public void run(IProgressMonitor monitor) {
-				for (Iterator<IArtifactKey> iterator = inactive.iterator(); iterator.hasNext();) {
+				// gather the unmarked keys first since the repository must not change while it is iterated
+				List<IArtifactKey> inactive = new ArrayList<IArtifactKey>();
+				for (Iterator<IArtifactKey> iterator = aRepository.query(ArtifactKeyQuery.ALL_KEYS, null).iterator(); iterator.hasNext();) {
 					IArtifactKey key = iterator.next();
+					if (!markSet.contains(key))
+						inactive.add(key);
+				}
+				for (IArtifactKey key : inactive) {
 					aRepository.removeDescriptor(key);
 					if (debugMode) {
 						Tracing.debug("Key removed:" + key); //$NON-NLS-1$
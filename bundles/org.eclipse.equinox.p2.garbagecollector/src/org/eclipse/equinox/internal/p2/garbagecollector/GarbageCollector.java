@@ -10,6 +10,7 @@
  *******************************************************************************/
 package org.eclipse.equinox.internal.p2.garbagecollector;
 
+import java.net.URI;
 import java.util.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.core.runtime.preferences.*;
@@ -20,6 +21,7 @@ import org.eclipse.equinox.internal.provisional.p2.core.eventbus.SynchronousProv
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.core.spi.IAgentService;
 import org.eclipse.equinox.p2.engine.IProfile;
+import org.eclipse.equinox.p2.engine.IProfileEvent;
 import org.eclipse.equinox.p2.engine.IProfileRegistry;
 import org.eclipse.equinox.p2.metadata.IArtifactKey;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
@@ -35,6 +37,11 @@ import org.osgi.service.prefs.Preferences;
  * Then, the MarkSets are obtained for every other registered Profile in a similar fashion.  Each MarkSet is
  * checked to see if its artifact repository is already a key in markSet.  If so, that MarkSet's artifact keys 
  * are added to the list that is mapped to by the artifact repository. 
+ * 
+ * The MarkSets of each profile are remembered along with the timestamp of the profile, so that the other
+ * registered Profiles are only traversed again by the next run once they have changed. Each run only keeps
+ * the MarkSets of the profiles that are still registered, and the MarkSets of a profile are dropped as soon
+ * as the profile is removed.
  */
 public class GarbageCollector implements SynchronousProvisioningListener, IAgentService {
 	/**
@@ -45,10 +52,11 @@ public class GarbageCollector implements SynchronousProvisioningListener, IAgent
 	private class ParameterizedSafeRunnable implements ISafeRunnable {
 		IProfile aProfile;
 		MarkSet[] aProfileMarkSets;
-		IConfigurationElement cfg;
+		MarkSetProvider aMarkSetProvider;
+		boolean failed;
 
-		public ParameterizedSafeRunnable(IConfigurationElement runtAttribute, IProfile profile) {
-			cfg = runtAttribute;
+		public ParameterizedSafeRunnable(MarkSetProvider provider, IProfile profile) {
+			aMarkSetProvider = provider;
 			aProfile = profile;
 		}
 
@@ -57,19 +65,29 @@ public class GarbageCollector implements SynchronousProvisioningListener, IAgent
 		}
 
 		public void handleException(Throwable exception) {
+			failed = true;
 			LogHelper.log(new Status(IStatus.ERROR, GCActivator.ID, Messages.Error_in_extension, exception));
 		}
 
 		public void run() throws Exception {
-			MarkSetProvider aMarkSetProvider = (MarkSetProvider) cfg.createExecutableExtension(ATTRIBUTE_CLASS);
-			if (aMarkSetProvider == null) {
-				aProfileMarkSets = null;
-				return;
-			}
 			aProfileMarkSets = aMarkSetProvider.getMarkSets(agent, aProfile);
 		}
 	}
 
+	/**
+	 * The mark sets contributed for a profile, remembered so that a profile is only
+	 * traversed again once it has changed.
+	 */
+	private static class ProfileMarkSets {
+		final long timestamp;
+		final MarkSet[] markSets;
+
+		ProfileMarkSets(long timestamp, MarkSet[] markSets) {
+			this.timestamp = timestamp;
+			this.markSets = markSets;
+		}
+	}
+
 	private static final String ATTRIBUTE_CLASS = "class"; //$NON-NLS-1$
 
 	private static final String PT_MARKSET = GCActivator.ID + ".marksetproviders"; //$NON-NLS-1$
@@ -79,9 +97,20 @@ public class GarbageCollector implements SynchronousProvisioningListener, IAgent
 	String uninstallEventProfileId = null;
 
 	/**
-	 * Maps IArtifactRepository objects to their respective "marked set" of IArtifactKeys
+	 * Maps the locations of the IArtifactRepository objects being collected to their respective
+	 * "marked set" of IArtifactKeys
+	 */
+	private Map<URI, Set<IArtifactKey>> markSet;
+
+	/**
+	 * Maps the locations of the IArtifactRepository objects being collected to the repositories
+	 */
+	private Map<URI, IArtifactRepository> repositories;
+
+	/**
+	 * The mark sets of the registered profiles traversed by the previous run, by profile id
 	 */
-	private Map<IArtifactRepository, Collection<IArtifactKey>> markSet;
+	private Map<String, ProfileMarkSets> profileMarkSets = new HashMap<String, ProfileMarkSets>();
 
 	public GarbageCollector(IProvisioningAgent agent) {
 		this.agent = agent;
@@ -92,22 +121,15 @@ public class GarbageCollector implements SynchronousProvisioningListener, IAgent
 			keyList.add(keyArray[i]);
 	}
 
-	private void contributeMarkSets(IConfigurationElement runAttribute, IProfile profile, boolean addRepositories) {
-		ParameterizedSafeRunnable providerExecutor = new ParameterizedSafeRunnable(runAttribute, profile);
-		SafeRunner.run(providerExecutor);
-		MarkSet[] aProfileMarkSets = providerExecutor.getResult();
-		if (aProfileMarkSets == null || aProfileMarkSets.length == 0 || aProfileMarkSets[0] == null)
-			return;
-
+	private void contributeMarkSets(MarkSet[] aProfileMarkSets, boolean addRepositories) {
 		for (int i = 0; i < aProfileMarkSets.length; i++) {
-			if (aProfileMarkSets[i] == null) {
-				continue;
-			}
-			Collection<IArtifactKey> keys = markSet.get(aProfileMarkSets[i].getRepo());
+			URI location = aProfileMarkSets[i].getRepo().getLocation();
+			Set<IArtifactKey> keys = markSet.get(location);
 			if (keys == null) {
 				if (addRepositories) {
 					keys = new HashSet<IArtifactKey>();
-					markSet.put(aProfileMarkSets[i].getRepo(), keys);
+					markSet.put(location, keys);
+					repositories.put(location, aProfileMarkSets[i].getRepo());
 					addKeys(keys, aProfileMarkSets[i].getKeys());
 				}
 			} else {
@@ -116,6 +138,62 @@ public class GarbageCollector implements SynchronousProvisioningListener, IAgent
 		}
 	}
 
+	/**
+	 * Returns the mark sets contributed by all providers for the given profile. The mark sets
+	 * of a profile are computed again only when the profile has changed since the previous run.
+	 * Mark sets that a provider failed to compute are not remembered.
+	 */
+	private MarkSet[] getMarkSets(MarkSetProvider[] providers, IProfile profile, Map<String, ProfileMarkSets> previous) {
+		ProfileMarkSets cached = previous.get(profile.getProfileId());
+		if (cached != null && cached.timestamp == profile.getTimestamp() && profile.getTimestamp() != 0) {
+			profileMarkSets.put(profile.getProfileId(), cached);
+			return cached.markSets;
+		}
+
+		List<MarkSet> result = new ArrayList<MarkSet>();
+		boolean failed = false;
+		for (int i = 0; i < providers.length; i++) {
+			ParameterizedSafeRunnable providerExecutor = new ParameterizedSafeRunnable(providers[i], profile);
+			SafeRunner.run(providerExecutor);
+			failed |= providerExecutor.failed;
+			MarkSet[] aProfileMarkSets = providerExecutor.getResult();
+			if (aProfileMarkSets == null || aProfileMarkSets.length == 0 || aProfileMarkSets[0] == null)
+				continue;
+			for (int j = 0; j < aProfileMarkSets.length; j++) {
+				if (aProfileMarkSets[j] != null)
+					result.add(aProfileMarkSets[j]);
+			}
+		}
+		MarkSet[] markSets = result.toArray(new MarkSet[result.size()]);
+		if (!failed)
+			profileMarkSets.put(profile.getProfileId(), new ProfileMarkSets(profile.getTimestamp(), markSets));
+		return markSets;
+	}
+
+	private MarkSetProvider[] getMarkSetProviders() {
+		IExtensionRegistry registry = RegistryFactory.getRegistry();
+		IConfigurationElement[] configElts = registry.getConfigurationElementsFor(PT_MARKSET);
+		final List<MarkSetProvider> providers = new ArrayList<MarkSetProvider>(configElts.length);
+		for (int i = 0; i < configElts.length; i++) {
+			if (!(configElts[i].getName().equals("run"))) { //$NON-NLS-1$
+				continue;
+			}
+			final IConfigurationElement runAttribute = configElts[i];
+			SafeRunner.run(new ISafeRunnable() {
+				public void handleException(Throwable exception) {
+					LogHelper.log(new Status(IStatus.ERROR, GCActivator.ID, Messages.Error_in_extension, exception));
+				}
+
+				public void run() throws Exception {
+					MarkSetProvider provider = (MarkSetProvider) runAttribute.createExecutableExtension(ATTRIBUTE_CLASS);
+					if (provider != null)
+						providers.add(provider);
+				}
+			});
+		}
+		return providers.toArray(new MarkSetProvider[providers.size()]);
+	}
+
 	protected boolean getBooleanPreference(String key, boolean defaultValue) {
 		IPreferencesService prefService = (IPreferencesService) GCActivator.getService(IPreferencesService.class.getName());
 		if (prefService == null)
@@ -128,11 +206,8 @@ public class GarbageCollector implements SynchronousProvisioningListener, IAgent
 	}
 
 	private void invokeCoreGC() {
-		for (IArtifactRepository nextRepo : markSet.keySet()) {
-			IArtifactKey[] keys = markSet.get(nextRepo).toArray(new IArtifactKey[0]);
-			MarkSet aMarkSet = new MarkSet(keys, nextRepo);
-			new CoreGarbageCollector().clean(aMarkSet.getKeys(), aMarkSet.getRepo());
-		}
+		for (URI location : markSet.keySet())
+			new CoreGarbageCollector().clean(markSet.get(location), repositories.get(location));
 	}
 
 	public void notify(EventObject o) {
@@ -151,19 +226,49 @@ public class GarbageCollector implements SynchronousProvisioningListener, IAgent
 		} else if (o instanceof RollbackOperationEvent) {
 			if (uninstallEventProfileId != null && uninstallEventProfileId.equals(((RollbackOperationEvent) o).getProfile().getProfileId()))
 				uninstallEventProfileId = null;
+		} else if (o instanceof IProfileEvent) {
+			IProfileEvent event = (IProfileEvent) o;
+			if (event.getReason() == IProfileEvent.REMOVED)
+				removeProfileMarkSets(event.getProfileId());
 		}
 	}
 
-	public void runGC(IProfile profile) {
-		markSet = new HashMap<IArtifactRepository, Collection<IArtifactKey>>();
-		if (!traverseMainProfile(profile))
-			return;
+	private synchronized void removeProfileMarkSets(String profileId) {
+		profileMarkSets.remove(profileId);
+	}
+
+	/**
+	 * Returns the mark sets remembered for the profile with the given id, or <code>null</code>
+	 * if the profile is traversed again by the next run.
+	 * <p>
+	 * Not for general use: public for testing purposes only.
+	 * </p>
+	 */
+	public synchronized MarkSet[] getProfileMarkSets(String profileId) {
+		ProfileMarkSets cached = profileMarkSets.get(profileId);
+		return cached == null ? null : cached.markSets;
+	}
+
+	public synchronized void runGC(IProfile profile) {
+		markSet = new HashMap<URI, Set<IArtifactKey>>();
+		repositories = new HashMap<URI, IArtifactRepository>();
+		Map<String, ProfileMarkSets> previous = profileMarkSets;
+		profileMarkSets = new HashMap<String, ProfileMarkSets>();
+		try {
+			MarkSetProvider[] providers = getMarkSetProviders();
+			//First we collect all repos and keys for the profile being GC'ed, always traversing it
+			//again so that the repositories being collected are the current ones
+			contributeMarkSets(getMarkSets(providers, profile, Collections.<String, ProfileMarkSets> emptyMap()), true);
 
-		//Complete each MarkSet with the MarkSets provided by all of the other registered Profiles
-		traverseRegisteredProfiles();
+			//Complete each MarkSet with the MarkSets provided by all of the other registered Profiles
+			traverseRegisteredProfiles(providers, profile, previous);
 
-		//Run the GC on each MarkSet
-		invokeCoreGC();
+			//Run the GC on each MarkSet
+			invokeCoreGC();
+		} finally {
+			markSet = null;
+			repositories = null;
+		}
 	}
 
 	/*(non-Javadoc)
@@ -185,45 +290,16 @@ public class GarbageCollector implements SynchronousProvisioningListener, IAgent
 			eventBus.removeListener(this);
 	}
 
-	private boolean traverseMainProfile(IProfile profile) {
-		IExtensionRegistry registry = RegistryFactory.getRegistry();
-		IConfigurationElement[] configElts = registry.getConfigurationElementsFor(PT_MARKSET);
-
-		//First we collect all repos and keys for the profile being GC'ed
-		for (int i = 0; i < configElts.length; i++) {
-			if (!(configElts[i].getName().equals("run"))) { //$NON-NLS-1$
-				continue;
-			}
-			IConfigurationElement runAttribute = configElts[i];
-			if (runAttribute == null) {
-				continue;
-			}
-
-			contributeMarkSets(runAttribute, profile, true);
-		}
-		return true;
-	}
-
-	private void traverseRegisteredProfiles() {
-		IExtensionRegistry registry = RegistryFactory.getRegistry();
-		IConfigurationElement[] configElts = registry.getConfigurationElementsFor(PT_MARKSET);
-		for (int i = 0; i < configElts.length; i++) {
-			if (!(configElts[i].getName().equals("run"))) { //$NON-NLS-1$
-				continue;
-			}
-			IConfigurationElement runAttribute = configElts[i];
-			if (runAttribute == null) {
+	private void traverseRegisteredProfiles(MarkSetProvider[] providers, IProfile profile, Map<String, ProfileMarkSets> previous) {
+		IProfileRegistry profileRegistry = (IProfileRegistry) agent.getService(IProfileRegistry.SERVICE_NAME);
+		if (profileRegistry == null)
+			return;
+		IProfile[] registeredProfiles = profileRegistry.getProfiles();
+		for (int i = 0; i < registeredProfiles.length; i++) {
+			// the profile being collected has already been traversed
+			if (registeredProfiles[i].getProfileId().equals(profile.getProfileId()) && registeredProfiles[i].getTimestamp() == profile.getTimestamp())
 				continue;
-			}
-
-			IProfileRegistry profileRegistry = (IProfileRegistry) agent.getService(IProfileRegistry.SERVICE_NAME);
-			if (profileRegistry == null)
-				return;
-			IProfile[] registeredProfiles = profileRegistry.getProfiles();
-
-			for (int j = 0; j < registeredProfiles.length; j++) {
-				contributeMarkSets(runAttribute, registeredProfiles[j], false);
-			}
+			contributeMarkSets(getMarkSets(providers, registeredProfiles[i], previous), false);
 		}
 	}
 }
@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.repository;
+
+import java.util.Collection;
+import org.eclipse.equinox.internal.p2.metadata.index.CapabilityIndex;
+import org.eclipse.equinox.internal.p2.metadata.repository.io.BinaryMetadataTable;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+
+/**
+ * A capability index that is backed by the capability section of a {@link BinaryMetadataTable}.
+ * Only the units that provide a queried capability are materialized.
+ */
+public class BinaryCapabilityIndex extends CapabilityIndex {
+	private final BinaryMetadataTable table;
+
+	public BinaryCapabilityIndex(BinaryMetadataTable table) {
+		this.table = table;
+	}
+
+	protected Collection<IInstallableUnit> getMatchingIUs(String name) {
+		return table.getUnitsByCapability(name);
+	}
+
+	protected void collectMatchingIUs(String name, Collection<IInstallableUnit> collector) {
+		table.collectUnitsByCapability(name, collector);
+	}
+}
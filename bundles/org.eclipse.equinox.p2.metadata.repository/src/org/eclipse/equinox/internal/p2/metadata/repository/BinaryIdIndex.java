@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.repository;
+
+import java.util.*;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.internal.p2.metadata.index.Index;
+import org.eclipse.equinox.internal.p2.metadata.repository.io.BinaryMetadataTable;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.expression.IEvaluationContext;
+import org.eclipse.equinox.p2.metadata.expression.IExpression;
+
+/**
+ * An id index that is backed by the id section of a {@link BinaryMetadataTable}.
+ * Only the units with a queried id are materialized.
+ */
+public class BinaryIdIndex extends Index<IInstallableUnit> {
+	private final BinaryMetadataTable table;
+
+	public BinaryIdIndex(BinaryMetadataTable table) {
+		this.table = table;
+	}
+
+	public Iterator<IInstallableUnit> getCandidates(IEvaluationContext ctx, IExpression variable, IExpression booleanExpr) {
+		Object queriedKeys = getQueriedIDs(ctx, variable, InstallableUnit.MEMBER_ID, booleanExpr, null);
+		if (queriedKeys == null)
+			return null;
+
+		if (queriedKeys instanceof Collection<?>) {
+			HashSet<IInstallableUnit> collector = new HashSet<IInstallableUnit>();
+			for (Object key : (Collection<?>) queriedKeys)
+				collector.addAll(table.getUnits((String) key));
+			return collector.iterator();
+		}
+		return table.getUnits((String) queriedKeys).iterator();
+	}
+}
@@ -19,6 +19,7 @@ import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
+import org.eclipse.equinox.internal.p2.repository.helpers.CompositeChildRunner;
 import org.eclipse.equinox.internal.p2.persistence.CompositeRepositoryIO;
 import org.eclipse.equinox.internal.p2.persistence.CompositeRepositoryState;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
@@ -46,6 +47,8 @@ public class CompositeMetadataRepository extends AbstractMetadataRepository impl
 	private List<URI> childrenURIs = new ArrayList<URI>();
 	// keep a list of the repositories that we have successfully loaded
 	private List<IMetadataRepository> loadedRepos = new ArrayList<IMetadataRepository>();
+	// the loaded repositories as a whole, sharing their indexes when none of them can change
+	private volatile IIndexProvider<IInstallableUnit> compound;
 	private IMetadataRepositoryManager manager;
 
 	/**
@@ -102,8 +105,7 @@ public class CompositeMetadataRepository extends AbstractMetadataRepository impl
 	CompositeMetadataRepository(IMetadataRepositoryManager manager, CompositeRepositoryState state) {
 		super(manager.getAgent(), state.getName(), state.getType(), state.getVersion(), state.getLocation(), state.getDescription(), state.getProvider(), state.getProperties());
 		this.manager = manager;
-		for (int i = 0; i < state.getChildren().length; i++)
-			addChild(state.getChildren()[i], false);
+		addChildren(state.getChildren(), false);
 	}
 
 	/*
@@ -132,22 +134,48 @@ public class CompositeMetadataRepository extends AbstractMetadataRepository impl
 			monitor = new NullProgressMonitor();
 		try {
 			// Query all the all the repositories this composite repo contains
-			IQueryable<IInstallableUnit> queryable = QueryUtil.compoundQueryable(loadedRepos);
-			return queryable.query(query, monitor);
+			return CompositeChildRunner.query(loadedRepos, query, monitor, CompositeChildRunner.getMaxThreads(getProperties()));
 		} finally {
 			if (monitor != null)
 				monitor.done();
 		}
 	}
 
-	private void addChild(URI childURI, boolean save) {
-		URI absolute = URIUtil.makeAbsolute(childURI, getLocation());
-		if (childrenURIs.contains(childURI) || childrenURIs.contains(absolute))
+	/*
+	 * Adds the given children and loads them, several at a time. The children that
+	 * could be loaded are remembered in the order in which they are given.
+	 */
+	private void addChildren(URI[] children, boolean save) {
+		List<URI> added = new ArrayList<URI>(children.length);
+		for (int i = 0; i < children.length; i++) {
+			URI absolute = URIUtil.makeAbsolute(children[i], getLocation());
+			if (childrenURIs.contains(children[i]) || childrenURIs.contains(absolute))
+				continue;
+			// always add the URI to the list of child URIs (even if we can't load it later)
+			childrenURIs.add(children[i]);
+			added.add(absolute);
+		}
+		if (added.isEmpty())
 			return;
-		// always add the URI to the list of child URIs (even if we can't load it later)
-		childrenURIs.add(childURI);
 		if (save)
 			save();
+		List<IMetadataRepository> loaded = CompositeChildRunner.run(added, new CompositeChildRunner.Task<URI, IMetadataRepository>() {
+			public IMetadataRepository run(URI child) {
+				return loadChild(child);
+			}
+		}, CompositeChildRunner.getMaxThreads(getProperties()));
+		for (IMetadataRepository currentRepo : loaded) {
+			// we successfully loaded the repo so remember it
+			if (currentRepo != null)
+				loadedRepos.add(currentRepo);
+		}
+		compound = null;
+	}
+
+	/*
+	 * Loads the child at the given absolute location, or returns null if it cannot be loaded.
+	 */
+	IMetadataRepository loadChild(URI absolute) {
 		try {
 			boolean currentLoaded = getManager().contains(absolute);
 			IMetadataRepository currentRepo = getManager().loadRepository(absolute, null);
@@ -157,11 +185,11 @@ public class CompositeMetadataRepository extends AbstractMetadataRepository impl
 				//set repository to system to hide from users
 				getManager().setRepositoryProperty(absolute, IRepository.PROP_SYSTEM, String.valueOf(true));
 			}
-			// we successfully loaded the repo so remember it
-			loadedRepos.add(currentRepo);
+			return currentRepo;
 		} catch (ProvisionException e) {
 			//repository failed to load. fall through
 			LogHelper.log(e);
+			return null;
 		}
 	}
 
@@ -169,7 +197,7 @@ public class CompositeMetadataRepository extends AbstractMetadataRepository impl
 	 * @see org.eclipse.equinox.p2.repository.ICompositeRepository#addChild(java.net.URI)
 	 */
 	public void addChild(URI childURI) {
-		addChild(childURI, true);
+		addChildren(new URI[] {childURI}, true);
 	}
 
 	/* (non-Javadoc)
@@ -195,6 +223,7 @@ public class CompositeMetadataRepository extends AbstractMetadataRepository impl
 			}
 			if (found != null)
 				loadedRepos.remove(found);
+			compound = null;
 			save();
 		}
 	}
@@ -205,6 +234,7 @@ public class CompositeMetadataRepository extends AbstractMetadataRepository impl
 	public void removeAllChildren() {
 		childrenURIs.clear();
 		loadedRepos.clear();
+		compound = null;
 		save();
 	}
 
@@ -335,40 +365,43 @@ public class CompositeMetadataRepository extends AbstractMetadataRepository impl
 		setProperties(state.Properties);
 	}
 
+	/*
+	 * Returns the loaded repositories as a whole. When none of them can change, the
+	 * id and capability indexes are built once over the units of all repositories, so
+	 * that a lookup in a composite with many children is a single lookup.
+	 */
+	@SuppressWarnings("unchecked")
+	private synchronized IIndexProvider<IInstallableUnit> getCompound() {
+		if (compound == null) {
+			boolean shareIndexes = loadedRepos.size() > 1;
+			for (IMetadataRepository child : loadedRepos) {
+				if (child.isModifiable())
+					shareIndexes = false;
+			}
+			compound = new CompoundQueryable<IInstallableUnit>(loadedRepos.toArray(new IQueryable[loadedRepos.size()]), shareIndexes);
+		}
+		return compound;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.equinox.p2.metadata.index.IIndexProvider#getIndex(java.lang.String)
 	 */
-	@SuppressWarnings("unchecked")
 	public IIndex<IInstallableUnit> getIndex(String memberName) {
-		IQueryable<IInstallableUnit> queryable = QueryUtil.compoundQueryable(loadedRepos);
-		if (queryable instanceof IIndexProvider<?>) {
-			return ((IIndexProvider<IInstallableUnit>) queryable).getIndex(memberName);
-		}
-		return null;
+		return getCompound().getIndex(memberName);
 	}
 
 	/* (non-Javadoc)
 	 * @see org.eclipse.equinox.p2.metadata.index.IIndexProvider#everything()
 	 */
-	@SuppressWarnings("unchecked")
 	public Iterator<IInstallableUnit> everything() {
-		IQueryable<IInstallableUnit> queryable = QueryUtil.compoundQueryable(loadedRepos);
-		if (queryable instanceof IIndexProvider<?>) {
-			return ((IIndexProvider<IInstallableUnit>) queryable).everything();
-		}
-		return Collections.EMPTY_LIST.iterator();
+		return getCompound().everything();
 	}
 
 	/* (non-Javadoc)
 	 * @see org.eclipse.equinox.p2.metadata.index.IIndexProvider#getManagedProperty(java.lang.Object, java.lang.String, java.lang.Object)
 	 */
-	@SuppressWarnings("unchecked")
 	public Object getManagedProperty(Object client, String memberName, Object key) {
-		IQueryable<IInstallableUnit> queryable = QueryUtil.compoundQueryable(loadedRepos);
-		if (queryable instanceof IIndexProvider<?>) {
-			return ((IIndexProvider<IInstallableUnit>) queryable).getManagedProperty(client, memberName, key);
-		}
-		return null;
+		return getCompound().getManagedProperty(client, memberName, key);
 	}
 
 }
@@ -21,6 +21,7 @@ import org.eclipse.equinox.internal.p2.core.helpers.CollectionUtils;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.p2.metadata.*;
 import org.eclipse.equinox.internal.p2.metadata.index.*;
+import org.eclipse.equinox.internal.p2.metadata.repository.io.*;
 import org.eclipse.equinox.internal.provisional.p2.core.eventbus.IProvisioningEventBus;
 import org.eclipse.equinox.internal.provisional.p2.repository.RepositoryEvent;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
@@ -42,6 +43,12 @@ import org.eclipse.equinox.p2.repository.metadata.spi.AbstractMetadataRepository
  */
 public class LocalMetadataRepository extends AbstractMetadataRepository implements IIndexProvider<IInstallableUnit> {
 
+	/**
+	 * Repository property that, when set to <code>"true"</code>, causes a binary
+	 * <code>content.p2bin</code> file to be written next to the XML content on every save.
+	 */
+	public static final String PROP_BINARY = "p2.binary"; //$NON-NLS-1$
+
 	static final private String CONTENT_FILENAME = "content"; //$NON-NLS-1$
 	static final private String REPOSITORY_TYPE = LocalMetadataRepository.class.getName();
 	static final private Integer REPOSITORY_VERSION = new Integer(1);
@@ -49,6 +56,11 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 	static final private String XML_EXTENSION = ".xml"; //$NON-NLS-1$
 
 	protected IUMap units = new IUMap();
+	/**
+	 * The binary table that holds the units of this repository until they are
+	 * needed in the {@link #units} map, or <code>null</code>.
+	 */
+	private BinaryMetadataTable binaryUnits;
 	protected HashSet<IRepositoryReference> repositories = new HashSet<IRepositoryReference>();
 	private IIndex<IInstallableUnit> idIndex;
 	private IIndex<IInstallableUnit> capabilityIndex;
@@ -75,6 +87,25 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 		return getActualLocation(location, XML_EXTENSION);
 	}
 
+	/**
+	 * Returns the location of the binary content file of the repository at the given location.
+	 */
+	public static File getBinaryLocation(URI location) {
+		return getActualLocation(location, BinaryMetadataConstants.BINARY_EXTENSION);
+	}
+
+	/**
+	 * Returns the XML content file of the repository at the given location, the compressed
+	 * one if it exists, or <code>null</code> if the repository has no XML content file.
+	 */
+	public static File getContentFile(URI location) {
+		File jarFile = getActualLocation(location, JAR_EXTENSION);
+		if (jarFile.exists())
+			return jarFile;
+		File xmlFile = getActualLocation(location);
+		return xmlFile.exists() ? xmlFile : null;
+	}
+
 	/**
 	 * This no argument constructor is called when restoring an existing repository.
 	 */
@@ -102,6 +133,7 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 	public synchronized void addInstallableUnits(Collection<IInstallableUnit> installableUnits) {
 		if (installableUnits == null || installableUnits.isEmpty())
 			return;
+		materializeUnits();
 		if (snapshotNeeded) {
 			units = units.clone();
 			idIndex = null; // Backed by units
@@ -133,6 +165,21 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 	 * @see org.eclipse.equinox.p2.metadata.index.IIndexProvider#getIndex(java.lang.String)
 	 */
 	public synchronized IIndex<IInstallableUnit> getIndex(String memberName) {
+		if (binaryUnits != null) {
+			// Indexes backed by the binary table are immutable, no snapshot is needed
+			if (InstallableUnit.MEMBER_ID.equals(memberName)) {
+				if (idIndex == null)
+					idIndex = new BinaryIdIndex(binaryUnits);
+				return idIndex;
+			}
+			if (InstallableUnit.MEMBER_PROVIDED_CAPABILITIES.equals(memberName)) {
+				if (capabilityIndex == null)
+					capabilityIndex = new BinaryCapabilityIndex(binaryUnits);
+				return capabilityIndex;
+			}
+			return null;
+		}
+
 		if (InstallableUnit.MEMBER_ID.equals(memberName)) {
 			snapshotNeeded = true;
 			if (idIndex == null)
@@ -143,7 +190,7 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 		if (InstallableUnit.MEMBER_PROVIDED_CAPABILITIES.equals(memberName)) {
 			snapshotNeeded = true;
 			if (capabilityIndex == null)
-				capabilityIndex = new CapabilityIndex(units.iterator());
+				capabilityIndex = new CompactCapabilityIndex(units.iterator());
 			return capabilityIndex;
 		}
 		return null;
@@ -180,6 +227,39 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 		publishRepositoryReferences();
 	}
 
+	/**
+	 * Initializes this repository from the given state, leaving the units in the
+	 * given binary table until they are requested or the repository is modified.
+	 */
+	public void initialize(RepositoryState state, BinaryMetadataTable table) {
+		synchronized (this) {
+			binaryUnits = table;
+			idIndex = null;
+			capabilityIndex = null;
+		}
+		initialize(state);
+	}
+
+	// caller should be synchronized
+	/**
+	 * Moves all units of the binary table into the {@link #units} map so that the
+	 * repository can be modified.
+	 */
+	private void materializeUnits() {
+		if (binaryUnits == null)
+			return;
+		// Use a new map since the current one may be shared with an iterator
+		IUMap materialized = new IUMap();
+		Iterator<IInstallableUnit> itor = binaryUnits.iterator();
+		while (itor.hasNext())
+			materialized.add(itor.next());
+		units = materialized;
+		binaryUnits = null;
+		idIndex = null;
+		capabilityIndex = null;
+		snapshotNeeded = false;
+	}
+
 	/**
 	 * Broadcast discovery events for all repositories referenced by this repository.
 	 */
@@ -225,6 +305,8 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 	 * @see org.eclipse.equinox.p2.metadata.index.IIndexProvider#everything()
 	 */
 	public synchronized Iterator<IInstallableUnit> everything() {
+		if (binaryUnits != null)
+			return binaryUnits.iterator();
 		snapshotNeeded = true;
 		return units.iterator();
 	}
@@ -234,6 +316,10 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 	 */
 	@Override
 	public synchronized void removeAll() {
+		if (binaryUnits != null) {
+			binaryUnits = null;
+			idIndex = null;
+		}
 		if (snapshotNeeded) {
 			units = new IUMap();
 			idIndex = null; // Backed by units
@@ -252,6 +338,7 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 		boolean changed = false;
 		if (installableUnits != null && !installableUnits.isEmpty()) {
 			changed = true;
+			materializeUnits();
 			if (snapshotNeeded) {
 				units = units.clone();
 				idIndex = null; // Backed by units
@@ -305,11 +392,38 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 			}
 			super.setProperty(IRepository.PROP_TIMESTAMP, Long.toString(System.currentTimeMillis()));
 			new MetadataRepositoryIO(getProvisioningAgent()).write(this, output);
+			// The binary file is written last so that it is never older than the XML it mirrors
+			saveBinary();
 		} catch (IOException e) {
 			LogHelper.log(new Status(IStatus.ERROR, Activator.ID, ProvisionException.REPOSITORY_FAILED_WRITE, "Error saving metadata repository: " + getLocation(), e)); //$NON-NLS-1$
 		}
 	}
 
+	// caller should be synchronized
+	private void saveBinary() throws IOException {
+		File binaryFile = getBinaryLocation(getLocation());
+		if (!"true".equalsIgnoreCase(getProperty(PROP_BINARY))) { //$NON-NLS-1$
+			// Never leave a stale binary file behind since it would be preferred when loading
+			if (binaryFile.exists())
+				binaryFile.delete();
+			return;
+		}
+		// Write a new file and swap it in so that a failure never leaves a truncated file behind
+		File tempFile = new File(binaryFile.getParentFile(), binaryFile.getName() + ".tmp"); //$NON-NLS-1$
+		Collection<IInstallableUnit> allUnits = new ArrayList<IInstallableUnit>();
+		Iterator<IInstallableUnit> itor = binaryUnits != null ? binaryUnits.iterator() : units.iterator();
+		while (itor.hasNext())
+			allUnits.add(itor.next());
+		new BinaryMetadataWriter(new FileOutputStream(tempFile)).write(this, repositories, allUnits, getContentFile(getLocation()));
+		if (!tempFile.renameTo(binaryFile)) {
+			binaryFile.delete();
+			if (!tempFile.renameTo(binaryFile)) {
+				tempFile.delete();
+				throw new IOException("Unable to replace " + binaryFile); //$NON-NLS-1$
+			}
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.equinox.p2.repository.spi.AbstractRepository#setProperty(java.lang.String, java.lang.String)
 	 */
@@ -26,8 +26,7 @@ import javax.xml.parsers.ParserConfigurationException;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.p2.core.helpers.OrderedProperties;
-import org.eclipse.equinox.internal.p2.metadata.repository.io.MetadataParser;
-import org.eclipse.equinox.internal.p2.metadata.repository.io.MetadataWriter;
+import org.eclipse.equinox.internal.p2.metadata.repository.io.*;
 import org.eclipse.equinox.internal.p2.persistence.XMLWriter;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.core.ProvisionException;
@@ -84,6 +83,47 @@ public class MetadataRepositoryIO {
 		}
 	}
 
+	/**
+	 * Reads a repository from a binary content file written by {@link BinaryMetadataWriter}.
+	 * When the repository is a {@link LocalMetadataRepository} its units are left in the
+	 * binary table and materialized on demand.
+	 * @param contentFile The XML content file of the repository, or <code>null</code> if there is none
+	 * @return The repository or <code>null</code> if the binary file was not written along with the
+	 * given XML content file or if the stored repository type could not be instantiated
+	 * @throws IOException If the file could not be read or is not a valid binary repository
+	 */
+	public IMetadataRepository readBinary(File file, File contentFile) throws IOException {
+		BinaryMetadataTable table = BinaryMetadataTable.open(file);
+		if (contentFile != null && !table.isCurrent(contentFile))
+			return null;
+		RepositoryState state = table.getRepositoryState();
+		if (state.Type == null)
+			return null;
+		Object repositoryObject = null;
+		try {
+			Class<?> clazz = Class.forName(state.Type);
+			Constructor<?> ctor = clazz.getConstructor(IProvisioningAgent.class);
+			repositoryObject = ctor.newInstance(agent);
+		} catch (Exception e) {
+			IOException ioe = new IOException("Unable to create repository of type " + state.Type); //$NON-NLS-1$
+			ioe.initCause(e);
+			throw ioe;
+		}
+		if (repositoryObject instanceof LocalMetadataRepository) {
+			((LocalMetadataRepository) repositoryObject).initialize(state, table);
+			return (IMetadataRepository) repositoryObject;
+		}
+		if (repositoryObject instanceof AbstractMetadataRepository) {
+			IInstallableUnit[] units = new IInstallableUnit[table.size()];
+			for (int i = 0; i < units.length; i++)
+				units[i] = table.getUnit(i);
+			state.Units = units;
+			((AbstractMetadataRepository) repositoryObject).initialize(state);
+			return (IMetadataRepository) repositoryObject;
+		}
+		return null;
+	}
+
 	/**
 	 *
 	 */
@@ -19,7 +19,9 @@ import java.util.Map;
 import java.util.jar.JarEntry;
 import java.util.jar.JarInputStream;
 import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.p2.core.helpers.Tracing;
+import org.eclipse.equinox.internal.p2.metadata.repository.io.BinaryMetadataConstants;
 import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.repository.IRepositoryManager;
 import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
@@ -73,6 +75,41 @@ public class SimpleMetadataRepositoryFactory extends MetadataRepositoryFactory {
 		return localFile;
 	}
 
+	/**
+	 * Returns the binary content file of a local repository, or <code>null</code> if the
+	 * repository is remote or has no binary content file. Whether the binary content file
+	 * is still current is checked when it is read.
+	 */
+	private File getLocalBinaryFile(URI location) {
+		URI binaryLocation = URLMetadataRepository.getActualLocation(location, BinaryMetadataConstants.BINARY_EXTENSION);
+		if (!PROTOCOL_FILE.equals(binaryLocation.getScheme()))
+			return null;
+		File binaryFile = URIUtil.toFile(binaryLocation);
+		if (binaryFile == null || !binaryFile.exists())
+			return null;
+		return binaryFile;
+	}
+
+	/**
+	 * Loads the repository from its binary content file if there is a usable one.
+	 * @return The repository or <code>null</code> if the XML content must be used instead
+	 */
+	private IMetadataRepository loadBinary(URI location) {
+		File binaryFile = getLocalBinaryFile(location);
+		if (binaryFile == null)
+			return null;
+		try {
+			IMetadataRepository result = new MetadataRepositoryIO(getAgent()).readBinary(binaryFile, LocalMetadataRepository.getContentFile(location));
+			if (result instanceof LocalMetadataRepository)
+				((LocalMetadataRepository) result).initializeAfterLoad(location);
+			return result;
+		} catch (IOException e) {
+			// fall back to the XML content
+			LogHelper.log(new Status(IStatus.WARNING, Activator.ID, ProvisionException.REPOSITORY_FAILED_READ, NLS.bind(Messages.io_failedRead, binaryFile), e));
+			return null;
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.equinox.p2.repository.metadata.spi.MetadataRepositoryFactory#load(java.net.URL, org.eclipse.core.runtime.IProgressMonitor)
 	 */
@@ -85,6 +122,16 @@ public class SimpleMetadataRepositoryFactory extends MetadataRepositoryFactory {
 		}
 		SubMonitor sub = SubMonitor.convert(monitor, 400);
 		try {
+			IMetadataRepository binaryResult = loadBinary(location);
+			if (binaryResult != null) {
+				if ((flags & IRepositoryManager.REPOSITORY_HINT_MODIFIABLE) > 0 && !binaryResult.isModifiable())
+					return null;
+				if (Tracing.DEBUG_METADATA_PARSING) {
+					time += System.currentTimeMillis();
+					Tracing.debug(debugMsg + "time (ms): " + time); //$NON-NLS-1$ 
+				}
+				return binaryResult;
+			}
 			File localFile = getLocalFile(location, sub.newChild(300));
 			InputStream inStream = new BufferedInputStream(new FileInputStream(localFile));
 			JarInputStream jarStream = null;
@@ -109,7 +109,7 @@ public class URLMetadataRepository extends AbstractMetadataRepository implements
 
 		if (InstallableUnit.MEMBER_PROVIDED_CAPABILITIES.equals(memberName)) {
 			if (capabilityIndex == null)
-				capabilityIndex = new CapabilityIndex(units.iterator());
+				capabilityIndex = new CompactCapabilityIndex(units.iterator());
 			return capabilityIndex;
 		}
 		return null;
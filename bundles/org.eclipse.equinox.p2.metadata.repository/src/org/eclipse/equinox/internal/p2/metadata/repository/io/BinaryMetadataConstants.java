@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.repository.io;
+
+/**
+ * Constants describing the layout of the binary metadata repository format
+ * (<code>content.p2bin</code>).
+ * <p>
+ * All integers are big endian. A file consists of a fixed size header followed by
+ * a string table, a repository record, a table of fixed width unit records, an id
+ * index, a capability index and finally the variable length unit bodies. Every
+ * section is addressed by absolute file offsets stored in the header so that the
+ * file can be read without being parsed up front.
+ * </p>
+ * <pre>
+ * header:        magic, format version, then (offset, count) for the string table,
+ *                unit table, id index and capability index, and the repository record offset,
+ *                then the long length and modification time of the XML content it mirrors
+ * strings:       int[count] offsets, each pointing to an int length followed by UTF-8 bytes
+ * repository:    name, type, version, provider, description, properties, references
+ * units:         count * (int idRef, int versionRef, int bodyOffset), sorted by id and version
+ * id index:      count * (int idRef, int firstUnit, int unitCount), sorted by id
+ * capabilities:  count * (int nameRef, int postingsOffset, int postingsCount), sorted by name
+ * postings:      int unit indexes referenced from the capability index
+ * bodies:        the remainder of each unit, see {@link BinaryMetadataWriter}
+ * </pre>
+ */
+public interface BinaryMetadataConstants {
+	public static final String BINARY_EXTENSION = ".p2bin"; //$NON-NLS-1$
+
+	public static final int MAGIC = 0x50324D44; // "P2MD"
+	public static final int FORMAT_VERSION = 2;
+
+	public static final int HEADER_SIZE = 11 * 4 + 2 * 8;
+	public static final int UNIT_RECORD_SIZE = 3 * 4;
+	public static final int INDEX_RECORD_SIZE = 3 * 4;
+
+	/**
+	 * String reference used for <code>null</code> values.
+	 */
+	public static final int NULL_REF = -1;
+
+	// Kinds of installable units
+	public static final byte KIND_UNIT = 0;
+	public static final byte KIND_FRAGMENT = 1;
+	public static final byte KIND_PATCH = 2;
+
+	// Kinds of requirements
+	public static final byte REQUIREMENT_SIMPLE = 0;
+	public static final byte REQUIREMENT_EXPRESSION = 1;
+}
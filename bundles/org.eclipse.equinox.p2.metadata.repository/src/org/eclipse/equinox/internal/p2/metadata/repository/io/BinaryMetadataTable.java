@@ -0,0 +1,490 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.repository.io;
+
+import java.io.*;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.*;
+import org.eclipse.equinox.internal.p2.core.helpers.CollectionUtils;
+import org.eclipse.equinox.internal.p2.core.helpers.OrderedProperties;
+import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitFragmentDescription;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitPatchDescription;
+import org.eclipse.equinox.p2.metadata.expression.IMatchExpression;
+import org.eclipse.equinox.p2.repository.IRepositoryReference;
+import org.eclipse.equinox.p2.repository.metadata.spi.AbstractMetadataRepository.RepositoryState;
+import org.eclipse.equinox.p2.repository.spi.RepositoryReference;
+
+/**
+ * Read access to a metadata repository written by {@link BinaryMetadataWriter}. The file
+ * is read into memory in one go and closed right away. Installable units are materialized lazily the first time they are requested and are
+ * cached for subsequent requests. Lookups by id and by provided capability name use the
+ * prebuilt index sections of the file and only materialize the matching units.
+ * <p>
+ * The content is never modified once read, so the table is decoded by any number of threads
+ * without locking. Threads requesting a unit for the first time at the same moment may each
+ * materialize it, the resulting units are equal.
+ * </p>
+ */
+public class BinaryMetadataTable implements BinaryMetadataConstants {
+	private static final String UTF_8 = "UTF-8"; //$NON-NLS-1$
+
+	/**
+	 * A materialized unit. A thread reading the reference to this object from the cache sees the
+	 * unit as it was constructed, since the unit is referenced by a final field.
+	 */
+	private static final class UnitReference {
+		final IInstallableUnit unit;
+
+		UnitReference(IInstallableUnit unit) {
+			this.unit = unit;
+		}
+	}
+
+	private final byte[] buffer;
+	private final long contentLength;
+	private final long contentLastModified;
+	private final int stringTableOffset;
+	private final String[] strings;
+	private final int repositoryOffset;
+	private final int unitTableOffset;
+	private final UnitReference[] units;
+	private final int idIndexOffset;
+	private final int idCount;
+	private final int capabilityIndexOffset;
+	private final int capabilityCount;
+
+	/**
+	 * Reads the given file into memory and validates its header. The file is closed
+	 * when this method returns so that it can be replaced or deleted at any time.
+	 * @param file The file to open
+	 * @return The table
+	 * @throws IOException If the file could not be read or is not a binary metadata repository
+	 */
+	public static BinaryMetadataTable open(File file) throws IOException {
+		RandomAccessFile input = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+		try {
+			long length = input.length();
+			if (length > Integer.MAX_VALUE)
+				throw new IOException("Binary metadata repository too large: " + file); //$NON-NLS-1$
+			byte[] bytes = new byte[(int) length];
+			input.readFully(bytes);
+			return new BinaryMetadataTable(bytes);
+		} finally {
+			input.close();
+		}
+	}
+
+	public BinaryMetadataTable(byte[] buffer) throws IOException {
+		this.buffer = buffer;
+		int limit = buffer.length;
+		if (limit < HEADER_SIZE || getInt(0) != MAGIC)
+			throw new IOException("Not a binary metadata repository"); //$NON-NLS-1$
+		int version = getInt(4);
+		if (version != FORMAT_VERSION)
+			throw new IOException("Unsupported binary metadata repository version: " + version); //$NON-NLS-1$
+		stringTableOffset = checkOffset(getInt(8), limit);
+		strings = new String[getInt(12)];
+		repositoryOffset = checkOffset(getInt(16), limit);
+		unitTableOffset = checkOffset(getInt(20), limit);
+		units = new UnitReference[getInt(24)];
+		idIndexOffset = checkOffset(getInt(28), limit);
+		idCount = getInt(32);
+		capabilityIndexOffset = checkOffset(getInt(36), limit);
+		capabilityCount = getInt(40);
+		contentLength = getLong(44);
+		contentLastModified = getLong(52);
+		if (unitTableOffset + units.length * UNIT_RECORD_SIZE > limit || idIndexOffset + idCount * INDEX_RECORD_SIZE > limit || capabilityIndexOffset + capabilityCount * INDEX_RECORD_SIZE > limit)
+			throw new IOException("Truncated binary metadata repository"); //$NON-NLS-1$
+	}
+
+	private static int checkOffset(int offset, int limit) throws IOException {
+		if (offset < HEADER_SIZE || offset > limit)
+			throw new IOException("Invalid offset in binary metadata repository: " + offset); //$NON-NLS-1$
+		return offset;
+	}
+
+	private int getInt(int offset) {
+		return ((buffer[offset] & 0xFF) << 24) | ((buffer[offset + 1] & 0xFF) << 16) | ((buffer[offset + 2] & 0xFF) << 8) | (buffer[offset + 3] & 0xFF);
+	}
+
+	private long getLong(int offset) {
+		return ((long) getInt(offset) << 32) | (getInt(offset + 4) & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Returns whether the given XML content file is the one this table was written
+	 * along with. The length and the modification time of the content file are both
+	 * compared since a rewrite may not change the modification time when it happens
+	 * within the granularity of the file system clock.
+	 * @param contentFile The content.xml or content.jar file of the repository
+	 */
+	public boolean isCurrent(File contentFile) {
+		return contentFile.length() == contentLength && contentFile.lastModified() == contentLastModified;
+	}
+
+	/**
+	 * Returns the number of units in this table.
+	 */
+	public int size() {
+		return units.length;
+	}
+
+	/**
+	 * Returns the repository state stored in this table. The units of the state are
+	 * left empty, they are obtained through {@link #getUnit(int)} and {@link #iterator()}.
+	 */
+	public RepositoryState getRepositoryState() {
+		Reader reader = new Reader(repositoryOffset);
+		RepositoryState state = new RepositoryState();
+		state.Name = reader.readString();
+		state.Type = reader.readString();
+		state.Version = Version.create(reader.readString());
+		state.Provider = reader.readString();
+		state.Description = reader.readString();
+		state.Location = null;
+		state.Properties = reader.readProperties();
+		int referenceCount = reader.readInt();
+		ArrayList<IRepositoryReference> references = new ArrayList<IRepositoryReference>(referenceCount);
+		for (int i = 0; i < referenceCount; i++) {
+			URI location = reader.readURI();
+			String nickname = reader.readString();
+			int type = reader.readInt();
+			int options = reader.readInt();
+			if (location != null)
+				references.add(new RepositoryReference(location, nickname, type, options));
+		}
+		state.Repositories = references.toArray(new IRepositoryReference[references.size()]);
+		state.Units = new IInstallableUnit[0];
+		return state;
+	}
+
+	/**
+	 * Returns the unit at the given index, materializing it if necessary.
+	 */
+	public IInstallableUnit getUnit(int index) {
+		UnitReference reference = units[index];
+		if (reference != null)
+			return reference.unit;
+		int record = unitTableOffset + index * UNIT_RECORD_SIZE;
+		IInstallableUnit unit = new Reader(getInt(record + 8)).readUnit(getString(getInt(record)), Version.create(getString(getInt(record + 4))));
+		units[index] = new UnitReference(unit);
+		return unit;
+	}
+
+	/**
+	 * Returns all units with the given id.
+	 */
+	public Collection<IInstallableUnit> getUnits(String id) {
+		int record = find(idIndexOffset, idCount, id);
+		if (record < 0)
+			return CollectionUtils.emptyList();
+		int first = getInt(record + 4);
+		int count = getInt(record + 8);
+		ArrayList<IInstallableUnit> result = new ArrayList<IInstallableUnit>(count);
+		for (int i = 0; i < count; i++)
+			result.add(getUnit(first + i));
+		return result;
+	}
+
+	/**
+	 * Returns all units that provide a capability with the given name.
+	 */
+	public Collection<IInstallableUnit> getUnitsByCapability(String name) {
+		ArrayList<IInstallableUnit> result = new ArrayList<IInstallableUnit>();
+		collectUnitsByCapability(name, result);
+		return result;
+	}
+
+	/**
+	 * Adds all units that provide a capability with the given name to the <code>collector</code>.
+	 */
+	public void collectUnitsByCapability(String name, Collection<IInstallableUnit> collector) {
+		int record = find(capabilityIndexOffset, capabilityCount, name);
+		if (record < 0)
+			return;
+		int postings = getInt(record + 4);
+		int count = getInt(record + 8);
+		for (int i = 0; i < count; i++)
+			collector.add(getUnit(getInt(postings + i * 4)));
+	}
+
+	/**
+	 * Returns an iterator that materializes the units of this table as they are requested.
+	 */
+	public Iterator<IInstallableUnit> iterator() {
+		return new Iterator<IInstallableUnit>() {
+			private int index = 0;
+
+			public boolean hasNext() {
+				return index < units.length;
+			}
+
+			public IInstallableUnit next() {
+				if (index >= units.length)
+					throw new NoSuchElementException();
+				return getUnit(index++);
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Binary search for <code>key</code> in an index section sorted on the string
+	 * referenced by the first integer of each record.
+	 * @return The offset of the matching record or -1
+	 */
+	private int find(int sectionOffset, int count, String key) {
+		int low = 0;
+		int high = count - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int record = sectionOffset + mid * INDEX_RECORD_SIZE;
+			int cmp = getString(getInt(record)).compareTo(key);
+			if (cmp < 0)
+				low = mid + 1;
+			else if (cmp > 0)
+				high = mid - 1;
+			else
+				return record;
+		}
+		return -1;
+	}
+
+	String getString(int ref) {
+		if (ref == NULL_REF)
+			return null;
+		// strings are immutable, a string decoded by another thread is safe to use
+		String value = strings[ref];
+		if (value == null) {
+			int offset = getInt(stringTableOffset + ref * 4);
+			try {
+				value = new String(buffer, offset + 4, getInt(offset), UTF_8);
+			} catch (UnsupportedEncodingException e) {
+				// UTF-8 is always supported
+				throw new IllegalStateException(e.getMessage());
+			}
+			strings[ref] = value;
+		}
+		return value;
+	}
+
+	/**
+	 * Sequential reader over a section of the table.
+	 */
+	private class Reader {
+		private int position;
+
+		Reader(int position) {
+			this.position = position;
+		}
+
+		int readInt() {
+			int value = getInt(position);
+			position += 4;
+			return value;
+		}
+
+		byte readByte() {
+			return buffer[position++];
+		}
+
+		boolean readBoolean() {
+			return readByte() != 0;
+		}
+
+		String readString() {
+			return getString(readInt());
+		}
+
+		Version readVersion() {
+			return Version.create(readString());
+		}
+
+		URI readURI() {
+			String value = readString();
+			if (value == null)
+				return null;
+			try {
+				return new URI(value);
+			} catch (URISyntaxException e) {
+				return null;
+			}
+		}
+
+		OrderedProperties readProperties() {
+			int count = readInt();
+			OrderedProperties properties = new OrderedProperties(count);
+			for (int i = 0; i < count; i++) {
+				String key = readString();
+				properties.put(key, readString());
+			}
+			return properties;
+		}
+
+		IInstallableUnit readUnit(String id, Version version) {
+			InstallableUnitDescription description;
+			byte kind = readByte();
+			boolean singleton = readBoolean();
+			if (kind == KIND_FRAGMENT) {
+				InstallableUnitFragmentDescription fragment = new InstallableUnitFragmentDescription();
+				fragment.setHost(readRequirements());
+				description = fragment;
+			} else if (kind == KIND_PATCH) {
+				InstallableUnitPatchDescription patch = new InstallableUnitPatchDescription();
+				IRequirement[][] scope = new IRequirement[readInt()][];
+				for (int i = 0; i < scope.length; i++)
+					scope[i] = readRequirements();
+				patch.setApplicabilityScope(scope);
+				IRequirementChange[] changes = new IRequirementChange[readInt()];
+				for (int i = 0; i < changes.length; i++) {
+					IRequirement from = readOptionalRequirement();
+					changes[i] = MetadataFactory.createRequirementChange(from, readOptionalRequirement());
+				}
+				patch.setRequirementChanges(changes);
+				patch.setLifeCycle(readOptionalRequirement());
+				description = patch;
+			} else
+				description = new InstallableUnitDescription();
+
+			description.setId(id);
+			description.setVersion(version);
+			description.setSingleton(singleton);
+			if (readBoolean())
+				description.setUpdateDescriptor(readUpdateDescriptor());
+
+			int propertyCount = readInt();
+			for (int i = 0; i < propertyCount; i++) {
+				String key = readString();
+				description.setProperty(key, readString());
+			}
+
+			description.setMetaRequirements(readRequirements());
+
+			IProvidedCapability[] capabilities = new IProvidedCapability[readInt()];
+			for (int i = 0; i < capabilities.length; i++) {
+				String namespace = readString();
+				String name = readString();
+				capabilities[i] = MetadataFactory.createProvidedCapability(namespace, name, readVersion());
+			}
+			description.setCapabilities(capabilities);
+
+			description.setRequirements(readRequirements());
+			IMatchExpression<IInstallableUnit> filter = readFilter();
+			if (filter != null)
+				description.setFilter(filter);
+
+			IArtifactKey[] artifacts = new IArtifactKey[readInt()];
+			for (int i = 0; i < artifacts.length; i++) {
+				String classifier = readString();
+				String artifactId = readString();
+				artifacts[i] = new ArtifactKey(classifier, artifactId, readVersion());
+			}
+			description.setArtifacts(artifacts);
+
+			String touchpointId = readString();
+			description.setTouchpointType(MetadataFactory.createTouchpointType(touchpointId, readVersion()));
+
+			int touchpointDataCount = readInt();
+			for (int i = 0; i < touchpointDataCount; i++) {
+				int instructionCount = readInt();
+				Map<String, ITouchpointInstruction> instructions = new LinkedHashMap<String, ITouchpointInstruction>(instructionCount);
+				for (int j = 0; j < instructionCount; j++) {
+					String key = readString();
+					String body = readString();
+					instructions.put(key, MetadataFactory.createTouchpointInstruction(body, readString()));
+				}
+				description.addTouchpointData(MetadataFactory.createTouchpointData(instructions));
+			}
+
+			ILicense[] licenses = new ILicense[readInt()];
+			for (int i = 0; i < licenses.length; i++) {
+				URI location = readURI();
+				licenses[i] = MetadataFactory.createLicense(location, readString());
+			}
+			description.setLicenses(licenses);
+
+			if (readBoolean()) {
+				URI location = readURI();
+				description.setCopyright(MetadataFactory.createCopyright(location, readString()));
+			}
+			return MetadataFactory.createInstallableUnit(description);
+		}
+
+		private IUpdateDescriptor readUpdateDescriptor() {
+			byte kind = readByte();
+			String name = null;
+			VersionRange range = null;
+			IMatchExpression<IInstallableUnit> match = null;
+			if (kind == REQUIREMENT_SIMPLE) {
+				name = readString();
+				range = new VersionRange(readString());
+			} else
+				match = readMatchExpression();
+			int severity = readInt();
+			String description = readString();
+			URI location = readURI();
+			if (match == null)
+				return MetadataFactory.createUpdateDescriptor(name, range, severity, description, location);
+			return MetadataFactory.createUpdateDescriptor(Collections.singleton(match), severity, description, location);
+		}
+
+		private IRequirement[] readRequirements() {
+			IRequirement[] requirements = new IRequirement[readInt()];
+			for (int i = 0; i < requirements.length; i++)
+				requirements[i] = readRequirement();
+			return requirements;
+		}
+
+		private IRequirement readOptionalRequirement() {
+			return readBoolean() ? readRequirement() : null;
+		}
+
+		private IRequirement readRequirement() {
+			byte kind = readByte();
+			String namespace = null;
+			String name = null;
+			VersionRange range = null;
+			IMatchExpression<IInstallableUnit> match = null;
+			if (kind == REQUIREMENT_SIMPLE) {
+				namespace = readString();
+				name = readString();
+				range = new VersionRange(readString());
+			} else
+				match = readMatchExpression();
+			int min = readInt();
+			int max = readInt();
+			boolean greedy = readBoolean();
+			IMatchExpression<IInstallableUnit> filter = readFilter();
+			String description = readString();
+			if (match == null)
+				return MetadataFactory.createRequirement(namespace, name, range, filter, min, max, greedy, description);
+			return MetadataFactory.createRequirement(match, filter, min, max, greedy, description);
+		}
+
+		private IMatchExpression<IInstallableUnit> readMatchExpression() {
+			String match = readString();
+			return MetadataParser.createMatchExpression(match, readString());
+		}
+
+		private IMatchExpression<IInstallableUnit> readFilter() {
+			String filter = readString();
+			return filter == null ? null : InstallableUnit.parseFilter(filter);
+		}
+	}
+}
@@ -0,0 +1,389 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.repository.io;
+
+import java.io.*;
+import java.util.*;
+import org.eclipse.equinox.internal.p2.metadata.RequiredCapability;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.expression.*;
+import org.eclipse.equinox.p2.repository.IRepositoryReference;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
+
+/**
+ * Writes a metadata repository in the binary format described by
+ * {@link BinaryMetadataConstants}. This is the binary counterpart of
+ * {@link MetadataWriter}; the resulting file is read by {@link BinaryMetadataTable}.
+ * <p>
+ * A unit body is laid out as follows, where <i>ref</i> is an index into the
+ * string table and <i>requirement</i> is written by {@link #writeRequirement(DataOutputStream, IRequirement)}:
+ * <pre>
+ * byte kind, boolean singleton
+ * [fragment] host requirements
+ * [patch] applicability scope, requirement changes, life cycle
+ * update descriptor, properties, meta requirements, provided capabilities,
+ * requirements, filter, artifact keys, touchpoint type, touchpoint data,
+ * licenses, copyright
+ * </pre>
+ * </p>
+ */
+public class BinaryMetadataWriter implements BinaryMetadataConstants {
+	private static final String UTF_8 = "UTF-8"; //$NON-NLS-1$
+
+	private final OutputStream output;
+	private final Map<String, Integer> stringRefs = new HashMap<String, Integer>();
+	private final List<String> strings = new ArrayList<String>();
+
+	public BinaryMetadataWriter(OutputStream output) {
+		this.output = output;
+	}
+
+	/**
+	 * Writes the given repository together with its references and units. The
+	 * output stream is closed when this method returns.
+	 * @param contentFile The XML content file written for the same repository, whose
+	 * length and modification time are recorded to detect a stale binary file, or
+	 * <code>null</code> if there is none
+	 */
+	public void write(IMetadataRepository repository, Collection<IRepositoryReference> references, Collection<IInstallableUnit> units, File contentFile) throws IOException {
+		try {
+			IInstallableUnit[] sortedUnits = units.toArray(new IInstallableUnit[units.size()]);
+			Arrays.sort(sortedUnits, new Comparator<IInstallableUnit>() {
+				public int compare(IInstallableUnit iu1, IInstallableUnit iu2) {
+					int cmp = iu1.getId().compareTo(iu2.getId());
+					return cmp != 0 ? cmp : iu1.getVersion().compareTo(iu2.getVersion());
+				}
+			});
+
+			ByteArrayOutputStream repositoryBytes = new ByteArrayOutputStream();
+			writeRepository(new DataOutputStream(repositoryBytes), repository, references);
+
+			// Encode the unit bodies and collect the index information
+			int unitCount = sortedUnits.length;
+			int[] unitRecords = new int[unitCount * 3];
+			ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+			DataOutputStream bodies = new DataOutputStream(bodyBytes);
+			TreeMap<String, List<Integer>> capabilities = new TreeMap<String, List<Integer>>();
+			List<int[]> idGroups = new ArrayList<int[]>();
+			String previousId = null;
+			for (int idx = 0; idx < unitCount; ++idx) {
+				IInstallableUnit iu = sortedUnits[idx];
+				unitRecords[idx * 3] = ref(iu.getId());
+				unitRecords[idx * 3 + 1] = ref(iu.getVersion().toString());
+				unitRecords[idx * 3 + 2] = bodies.size();
+				writeUnit(bodies, iu);
+
+				if (!iu.getId().equals(previousId)) {
+					idGroups.add(new int[] {unitRecords[idx * 3], idx, 0});
+					previousId = iu.getId();
+				}
+				idGroups.get(idGroups.size() - 1)[2]++;
+
+				for (IProvidedCapability capability : iu.getProvidedCapabilities()) {
+					List<Integer> postings = capabilities.get(capability.getName());
+					if (postings == null) {
+						postings = new ArrayList<Integer>(2);
+						capabilities.put(capability.getName(), postings);
+						ref(capability.getName());
+					}
+					Integer unitIndex = new Integer(idx);
+					if (postings.isEmpty() || !postings.get(postings.size() - 1).equals(unitIndex))
+						postings.add(unitIndex);
+				}
+			}
+			bodies.flush();
+
+			// All strings are known at this point so the layout can be computed
+			int stringCount = strings.size();
+			byte[][] encodedStrings = new byte[stringCount][];
+			int stringTableOffset = HEADER_SIZE;
+			int position = stringTableOffset + stringCount * 4;
+			int[] stringOffsets = new int[stringCount];
+			for (int idx = 0; idx < stringCount; ++idx) {
+				encodedStrings[idx] = strings.get(idx).getBytes(UTF_8);
+				stringOffsets[idx] = position;
+				position += 4 + encodedStrings[idx].length;
+			}
+			int repositoryOffset = position;
+			position += repositoryBytes.size();
+			int unitTableOffset = position;
+			position += unitCount * UNIT_RECORD_SIZE;
+			int idIndexOffset = position;
+			position += idGroups.size() * INDEX_RECORD_SIZE;
+			int capabilityIndexOffset = position;
+			position += capabilities.size() * INDEX_RECORD_SIZE;
+			int postingsOffset = position;
+			for (List<Integer> postings : capabilities.values())
+				position += postings.size() * 4;
+			int bodiesOffset = position;
+
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(stringTableOffset);
+			out.writeInt(stringCount);
+			out.writeInt(repositoryOffset);
+			out.writeInt(unitTableOffset);
+			out.writeInt(unitCount);
+			out.writeInt(idIndexOffset);
+			out.writeInt(idGroups.size());
+			out.writeInt(capabilityIndexOffset);
+			out.writeInt(capabilities.size());
+			out.writeLong(contentFile != null ? contentFile.length() : -1);
+			out.writeLong(contentFile != null ? contentFile.lastModified() : -1);
+
+			for (int idx = 0; idx < stringCount; ++idx)
+				out.writeInt(stringOffsets[idx]);
+			for (int idx = 0; idx < stringCount; ++idx) {
+				out.writeInt(encodedStrings[idx].length);
+				out.write(encodedStrings[idx]);
+			}
+
+			repositoryBytes.writeTo(out);
+
+			for (int idx = 0; idx < unitCount; ++idx) {
+				out.writeInt(unitRecords[idx * 3]);
+				out.writeInt(unitRecords[idx * 3 + 1]);
+				out.writeInt(bodiesOffset + unitRecords[idx * 3 + 2]);
+			}
+
+			// The ids are sorted since the units are
+			for (int[] group : idGroups) {
+				out.writeInt(group[0]);
+				out.writeInt(group[1]);
+				out.writeInt(group[2]);
+			}
+
+			int postingPosition = postingsOffset;
+			for (Map.Entry<String, List<Integer>> entry : capabilities.entrySet()) {
+				out.writeInt(ref(entry.getKey()));
+				out.writeInt(postingPosition);
+				out.writeInt(entry.getValue().size());
+				postingPosition += entry.getValue().size() * 4;
+			}
+			for (List<Integer> postings : capabilities.values())
+				for (Integer unitIndex : postings)
+					out.writeInt(unitIndex.intValue());
+
+			bodyBytes.writeTo(out);
+			out.flush();
+		} finally {
+			output.close();
+		}
+	}
+
+	private int ref(String value) {
+		if (value == null)
+			return NULL_REF;
+		Integer ref = stringRefs.get(value);
+		if (ref == null) {
+			ref = new Integer(strings.size());
+			strings.add(value);
+			stringRefs.put(value, ref);
+		}
+		return ref.intValue();
+	}
+
+	private void writeString(DataOutputStream out, String value) throws IOException {
+		out.writeInt(ref(value));
+	}
+
+	private void writeRepository(DataOutputStream out, IMetadataRepository repository, Collection<IRepositoryReference> references) throws IOException {
+		writeString(out, repository.getName());
+		writeString(out, repository.getType());
+		writeString(out, repository.getVersion());
+		writeString(out, repository.getProvider());
+		writeString(out, repository.getDescription());
+		writeProperties(out, repository.getProperties());
+		out.writeInt(references.size());
+		for (IRepositoryReference reference : references) {
+			writeString(out, reference.getLocation().toString());
+			writeString(out, reference.getNickname());
+			out.writeInt(reference.getType());
+			out.writeInt(reference.getOptions());
+		}
+		out.flush();
+	}
+
+	private void writeProperties(DataOutputStream out, Map<String, String> properties) throws IOException {
+		out.writeInt(properties.size());
+		for (Map.Entry<String, String> entry : properties.entrySet()) {
+			writeString(out, entry.getKey());
+			writeString(out, entry.getValue());
+		}
+	}
+
+	private void writeUnit(DataOutputStream out, IInstallableUnit resolvedIU) throws IOException {
+		IInstallableUnit iu = resolvedIU.unresolved();
+		if (iu instanceof IInstallableUnitPatch)
+			out.writeByte(KIND_PATCH);
+		else if (iu instanceof IInstallableUnitFragment)
+			out.writeByte(KIND_FRAGMENT);
+		else
+			out.writeByte(KIND_UNIT);
+		out.writeBoolean(iu.isSingleton());
+
+		if (iu instanceof IInstallableUnitFragment)
+			writeRequirements(out, ((IInstallableUnitFragment) iu).getHost());
+
+		if (iu instanceof IInstallableUnitPatch) {
+			IInstallableUnitPatch patch = (IInstallableUnitPatch) iu;
+			IRequirement[][] scope = patch.getApplicabilityScope();
+			out.writeInt(scope.length);
+			for (int i = 0; i < scope.length; i++)
+				writeRequirements(out, Arrays.asList(scope[i]));
+			List<IRequirementChange> changes = patch.getRequirementsChange();
+			out.writeInt(changes.size());
+			for (IRequirementChange change : changes) {
+				writeOptionalRequirement(out, change.applyOn());
+				writeOptionalRequirement(out, change.newValue());
+			}
+			writeOptionalRequirement(out, patch.getLifeCycle());
+		}
+
+		writeUpdateDescriptor(out, resolvedIU.getUpdateDescriptor());
+		writeProperties(out, iu.getProperties());
+		writeRequirements(out, iu.getMetaRequirements());
+
+		Collection<IProvidedCapability> capabilities = iu.getProvidedCapabilities();
+		out.writeInt(capabilities.size());
+		for (IProvidedCapability capability : capabilities) {
+			writeString(out, capability.getNamespace());
+			writeString(out, capability.getName());
+			writeString(out, capability.getVersion().toString());
+		}
+
+		writeRequirements(out, iu.getRequirements());
+		writeFilter(out, iu.getFilter());
+
+		Collection<IArtifactKey> artifacts = iu.getArtifacts();
+		out.writeInt(artifacts.size());
+		for (IArtifactKey key : artifacts) {
+			writeString(out, key.getClassifier());
+			writeString(out, key.getId());
+			writeString(out, key.getVersion().toString());
+		}
+
+		ITouchpointType touchpointType = iu.getTouchpointType();
+		writeString(out, touchpointType.getId());
+		writeString(out, touchpointType.getVersion().toString());
+
+		Collection<ITouchpointData> touchpointData = iu.getTouchpointData();
+		out.writeInt(touchpointData.size());
+		for (ITouchpointData data : touchpointData) {
+			Map<String, ITouchpointInstruction> instructions = data.getInstructions();
+			out.writeInt(instructions.size());
+			for (Map.Entry<String, ITouchpointInstruction> entry : instructions.entrySet()) {
+				writeString(out, entry.getKey());
+				writeString(out, entry.getValue().getBody());
+				writeString(out, entry.getValue().getImportAttribute());
+			}
+		}
+
+		Collection<ILicense> licenses = iu.getLicenses();
+		int licenseCount = 0;
+		for (ILicense license : licenses)
+			if (license != null)
+				licenseCount++;
+		out.writeInt(licenseCount);
+		for (ILicense license : licenses) {
+			if (license == null)
+				continue;
+			writeString(out, license.getLocation() == null ? null : license.getLocation().toString());
+			writeString(out, license.getBody());
+		}
+
+		ICopyright copyright = iu.getCopyright();
+		out.writeBoolean(copyright != null);
+		if (copyright != null) {
+			writeString(out, copyright.getLocation() == null ? null : copyright.getLocation().toString());
+			writeString(out, copyright.getBody());
+		}
+	}
+
+	private void writeUpdateDescriptor(DataOutputStream out, IUpdateDescriptor descriptor) throws IOException {
+		out.writeBoolean(descriptor != null);
+		if (descriptor == null)
+			return;
+		if (descriptor.getIUsBeingUpdated().size() > 1)
+			throw new IllegalStateException();
+		IMatchExpression<IInstallableUnit> singleUD = descriptor.getIUsBeingUpdated().iterator().next();
+		if (RequiredCapability.isSimpleRequirement(singleUD)) {
+			out.writeByte(REQUIREMENT_SIMPLE);
+			writeString(out, RequiredCapability.extractName(singleUD));
+			writeString(out, RequiredCapability.extractRange(singleUD).toString());
+		} else {
+			out.writeByte(REQUIREMENT_EXPRESSION);
+			writeMatchExpression(out, singleUD);
+		}
+		out.writeInt(descriptor.getSeverity());
+		writeString(out, descriptor.getDescription());
+		writeString(out, descriptor.getLocation() == null ? null : descriptor.getLocation().toString());
+	}
+
+	private void writeRequirements(DataOutputStream out, Collection<IRequirement> requirements) throws IOException {
+		out.writeInt(requirements.size());
+		for (IRequirement requirement : requirements)
+			writeRequirement(out, requirement);
+	}
+
+	private void writeOptionalRequirement(DataOutputStream out, IRequirement requirement) throws IOException {
+		out.writeBoolean(requirement != null);
+		if (requirement != null)
+			writeRequirement(out, requirement);
+	}
+
+	/**
+	 * Writes a requirement as a kind byte followed by either the namespace, name and
+	 * range of a simple requirement or the match expression and its parameters, and
+	 * then the cardinality, greed, filter and description.
+	 */
+	private void writeRequirement(DataOutputStream out, IRequirement requirement) throws IOException {
+		IMatchExpression<IInstallableUnit> match = requirement.getMatches();
+		if (RequiredCapability.isSimpleRequirement(match)) {
+			out.writeByte(REQUIREMENT_SIMPLE);
+			writeString(out, RequiredCapability.extractNamespace(match));
+			writeString(out, RequiredCapability.extractName(match));
+			writeString(out, RequiredCapability.extractRange(match).toString());
+		} else {
+			out.writeByte(REQUIREMENT_EXPRESSION);
+			writeMatchExpression(out, match);
+		}
+		out.writeInt(requirement.getMin());
+		out.writeInt(requirement.getMax());
+		out.writeBoolean(requirement.isGreedy());
+		writeFilter(out, requirement.getFilter());
+		writeString(out, requirement.getDescription());
+	}
+
+	private void writeMatchExpression(DataOutputStream out, IMatchExpression<IInstallableUnit> match) throws IOException {
+		writeString(out, ExpressionUtil.getOperand(match).toString());
+		Object[] params = match.getParameters();
+		if (params.length > 0) {
+			IExpressionFactory factory = ExpressionUtil.getFactory();
+			IExpression[] constantArray = new IExpression[params.length];
+			for (int idx = 0; idx < params.length; ++idx)
+				constantArray[idx] = factory.constant(params[idx]);
+			writeString(out, factory.array(constantArray).toString());
+		} else
+			writeString(out, null);
+	}
+
+	private void writeFilter(DataOutputStream out, IMatchExpression<IInstallableUnit> filter) throws IOException {
+		String filterString = null;
+		if (filter != null) {
+			filterString = filter.getParameters()[0].toString().trim();
+			if (filterString.length() == 0)
+				filterString = null;
+		}
+		writeString(out, filterString);
+	}
+}
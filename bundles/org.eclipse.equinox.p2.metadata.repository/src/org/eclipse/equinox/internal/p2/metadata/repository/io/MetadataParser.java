@@ -16,8 +16,7 @@ import java.net.URI;
 import java.util.*;
 import java.util.Map.Entry;
 import org.eclipse.equinox.internal.p2.core.helpers.OrderedProperties;
-import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
-import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.internal.p2.metadata.*;
 import org.eclipse.equinox.internal.p2.persistence.XMLParser;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
@@ -684,7 +683,7 @@ public abstract class MetadataParser extends XMLParser implements XMLConstants {
 			super(parentHandler, ARTIFACT_KEY_ELEMENT);
 			String[] values = parseRequiredAttributes(attributes, required);
 			Version version = checkVersion(ARTIFACT_KEY_ELEMENT, VERSION_ATTRIBUTE, values[2]);
-			artifacts.add(new ArtifactKey(values[0], values[1], version));
+			artifacts.add(MetadataPool.intern(new ArtifactKey(values[0], values[1], version)));
 		}
 
 		public void startElement(String name, Attributes attributes) {
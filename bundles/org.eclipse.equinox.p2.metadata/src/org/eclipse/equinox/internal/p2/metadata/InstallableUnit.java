@@ -14,16 +14,13 @@ package org.eclipse.equinox.internal.p2.metadata;
 import java.util.*;
 import org.eclipse.equinox.internal.p2.core.helpers.CollectionUtils;
 import org.eclipse.equinox.internal.p2.core.helpers.OrderedProperties;
+import org.eclipse.equinox.internal.p2.metadata.expression.StripedCache;
+import org.eclipse.equinox.internal.p2.metadata.expression.parser.LDAPFilterParser;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.expression.*;
 
 public class InstallableUnit implements IInstallableUnit, IMemberProvider {
-	@SuppressWarnings("serial")
-	private static final Map<IFilterExpression, IMatchExpression<IInstallableUnit>> filterCache = new LinkedHashMap<IFilterExpression, IMatchExpression<IInstallableUnit>>() {
-		public boolean removeEldestEntry(Map.Entry<IFilterExpression, IMatchExpression<IInstallableUnit>> expr) {
-			return size() > 64;
-		}
-	};
+	private static final StripedCache<IFilterExpression, IMatchExpression<IInstallableUnit>> filterCache = new StripedCache<IFilterExpression, IMatchExpression<IInstallableUnit>>(LDAPFilterParser.PROP_FILTER_CACHE_SIZE, 1024);
 
 	private static final OrderedProperties NO_PROPERTIES = new OrderedProperties();
 	private static final IProvidedCapability[] NO_PROVIDES = new IProvidedCapability[0];
@@ -238,15 +235,18 @@ public class InstallableUnit implements IInstallableUnit, IMemberProvider {
 		if (filter == null)
 			return null;
 
-		synchronized (filterCache) {
-			IMatchExpression<IInstallableUnit> matchExpr = filterCache.get(filter);
-			if (matchExpr != null)
-				return matchExpr;
-
-			matchExpr = ExpressionUtil.getFactory().<IInstallableUnit> matchExpression(filterWrap, filter);
-			filterCache.put(filter, matchExpr);
+		IMatchExpression<IInstallableUnit> matchExpr = filterCache.get(filter);
+		if (matchExpr != null)
 			return matchExpr;
-		}
+
+		return filterCache.put(filter, ExpressionUtil.getFactory().<IInstallableUnit> matchExpression(filterWrap, filter));
+	}
+
+	/**
+	 * Returns the cache of the match expressions of parsed filters.
+	 */
+	public static StripedCache<IFilterExpression, IMatchExpression<IInstallableUnit>> getFilterCache() {
+		return filterCache;
 	}
 
 	/*
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.expression.IMatchExpression;
+
+/**
+ * A pool sharing equal metadata objects, such as versions, provided capabilities,
+ * requirements and artifact keys, between all the repositories and profiles that are
+ * loaded. Metadata objects are immutable so a single instance can be used wherever
+ * an equal object is needed.
+ * <p>
+ * The pool only holds its objects weakly, an object is dropped from the pool when it
+ * is no longer used elsewhere. An object is only shared with an object of the same
+ * class that is equal in all respects, including the parts that are not considered
+ * by <code>equals</code>, such as the original string of a version, the description
+ * of a requirement or the versions bounding the range of a requirement.
+ * </p>
+ */
+public final class MetadataPool {
+	private static final int SEGMENT_COUNT = 16;
+
+	/**
+	 * A part of the pool, with its own lock so that repositories can be parsed concurrently.
+	 */
+	private static final class Segment {
+		final WeakHashMap<Object, WeakReference<Object>> objects = new WeakHashMap<Object, WeakReference<Object>>();
+		long requests;
+		long hits;
+	}
+
+	private static final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+	static {
+		for (int i = 0; i < SEGMENT_COUNT; i++)
+			segments[i] = new Segment();
+	}
+
+	private MetadataPool() {
+		// Use intern
+	}
+
+	/**
+	 * Returns an object that is the same as the given object, the given object itself
+	 * unless the pool already contains such an object.
+	 * @param object The object to intern, may be <code>null</code>
+	 * @return An object that is the same as the given object
+	 */
+	public static <T> T intern(T object) {
+		if (object == null)
+			return null;
+		int hash = object.hashCode();
+		Segment segment = segments[(hash ^ (hash >>> 16)) & (SEGMENT_COUNT - 1)];
+		synchronized (segment) {
+			segment.requests++;
+			WeakReference<Object> ref = segment.objects.get(object);
+			Object pooled = ref == null ? null : ref.get();
+			if (pooled == null) {
+				segment.objects.put(object, new WeakReference<Object>(object));
+				return object;
+			}
+			if (pooled == object || !isSame(pooled, object))
+				return object;
+			segment.hits++;
+			@SuppressWarnings("unchecked")
+			T result = (T) pooled;
+			return result;
+		}
+	}
+
+	private static boolean isSame(Object pooled, Object object) {
+		if (pooled.getClass() != object.getClass())
+			return false;
+		if (object instanceof Version) {
+			Version v1 = (Version) pooled;
+			Version v2 = (Version) object;
+			return equals(v1.getOriginal(), v2.getOriginal()) && equals(v1.getFormat(), v2.getFormat());
+		}
+		if (object instanceof IProvidedCapability)
+			return isSameVersion(((IProvidedCapability) pooled).getVersion(), ((IProvidedCapability) object).getVersion());
+		if (object instanceof IArtifactKey)
+			return isSameVersion(((IArtifactKey) pooled).getVersion(), ((IArtifactKey) object).getVersion());
+		if (object instanceof IRequirement) {
+			if (!equals(((IRequirement) pooled).getDescription(), ((IRequirement) object).getDescription()))
+				return false;
+			// the range bounds may differ in their original string or format while the ranges are equal
+			IMatchExpression<IInstallableUnit> m1 = ((IRequirement) pooled).getMatches();
+			IMatchExpression<IInstallableUnit> m2 = ((IRequirement) object).getMatches();
+			if (object instanceof IRequiredCapability && RequiredCapability.isSimpleRequirement(m1) && RequiredCapability.isSimpleRequirement(m2))
+				return isSameRange(((IRequiredCapability) pooled).getRange(), ((IRequiredCapability) object).getRange());
+			return isSameParameters(m1.getParameters(), m2.getParameters());
+		}
+		return true;
+	}
+
+	private static boolean isSameParameters(Object[] p1, Object[] p2) {
+		if (p1.length != p2.length)
+			return false;
+		for (int i = 0; i < p1.length; i++) {
+			if (p1[i] instanceof Version && p2[i] instanceof Version) {
+				if (!isSameVersion((Version) p1[i], (Version) p2[i]))
+					return false;
+			} else if (!equals(p1[i], p2[i]))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isSameRange(VersionRange r1, VersionRange r2) {
+		return isSameVersion(r1.getMinimum(), r2.getMinimum()) && isSameVersion(r1.getMaximum(), r2.getMaximum());
+	}
+
+	private static boolean isSameVersion(Version v1, Version v2) {
+		return v1 == v2 || (v1 != null && v2 != null && isSame(v1, v2));
+	}
+
+	private static boolean equals(Object o1, Object o2) {
+		return o1 == null ? o2 == null : o1.equals(o2);
+	}
+
+	/**
+	 * Returns the number of objects currently held by the pool.
+	 */
+	public static int size() {
+		int size = 0;
+		for (int i = 0; i < SEGMENT_COUNT; i++) {
+			synchronized (segments[i]) {
+				size += segments[i].objects.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the number of objects that were interned.
+	 */
+	public static long getRequestCount() {
+		long requests = 0;
+		for (int i = 0; i < SEGMENT_COUNT; i++) {
+			synchronized (segments[i]) {
+				requests += segments[i].requests;
+			}
+		}
+		return requests;
+	}
+
+	/**
+	 * Returns the number of objects that were interned while the pool already
+	 * held the same object, that is the number of duplicates that were avoided.
+	 */
+	public static long getHitCount() {
+		long hits = 0;
+		for (int i = 0; i < SEGMENT_COUNT; i++) {
+			synchronized (segments[i]) {
+				hits += segments[i].hits;
+			}
+		}
+		return hits;
+	}
+
+	/**
+	 * Removes all objects from the pool and resets the statistics.
+	 */
+	public static void clear() {
+		for (int i = 0; i < SEGMENT_COUNT; i++) {
+			synchronized (segments[i]) {
+				segments[i].objects.clear();
+				segments[i].requests = 0;
+				segments[i].hits = 0;
+			}
+		}
+	}
+}
@@ -10,6 +10,8 @@
  *******************************************************************************/
 package org.eclipse.equinox.internal.p2.metadata;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.Collections;
 import java.util.List;
 import org.eclipse.equinox.p2.metadata.IVersionFormat;
@@ -39,6 +41,12 @@ public class OmniVersion extends BasicVersion {
 
 	private static final Comparable<?>[] emptyVector = new Comparable<?>[0];
 
+	private static final int PACKED_SEGMENT_BITS = 21;
+
+	private static final int MAX_PACKED_SEGMENTS = 3;
+
+	private static final int MAX_PACKED_VALUE = (1 << PACKED_SEGMENT_BITS) - 1;
+
 	private final Comparable<?>[] vector;
 
 	private final Comparable<?> padValue;
@@ -53,6 +61,20 @@ public class OmniVersion extends BasicVersion {
 	 */
 	private final String original;
 
+	/**
+	 * The leading non negative integer segments of the vector, at most three, packed with
+	 * the first segment in the most significant bits so that versions are mostly compared
+	 * without looking at the vector. Computed from the vector and not serialized.
+	 */
+	private transient long packedPrefix;
+
+	/**
+	 * The number of segments in {@link #packedPrefix}
+	 */
+	private transient int packedCount;
+
+	private transient int hashCode;
+
 	static BasicVersion fromVector(List<Comparable<?>> vector, IVersionFormat format, String original) {
 		int vtop = vector.size() - 1;
 		Comparable<?> padValue = vector.get(vtop);
@@ -92,12 +114,37 @@ public class OmniVersion extends BasicVersion {
 		this.padValue = vector.get(vtop);
 		this.format = format;
 		this.original = original;
+		initTransients();
+	}
+
+	private void initTransients() {
+		long packed = 0;
+		int count = 0;
+		for (; count < MAX_PACKED_SEGMENTS && count < vector.length; ++count) {
+			Comparable<?> e = vector[count];
+			if (!(e instanceof Integer))
+				break;
+			int value = ((Integer) e).intValue();
+			if (value < 0 || value > MAX_PACKED_VALUE)
+				break;
+			packed |= ((long) value) << ((MAX_PACKED_SEGMENTS - 1 - count) * PACKED_SEGMENT_BITS);
+		}
+		packedPrefix = packed;
+		packedCount = count;
+		hashCode = VersionVector.hashCode(vector, padValue);
 	}
 
 	public boolean equals(Object o) {
 		if (o == this)
 			return true;
 
+		if (o instanceof OmniVersion) {
+			OmniVersion ov = (OmniVersion) o;
+			if (hashCode != ov.hashCode || packedPrefix != ov.packedPrefix || packedCount != ov.packedCount)
+				return false;
+			return VersionVector.equals(vector, padValue, ov.vector, ov.padValue);
+		}
+
 		if (!(o instanceof BasicVersion))
 			return false;
 
@@ -141,7 +188,7 @@ public class OmniVersion extends BasicVersion {
 	}
 
 	public int hashCode() {
-		return VersionVector.hashCode(vector, padValue);
+		return hashCode;
 	}
 
 	/**
@@ -227,6 +274,11 @@ public class OmniVersion extends BasicVersion {
 		return ((Integer) vector[i]).intValue();
 	}
 
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		initTransients();
+	}
+
 	// Preserve singletons during deserialization
 	private Object readResolve() {
 		Version v = this;
@@ -254,6 +306,23 @@ public class OmniVersion extends BasicVersion {
 	}
 
 	public int compareTo(Version v) {
+		if (v == this)
+			return 0;
+
+		if (v instanceof OmniVersion) {
+			OmniVersion ov = (OmniVersion) v;
+			int top = packedCount < ov.packedCount ? packedCount : ov.packedCount;
+			if (top > 0) {
+				// Compare the segments packed by both versions at once
+				int shift = (MAX_PACKED_SEGMENTS - top) * PACKED_SEGMENT_BITS;
+				long a = packedPrefix >>> shift;
+				long b = ov.packedPrefix >>> shift;
+				if (a != b)
+					return a > b ? 1 : -1;
+			}
+			return VersionVector.compare(vector, padValue, ov.vector, ov.padValue, top);
+		}
+
 		BasicVersion ov = (BasicVersion) v;
 		return VersionVector.compare(vector, padValue, ov.getVector(), ov.getPad());
 	}
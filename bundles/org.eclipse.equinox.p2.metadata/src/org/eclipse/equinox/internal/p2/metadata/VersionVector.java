@@ -111,11 +111,19 @@ public class VersionVector implements Comparable<VersionVector>, Serializable {
 	private static final long serialVersionUID = -8385373304298723744L;
 
 	static int compare(Comparable<?>[] vectorA, Comparable<?> padA, Comparable<?>[] vectorB, Comparable<?> padB) {
+		return compare(vectorA, padA, vectorB, padB, 0);
+	}
+
+	/**
+	 * Compares the vectors, assuming that the segments before <code>start</code> are
+	 * known to be equal.
+	 */
+	static int compare(Comparable<?>[] vectorA, Comparable<?> padA, Comparable<?>[] vectorB, Comparable<?> padB, int start) {
 		int top = vectorA.length;
 		if (top > vectorB.length)
 			top = vectorB.length;
 
-		for (int idx = 0; idx < top; ++idx) {
+		for (int idx = start; idx < top; ++idx) {
 			int cmp = compareSegments(vectorA[idx], vectorB[idx]);
 			if (cmp != 0)
 				return cmp;
@@ -0,0 +1,398 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.expression;
+
+import java.util.*;
+import org.eclipse.equinox.internal.p2.metadata.expression.Member.DynamicMember;
+import org.eclipse.equinox.p2.metadata.expression.IMemberProvider;
+
+/**
+ * Compiles the predicate of a {@link MatchExpression} into a tree of evaluators that
+ * no longer needs an evaluation context. Variables are kept in slots of an array, the
+ * candidate being in slot 0, and parameters are read directly from the parameters of
+ * the match expression.
+ * <p>
+ * Only the expressions used by the common match queries are compiled, that is literals,
+ * parameters, member access, boolean operators, comparisons, matches and the
+ * <code>exists</code> and <code>all</code> collection filters. When the predicate contains
+ * any other expression, it is not compiled and the match expression is interpreted.
+ * </p>
+ * <p>
+ * Compiled predicates are immutable and are shared by all match expressions having
+ * an equal predicate.
+ * </p>
+ */
+public final class ExpressionCompiler {
+	/**
+	 * A compiled predicate.
+	 */
+	static final class CompiledPredicate {
+		private final Code code;
+		private final int slotCount;
+		private final int parameterCount;
+
+		CompiledPredicate(Code code, int slotCount, int parameterCount) {
+			this.code = code;
+			this.slotCount = slotCount;
+			this.parameterCount = parameterCount;
+		}
+
+		/**
+		 * Returns whether the predicate can be evaluated with the given parameters.
+		 */
+		boolean accepts(Object[] parameters) {
+			return parameters.length >= parameterCount;
+		}
+
+		boolean isMatch(Object candidate, Object[] parameters) {
+			Object[] slots = new Object[slotCount];
+			slots[0] = candidate;
+			return code.isTrue(slots, parameters);
+		}
+	}
+
+	/**
+	 * A compiled expression.
+	 */
+	private static abstract class Code {
+		abstract Object evaluate(Object[] slots, Object[] params);
+
+		boolean isTrue(Object[] slots, Object[] params) {
+			return evaluate(slots, params) == Boolean.TRUE;
+		}
+	}
+
+	/**
+	 * A compiled expression yielding a boolean.
+	 */
+	private static abstract class BooleanCode extends Code {
+		final Object evaluate(Object[] slots, Object[] params) {
+			return Boolean.valueOf(isTrue(slots, params));
+		}
+
+		abstract boolean isTrue(Object[] slots, Object[] params);
+	}
+
+	private static final class ConstantCode extends Code {
+		private final Object value;
+
+		ConstantCode(Object value) {
+			this.value = value;
+		}
+
+		Object evaluate(Object[] slots, Object[] params) {
+			return value;
+		}
+	}
+
+	private static final class ParameterCode extends Code {
+		private final int position;
+
+		ParameterCode(int position) {
+			this.position = position;
+		}
+
+		Object evaluate(Object[] slots, Object[] params) {
+			return params[position];
+		}
+	}
+
+	private static final class SlotCode extends Code {
+		private final int slot;
+
+		SlotCode(int slot) {
+			this.slot = slot;
+		}
+
+		Object evaluate(Object[] slots, Object[] params) {
+			return slots[slot];
+		}
+	}
+
+	private static final class MemberCode extends Code {
+		private final Code self;
+		private final DynamicMember member;
+
+		MemberCode(Code self, DynamicMember member) {
+			this.self = self;
+			this.member = member;
+		}
+
+		Object evaluate(Object[] slots, Object[] params) {
+			Object value = self.evaluate(slots, params);
+			if (value instanceof IMemberProvider)
+				return ((IMemberProvider) value).getMember(member.name);
+			return member.invoke(value);
+		}
+	}
+
+	private static final class AndCode extends BooleanCode {
+		private final Code[] operands;
+
+		AndCode(Code[] operands) {
+			this.operands = operands;
+		}
+
+		boolean isTrue(Object[] slots, Object[] params) {
+			for (int idx = 0; idx < operands.length; ++idx)
+				if (!operands[idx].isTrue(slots, params))
+					return false;
+			return true;
+		}
+	}
+
+	private static final class OrCode extends BooleanCode {
+		private final Code[] operands;
+
+		OrCode(Code[] operands) {
+			this.operands = operands;
+		}
+
+		boolean isTrue(Object[] slots, Object[] params) {
+			for (int idx = 0; idx < operands.length; ++idx)
+				if (operands[idx].isTrue(slots, params))
+					return true;
+			return false;
+		}
+	}
+
+	private static final class NotCode extends BooleanCode {
+		private final Code operand;
+
+		NotCode(Code operand) {
+			this.operand = operand;
+		}
+
+		boolean isTrue(Object[] slots, Object[] params) {
+			return !operand.isTrue(slots, params);
+		}
+	}
+
+	private static final class EqualsCode extends BooleanCode {
+		private final Code lhs;
+		private final Code rhs;
+		private final boolean negate;
+
+		EqualsCode(Code lhs, Code rhs, boolean negate) {
+			this.lhs = lhs;
+			this.rhs = rhs;
+			this.negate = negate;
+		}
+
+		boolean isTrue(Object[] slots, Object[] params) {
+			return CoercingComparator.coerceAndEquals(lhs.evaluate(slots, params), rhs.evaluate(slots, params)) != negate;
+		}
+	}
+
+	private static final class CompareCode extends BooleanCode {
+		private final Code lhs;
+		private final Code rhs;
+		private final boolean compareLess;
+		private final boolean equalOK;
+
+		CompareCode(Code lhs, Code rhs, boolean compareLess, boolean equalOK) {
+			this.lhs = lhs;
+			this.rhs = rhs;
+			this.compareLess = compareLess;
+			this.equalOK = equalOK;
+		}
+
+		boolean isTrue(Object[] slots, Object[] params) {
+			int cmpResult = CoercingComparator.coerceAndCompare(lhs.evaluate(slots, params), rhs.evaluate(slots, params));
+			return cmpResult == 0 ? equalOK : (cmpResult < 0 ? compareLess : !compareLess);
+		}
+	}
+
+	private static final class MatchesCode extends BooleanCode {
+		private final Code lhs;
+		private final Code rhs;
+		private final Matches matches;
+
+		MatchesCode(Code lhs, Code rhs, Matches matches) {
+			this.lhs = lhs;
+			this.rhs = rhs;
+			this.matches = matches;
+		}
+
+		boolean isTrue(Object[] slots, Object[] params) {
+			return matches.match(lhs.evaluate(slots, params), rhs.evaluate(slots, params));
+		}
+	}
+
+	/**
+	 * The <code>exists</code> and <code>all</code> collection filters. The first yields
+	 * <code>true</code> when the body is true for some element, the second yields
+	 * <code>false</code> when the body is false for some element.
+	 */
+	private static final class CollectionCode extends BooleanCode {
+		private final Code collection;
+		private final Code body;
+		private final int slot;
+		private final boolean exists;
+
+		CollectionCode(Code collection, Code body, int slot, boolean exists) {
+			this.collection = collection;
+			this.body = body;
+			this.slot = slot;
+			this.exists = exists;
+		}
+
+		boolean isTrue(Object[] slots, Object[] params) {
+			Object value = collection.evaluate(slots, params);
+			if (value instanceof Object[]) {
+				Object[] elements = (Object[]) value;
+				for (int idx = 0; idx < elements.length; ++idx) {
+					slots[slot] = elements[idx];
+					if (body.isTrue(slots, params) == exists)
+						return exists;
+				}
+				return !exists;
+			}
+
+			Iterator<?> itor = value instanceof IRepeatableIterator<?> ? ((IRepeatableIterator<?>) value).getCopy() : RepeatableIterator.create(value);
+			while (itor.hasNext()) {
+				slots[slot] = itor.next();
+				if (body.isTrue(slots, params) == exists)
+					return exists;
+			}
+			return !exists;
+		}
+	}
+
+	/**
+	 * The property giving the number of compiled predicates that are cached.
+	 */
+	public static final String PROP_CACHE_SIZE = "org.eclipse.equinox.p2.metadata.compiledExpressionCacheSize"; //$NON-NLS-1$
+
+	/**
+	 * Marks the predicates that cannot be compiled in the cache.
+	 */
+	private static final Object NOT_COMPILABLE = new Object();
+
+	private static final StripedCache<Expression, Object> cache = new StripedCache<Expression, Object>(PROP_CACHE_SIZE, 512);
+
+	/**
+	 * Returns the compiled form of the given predicate, or <code>null</code> if it
+	 * cannot be compiled.
+	 */
+	static CompiledPredicate getCompiledPredicate(Expression predicate) {
+		Object compiled = cache.get(predicate);
+		if (compiled == null) {
+			compiled = new ExpressionCompiler().compilePredicate(predicate);
+			compiled = cache.put(predicate, compiled == null ? NOT_COMPILABLE : compiled);
+		}
+		return compiled == NOT_COMPILABLE ? null : (CompiledPredicate) compiled;
+	}
+
+	/**
+	 * Discards all compiled predicates.
+	 */
+	public static void clearCache() {
+		cache.clear();
+	}
+
+	/**
+	 * Returns the cache of compiled predicates.
+	 */
+	public static StripedCache<Expression, Object> getCache() {
+		return cache;
+	}
+
+	// The slots of the variables in scope
+	private final Map<Variable, Integer> scope = new IdentityHashMap<Variable, Integer>();
+	private int slotCount;
+	private int parameterCount;
+
+	private ExpressionCompiler() {
+		// Use getCompiledPredicate
+	}
+
+	private CompiledPredicate compilePredicate(Expression predicate) {
+		scope.put(ExpressionFactory.THIS, new Integer(slotCount++));
+		Code code = compile(predicate);
+		return code == null ? null : new CompiledPredicate(code, slotCount, parameterCount);
+	}
+
+	private Code compile(Expression expression) {
+		Class<?> type = expression.getClass();
+		if (type == Literal.class)
+			return new ConstantCode(((Literal) expression).value);
+
+		if (type == Parameter.class) {
+			int position = ((Parameter) expression).position;
+			parameterCount = Math.max(parameterCount, position + 1);
+			return new ParameterCode(position);
+		}
+
+		if (type == Variable.class) {
+			// Variables that are not bound in this predicate, such as everything, are not compiled
+			Integer slot = scope.get(expression);
+			return slot == null ? null : new SlotCode(slot.intValue());
+		}
+
+		if (type == DynamicMember.class) {
+			Code self = compile(((DynamicMember) expression).operand);
+			return self == null ? null : new MemberCode(self, (DynamicMember) expression);
+		}
+
+		if (type == And.class || type == Or.class) {
+			Expression[] operands = ((NAry) expression).operands;
+			Code[] codes = new Code[operands.length];
+			for (int idx = 0; idx < operands.length; ++idx) {
+				codes[idx] = compile(operands[idx]);
+				if (codes[idx] == null)
+					return null;
+			}
+			return type == And.class ? (Code) new AndCode(codes) : new OrCode(codes);
+		}
+
+		if (type == Not.class) {
+			Code operand = compile(((Not) expression).operand);
+			return operand == null ? null : new NotCode(operand);
+		}
+
+		if (type == Equals.class || type == Compare.class || type == Matches.class) {
+			Binary binary = (Binary) expression;
+			Code lhs = compile(binary.lhs);
+			Code rhs = lhs == null ? null : compile(binary.rhs);
+			if (rhs == null)
+				return null;
+			if (type == Equals.class)
+				return new EqualsCode(lhs, rhs, ((Equals) expression).negate);
+			if (type == Compare.class) {
+				Compare compare = (Compare) expression;
+				return new CompareCode(lhs, rhs, compare.compareLess, compare.equalOK);
+			}
+			return new MatchesCode(lhs, rhs, (Matches) expression);
+		}
+
+		if (type == Exists.class || type == All.class) {
+			CollectionFilter filter = (CollectionFilter) expression;
+			// A collection held by a variable is iterated with the help of the context, and
+			// the collection of everything may be indexed, so those are left to the interpreter
+			if (filter.operand instanceof Variable || filter.lambda.getClass() != LambdaExpression.class)
+				return null;
+			Code collection = compile(filter.operand);
+			if (collection == null)
+				return null;
+			Variable each = filter.lambda.getItemVariable();
+			int slot = slotCount++;
+			Integer previous = scope.put(each, new Integer(slot));
+			Code body = compile(filter.lambda.getOperand());
+			if (previous == null)
+				scope.remove(each);
+			else
+				scope.put(each, previous);
+			return body == null ? null : new CollectionCode(collection, body, slot, type == Exists.class);
+		}
+		return null;
+	}
+}
@@ -87,7 +87,7 @@ public final class Literal extends Expression {
 	}
 
 	public int hashCode() {
-		return 31 + value.hashCode();
+		return 31 + (value == null ? 0 : value.hashCode());
 	}
 
 	public void toLDAPString(StringBuffer buf) {
@@ -23,6 +23,13 @@ public class MatchExpression<T> extends Unary implements IMatchExpression<T> {
 	private static final Object[] noParams = new Object[0];
 	private final Object[] parameters;
 
+	/**
+	 * The compiled predicate, {@link #NOT_COMPILED} until the first match or
+	 * <code>null</code> when the predicate cannot be compiled.
+	 */
+	private transient volatile Object compiled = NOT_COMPILED;
+	private static final Object NOT_COMPILED = new Object();
+
 	MatchExpression(Expression expression, Object[] parameters) {
 		super(expression);
 		this.parameters = parameters == null ? noParams : parameters;
@@ -78,9 +85,35 @@ public class MatchExpression<T> extends Unary implements IMatchExpression<T> {
 	}
 
 	public boolean isMatch(T value) {
+		ExpressionCompiler.CompiledPredicate predicate = getCompiledPredicate();
+		if (predicate != null)
+			return predicate.isMatch(value, parameters);
 		return isMatch(createContext(), value);
 	}
 
+	/**
+	 * Matches the given value using the compiled predicate when there is one and
+	 * using the given context otherwise. The context must have been created by
+	 * {@link #createContext()}.
+	 */
+	public boolean isMatchCompiled(IEvaluationContext context, T value) {
+		ExpressionCompiler.CompiledPredicate predicate = getCompiledPredicate();
+		if (predicate != null)
+			return predicate.isMatch(value, parameters);
+		return isMatch(context, value);
+	}
+
+	private ExpressionCompiler.CompiledPredicate getCompiledPredicate() {
+		Object predicate = compiled;
+		if (predicate == NOT_COMPILED) {
+			predicate = ExpressionCompiler.getCompiledPredicate(operand);
+			if (predicate != null && !((ExpressionCompiler.CompiledPredicate) predicate).accepts(parameters))
+				predicate = null;
+			compiled = predicate;
+		}
+		return (ExpressionCompiler.CompiledPredicate) predicate;
+	}
+
 	public void toLDAPString(StringBuffer bld) {
 		operand.toLDAPString(bld);
 	}
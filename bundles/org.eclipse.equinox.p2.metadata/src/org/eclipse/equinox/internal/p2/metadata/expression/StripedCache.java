@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.expression;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import org.eclipse.equinox.internal.p2.metadata.MetadataActivator;
+import org.osgi.framework.BundleContext;
+
+/**
+ * A bounded cache for the parsed and compiled forms of filters and match expressions.
+ * The keys are spread by hash over up to 16 segments, each guarded by its own lock, so
+ * that threads using keys of different segments do not contend. Every lookup and update
+ * takes the lock of one segment; the size and the statistics take the locks of all of them.
+ * <p>
+ * Each segment holds an equal share of the maximum size. When a segment grows beyond its
+ * share, it is scanned for entries that were not read since the last scan reached them,
+ * which are removed until the segment is back to three quarters of its share. Entries that
+ * were read are only marked and are removed by a second scan when the first one was not
+ * enough. The entry being added is never removed.
+ * </p>
+ */
+public final class StripedCache<K, V> {
+	private static final int MAX_SEGMENT_COUNT = 16;
+	private static final int MIN_SEGMENT_SIZE = 64;
+
+	private static final class Entry<V> {
+		final V value;
+		boolean used;
+
+		Entry(V value) {
+			this.value = value;
+		}
+	}
+
+	/**
+	 * A part of the cache, with its own lock.
+	 */
+	private static final class Segment<K, V> {
+		final HashMap<K, Entry<V>> entries;
+		final int maxSize;
+		long hits;
+		long misses;
+
+		Segment(int maxSize) {
+			this.maxSize = maxSize;
+			entries = new HashMap<K, Entry<V>>(maxSize + maxSize / 3 + 1);
+		}
+
+		/**
+		 * Evicts entries until the segment is back to three quarters of its size, keeping
+		 * the entry that was just added.
+		 */
+		void evict(Entry<V> added) {
+			int target = maxSize - maxSize / 4;
+			// The second pass removes the entries that were given a second chance by the first
+			for (int pass = 0; pass < 2 && entries.size() > target; ++pass) {
+				Iterator<Entry<V>> itor = entries.values().iterator();
+				while (itor.hasNext() && entries.size() > target) {
+					Entry<V> entry = itor.next();
+					if (entry.used)
+						entry.used = false;
+					else if (entry != added)
+						itor.remove();
+				}
+			}
+		}
+	}
+
+	private final Segment<K, V>[] segments;
+	private final int maxSize;
+
+	/**
+	 * Creates a cache holding at most the number of entries given by the property
+	 * <code>sizeProperty</code>, or <code>defaultSize</code> entries when the property
+	 * is not set.
+	 */
+	public StripedCache(String sizeProperty, int defaultSize) {
+		this(getSize(sizeProperty, defaultSize));
+	}
+
+	@SuppressWarnings("unchecked")
+	public StripedCache(int maxSize) {
+		this.maxSize = maxSize < 1 ? 1 : maxSize;
+		// a power of two number of segments, each large enough to give used entries a second chance
+		int segmentCount = 1;
+		while (segmentCount < MAX_SEGMENT_COUNT && this.maxSize / (segmentCount * 2) >= MIN_SEGMENT_SIZE)
+			segmentCount *= 2;
+		segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++)
+			segments[i] = new Segment<K, V>(this.maxSize / segmentCount);
+	}
+
+	private static int getSize(String sizeProperty, int defaultSize) {
+		BundleContext context = MetadataActivator.getContext();
+		String value = context != null ? context.getProperty(sizeProperty) : System.getProperty(sizeProperty);
+		if (value != null) {
+			try {
+				return Integer.parseInt(value);
+			} catch (NumberFormatException e) {
+				// use the default
+			}
+		}
+		return defaultSize;
+	}
+
+	private Segment<K, V> getSegment(Object key) {
+		int hash = key.hashCode();
+		return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+	}
+
+	/**
+	 * Returns the value cached for the given key or <code>null</code> if there is none.
+	 */
+	public V get(K key) {
+		Segment<K, V> segment = getSegment(key);
+		synchronized (segment) {
+			Entry<V> entry = segment.entries.get(key);
+			if (entry == null) {
+				segment.misses++;
+				return null;
+			}
+			entry.used = true;
+			segment.hits++;
+			return entry.value;
+		}
+	}
+
+	/**
+	 * Caches the value for the given key unless a value was cached for the key in the
+	 * meantime, and returns the value that is cached.
+	 */
+	public V put(K key, V value) {
+		Segment<K, V> segment = getSegment(key);
+		synchronized (segment) {
+			Entry<V> previous = segment.entries.get(key);
+			if (previous != null)
+				return previous.value;
+			Entry<V> entry = new Entry<V>(value);
+			segment.entries.put(key, entry);
+			if (segment.entries.size() > segment.maxSize)
+				segment.evict(entry);
+			return value;
+		}
+	}
+
+	/**
+	 * Removes all entries from the cache and resets the statistics.
+	 */
+	public void clear() {
+		for (int i = 0; i < segments.length; i++) {
+			synchronized (segments[i]) {
+				segments[i].entries.clear();
+				segments[i].hits = 0;
+				segments[i].misses = 0;
+			}
+		}
+	}
+
+	/**
+	 * Returns the maximum number of entries held by the cache.
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Returns the number of entries in the cache.
+	 */
+	public int size() {
+		int size = 0;
+		for (int i = 0; i < segments.length; i++) {
+			synchronized (segments[i]) {
+				size += segments[i].entries.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the number of lookups that found a value.
+	 */
+	public long getHitCount() {
+		long hits = 0;
+		for (int i = 0; i < segments.length; i++) {
+			synchronized (segments[i]) {
+				hits += segments[i].hits;
+			}
+		}
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups that found no value.
+	 */
+	public long getMissCount() {
+		long misses = 0;
+		for (int i = 0; i < segments.length; i++) {
+			synchronized (segments[i]) {
+				misses += segments[i].misses;
+			}
+		}
+		return misses;
+	}
+}
@@ -12,6 +12,7 @@ package org.eclipse.equinox.internal.p2.metadata.expression.parser;
 
 import java.util.*;
 import org.eclipse.equinox.internal.p2.metadata.Messages;
+import org.eclipse.equinox.internal.p2.metadata.expression.StripedCache;
 import org.eclipse.equinox.internal.p2.metadata.expression.IExpressionConstants;
 import org.eclipse.equinox.internal.p2.metadata.expression.LDAPApproximation;
 import org.eclipse.equinox.p2.metadata.expression.*;
@@ -22,12 +23,12 @@ import org.eclipse.osgi.util.NLS;
  * objects rooted at the parent.
  */
 public class LDAPFilterParser {
-	@SuppressWarnings("serial")
-	private static final Map<String, IFilterExpression> filterCache = Collections.<String, IFilterExpression> synchronizedMap(new LinkedHashMap<String, IFilterExpression>() {
-		public boolean removeEldestEntry(Map.Entry<String, IFilterExpression> expr) {
-			return size() > 64;
-		}
-	});
+	/**
+	 * The property giving the number of parsed filters that are cached.
+	 */
+	public static final String PROP_FILTER_CACHE_SIZE = "org.eclipse.equinox.p2.metadata.filterCacheSize"; //$NON-NLS-1$
+
+	private static final StripedCache<String, IFilterExpression> filterCache = new StripedCache<String, IFilterExpression>(PROP_FILTER_CACHE_SIZE, 1024);
 
 	private final IExpressionFactory factory;
 
@@ -57,9 +58,7 @@ public class LDAPFilterParser {
 				IExpression expr = parseFilter();
 				if (position != filterString.length())
 					throw syntaxException(Messages.filter_trailing_characters);
-				filter = factory.filterExpression(expr);
-				filterCache.put(filterStr, filter);
-				return filter;
+				return filterCache.put(filterStr, factory.filterExpression(expr));
 			} catch (StringIndexOutOfBoundsException e) {
 				throw syntaxException(Messages.filter_premature_end);
 			}
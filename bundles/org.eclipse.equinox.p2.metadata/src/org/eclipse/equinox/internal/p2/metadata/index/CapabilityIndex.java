@@ -49,6 +49,77 @@ public class CapabilityIndex extends Index<IInstallableUnit> {
 		this.capabilityMap = index;
 	}
 
+	/**
+	 * Constructor for subclasses that provide their own capability storage by
+	 * overriding {@link #getMatchingIUs(String)} and {@link #collectMatchingIUs(String, Collection)}.
+	 */
+	protected CapabilityIndex() {
+		this.capabilityMap = null;
+	}
+
+	/**
+	 * Adds the given unit to this index. The collections of units held by the index are
+	 * replaced rather than modified, so candidates obtained before are not affected.
+	 * @param iu The unit to add
+	 */
+	public void addUnit(IInstallableUnit iu) {
+		if (capabilityMap == null)
+			throw new UnsupportedOperationException();
+		for (IProvidedCapability pc : iu.getProvidedCapabilities()) {
+			String name = pc.getName();
+			Object prev = capabilityMap.get(name);
+			if (prev == null) {
+				capabilityMap.put(name, iu);
+				continue;
+			}
+			if (iu.equals(prev))
+				continue;
+
+			ArrayList<IInstallableUnit> list;
+			if (prev instanceof IInstallableUnit) {
+				list = new ArrayList<IInstallableUnit>(2);
+				list.add((IInstallableUnit) prev);
+			} else {
+				ArrayList<IInstallableUnit> prevList = (ArrayList<IInstallableUnit>) prev;
+				if (prevList.contains(iu))
+					continue;
+				list = new ArrayList<IInstallableUnit>(prevList.size() + 1);
+				list.addAll(prevList);
+			}
+			list.add(iu);
+			capabilityMap.put(name, list);
+		}
+	}
+
+	/**
+	 * Removes the given unit from this index. As for {@link #addUnit(IInstallableUnit)}, the
+	 * collections of units held by the index are replaced rather than modified.
+	 * @param iu The unit to remove
+	 */
+	public void removeUnit(IInstallableUnit iu) {
+		if (capabilityMap == null)
+			throw new UnsupportedOperationException();
+		for (IProvidedCapability pc : iu.getProvidedCapabilities()) {
+			String name = pc.getName();
+			Object prev = capabilityMap.get(name);
+			if (iu.equals(prev)) {
+				capabilityMap.remove(name);
+				continue;
+			}
+			if (!(prev instanceof ArrayList<?>) || !((ArrayList<IInstallableUnit>) prev).contains(iu))
+				continue;
+
+			ArrayList<IInstallableUnit> list = new ArrayList<IInstallableUnit>((ArrayList<IInstallableUnit>) prev);
+			while (list.remove(iu)) {
+				// remove all occurrences
+			}
+			if (list.isEmpty())
+				capabilityMap.remove(name);
+			else
+				capabilityMap.put(name, list.size() == 1 ? (Object) list.get(0) : list);
+		}
+	}
+
 	private Object getRequirementIDs(IEvaluationContext ctx, IExpression requirement, Object queriedKeys) {
 		switch (requirement.getExpressionType()) {
 			case IExpression.TYPE_AND :
@@ -180,19 +251,32 @@ public class CapabilityIndex extends Index<IInstallableUnit> {
 			matchingIUs = new HashSet<IInstallableUnit>();
 			for (Object key : (Collection<Object>) queriedKeys)
 				collectMatchingIUs((String) key, matchingIUs);
-		} else {
-			Object v = capabilityMap.get(queriedKeys);
-			if (v == null)
-				matchingIUs = CollectionUtils.<IInstallableUnit> emptySet();
-			else if (v instanceof IInstallableUnit)
-				matchingIUs = Collections.singleton((IInstallableUnit) v);
-			else
-				matchingIUs = (Collection<IInstallableUnit>) v;
-		}
+		} else
+			matchingIUs = getMatchingIUs((String) queriedKeys);
 		return matchingIUs.iterator();
 	}
 
-	private void collectMatchingIUs(String name, Collection<IInstallableUnit> collector) {
+	/**
+	 * Returns the units that provide a capability with the given <code>name</code>.
+	 * @param name The capability name
+	 * @return The matching units, possibly empty but never <code>null</code>
+	 */
+	protected Collection<IInstallableUnit> getMatchingIUs(String name) {
+		Object v = capabilityMap.get(name);
+		if (v == null)
+			return CollectionUtils.<IInstallableUnit> emptySet();
+		if (v instanceof IInstallableUnit)
+			return Collections.singleton((IInstallableUnit) v);
+		return (Collection<IInstallableUnit>) v;
+	}
+
+	/**
+	 * Adds the units that provide a capability with the given <code>name</code>
+	 * to the <code>collector</code>.
+	 * @param name The capability name
+	 * @param collector The collection that receives the matching units
+	 */
+	protected void collectMatchingIUs(String name, Collection<IInstallableUnit> collector) {
 		Object v = capabilityMap.get(name);
 		if (v == null)
 			return;
@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.index;
+
+import java.util.*;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+
+/**
+ * A {@link CapabilityIndex} that stores the units providing each capability name as
+ * int postings over an array of units, keyed by interned symbol ids. This avoids the
+ * map entries and lists that a map based index creates for every capability name.
+ * The index is a snapshot of the units it was created from.
+ */
+public class CompactCapabilityIndex extends CapabilityIndex {
+
+	private final UnitPostings postings;
+
+	public CompactCapabilityIndex(Iterator<IInstallableUnit> itor) {
+		this(toArray(itor), new SymbolTable(1024));
+	}
+
+	/**
+	 * Creates an index for the given units using the given symbol table. The
+	 * units array must not be modified after the index has been created.
+	 */
+	public CompactCapabilityIndex(IInstallableUnit[] units, SymbolTable symbols) {
+		postings = UnitPostings.createCapabilityPostings(units, symbols);
+	}
+
+	static IInstallableUnit[] toArray(Iterator<IInstallableUnit> itor) {
+		ArrayList<IInstallableUnit> units = new ArrayList<IInstallableUnit>();
+		while (itor.hasNext())
+			units.add(itor.next());
+		return units.toArray(new IInstallableUnit[units.size()]);
+	}
+
+	protected Collection<IInstallableUnit> getMatchingIUs(String name) {
+		return postings.get(name);
+	}
+
+	protected void collectMatchingIUs(String name, Collection<IInstallableUnit> collector) {
+		postings.collect(name, collector);
+	}
+}
@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.index;
+
+import java.util.*;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.expression.IEvaluationContext;
+import org.eclipse.equinox.p2.metadata.expression.IExpression;
+
+/**
+ * An id index that stores the units with each id as int postings over an array of
+ * units, keyed by interned symbol ids. Unlike {@link IdIndex} this index is a snapshot
+ * of the units it was created from.
+ */
+public class CompactIdIndex extends Index<IInstallableUnit> {
+	private final UnitPostings postings;
+
+	public CompactIdIndex(Iterator<IInstallableUnit> itor) {
+		this(CompactCapabilityIndex.toArray(itor), new SymbolTable(1024));
+	}
+
+	/**
+	 * Creates an index for the given units using the given symbol table. The
+	 * units array must not be modified after the index has been created.
+	 */
+	public CompactIdIndex(IInstallableUnit[] units, SymbolTable symbols) {
+		postings = UnitPostings.createIdPostings(units, symbols);
+	}
+
+	public Iterator<IInstallableUnit> getCandidates(IEvaluationContext ctx, IExpression variable, IExpression booleanExpr) {
+		Object queriedKeys = getQueriedIDs(ctx, variable, InstallableUnit.MEMBER_ID, booleanExpr, null);
+		if (queriedKeys == null)
+			return null;
+
+		if (queriedKeys instanceof Collection<?>) {
+			HashSet<IInstallableUnit> collector = new HashSet<IInstallableUnit>();
+			for (Object key : (Collection<?>) queriedKeys)
+				postings.collect((String) key, collector);
+			return collector.iterator();
+		}
+		return postings.get((String) queriedKeys).iterator();
+	}
+}
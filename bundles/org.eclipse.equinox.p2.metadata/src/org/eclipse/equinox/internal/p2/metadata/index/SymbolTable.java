@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.index;
+
+/**
+ * Assigns dense integer ids to strings. The ids start at zero and are assigned in
+ * the order the strings are first interned. The table is an open addressing hash
+ * table so no entry objects are created per symbol. A table may be shared by several
+ * indexes, for instance by an id index and a capability index since most unit ids
+ * are also the names of capabilities.
+ */
+public class SymbolTable {
+	private String[] symbols;
+	private int[] hashes;
+	private int[] slots; // symbol id + 1, 0 when the slot is empty
+	private int size;
+
+	public SymbolTable() {
+		this(64);
+	}
+
+	public SymbolTable(int expectedSize) {
+		int capacity = 16;
+		while (capacity < expectedSize * 2)
+			capacity <<= 1;
+		slots = new int[capacity];
+		symbols = new String[capacity / 2];
+		hashes = new int[capacity / 2];
+	}
+
+	/**
+	 * Returns the id of the given symbol, assigning a new id if the symbol has not
+	 * been interned before.
+	 */
+	public synchronized int intern(String symbol) {
+		int hash = symbol.hashCode();
+		int mask = slots.length - 1;
+		int slot = hash & mask;
+		for (int entry; (entry = slots[slot]) != 0; slot = (slot + 1) & mask) {
+			if (hashes[entry - 1] == hash && symbols[entry - 1].equals(symbol))
+				return entry - 1;
+		}
+		if (size == symbols.length) {
+			grow();
+			return intern(symbol);
+		}
+		int id = size++;
+		symbols[id] = symbol;
+		hashes[id] = hash;
+		slots[slot] = id + 1;
+		return id;
+	}
+
+	/**
+	 * Returns the id of the given symbol or <code>-1</code> if the symbol has
+	 * not been interned.
+	 */
+	public synchronized int lookup(String symbol) {
+		int hash = symbol.hashCode();
+		int mask = slots.length - 1;
+		for (int slot = hash & mask, entry; (entry = slots[slot]) != 0; slot = (slot + 1) & mask) {
+			if (hashes[entry - 1] == hash && symbols[entry - 1].equals(symbol))
+				return entry - 1;
+		}
+		return -1;
+	}
+
+	public synchronized String getSymbol(int id) {
+		return symbols[id];
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	private void grow() {
+		int capacity = slots.length << 1;
+		String[] newSymbols = new String[capacity / 2];
+		System.arraycopy(symbols, 0, newSymbols, 0, size);
+		int[] newHashes = new int[capacity / 2];
+		System.arraycopy(hashes, 0, newHashes, 0, size);
+		int[] newSlots = new int[capacity];
+		int mask = capacity - 1;
+		for (int id = 0; id < size; ++id) {
+			int slot = newHashes[id] & mask;
+			while (newSlots[slot] != 0)
+				slot = (slot + 1) & mask;
+			newSlots[slot] = id + 1;
+		}
+		symbols = newSymbols;
+		hashes = newHashes;
+		slots = newSlots;
+	}
+}
@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.index;
+
+import java.util.*;
+import org.eclipse.equinox.internal.p2.core.helpers.CollectionUtils;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.IProvidedCapability;
+
+/**
+ * An immutable mapping from interned keys to the units they were recorded for. The
+ * mapping is stored in compressed sparse row form: the units recorded for the key
+ * with symbol id <code>s</code> are found at the unit positions
+ * <code>postings[offsets[s]]</code> up to but not including
+ * <code>postings[offsets[s + 1]]</code>, in the order of the unit array.
+ */
+final class UnitPostings {
+
+	private final class UnitList extends AbstractList<IInstallableUnit> {
+		private final int start;
+		private final int end;
+
+		UnitList(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		public IInstallableUnit get(int index) {
+			if (index < 0 || index >= end - start)
+				throw new IndexOutOfBoundsException(Integer.toString(index));
+			return units[postings[start + index]];
+		}
+
+		public int size() {
+			return end - start;
+		}
+	}
+
+	/**
+	 * Accumulates (key, unit) pairs in unit order, ignoring repeated keys of the same unit.
+	 */
+	private static final class Builder {
+		int[] keys;
+		int[] positions;
+		int size;
+		private int[] lastPosition = new int[0];
+
+		Builder(int expectedSize) {
+			keys = new int[expectedSize];
+			positions = new int[expectedSize];
+		}
+
+		void add(int key, int position) {
+			if (key >= lastPosition.length) {
+				int[] grown = new int[Math.max(key + 1, lastPosition.length * 2)];
+				System.arraycopy(lastPosition, 0, grown, 0, lastPosition.length);
+				Arrays.fill(grown, lastPosition.length, grown.length, -1);
+				lastPosition = grown;
+			}
+			if (lastPosition[key] == position)
+				return;
+			lastPosition[key] = position;
+
+			if (size == keys.length) {
+				int newLength = Math.max(16, size * 2);
+				int[] newKeys = new int[newLength];
+				System.arraycopy(keys, 0, newKeys, 0, size);
+				keys = newKeys;
+				int[] newPositions = new int[newLength];
+				System.arraycopy(positions, 0, newPositions, 0, size);
+				positions = newPositions;
+			}
+			keys[size] = key;
+			positions[size++] = position;
+		}
+	}
+
+	private final IInstallableUnit[] units;
+	private final SymbolTable symbols;
+	private final int[] offsets;
+	private final int[] postings;
+
+	static UnitPostings createIdPostings(IInstallableUnit[] units, SymbolTable symbols) {
+		Builder builder = new Builder(units.length);
+		for (int i = 0; i < units.length; ++i)
+			builder.add(symbols.intern(units[i].getId()), i);
+		return new UnitPostings(units, symbols, builder);
+	}
+
+	static UnitPostings createCapabilityPostings(IInstallableUnit[] units, SymbolTable symbols) {
+		Builder builder = new Builder(units.length * 4);
+		for (int i = 0; i < units.length; ++i) {
+			for (IProvidedCapability pc : units[i].getProvidedCapabilities())
+				builder.add(symbols.intern(pc.getName()), i);
+		}
+		return new UnitPostings(units, symbols, builder);
+	}
+
+	private UnitPostings(IInstallableUnit[] units, SymbolTable symbols, Builder builder) {
+		this.units = units;
+		this.symbols = symbols;
+
+		// Counting sort of the pairs by key. The sort is stable so the postings
+		// of each key stay in unit order.
+		int[] starts = new int[symbols.size() + 1];
+		for (int i = 0; i < builder.size; ++i)
+			starts[builder.keys[i] + 1]++;
+		for (int i = 1; i < starts.length; ++i)
+			starts[i] += starts[i - 1];
+		offsets = new int[starts.length];
+		System.arraycopy(starts, 0, offsets, 0, starts.length);
+
+		postings = new int[builder.size];
+		for (int i = 0; i < builder.size; ++i)
+			postings[starts[builder.keys[i]]++] = builder.positions[i];
+	}
+
+	/**
+	 * Returns the units recorded for the given key, possibly empty but never <code>null</code>.
+	 */
+	Collection<IInstallableUnit> get(String key) {
+		int symbol = symbols.lookup(key);
+		// Symbols interned after this instance was built by other users of the table are unknown here
+		if (symbol < 0 || symbol >= offsets.length - 1 || offsets[symbol] == offsets[symbol + 1])
+			return CollectionUtils.<IInstallableUnit> emptySet();
+		return new UnitList(offsets[symbol], offsets[symbol + 1]);
+	}
+
+	/**
+	 * Adds the units recorded for the given key to the <code>collector</code>.
+	 */
+	void collect(String key, Collection<IInstallableUnit> collector) {
+		int symbol = symbols.lookup(key);
+		if (symbol < 0 || symbol >= offsets.length - 1)
+			return;
+		for (int i = offsets[symbol], end = offsets[symbol + 1]; i < end; ++i)
+			collector.add(units[postings[i]]);
+	}
+}
@@ -413,7 +413,7 @@ public final class MetadataFactory {
 	 * @param version The capability version
 	 */
 	public static IProvidedCapability createProvidedCapability(String namespace, String name, Version version) {
-		return new ProvidedCapability(namespace, name, version);
+		return MetadataPool.intern(new ProvidedCapability(namespace, name, MetadataPool.intern(version)));
 	}
 
 	/**
@@ -432,7 +432,7 @@ public final class MetadataFactory {
 	 * @return the requirement
 	 */
 	public static IRequirement createRequirement(String namespace, String name, VersionRange range, IMatchExpression<IInstallableUnit> filter, boolean optional, boolean multiple) {
-		return new RequiredCapability(namespace, name, range, filter, optional ? 0 : 1, multiple ? Integer.MAX_VALUE : 1, true, null);
+		return MetadataPool.intern(new RequiredCapability(namespace, name, range, filter, optional ? 0 : 1, multiple ? Integer.MAX_VALUE : 1, true, null));
 	}
 
 	/**
@@ -449,7 +449,7 @@ public final class MetadataFactory {
 	 * @return the requirement
 	 */
 	public static IRequirement createRequirement(String namespace, String name, VersionRange range, IMatchExpression<IInstallableUnit> filter, int minCard, int maxCard, boolean greedy) {
-		return new RequiredCapability(namespace, name, range, filter, minCard, maxCard, greedy, null);
+		return MetadataPool.intern(new RequiredCapability(namespace, name, range, filter, minCard, maxCard, greedy, null));
 	}
 
 	/**
@@ -464,7 +464,7 @@ public final class MetadataFactory {
 	 * @return the requirement
 	 */
 	public static IRequirement createRequirement(IMatchExpression<IInstallableUnit> requirement, IMatchExpression<IInstallableUnit> filter, int minCard, int maxCard, boolean greedy) {
-		return new RequiredCapability(requirement, filter, minCard, maxCard, greedy, null);
+		return MetadataPool.intern(new RequiredCapability(requirement, filter, minCard, maxCard, greedy, null));
 	}
 
 	/**
@@ -482,7 +482,7 @@ public final class MetadataFactory {
 	 * @return the requirement
 	 */
 	public static IRequirement createRequirement(String namespace, String name, VersionRange range, String filter, boolean optional, boolean multiple, boolean greedy) {
-		return new RequiredCapability(namespace, name, range, filter, optional, multiple, greedy);
+		return MetadataPool.intern(new RequiredCapability(namespace, name, range, filter, optional, multiple, greedy));
 	}
 
 	/**
@@ -500,7 +500,7 @@ public final class MetadataFactory {
 	 * @return the requirement
 	 */
 	public static IRequirement createRequirement(String namespace, String name, VersionRange range, IMatchExpression<IInstallableUnit> filter, int minCard, int maxCard, boolean greedy, String description) {
-		return new RequiredCapability(namespace, name, range, filter, minCard, maxCard, greedy, description);
+		return MetadataPool.intern(new RequiredCapability(namespace, name, range, filter, minCard, maxCard, greedy, description));
 	}
 
 	/**
@@ -515,7 +515,7 @@ public final class MetadataFactory {
 	 * @return the requirement
 	 */
 	public static IRequirement createRequirement(IMatchExpression<IInstallableUnit> requirement, IMatchExpression<IInstallableUnit> filter, int minCard, int maxCard, boolean greedy, String description) {
-		return new RequiredCapability(requirement, filter, minCard, maxCard, greedy, description);
+		return MetadataPool.intern(new RequiredCapability(requirement, filter, minCard, maxCard, greedy, description));
 	}
 
 	/**
@@ -14,8 +14,7 @@ import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.equinox.internal.p2.core.helpers.CollectionUtils;
 import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
 import org.eclipse.equinox.internal.p2.metadata.expression.CompoundIterator;
-import org.eclipse.equinox.internal.p2.metadata.index.CompoundIndex;
-import org.eclipse.equinox.internal.p2.metadata.index.IndexProvider;
+import org.eclipse.equinox.internal.p2.metadata.index.*;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 import org.eclipse.equinox.p2.metadata.KeyWithLocale;
 import org.eclipse.equinox.p2.metadata.expression.IEvaluationContext;
@@ -44,8 +43,30 @@ public final class CompoundQueryable<T> extends IndexProvider<T> {
 
 	private IQueryable<T>[] queryables;
 
+	private boolean shareIndexes;
+	private IInstallableUnit[] sharedUnits;
+	private SymbolTable sharedSymbols;
+	private IIndex<T> sharedIdIndex;
+	private IIndex<T> sharedCapabilityIndex;
+
 	public CompoundQueryable(IQueryable<T>[] queryables) {
+		this(queryables, false);
+	}
+
+	/**
+	 * Creates a queryable that combines the given queryables. When <code>shareIndexes</code>
+	 * is <code>true</code> and the queryables hold installable units, the id and capability
+	 * indexes are built once over the units of all queryables instead of combining the
+	 * candidates of one index per queryable on every query. The shared indexes do not
+	 * reflect changes made to the queryables after they have been built.
+	 * 
+	 * @param queryables The queryables to be combined
+	 * @param shareIndexes Whether to use shared id and capability indexes
+	 * @noreference This constructor is not intended to be referenced by clients.
+	 */
+	public CompoundQueryable(IQueryable<T>[] queryables, boolean shareIndexes) {
 		this.queryables = queryables;
+		this.shareIndexes = shareIndexes;
 	}
 
 	/**
@@ -70,6 +91,12 @@ public final class CompoundQueryable<T> extends IndexProvider<T> {
 	}
 
 	public IIndex<T> getIndex(String memberName) {
+		if (shareIndexes && (InstallableUnit.MEMBER_ID.equals(memberName) || InstallableUnit.MEMBER_PROVIDED_CAPABILITIES.equals(memberName))) {
+			IIndex<T> index = getSharedIndex(memberName);
+			if (index != null)
+				return index;
+		}
+
 		// Check that at least one of the queryable can present an index
 		// for the given member.
 		boolean found = false;
@@ -105,6 +132,35 @@ public final class CompoundQueryable<T> extends IndexProvider<T> {
 		return indexes.size() == 1 ? indexes.get(0) : new CompoundIndex<T>(indexes);
 	}
 
+	/**
+	 * Returns the shared index for the given member, or <code>null</code> if the queryables
+	 * hold something other than installable units.
+	 */
+	@SuppressWarnings("unchecked")
+	private synchronized IIndex<T> getSharedIndex(String memberName) {
+		if (sharedUnits == null) {
+			ArrayList<IInstallableUnit> units = new ArrayList<IInstallableUnit>();
+			for (Iterator<T> itor = everything(); itor.hasNext();) {
+				Object element = itor.next();
+				if (!(element instanceof IInstallableUnit)) {
+					shareIndexes = false;
+					return null;
+				}
+				units.add((IInstallableUnit) element);
+			}
+			sharedUnits = units.toArray(new IInstallableUnit[units.size()]);
+			sharedSymbols = new SymbolTable(sharedUnits.length);
+		}
+		if (InstallableUnit.MEMBER_ID.equals(memberName)) {
+			if (sharedIdIndex == null)
+				sharedIdIndex = (IIndex<T>) new CompactIdIndex(sharedUnits, sharedSymbols);
+			return sharedIdIndex;
+		}
+		if (sharedCapabilityIndex == null)
+			sharedCapabilityIndex = (IIndex<T>) new CompactCapabilityIndex(sharedUnits, sharedSymbols);
+		return sharedCapabilityIndex;
+	}
+
 	public Iterator<T> everything() {
 		if (queryables.length == 0)
 			return CollectionUtils.<T> emptySet().iterator();
@@ -82,8 +82,7 @@ public class ExpressionMatchQuery<T> implements IMatchQuery<T>, IQueryWithIndex<
 	public boolean isMatch(T candidate) {
 		if (!matchingClass.isInstance(candidate))
 			return false;
-		ExpressionFactory.THIS.setValue(context, candidate);
-		return Boolean.TRUE == expression.evaluate(context);
+		return ((MatchExpression<T>) expression).isMatchCompiled(context, candidate);
 	}
 
 	public IMatchExpression<T> getExpression() {
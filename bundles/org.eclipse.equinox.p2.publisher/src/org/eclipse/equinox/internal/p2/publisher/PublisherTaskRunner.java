@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.publisher;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * Performs a task on each element of a list, such as the bundles or features published by an
+ * action, on the calling thread and a bounded number of jobs. The results are returned in the
+ * order of the elements whatever the order in which the tasks complete, so that callers can
+ * accumulate them in the same order as a sequential run.
+ */
+public class PublisherTaskRunner {
+	/**
+	 * A task performed on a single element.
+	 */
+	public interface Task<E, R> {
+		/**
+		 * Performs the task on the given element and returns the result, which may be <code>null</code>.
+		 */
+		R run(E element);
+	}
+
+	/**
+	 * Performs the task on all given elements using at most <code>threads</code> threads and
+	 * returns the results in the order of the elements. A runtime exception thrown by a task is
+	 * rethrown once all running tasks are done; when several tasks fail, the exception of the first
+	 * element in order is thrown.
+	 * @throws OperationCanceledException if the monitor is canceled
+	 */
+	public static <E, R> List<R> run(List<? extends E> elements, final Task<E, R> task, int threads, final IProgressMonitor monitor) {
+		final int size = elements.size();
+		List<R> results = new ArrayList<R>(size);
+		if (size < 2 || threads < 2) {
+			for (E element : elements) {
+				if (monitor.isCanceled())
+					throw new OperationCanceledException();
+				results.add(task.run(element));
+			}
+			return results;
+		}
+
+		final Object[] input = elements.toArray();
+		final Object[] output = new Object[size];
+		final Throwable[] failures = new Throwable[size];
+		// the index of the next element to process, claimed by the calling thread and the jobs in turn
+		final int[] next = new int[1];
+		final Runnable worker = new Runnable() {
+			@SuppressWarnings("unchecked")
+			public void run() {
+				while (!monitor.isCanceled()) {
+					int index;
+					synchronized (next) {
+						index = next[0]++;
+					}
+					if (index >= size)
+						return;
+					try {
+						output[index] = task.run((E) input[index]);
+					} catch (RuntimeException e) {
+						failures[index] = e;
+					} catch (Error e) {
+						failures[index] = e;
+					}
+				}
+			}
+		};
+
+		// the number of jobs at work, guarded by next
+		final int[] running = new int[1];
+		int helpers = Math.min(threads, size) - 1;
+		Job[] jobs = new Job[helpers];
+		for (int i = 0; i < helpers; i++) {
+			jobs[i] = new Job("Publisher") { //$NON-NLS-1$
+				protected IStatus run(IProgressMonitor jobMonitor) {
+					synchronized (next) {
+						if (next[0] >= size)
+							return Status.OK_STATUS;
+						running[0]++;
+					}
+					try {
+						worker.run();
+					} finally {
+						synchronized (next) {
+							running[0]--;
+							next.notifyAll();
+						}
+					}
+					return Status.OK_STATUS;
+				}
+			};
+			jobs[i].setSystem(true);
+			jobs[i].schedule();
+		}
+		// the calling thread takes part in the work and only waits for the jobs that have started,
+		// so the elements are processed even when no job gets to run
+		try {
+			worker.run();
+		} finally {
+			for (int i = 0; i < helpers; i++)
+				jobs[i].cancel();
+			waitFor(next, running);
+		}
+
+		for (int i = 0; i < size; i++) {
+			if (failures[i] instanceof RuntimeException)
+				throw (RuntimeException) failures[i];
+			if (failures[i] instanceof Error)
+				throw (Error) failures[i];
+		}
+		if (monitor.isCanceled())
+			throw new OperationCanceledException();
+		for (int i = 0; i < size; i++) {
+			@SuppressWarnings("unchecked")
+			R result = (R) output[i];
+			results.add(result);
+		}
+		return results;
+	}
+
+	private static void waitFor(Object lock, int[] running) {
+		boolean interrupted = false;
+		synchronized (lock) {
+			while (running[0] > 0) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+}
@@ -31,12 +31,29 @@ import org.eclipse.equinox.p2.repository.artifact.*;
 import org.eclipse.equinox.p2.repository.artifact.spi.ArtifactDescriptor;
 import org.eclipse.equinox.p2.repository.artifact.spi.ProcessingStepDescriptor;
 import org.eclipse.equinox.spi.p2.publisher.PublisherHelper;
+import org.osgi.framework.BundleContext;
 
 public abstract class AbstractPublisherAction implements IPublisherAction {
 	public static final String CONFIG_ANY = "ANY"; //$NON-NLS-1$
 	public static final String CONFIG_SEGMENT_SEPARATOR = "."; //$NON-NLS-1$
+	/**
+	 * The system property giving the default number of threads used by the actions that
+	 * publish their elements concurrently, such as the {@link org.eclipse.equinox.p2.publisher.eclipse.BundlesAction}
+	 * and the {@link org.eclipse.equinox.p2.publisher.eclipse.FeaturesAction}. The value is a number
+	 * of threads or <code>true</code> to use one thread per available processor. By default
+	 * the elements are published one after the other.
+	 */
+	public static final String PROP_PUBLISHER_THREADS = "eclipse.p2.publisher.threads"; //$NON-NLS-1$
+
+	/**
+	 * The keys of the artifacts being published. When elements are published concurrently,
+	 * the same artifact may be given to several threads, which must check whether the
+	 * destination contains the artifact and publish it one after the other.
+	 */
+	private static final Set<IArtifactKey> artifactsInProgress = new HashSet<IArtifactKey>();
 
 	protected IPublisherInfo info;
+	private int parallelism = -1;
 
 	/**
 	 * Convert a list of tokens into an array. The list separator has to be
@@ -399,6 +416,16 @@ public abstract class AbstractPublisherAction implements IPublisherAction {
 		// no files to publish so this is done.
 		if (inclusion == null)
 			return;
+		IArtifactKey key = descriptor.getArtifactKey();
+		startPublishing(key);
+		try {
+			doPublishArtifact(descriptor, inclusion, publisherInfo);
+		} finally {
+			endPublishing(key);
+		}
+	}
+
+	private void doPublishArtifact(IArtifactDescriptor descriptor, File inclusion, IPublisherInfo publisherInfo) {
 		// if the destination already contains the descriptor, there is nothing to do.
 		IArtifactRepository destination = publisherInfo.getArtifactRepository();
 		if (destination == null || destination.contains(descriptor))
@@ -445,6 +472,16 @@ public abstract class AbstractPublisherAction implements IPublisherAction {
 		// no files to publish so this is done.
 		if (inclusions == null || inclusions.length < 1)
 			return;
+		IArtifactKey key = descriptor.getArtifactKey();
+		startPublishing(key);
+		try {
+			doPublishArtifact(descriptor, inclusions, exclusions, publisherInfo, prefixComputer);
+		} finally {
+			endPublishing(key);
+		}
+	}
+
+	private void doPublishArtifact(IArtifactDescriptor descriptor, File[] inclusions, File[] exclusions, IPublisherInfo publisherInfo, IPathComputer prefixComputer) {
 		// if the destination already contains the descriptor, there is nothing to do.
 		IArtifactRepository destination = publisherInfo.getArtifactRepository();
 		if (destination == null || destination.contains(descriptor))
@@ -480,6 +517,33 @@ public abstract class AbstractPublisherAction implements IPublisherAction {
 		}
 	}
 
+	/**
+	 * Waits until no other thread is publishing the artifact with the given key, then
+	 * marks it as being published by the calling thread.
+	 */
+	private static void startPublishing(IArtifactKey key) {
+		boolean interrupted = false;
+		synchronized (artifactsInProgress) {
+			while (artifactsInProgress.contains(key)) {
+				try {
+					artifactsInProgress.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			artifactsInProgress.add(key);
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private static void endPublishing(IArtifactKey key) {
+		synchronized (artifactsInProgress) {
+			artifactsInProgress.remove(key);
+			artifactsInProgress.notifyAll();
+		}
+	}
+
 	/**
 	 * Loop over the known metadata repositories looking for the given IU.
 	 * Return the first IU found.
@@ -527,6 +591,39 @@ public abstract class AbstractPublisherAction implements IPublisherAction {
 
 	public abstract IStatus perform(IPublisherInfo publisherInfo, IPublisherResult results, IProgressMonitor monitor);
 
+	/**
+	 * Sets the number of threads used by this action to publish its elements. The artifacts
+	 * and installable units of the elements are created concurrently but they are added to
+	 * the publisher result in the order of the elements, so the outcome is the same as the
+	 * one of publishing the elements one after the other.
+	 * @param parallelism the number of threads, <code>1</code> to publish in the calling thread
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * Returns the number of threads used by this action to publish its elements. Unless set
+	 * explicitly, the number is given by the {@link #PROP_PUBLISHER_THREADS} property.
+	 */
+	protected int getParallelism() {
+		if (parallelism < 1) {
+			BundleContext context = Activator.getContext();
+			String value = context == null ? System.getProperty(PROP_PUBLISHER_THREADS) : context.getProperty(PROP_PUBLISHER_THREADS);
+			parallelism = 1;
+			if ("true".equalsIgnoreCase(value)) //$NON-NLS-1$
+				parallelism = Runtime.getRuntime().availableProcessors();
+			else if (value != null) {
+				try {
+					parallelism = Math.max(1, Integer.parseInt(value));
+				} catch (NumberFormatException e) {
+					// publish sequentially
+				}
+			}
+		}
+		return parallelism;
+	}
+
 	public void setPublisherInfo(IPublisherInfo info) {
 		this.info = info;
 	}
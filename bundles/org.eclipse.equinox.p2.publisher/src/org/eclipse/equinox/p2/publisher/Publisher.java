@@ -13,6 +13,7 @@ package org.eclipse.equinox.p2.publisher;
 import java.net.URI;
 import java.util.Collection;
 import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.artifact.repository.simple.SimpleArtifactRepository;
 import org.eclipse.equinox.internal.p2.core.helpers.Tracing;
 import org.eclipse.equinox.internal.p2.publisher.Activator;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
@@ -217,6 +218,22 @@ public class Publisher {
 
 	}
 
+	/*
+	 * Actions publishing concurrently add artifacts from several threads, which the runnable
+	 * of a batch must not do unless the repository supports concurrent batches.
+	 */
+	private static IStatus executeBatch(IArtifactRepository repository, IPublisherAction[] actions, ArtifactProcess artifactProcess, IProgressMonitor monitor) {
+		boolean concurrent = false;
+		for (int i = 0; i < actions.length && !concurrent; i++)
+			concurrent = actions[i] instanceof AbstractPublisherAction && ((AbstractPublisherAction) actions[i]).getParallelism() > 1;
+		if (!concurrent)
+			return repository.executeBatch(artifactProcess, monitor);
+		if (repository instanceof SimpleArtifactRepository)
+			return ((SimpleArtifactRepository) repository).executeConcurrentBatch(artifactProcess, monitor);
+		artifactProcess.run(monitor);
+		return Status.OK_STATUS;
+	}
+
 	public IStatus publish(IPublisherAction[] actions, IProgressMonitor monitor) {
 		if (monitor == null)
 			monitor = new NullProgressMonitor();
@@ -228,7 +245,7 @@ public class Publisher {
 
 			IStatus finalStatus = null;
 			if (info.getArtifactRepository() != null) {
-				finalStatus = info.getArtifactRepository().executeBatch(artifactProcess, sub);
+				finalStatus = executeBatch(info.getArtifactRepository(), actions, artifactProcess, sub);
 				if (finalStatus.isOK())
 					// If the batch process didn't report any errors, then 
 					// Use the status from our actions
@@ -23,10 +23,15 @@ public class PublisherInfo implements IPublisherInfo {
 	private IMetadataRepository contextMetadataRepository;
 	private IArtifactRepository contextArtifactRepository;
 	private String[] configurations = new String[0];
-	private List<IPublisherAdvice> adviceList = new ArrayList<IPublisherAdvice>(11);
-
-	public void addAdvice(IPublisherAdvice advice) {
-		adviceList.add(advice);
+	// advice may be added and looked up by actions publishing concurrently, the list is
+	// replaced by a modified copy when advice is added so that it is read without locking
+	private volatile List<IPublisherAdvice> adviceList = new ArrayList<IPublisherAdvice>(11);
+
+	public synchronized void addAdvice(IPublisherAdvice advice) {
+		List<IPublisherAdvice> newList = new ArrayList<IPublisherAdvice>(adviceList.size() + 1);
+		newList.addAll(adviceList);
+		newList.add(advice);
+		adviceList = newList;
 	}
 
 	public List<IPublisherAdvice> getAdvice() {
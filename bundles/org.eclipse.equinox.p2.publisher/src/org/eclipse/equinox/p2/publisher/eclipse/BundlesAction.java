@@ -23,6 +23,7 @@ import org.eclipse.equinox.internal.p2.core.helpers.ServiceHelper;
 import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
 import org.eclipse.equinox.internal.p2.publisher.Activator;
 import org.eclipse.equinox.internal.p2.publisher.Messages;
+import org.eclipse.equinox.internal.p2.publisher.PublisherTaskRunner;
 import org.eclipse.equinox.internal.p2.publisher.eclipse.GeneratorBundleInfo;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
@@ -660,6 +661,11 @@ public class BundlesAction extends AbstractPublisherAction {
 	}
 
 	protected void generateBundleIUs(BundleDescription[] bundleDescriptions, IPublisherResult result, IProgressMonitor monitor) {
+		int parallelism = getParallelism();
+		if (parallelism > 1) {
+			generateBundleIUs(bundleDescriptions, result, parallelism, monitor);
+			return;
+		}
 
 		// This assumes that hosts are processed before fragments because for each fragment the host
 		// is queried for the strings that should be translated.
@@ -668,55 +674,101 @@ public class BundlesAction extends AbstractPublisherAction {
 				throw new OperationCanceledException();
 
 			BundleDescription bd = bundleDescriptions[i];
-			if (bd != null && bd.getSymbolicName() != null && bd.getVersion() != null) {
-				//First check to see if there is already an IU around for this
-				IInstallableUnit bundleIU = queryForIU(result, bundleDescriptions[i].getSymbolicName(), PublisherHelper.fromOSGiVersion(bd.getVersion()));
-				IArtifactKey key = createBundleArtifactKey(bd.getSymbolicName(), bd.getVersion().toString());
-				if (bundleIU == null) {
-					createAdviceFileAdvice(bundleDescriptions[i], info);
-					// Create the bundle IU according to any shape advice we have
-					bundleIU = createBundleIU(bd, key, info);
-				}
+			if (isPublishable(bd)) {
+				IInstallableUnit bundleIU = publishBundle(bd, result);
+				addBundleIU(bd, bundleIU, result);
+			}
+		}
+	}
 
-				File location = new File(bd.getLocation());
-				IArtifactDescriptor ad = PublisherHelper.createArtifactDescriptor(info.getArtifactRepository(), key, location);
-				processArtifactPropertiesAdvice(bundleIU, ad, info);
+	/**
+	 * Creates the bundle IUs and publishes the artifacts of the given bundles concurrently, then
+	 * adds the IUs to the result in the order of the bundles. The IUs are created against the result
+	 * as it was before this method started, so a bundle published twice is checked again when added.
+	 */
+	private void generateBundleIUs(BundleDescription[] bundleDescriptions, final IPublisherResult result, int parallelism, IProgressMonitor monitor) {
+		List<BundleDescription> publishable = new ArrayList<BundleDescription>(bundleDescriptions.length);
+		for (int i = 0; i < bundleDescriptions.length; i++) {
+			if (isPublishable(bundleDescriptions[i]))
+				publishable.add(bundleDescriptions[i]);
+		}
+		List<IInstallableUnit> bundleIUs = PublisherTaskRunner.run(publishable, new PublisherTaskRunner.Task<BundleDescription, IInstallableUnit>() {
+			public IInstallableUnit run(BundleDescription bd) {
+				return publishBundle(bd, result);
+			}
+		}, parallelism, monitor);
 
-				// Publish according to the shape on disk
-				File bundleLocation = new File(bd.getLocation());
-				if (bundleLocation.isDirectory())
-					publishArtifact(ad, bundleLocation, bundleLocation.listFiles(), info);
-				else
-					publishArtifact(ad, bundleLocation, info);
-
-				IInstallableUnit fragment = null;
-				if (isFragment(bd)) {
-					// TODO: Need a test case for multiple hosts
-					String hostId = bd.getHost().getName();
-					VersionRange hostVersionRange = PublisherHelper.fromOSGiVersionRange(bd.getHost().getVersionRange());
-					IQueryResult<IInstallableUnit> hosts = queryForIUs(result, hostId, hostVersionRange);
-
-					for (Iterator<IInstallableUnit> itor = hosts.iterator(); itor.hasNext();) {
-						IInstallableUnit host = itor.next();
-						String fragmentId = makeHostLocalizationFragmentId(bd.getSymbolicName());
-						fragment = queryForIU(result, fragmentId, PublisherHelper.fromOSGiVersion(bd.getVersion()));
-						if (fragment == null) {
-							String[] externalizedStrings = getExternalizedStrings(host);
-							fragment = createHostLocalizationFragment(bundleIU, bd, hostId, externalizedStrings);
-						}
-					}
+		for (int i = 0; i < publishable.size(); i++) {
+			if (monitor.isCanceled())
+				throw new OperationCanceledException();
+			BundleDescription bd = publishable.get(i);
+			IInstallableUnit bundleIU = result.getIU(bd.getSymbolicName(), PublisherHelper.fromOSGiVersion(bd.getVersion()), null);
+			addBundleIU(bd, bundleIU != null ? bundleIU : bundleIUs.get(i), result);
+		}
+	}
 
-				}
+	private boolean isPublishable(BundleDescription bd) {
+		return bd != null && bd.getSymbolicName() != null && bd.getVersion() != null;
+	}
 
-				result.addIU(bundleIU, IPublisherResult.ROOT);
-				if (fragment != null)
-					result.addIU(fragment, IPublisherResult.NON_ROOT);
+	/**
+	 * Returns the IU of the given bundle, creating it if it is not known yet, and publishes
+	 * the artifact of the bundle. The result is only read, so bundles may be published concurrently.
+	 */
+	private IInstallableUnit publishBundle(BundleDescription bd, IPublisherResult result) {
+		//First check to see if there is already an IU around for this
+		IInstallableUnit bundleIU = queryForIU(result, bd.getSymbolicName(), PublisherHelper.fromOSGiVersion(bd.getVersion()));
+		IArtifactKey key = createBundleArtifactKey(bd.getSymbolicName(), bd.getVersion().toString());
+		if (bundleIU == null) {
+			createAdviceFileAdvice(bd, info);
+			// Create the bundle IU according to any shape advice we have
+			bundleIU = createBundleIU(bd, key, info);
+		}
 
-				InstallableUnitDescription[] others = processAdditionalInstallableUnitsAdvice(bundleIU, info);
-				for (int iuIndex = 0; others != null && iuIndex < others.length; iuIndex++) {
-					result.addIU(MetadataFactory.createInstallableUnit(others[iuIndex]), IPublisherResult.ROOT);
+		File location = new File(bd.getLocation());
+		IArtifactDescriptor ad = PublisherHelper.createArtifactDescriptor(info.getArtifactRepository(), key, location);
+		processArtifactPropertiesAdvice(bundleIU, ad, info);
+
+		// Publish according to the shape on disk
+		File bundleLocation = new File(bd.getLocation());
+		if (bundleLocation.isDirectory())
+			publishArtifact(ad, bundleLocation, bundleLocation.listFiles(), info);
+		else
+			publishArtifact(ad, bundleLocation, info);
+		return bundleIU;
+	}
+
+	/**
+	 * Adds the given bundle IU to the result, together with the localization fragment of
+	 * its host if the bundle is a fragment and any additional IUs advised for the bundle.
+	 */
+	private void addBundleIU(BundleDescription bd, IInstallableUnit bundleIU, IPublisherResult result) {
+		IInstallableUnit fragment = null;
+		if (isFragment(bd)) {
+			// TODO: Need a test case for multiple hosts
+			String hostId = bd.getHost().getName();
+			VersionRange hostVersionRange = PublisherHelper.fromOSGiVersionRange(bd.getHost().getVersionRange());
+			IQueryResult<IInstallableUnit> hosts = queryForIUs(result, hostId, hostVersionRange);
+
+			for (Iterator<IInstallableUnit> itor = hosts.iterator(); itor.hasNext();) {
+				IInstallableUnit host = itor.next();
+				String fragmentId = makeHostLocalizationFragmentId(bd.getSymbolicName());
+				fragment = queryForIU(result, fragmentId, PublisherHelper.fromOSGiVersion(bd.getVersion()));
+				if (fragment == null) {
+					String[] externalizedStrings = getExternalizedStrings(host);
+					fragment = createHostLocalizationFragment(bundleIU, bd, hostId, externalizedStrings);
 				}
 			}
+
+		}
+
+		result.addIU(bundleIU, IPublisherResult.ROOT);
+		if (fragment != null)
+			result.addIU(fragment, IPublisherResult.NON_ROOT);
+
+		InstallableUnitDescription[] others = processAdditionalInstallableUnitsAdvice(bundleIU, info);
+		for (int iuIndex = 0; others != null && iuIndex < others.length; iuIndex++) {
+			result.addIU(MetadataFactory.createInstallableUnit(others[iuIndex]), IPublisherResult.ROOT);
 		}
 	}
 
@@ -772,11 +824,13 @@ public class BundlesAction extends AbstractPublisherAction {
 		if (scIn)
 			addSimpleConfigurator = false;
 		BundleDescription[] result = new BundleDescription[bundleLocations.length + (addSimpleConfigurator ? 1 : 0)];
-		for (int i = 0; i < bundleLocations.length; i++) {
-			if (monitor.isCanceled())
-				throw new OperationCanceledException();
-			result[i] = createBundleDescription(bundleLocations[i]);
-		}
+		List<BundleDescription> descriptions = PublisherTaskRunner.run(Arrays.asList(bundleLocations), new PublisherTaskRunner.Task<File, BundleDescription>() {
+			public BundleDescription run(File bundleLocation) {
+				return createBundleDescription(bundleLocation);
+			}
+		}, getParallelism(), monitor);
+		for (int i = 0; i < bundleLocations.length; i++)
+			result[i] = descriptions.get(i);
 		if (addSimpleConfigurator) {
 			// Add simple configurator to the list of bundles
 			try {
@@ -396,39 +396,91 @@ public class FeaturesAction extends AbstractPublisherAction {
 	}
 
 	protected void generateFeatureIUs(Feature[] featureList, IPublisherResult result) {
+		int parallelism = getParallelism();
+		if (parallelism > 1) {
+			generateFeatureIUs(featureList, result, parallelism);
+			return;
+		}
+
 		// Build Feature IUs, and add them to any corresponding categories
 		for (int i = 0; i < featureList.length; i++) {
 			Feature feature = featureList[i];
 			//first gather any advice that might help us
 			createBundleShapeAdvice(feature, info);
-			createAdviceFileAdvice(feature, info);
-
-			ArrayList<IInstallableUnit> childIUs = new ArrayList<IInstallableUnit>();
+			IInstallableUnit featureJarIU = publishFeatureJar(feature, result);
+			addFeatureIUs(feature, featureJarIU, result);
+		}
+	}
 
-			IInstallableUnit featureJarIU = queryForIU(result, getTransformedId(feature.getId(), false, false), Version.parseVersion(feature.getVersion()));
-			if (featureJarIU == null)
-				featureJarIU = generateFeatureJarIU(feature, info);
+	/**
+	 * Creates the feature jar IUs and publishes the artifacts of the given features concurrently,
+	 * then adds the IUs to the result in the order of the features. The group IUs and root files
+	 * refer to the result so they are generated in order once the feature jars are published.
+	 */
+	private void generateFeatureIUs(Feature[] featureList, final IPublisherResult result, int parallelism) {
+		// the shape advice is gathered in order since the first applicable advice wins
+		for (int i = 0; i < featureList.length; i++)
+			createBundleShapeAdvice(featureList[i], info);
+		List<IInstallableUnit> featureJarIUs = PublisherTaskRunner.run(Arrays.asList(featureList), new PublisherTaskRunner.Task<Feature, IInstallableUnit>() {
+			public IInstallableUnit run(Feature feature) {
+				return publishFeatureJar(feature, result);
+			}
+		}, parallelism, new NullProgressMonitor());
 
+		for (int i = 0; i < featureList.length; i++) {
+			Feature feature = featureList[i];
+			IInstallableUnit featureJarIU = featureJarIUs.get(i);
 			if (featureJarIU != null) {
-				publishFeatureArtifacts(feature, featureJarIU, info);
-				result.addIU(featureJarIU, IPublisherResult.NON_ROOT);
-				childIUs.add(featureJarIU);
+				// a feature published twice is added once, like in a sequential run
+				IInstallableUnit added = result.getIU(featureJarIU.getId(), featureJarIU.getVersion(), null);
+				if (added != null)
+					featureJarIU = added;
 			}
+			addFeatureIUs(feature, featureJarIU, result);
+		}
+	}
 
-			IInstallableUnit groupIU = queryForIU(result, getGroupId(feature.getId()), Version.parseVersion(feature.getVersion()));
-			if (groupIU == null) {
-				childIUs.addAll(generateRootFileIUs(feature, result, info));
-				groupIU = createGroupIU(feature, childIUs, info);
-			}
-			if (groupIU != null) {
-				result.addIU(groupIU, IPublisherResult.ROOT);
-				InstallableUnitDescription[] others = processAdditionalInstallableUnitsAdvice(groupIU, info);
-				for (int iuIndex = 0; others != null && iuIndex < others.length; iuIndex++) {
-					result.addIU(MetadataFactory.createInstallableUnit(others[iuIndex]), IPublisherResult.ROOT);
-				}
+	/**
+	 * Returns the feature jar IU of the given feature, creating it if it is not known yet, and
+	 * publishes the artifacts of the feature. The result is only read, so features may be
+	 * published concurrently.
+	 */
+	private IInstallableUnit publishFeatureJar(Feature feature, IPublisherResult result) {
+		createAdviceFileAdvice(feature, info);
+
+		IInstallableUnit featureJarIU = queryForIU(result, getTransformedId(feature.getId(), false, false), Version.parseVersion(feature.getVersion()));
+		if (featureJarIU == null)
+			featureJarIU = generateFeatureJarIU(feature, info);
+
+		if (featureJarIU != null)
+			publishFeatureArtifacts(feature, featureJarIU, info);
+		return featureJarIU;
+	}
+
+	/**
+	 * Adds the given feature jar IU to the result, together with the group IU of the feature,
+	 * its root files and any additional IUs advised for the feature.
+	 */
+	private void addFeatureIUs(Feature feature, IInstallableUnit featureJarIU, IPublisherResult result) {
+		ArrayList<IInstallableUnit> childIUs = new ArrayList<IInstallableUnit>();
+		if (featureJarIU != null) {
+			result.addIU(featureJarIU, IPublisherResult.NON_ROOT);
+			childIUs.add(featureJarIU);
+		}
+
+		IInstallableUnit groupIU = queryForIU(result, getGroupId(feature.getId()), Version.parseVersion(feature.getVersion()));
+		if (groupIU == null) {
+			childIUs.addAll(generateRootFileIUs(feature, result, info));
+			groupIU = createGroupIU(feature, childIUs, info);
+		}
+		if (groupIU != null) {
+			result.addIU(groupIU, IPublisherResult.ROOT);
+			InstallableUnitDescription[] others = processAdditionalInstallableUnitsAdvice(groupIU, info);
+			for (int iuIndex = 0; others != null && iuIndex < others.length; iuIndex++) {
+				result.addIU(MetadataFactory.createInstallableUnit(others[iuIndex]), IPublisherResult.ROOT);
 			}
-			generateSiteReferences(feature, result, info);
 		}
+		generateSiteReferences(feature, result, info);
 	}
 
 	protected IInstallableUnit generateFeatureJarIU(Feature feature, IPublisherInfo publisherInfo) {
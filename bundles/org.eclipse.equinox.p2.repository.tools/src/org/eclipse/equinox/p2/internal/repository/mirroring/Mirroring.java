@@ -13,7 +13,9 @@ package org.eclipse.equinox.p2.internal.repository.mirroring;
 
 import java.util.*;
 import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.equinox.internal.p2.artifact.repository.RawMirrorRequest;
+import org.eclipse.equinox.internal.p2.artifact.repository.simple.SimpleArtifactRepository;
 import org.eclipse.equinox.internal.p2.core.helpers.CollectionUtils;
 import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.internal.repository.tools.Activator;
@@ -21,6 +23,7 @@ import org.eclipse.equinox.p2.internal.repository.tools.Messages;
 import org.eclipse.equinox.p2.metadata.IArtifactKey;
 import org.eclipse.equinox.p2.query.IQuery;
 import org.eclipse.equinox.p2.query.IQueryResult;
+import org.eclipse.equinox.p2.repository.IRunnableWithProgress;
 import org.eclipse.equinox.p2.repository.artifact.*;
 import org.eclipse.equinox.p2.repository.artifact.spi.ArtifactDescriptor;
 import org.eclipse.equinox.p2.repository.tools.comparator.ArtifactComparatorFactory;
@@ -29,8 +32,20 @@ import org.eclipse.osgi.util.NLS;
 
 /**
  * A utility class that performs mirroring of artifacts between repositories.
+ * <p>
+ * Artifacts are mirrored in pages of descriptors. Each page is mirrored in a batch of the
+ * destination, so that the destination index is written once per page rather than once
+ * per artifact, and so that an interrupted mirror leaves a destination listing all the
+ * pages completed so far. Running the mirror again skips the artifacts already present
+ * in the destination.
+ * </p>
  */
 public class Mirroring {
+	/**
+	 * The number of descriptors mirrored between two saves of the destination.
+	 */
+	private static final int PAGE_SIZE = 256;
+
 	private IArtifactRepository source;
 	private IArtifactRepository destination;
 	private IArtifactRepository baseline;
@@ -43,6 +58,7 @@ public class Mirroring {
 	private String comparatorID;
 	private List<IArtifactKey> keysToMirror;
 	private IArtifactMirrorLog comparatorLog;
+	private int parallelism = 1;
 
 	private IArtifactComparator getComparator() {
 		if (comparator == null)
@@ -76,6 +92,13 @@ public class Mirroring {
 		this.validate = validate;
 	}
 
+	/**
+	 * Sets the number of artifacts copied concurrently. The default is <code>1</code>.
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
 	public MultiStatus run(boolean failOnError, boolean verbose) {
 		if (!destination.isModifiable())
 			throw new IllegalStateException(NLS.bind(Messages.exception_destinationNotModifiable, destination.getLocation()));
@@ -95,18 +118,15 @@ public class Mirroring {
 			compareExclusions = exclusions.toUnmodifiableSet();
 		}
 
+		List<IArtifactDescriptor> page = new ArrayList<IArtifactDescriptor>(PAGE_SIZE);
 		while (keys.hasNext()) {
-			IArtifactKey key = keys.next();
-			IArtifactDescriptor[] descriptors = source.getArtifactDescriptors(key);
-			for (int j = 0; j < descriptors.length; j++) {
-				IStatus result = mirror(descriptors[j], verbose);
-				//Only log INFO and WARNING if we want verbose logging. Always log ERRORs
-				if (!result.isOK() && (verbose || result.getSeverity() == IStatus.ERROR))
-					multiStatus.add(result);
-				//stop mirroring as soon as we have an error
-				if (failOnError && multiStatus.getSeverity() == IStatus.ERROR)
-					return multiStatus;
-			}
+			while (page.size() < PAGE_SIZE && keys.hasNext())
+				page.addAll(Arrays.asList(source.getArtifactDescriptors(keys.next())));
+			boolean stopped = mirrorPage(page, multiStatus, failOnError, verbose);
+			page.clear();
+			//stop mirroring as soon as we have an error
+			if (stopped)
+				return multiStatus;
 		}
 		if (validate) {
 			// Simple validation of the mirror
@@ -117,6 +137,159 @@ public class Mirroring {
 		return multiStatus;
 	}
 
+	/*
+	 * Mirrors a page of descriptors in a batch of the destination. Returns whether mirroring
+	 * must stop because of an error.
+	 */
+	private boolean mirrorPage(final List<IArtifactDescriptor> page, final MultiStatus multiStatus, final boolean failOnError, final boolean verbose) {
+		final boolean[] stopped = new boolean[1];
+		IRunnableWithProgress runnable = new IRunnableWithProgress() {
+			public void run(IProgressMonitor monitor) {
+				stopped[0] = mirrorDescriptors(page, multiStatus, failOnError, verbose);
+			}
+		};
+		IStatus batchStatus;
+		if (parallelism < 2)
+			batchStatus = destination.executeBatch(runnable, new NullProgressMonitor());
+		else if (destination instanceof SimpleArtifactRepository)
+			batchStatus = ((SimpleArtifactRepository) destination).executeConcurrentBatch(runnable, new NullProgressMonitor());
+		else
+			// the runnable of a batch must not run anything in a separate thread
+			return mirrorDescriptors(page, multiStatus, failOnError, verbose);
+		if (!batchStatus.isOK()) {
+			multiStatus.add(batchStatus);
+			return batchStatus.getSeverity() == IStatus.CANCEL || (failOnError && batchStatus.getSeverity() == IStatus.ERROR);
+		}
+		return stopped[0];
+	}
+
+	/*
+	 * Mirrors the given descriptors and adds the results to the status. Returns whether mirroring
+	 * must stop because of an error.
+	 */
+	private boolean mirrorDescriptors(List<IArtifactDescriptor> descriptors, MultiStatus multiStatus, boolean failOnError, boolean verbose) {
+		boolean stopped = false;
+		if (parallelism < 2) {
+			for (Iterator<IArtifactDescriptor> iterator = descriptors.iterator(); iterator.hasNext() && !stopped;)
+				stopped = addResult(multiStatus, mirror(iterator.next(), verbose), failOnError, verbose);
+			return stopped;
+		}
+		// report the results in order, as when mirroring sequentially
+		IStatus[] results = mirrorInParallel(descriptors, failOnError, verbose);
+		for (int i = 0; i < results.length && results[i] != null && !stopped; i++)
+			stopped = addResult(multiStatus, results[i], failOnError, verbose);
+		return stopped;
+	}
+
+	/*
+	 * Mirrors the descriptors of a page on the calling thread and on at most parallelism - 1 jobs,
+	 * and returns the results in the order of the page. The descriptors are claimed in order, and
+	 * none is claimed after an error when failing on errors, so the results form a prefix of the
+	 * page. The calling thread only waits for the jobs that have started, so the page is mirrored
+	 * even when no job gets to run.
+	 */
+	private IStatus[] mirrorInParallel(final List<IArtifactDescriptor> page, final boolean failOnError, final boolean verbose) {
+		final int size = page.size();
+		final IStatus[] results = new IStatus[size];
+		// the index of the next descriptor, whether to stop, and the number of jobs at work, guarded by next
+		final int[] next = new int[1];
+		final boolean[] stopped = new boolean[1];
+		final int[] running = new int[1];
+		final Throwable[] failure = new Throwable[1];
+		final Runnable worker = new Runnable() {
+			public void run() {
+				while (true) {
+					int index;
+					synchronized (next) {
+						if (stopped[0] || next[0] >= size)
+							return;
+						index = next[0]++;
+					}
+					IStatus result = mirror(page.get(index), verbose);
+					results[index] = result;
+					if (failOnError && result.getSeverity() == IStatus.ERROR) {
+						synchronized (next) {
+							stopped[0] = true;
+						}
+					}
+				}
+			}
+		};
+		int helpers = Math.min(parallelism, size) - 1;
+		Job[] jobs = new Job[helpers];
+		for (int i = 0; i < helpers; i++) {
+			jobs[i] = new Job("Mirroring") { //$NON-NLS-1$
+				protected IStatus run(IProgressMonitor monitor) {
+					synchronized (next) {
+						if (stopped[0] || next[0] >= size)
+							return Status.OK_STATUS;
+						running[0]++;
+					}
+					try {
+						worker.run();
+					} catch (RuntimeException e) {
+						fail(e);
+					} catch (Error e) {
+						fail(e);
+					} finally {
+						synchronized (next) {
+							running[0]--;
+							next.notifyAll();
+						}
+					}
+					return Status.OK_STATUS;
+				}
+
+				private void fail(Throwable t) {
+					synchronized (next) {
+						stopped[0] = true;
+						if (failure[0] == null)
+							failure[0] = t;
+					}
+				}
+			};
+			jobs[i].setSystem(true);
+			jobs[i].schedule();
+		}
+		try {
+			worker.run();
+		} finally {
+			for (int i = 0; i < helpers; i++)
+				jobs[i].cancel();
+			waitFor(next, running);
+		}
+		if (failure[0] instanceof RuntimeException)
+			throw (RuntimeException) failure[0];
+		if (failure[0] instanceof Error)
+			throw (Error) failure[0];
+		return results;
+	}
+
+	private static void waitFor(Object lock, int[] running) {
+		boolean interrupted = false;
+		synchronized (lock) {
+			while (running[0] > 0) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/*
+	 * Adds the result of mirroring a descriptor to the status and returns whether mirroring must stop.
+	 */
+	private static boolean addResult(MultiStatus multiStatus, IStatus result, boolean failOnError, boolean verbose) {
+		//Only log INFO and WARNING if we want verbose logging. Always log ERRORs
+		if (!result.isOK() && (verbose || result.getSeverity() == IStatus.ERROR))
+			multiStatus.add(result);
+		return failOnError && multiStatus.getSeverity() == IStatus.ERROR;
+	}
+
 	private IStatus mirror(IArtifactDescriptor sourceDescriptor, boolean verbose) {
 		IArtifactDescriptor targetDescriptor = raw ? sourceDescriptor : new ArtifactDescriptor(sourceDescriptor);
 		IArtifactDescriptor baselineDescriptor = getBaselineDescriptor(sourceDescriptor);
@@ -181,7 +354,8 @@ public class Mirroring {
 		return compare(source, descriptor, destination, destDescriptor);
 	}
 
-	private IStatus compare(IArtifactRepository sourceRepository, IArtifactDescriptor sourceDescriptor, IArtifactRepository destRepository, IArtifactDescriptor destDescriptor) {
+	// comparators and logs are not expected to be thread safe
+	private synchronized IStatus compare(IArtifactRepository sourceRepository, IArtifactDescriptor sourceDescriptor, IArtifactRepository destRepository, IArtifactDescriptor destDescriptor) {
 		IStatus comparison = getComparator().compare(sourceRepository, sourceDescriptor, destRepository, destDescriptor);
 		if (comparatorLog != null && !comparison.isOK())
 			comparatorLog.log(sourceDescriptor, comparison);
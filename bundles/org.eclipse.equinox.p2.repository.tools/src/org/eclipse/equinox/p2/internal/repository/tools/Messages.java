@@ -40,6 +40,7 @@ public class Messages extends NLS {
 	public static String unknown_repository_type;
 
 	public static String MirrorApplication_artifactDestinationNoSource;
+	public static String MirrorApplication_invalid_thread_count;
 	public static String MirrorApplication_metadataDestinationNoSource;
 	public static String MirrorApplication_no_IUs;
 	public static String MirrorApplication_set_source_repositories;
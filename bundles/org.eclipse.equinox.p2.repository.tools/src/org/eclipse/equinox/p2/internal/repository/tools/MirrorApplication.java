@@ -46,6 +46,7 @@ public class MirrorApplication extends AbstractApplication implements IApplicati
 	private boolean mirrorReferences = false;
 	private String metadataOrArtifacts = null;
 	private String[] rootIUs = null;
+	private int parallelism = 1;
 
 	private File mirrorLogFile; // file to log mirror output to (optional)
 	private File comparatorLogFile; // file to comparator output to (optional)
@@ -147,6 +148,12 @@ public class MirrorApplication extends AbstractApplication implements IApplicati
 				mirrorLogLocation = new File(arg);
 			} else if (args[i - 1].equalsIgnoreCase("-roots")) { //$NON-NLS-1$
 				rootIUs = getArrayArgsFromString(arg, ","); //$NON-NLS-1$
+			} else if (args[i - 1].equalsIgnoreCase("-threads")) { //$NON-NLS-1$
+				try {
+					parallelism = Integer.parseInt(arg);
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException(NLS.bind(Messages.MirrorApplication_invalid_thread_count, arg));
+				}
 			} else {
 				try {
 					if (args[i - 1].equalsIgnoreCase("-source")) { //$NON-NLS-1$
@@ -211,6 +218,7 @@ public class MirrorApplication extends AbstractApplication implements IApplicati
 		mirror.setBaseline(initializeBaseline());
 		mirror.setValidate(validate);
 		mirror.setCompareExclusions(compareExclusions);
+		mirror.setParallelism(parallelism);
 
 		// If IUs have been specified then only they should be mirrored, otherwise mirror everything.
 		if (keys.size() > 0)
@@ -413,6 +421,13 @@ public class MirrorApplication extends AbstractApplication implements IApplicati
 		validate = value;
 	}
 
+	/*
+	 * Set the number of artifacts mirrored concurrently
+	 */
+	public void setParallelism(int value) {
+		parallelism = value;
+	}
+
 	/*
 	 * Set if references should be mirrored
 	 */
@@ -133,4 +133,11 @@ public class MirrorTask extends AbstractRepositoryTask {
 	public void setValidate(boolean value) {
 		((MirrorApplication) application).setValidate(value);
 	}
+
+	/*
+	 * Set the number of artifacts mirrored concurrently.
+	 */
+	public void setThreads(int value) {
+		((MirrorApplication) application).setParallelism(value);
+	}
 }
@@ -10,6 +10,7 @@
  *******************************************************************************/
 package org.eclipse.equinox.internal.p2.persistence;
 
+import org.eclipse.equinox.internal.p2.metadata.MetadataPool;
 import org.eclipse.equinox.p2.metadata.Version;
 import org.eclipse.equinox.p2.metadata.VersionRange;
 
@@ -672,7 +673,8 @@ public abstract class XMLParser extends DefaultHandler implements XMLConstants {
 	 */
 	public Version checkVersion(String element, String attribute, String value) {
 		try {
-			return Version.parseVersion(value);
+			// versions are shared with the other repositories and profiles
+			return MetadataPool.intern(Version.parseVersion(value));
 		} catch (IllegalArgumentException iae) {
 			invalidAttributeValue(element, attribute, value);
 		} catch (NullPointerException npe) {
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2009 IBM Corporation and others.
+ * Copyright (c) 2008, 2010 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -14,8 +14,7 @@ package org.eclipse.equinox.internal.p2.repository;
 
 import java.io.*;
 import java.net.URI;
-import java.util.EventObject;
-import java.util.HashSet;
+import java.util.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.ecf.filetransfer.UserCancelledException;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
@@ -76,6 +75,8 @@ public class CacheManager {
 	private static final String XML_EXTENSION = ".xml"; //$NON-NLS-1$
 
 	private final HashSet<String> knownPrefixes = new HashSet<String>(5);
+	// the cache files whose modification time is the last modified time reported by the server
+	private final Map<File, Long> serverTimestamps = new HashMap<File, Long>(5);
 
 	/**
 	 * Returns a hash of the repository location.
@@ -123,6 +124,12 @@ public class CacheManager {
 			if (cacheFile != null) {
 				lastModified = cacheFile.lastModified();
 				name = cacheFile.getName();
+				// A cached jar is brought up to date with a single conditional request, which only
+				// downloads the jar if it has been modified since it was cached. The request is based
+				// on the time reported by the server, the clocks of the client and the server may differ.
+				// On any failure the usual checks below are made, since they report errors in a meaningful way.
+				if (name.endsWith(JAR_EXTENSION) && supportsConditionalRequests(repositoryLocation) && hasServerTimestamp(cacheFile) && updateCacheIfModified(cacheFile, jarLocation, submonitor.newChild(500)))
+					return cacheFile;
 			}
 			// get last modified on jar
 			long lastModifiedRemote = 0L;
@@ -197,8 +204,11 @@ public class CacheManager {
 				remoteFile = xmlLocation;
 			}
 
-			if (!stale)
+			if (!stale) {
+				if (lastModifiedRemote == lastModified)
+					setServerTimestamp(cacheFile, true);
 				return cacheFile;
+			}
 
 			// The cache is stale or missing, so we need to update it from the remote location
 			cacheFile = new File(getCacheDirectory(), prefix + hashCode + useExtension);
@@ -219,6 +229,7 @@ public class CacheManager {
 			for (int i = 0; i < cacheFiles.length; i++) {
 				// delete the cache file if it exists
 				safeDelete(cacheFiles[i]);
+				setServerTimestamp(cacheFiles[i], false);
 				// delete a resumable download if it exists
 				safeDelete(new File(new File(cacheFiles[i].getParentFile(), DOWNLOADING), cacheFiles[i].getName()));
 			}
@@ -261,10 +272,33 @@ public class CacheManager {
 		return files;
 	}
 
-	private RepositoryTransport getTransport() {
+	/**
+	 * Returns the transport used to access the remote files.
+	 */
+	protected RepositoryTransport getTransport() {
 		return RepositoryTransport.getInstance();
 	}
 
+	/**
+	 * Returns whether the modification time of the given cache file is the last modified
+	 * time reported by the server for the remote file.
+	 */
+	private boolean hasServerTimestamp(File cacheFile) {
+		synchronized (serverTimestamps) {
+			Long timestamp = serverTimestamps.get(cacheFile);
+			return timestamp != null && timestamp.longValue() == cacheFile.lastModified();
+		}
+	}
+
+	private void setServerTimestamp(File cacheFile, boolean fromServer) {
+		synchronized (serverTimestamps) {
+			if (fromServer)
+				serverTimestamps.put(cacheFile, new Long(cacheFile.lastModified()));
+			else
+				serverTimestamps.remove(cacheFile);
+		}
+	}
+
 	/**
 	 * Adds a {@link SynchronousProvisioningListener} to the event bus for
 	 * deleting cache files when the corresponding repository is deleted.
@@ -314,11 +348,55 @@ public class CacheManager {
 	}
 
 	private void updateCache(File cacheFile, URI remoteFile, long lastModifiedRemote, SubMonitor submonitor) throws FileNotFoundException, IOException, ProvisionException {
+		submonitor.setWorkRemaining(1000);
+		IStatus result = download(cacheFile, remoteFile, -1, submonitor.newChild(1000));
+		if (result.isOK() && replaceCache(cacheFile, result, lastModifiedRemote))
+			return;
+
+		if (result.getSeverity() == IStatus.CANCEL || submonitor.isCanceled())
+			throw new OperationCanceledException();
+		throw new ProvisionException(result);
+	}
+
+	/**
+	 * Downloads the remote file again if it has been modified since the given cache file was
+	 * last updated. Returns whether the cache file is up to date, that is whether the remote
+	 * file has not been modified or has been downloaded.
+	 */
+	private boolean updateCacheIfModified(File cacheFile, URI remoteFile, SubMonitor submonitor) throws IOException, ProvisionException {
+		IStatus result = download(cacheFile, remoteFile, cacheFile.lastModified(), submonitor);
+		if (result.getSeverity() == IStatus.CANCEL || submonitor.isCanceled())
+			throw new OperationCanceledException();
+		if (!result.isOK())
+			return false;
+		if (result.getCode() == DownloadStatus.CODE_NOT_MODIFIED)
+			return true;
+		return replaceCache(cacheFile, result, 0L);
+	}
+
+	/**
+	 * Only HTTP servers are known to honor conditional requests. Other protocols would
+	 * download the file every time.
+	 */
+	private static boolean supportsConditionalRequests(URI repositoryLocation) {
+		String scheme = repositoryLocation.getScheme();
+		return "http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private File getTempFile(File cacheFile) {
+		return new File(new File(cacheFile.getParentFile(), DOWNLOADING), cacheFile.getName());
+	}
+
+	/**
+	 * Downloads the remote file into the temporary file of the given cache file. When
+	 * <code>modifiedSince</code> is positive, the file is only downloaded if it has been
+	 * modified after that time.
+	 */
+	private IStatus download(File cacheFile, URI remoteFile, long modifiedSince, IProgressMonitor monitor) throws IOException, ProvisionException {
 		cacheFile.getParentFile().mkdirs();
-		File downloadDir = new File(cacheFile.getParentFile(), DOWNLOADING);
-		if (!downloadDir.exists())
-			downloadDir.mkdir();
-		File tempFile = new File(downloadDir, cacheFile.getName());
+		File tempFile = getTempFile(cacheFile);
+		if (!tempFile.getParentFile().exists())
+			tempFile.getParentFile().mkdir();
 		// Ensure that the file from a previous download attempt is removed 
 		if (tempFile.exists())
 			safeDelete(tempFile);
@@ -333,27 +411,38 @@ public class CacheManager {
 		}
 		IStatus result = null;
 		try {
-			submonitor.setWorkRemaining(1000);
-			result = getTransport().download(remoteFile, stream, submonitor.newChild(1000));
+			if (modifiedSince > 0)
+				result = getTransport().downloadIfModified(remoteFile, stream, modifiedSince, monitor);
+			else
+				result = getTransport().download(remoteFile, stream, monitor);
 		} catch (OperationCanceledException e) {
 			// need to pick up the status - a new operation canceled exception is thrown at the end
 			// as status will be CANCEL.
 			result = stream.getStatus();
 		} finally {
 			stream.close();
-			// If there was any problem fetching the file, delete the temp file
-			if (result == null || !result.isOK())
+			// If there was any problem fetching the file, or nothing was fetched, delete the temp file
+			if (result == null || !result.isOK() || result.getCode() == DownloadStatus.CODE_NOT_MODIFIED)
 				safeDelete(tempFile);
 		}
-		if (result.isOK()) {
-			if (cacheFile.exists())
-				safeDelete(cacheFile);
-			if (tempFile.renameTo(cacheFile))
-				return;
-		}
+		return result;
+	}
 
-		if (result.getSeverity() == IStatus.CANCEL || submonitor.isCanceled())
-			throw new OperationCanceledException();
-		throw new ProvisionException(result);
+	/**
+	 * Replaces the cache file with the file downloaded for it. The cache file is given the
+	 * modification time of the remote file when the server reports it, conditional requests
+	 * are only based on such a time. Returns whether the cache file could be replaced.
+	 */
+	private boolean replaceCache(File cacheFile, IStatus result, long lastModifiedRemote) {
+		if (result instanceof DownloadStatus && ((DownloadStatus) result).getLastModified() > 0)
+			lastModifiedRemote = ((DownloadStatus) result).getLastModified();
+		if (cacheFile.exists())
+			safeDelete(cacheFile);
+		if (!getTempFile(cacheFile).renameTo(cacheFile)) {
+			setServerTimestamp(cacheFile, false);
+			return false;
+		}
+		setServerTimestamp(cacheFile, lastModifiedRemote > 0 && cacheFile.setLastModified(lastModifiedRemote));
+		return true;
 	}
 }
@@ -19,6 +19,11 @@ import org.eclipse.core.runtime.Status;
 public class DownloadStatus extends Status {
 	public static final long UNKNOWN_RATE = -1;
 	public static final long UNKNOWN_SIZE = -1;
+	/**
+	 * The code of the status of a conditional download of content that has not been
+	 * modified, and therefore has not been downloaded.
+	 */
+	public static final int CODE_NOT_MODIFIED = 304;
 
 	private long speed = UNKNOWN_RATE;
 	private long fileSize = UNKNOWN_SIZE;
@@ -15,7 +15,7 @@ package org.eclipse.equinox.internal.p2.repository;
 import java.io.*;
 import java.net.SocketTimeoutException;
 import java.net.URI;
-import java.util.Date;
+import java.util.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.ecf.core.security.IConnectContext;
@@ -65,6 +65,8 @@ public final class FileReader extends FileTransferJob implements IFileTransferLi
 	protected IFileTransferConnectStartEvent connectEvent;
 	private Job cancelJob;
 	private boolean monitorStarted;
+	private Map<String, String> requestHeaders;
+	private boolean notModified;
 
 	/**
 	 * Create a new FileReader that will retry failed connection attempts and sleep some amount of time between each
@@ -85,6 +87,23 @@ public final class FileReader extends FileTransferJob implements IFileTransferLi
 		return fileInfo;
 	}
 
+	/**
+	 * Sets the headers sent along with the requests of this reader, or <code>null</code>
+	 * to send none. Protocols without headers ignore them.
+	 */
+	public void setRequestHeaders(Map<String, String> headers) {
+		requestHeaders = headers;
+	}
+
+	/**
+	 * Returns whether the server answered the last conditional request made with the
+	 * request headers of this reader by reporting that the content has not been modified.
+	 * Nothing is read in that case.
+	 */
+	public boolean isNotModified() {
+		return notModified;
+	}
+
 	/**
 	 * A job to handle cancelation when trying to establish a socket connection.
 	 * At this point we don't have a transfer job running yet, so we need a separate
@@ -329,6 +348,12 @@ public final class FileReader extends FileTransferJob implements IFileTransferLi
 		this.monitorStarted = false;
 		this.theOutputStream = outputStream;
 		this.requestUri = uri;
+		this.notModified = false;
+		Map<String, Object> options = null;
+		if (requestHeaders != null) {
+			options = new HashMap<String, Object>(2);
+			options.put(IRetrieveFileTransferOptions.REQUEST_HEADERS, requestHeaders);
+		}
 
 		for (int retryCount = 0;; retryCount++) {
 			if (monitor != null && monitor.isCanceled())
@@ -337,9 +362,9 @@ public final class FileReader extends FileTransferJob implements IFileTransferLi
 			try {
 				IFileID fileID = FileIDFactory.getDefault().createFileID(adapter.getRetrieveNamespace(), uri.toString());
 				if (range != null)
-					adapter.sendRetrieveRequest(fileID, range, this, null);
+					adapter.sendRetrieveRequest(fileID, range, this, options);
 				else
-					adapter.sendRetrieveRequest(fileID, this, null);
+					adapter.sendRetrieveRequest(fileID, this, options);
 			} catch (IncomingFileTransferException e) {
 				exception = e;
 			} catch (FileCreateException e) {
@@ -367,6 +392,13 @@ public final class FileReader extends FileTransferJob implements IFileTransferLi
 	private boolean checkException(URI uri, int attemptCounter) throws CoreException, FileNotFoundException, AuthenticationFailedException, JREHttpClientRequiredException {
 		// note that 'exception' could have been captured in a callback
 		if (exception != null) {
+			// a conditional request for content that has not changed is not a failure
+			if (requestHeaders != null && RepositoryStatusHelper.isNotModified(RepositoryStatusHelper.unwind(exception))) {
+				exception = null;
+				notModified = true;
+				return true;
+			}
+
 			// check if HTTP client needs to be changed
 			RepositoryStatusHelper.checkJREHttpClientRequired(exception);
 
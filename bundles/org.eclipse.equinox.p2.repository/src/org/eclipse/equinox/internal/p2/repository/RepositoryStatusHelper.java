@@ -243,6 +243,16 @@ public abstract class RepositoryStatusHelper {
 
 	}
 
+	/**
+	 * Returns whether the given exception represents the answer to a conditional request
+	 * for content that has not been modified (304 for HTTP).
+	 */
+	public static boolean isNotModified(Throwable t) {
+		if (t instanceof IncomingFileTransferException)
+			return ((IncomingFileTransferException) t).getErrorCode() == 304;
+		return false;
+	}
+
 	/**
 	 * Check if the given exception represents a permission failure (401 for HTTP),
 	 * and throw a AuthenticationFailedException if a permission failure was encountered.
@@ -14,6 +14,8 @@ package org.eclipse.equinox.internal.p2.repository;
 
 import java.io.*;
 import java.net.URI;
+import java.text.SimpleDateFormat;
+import java.util.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.ecf.core.security.ConnectContextFactory;
 import org.eclipse.ecf.core.security.IConnectContext;
@@ -30,6 +32,9 @@ import org.eclipse.osgi.util.NLS;
  * {@link FileInfoReader}.
  */
 public class RepositoryTransport extends Transport {
+	private static final String IF_MODIFIED_SINCE = "If-Modified-Since"; //$NON-NLS-1$
+	private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz"; //$NON-NLS-1$
+
 	private static RepositoryTransport instance;
 
 	/**
@@ -56,7 +61,33 @@ public class RepositoryTransport extends Transport {
 	 * @throws OperationCanceledException if the operation was canceled.
 	 */
 	public IStatus download(URI toDownload, OutputStream target, long startPos, IProgressMonitor monitor) {
+		return download(toDownload, target, startPos, null, monitor);
+	}
+
+	/**
+	 * Perform a download if the content has been modified after the given time, writing into the
+	 * target output stream. The request is conditional when the protocol supports it; otherwise
+	 * the content is always downloaded. Progress is reported on the monitor. If the <code>target</code>
+	 * is an instance of {@link IStateful} the resulting status is also set on the target.
+	 * 
+	 * @returns IStatus, that is a {@link DownloadStatus} on success. Its code is
+	 * {@link DownloadStatus#CODE_NOT_MODIFIED} when the content has not been modified, in which case
+	 * nothing is written to the target.
+	 * @param toDownload URI of file to download
+	 * @param target OutputStream where result is written
+	 * @param modifiedSince the time in milliseconds the content must have been modified after
+	 * @param monitor where progress should be reported
+	 * @throws OperationCanceledException if the operation was canceled.
+	 */
+	public IStatus downloadIfModified(URI toDownload, OutputStream target, long modifiedSince, IProgressMonitor monitor) {
+		SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT")); //$NON-NLS-1$
+		Map<String, String> headers = new HashMap<String, String>(2);
+		headers.put(IF_MODIFIED_SINCE, format.format(new Date(modifiedSince)));
+		return download(toDownload, target, -1, headers, monitor);
+	}
 
+	private IStatus download(URI toDownload, OutputStream target, long startPos, Map<String, String> requestHeaders, IProgressMonitor monitor) {
 		boolean promptUser = false;
 		boolean useJREHttp = false;
 		AuthenticationInfo loginDetails = null;
@@ -68,7 +99,10 @@ public class RepositoryTransport extends Transport {
 
 				// perform the download
 				reader = new FileReader(context);
+				reader.setRequestHeaders(requestHeaders);
 				reader.readInto(toDownload, target, startPos, monitor);
+				if (reader.isNotModified())
+					return statusOn(target, new DownloadStatus(IStatus.OK, Activator.ID, DownloadStatus.CODE_NOT_MODIFIED, Status.OK_STATUS.getMessage(), null), reader);
 
 				// check that job ended ok - throw exceptions otherwise
 				IStatus result = reader.getResult();
@@ -127,6 +161,43 @@ public class RepositoryTransport extends Transport {
 		return download(toDownload, target, -1, monitor);
 	}
 
+	/**
+	 * Perform a download into the given file, continuing a previous partial download of the
+	 * same content. If the file is not empty, only the bytes following its current length are
+	 * requested from the server and appended to the file. The file is left as is when the
+	 * download fails, so that a later call continues where this one stopped.
+	 * <p>
+	 * The caller is responsible for validating the content of the file since a server ignoring
+	 * the requested range produces a file that is too long.
+	 * </p>
+	 *
+	 * @returns IStatus, that is a {@link DownloadStatus} on success.
+	 * @param toDownload URI of file to download
+	 * @param partialFile the file receiving the content, possibly holding the first bytes of it
+	 * @param monitor where progress should be reported
+	 * @throws OperationCanceledException if the operation was canceled.
+	 */
+	public IStatus download(URI toDownload, File partialFile, IProgressMonitor monitor) {
+		long startPos = partialFile.length() > 0 ? partialFile.length() : -1;
+		OutputStream target;
+		try {
+			target = new BufferedOutputStream(new FileOutputStream(partialFile, true));
+		} catch (FileNotFoundException e) {
+			return RepositoryStatus.forException(e, toDownload);
+		}
+		IStatus result;
+		try {
+			result = download(toDownload, target, startPos, monitor);
+		} finally {
+			try {
+				target.close();
+			} catch (IOException e) {
+				result = RepositoryStatus.forException(e, toDownload);
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * Perform a stream download, writing into an InputStream that is returned. Performs authentication if needed.
 	 * 
@@ -43,6 +43,10 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 		public URI location;
 		public String name;
 		public String nickname;
+		/**
+		 * The loaded repository, which is also kept by the repository cache while
+		 * it is recently used or pinned.
+		 */
 		public SoftReference<IRepository<R>> repository;
 		public String suffix;
 
@@ -68,6 +72,9 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 
 	public static final String NODE_REPOSITORIES = "repositories"; //$NON-NLS-1$
 	private static final String INDEX_FILE = "p2.index"; //$NON-NLS-1$
+	private static final String JAR_EXTENSION = ".jar"; //$NON-NLS-1$
+	private static final String XML_EXTENSION = ".xml"; //$NON-NLS-1$
+	private static final int MAX_PROBE_THREADS = 8;
 
 	/**
 	 * Map of String->RepositoryInfo, where String is the repository key
@@ -84,6 +91,11 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 	 */
 	protected SoftReference<List<URI>> unavailableRepositories;
 
+	/**
+	 * The loaded repositories that are kept in memory.
+	 */
+	private final RepositoryCache<T> repositoryCache = new RepositoryCache<T>();
+
 	/**
 	 * Set used to manage exclusive load locks on repository locations.
 	 */
@@ -118,7 +130,8 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 				added = true;
 				repositories.put(key, info);
 			}
-			info.repository = new SoftReference<IRepository<T>>(repository);
+			if (info.repository == null || info.repository.get() != repository)
+				info.repository = new SoftReference<IRepository<T>>(repository);
 			info.name = repository.getName();
 			info.description = repository.getDescription();
 			info.location = repository.getLocation();
@@ -126,6 +139,7 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 			if (value != null)
 				info.isSystem = Boolean.valueOf(value).booleanValue();
 			info.suffix = suffix;
+			repositoryCache.put(key, repository, info.isSystem);
 		}
 		// save the given repository in the preferences.
 		remember(repository, suffix);
@@ -175,10 +189,19 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 		synchronized (repositoryLock) {
 			if (repositories == null)
 				restoreRepositories();
-			RepositoryInfo<T> info = repositories.get(getKey(location));
+			String key = getKey(location);
+			RepositoryInfo<T> info = repositories.get(key);
 			if (info == null || info.repository == null)
 				return null;
-			IRepository<T> repo = info.repository.get();
+			IRepository<T> repo = repositoryCache.get(key);
+			if (repo != null)
+				repositoryCache.recordHit();
+			else {
+				//the repository was evicted from the cache but may still be softly referenced
+				repo = info.repository.get();
+				if (repo != null)
+					repositoryCache.recordRecovery();
+			}
 			//update our repository info because the repository may have changed
 			if (repo != null)
 				addRepository(repo, false, info.suffix);
@@ -220,24 +243,25 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 	 * found, and <code>false</code> otherwise.
 	 */
 	private boolean checkNotFound(URI location) {
-		if (unavailableRepositories == null)
-			return false;
-		List<URI> badRepos = unavailableRepositories.get();
-		if (badRepos == null)
-			return false;
-		return badRepos.contains(location);
+		synchronized (repositoryLock) {
+			if (unavailableRepositories == null)
+				return false;
+			List<URI> badRepos = unavailableRepositories.get();
+			if (badRepos == null)
+				return false;
+			return badRepos.contains(location);
+		}
 	}
 
 	/**
 	 * Clear the fact that we tried to load a repository at this location and did not find anything.
 	 */
 	private void clearNotFound(URI location) {
-		List<URI> badRepos;
-		if (unavailableRepositories != null) {
-			badRepos = unavailableRepositories.get();
-			if (badRepos != null) {
-				badRepos.remove(location);
-				return;
+		synchronized (repositoryLock) {
+			if (unavailableRepositories != null) {
+				List<URI> badRepos = unavailableRepositories.get();
+				if (badRepos != null)
+					badRepos.remove(location);
 			}
 		}
 	}
@@ -577,9 +601,11 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 				info.name = value;
 			else if (IRepository.PROP_NICKNAME.equals(key))
 				info.nickname = value;
-			else if (IRepository.PROP_SYSTEM.equals(key))
+			else if (IRepository.PROP_SYSTEM.equals(key)) {
 				//only true if value.equals("true") which is OK because a repository is only system if it's explicitly set to system.
 				info.isSystem = Boolean.valueOf(value).booleanValue();
+				repositoryCache.setPinned(getKey(location), info.isSystem);
+			}
 			remember(info, true);
 		}
 	}
@@ -634,6 +660,8 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 				return result;
 			if (checkNotFound(location))
 				fail(location, ProvisionException.REPOSITORY_NOT_FOUND);
+			long start = System.currentTimeMillis();
+			boolean reload = wasLoaded(location);
 			//add the repository first so that it will be enabled, but don't send add event until after the load
 			added = addRepository(location, true, false);
 
@@ -641,6 +669,8 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 
 			String[] preferredOrder = getPreferredRepositorySearchOrder(indexFile);
 			String[] suffixes = sortSuffixes(getAllSuffixes(), location, preferredOrder);
+			// a p2.index already tells which factories to try first, probing the files is not worth the requests
+			boolean[] missing = indexFile.exists() ? new boolean[suffixes.length] : probeSuffixes(location, suffixes, monitor);
 
 			SubMonitor sub = SubMonitor.convert(monitor, NLS.bind(Messages.repoMan_adding, location), suffixes.length * 100);
 			ProvisionException failure = null;
@@ -648,6 +678,10 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 				for (int i = 0; i < suffixes.length; i++) {
 					if (sub.isCanceled())
 						throw new OperationCanceledException();
+					if (missing[i]) {
+						sub.worked(100);
+						continue;
+					}
 					try {
 						result = loadRepository(location, suffixes[i], type, flags, sub.newChild(100));
 					} catch (ProvisionException e) {
@@ -656,6 +690,8 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 					}
 					if (result != null) {
 						addRepository(result, false, suffixes[i]);
+						if (reload)
+							repositoryCache.recordReload(System.currentTimeMillis() - start);
 						break;
 					}
 				}
@@ -684,6 +720,145 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 		return result;
 	}
 
+	/**
+	 * Returns whether the repository at the given location was loaded before and
+	 * has been dropped from memory since.
+	 */
+	private boolean wasLoaded(URI location) {
+		synchronized (repositoryLock) {
+			RepositoryInfo<T> info = repositories == null ? null : repositories.get(getKey(location));
+			return info != null && info.repository != null;
+		}
+	}
+
+	/**
+	 * Returns the cache keeping the loaded repositories in memory, which also gives
+	 * statistics on the use of the repositories.
+	 */
+	public RepositoryCache<T> getRepositoryCache() {
+		return repositoryCache;
+	}
+
+	/**
+	 * Loads the repositories at the given locations, several at a time, and returns them in the
+	 * order of the locations. The repositories that cannot be loaded are skipped and their entry
+	 * is <code>null</code>. Each repository is loaded as by {@link #loadRepository(URI, IProgressMonitor, String, int)},
+	 * repositories at different locations are loaded concurrently.
+	 * 
+	 * @param locations The locations of the repositories to load
+	 * @param monitor a progress monitor, or <code>null</code> if progress reporting is not desired
+	 * @return The loaded repositories, in the order of the locations
+	 * @throws OperationCanceledException if the monitor is canceled
+	 */
+	public List<IRepository<T>> loadRepositories(URI[] locations, IProgressMonitor monitor) {
+		final SubMonitor sub = SubMonitor.convert(monitor, locations.length * 100);
+		final IProgressMonitor loadMonitor = new NullProgressMonitor() {
+			public boolean isCanceled() {
+				return sub.isCanceled();
+			}
+		};
+		try {
+			return CompositeChildRunner.run(Arrays.asList(locations), new CompositeChildRunner.Task<URI, IRepository<T>>() {
+				public IRepository<T> run(URI location) {
+					if (sub.isCanceled())
+						throw new OperationCanceledException();
+					try {
+						return loadRepository(location, loadMonitor, null, 0);
+					} catch (ProvisionException e) {
+						//skip unreadable repositories
+						return null;
+					} finally {
+						synchronized (sub) {
+							sub.worked(100);
+						}
+					}
+				}
+			}, CompositeChildRunner.getMaxThreads(null));
+		} finally {
+			sub.done();
+		}
+	}
+
+	/**
+	 * Returns the locations of the files of which at least one must exist at the given remote
+	 * location for a repository to be loaded with the given suffix, or <code>null</code> if
+	 * that is not known. The default implementation knows the suffixes naming an XML file,
+	 * which may also be compressed in a jar.
+	 * @nooverride This method is not intended to be re-implemented or extended by clients.
+	 * @noreference This method is not intended to be referenced by clients.
+	 */
+	protected URI[] getSuffixProbes(URI location, String suffix) {
+		String path = location.getPath();
+		// a location naming a file rather than a folder is loaded by the factories as it is
+		if (!suffix.endsWith(XML_EXTENSION) || path == null || path.endsWith(XML_EXTENSION) || path.endsWith(JAR_EXTENSION))
+			return null;
+		try {
+			String base = suffix.substring(0, suffix.length() - XML_EXTENSION.length());
+			return new URI[] {appendPath(location, base + JAR_EXTENSION), appendPath(location, suffix)};
+		} catch (URISyntaxException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Checks concurrently which of the given suffixes can not be loaded from the given
+	 * location, so that loading a remote repository does not wait for a round trip to the
+	 * server for each missing suffix in turn. Returns for each suffix whether it is known
+	 * to be missing, the suffixes that are not missing are still tried in order.
+	 */
+	private boolean[] probeSuffixes(URI location, String[] suffixes, final IProgressMonitor monitor) {
+		boolean[] missing = new boolean[suffixes.length];
+		String scheme = location.getScheme();
+		if (suffixes.length < 2 || !("http".equals(scheme) || "https".equals(scheme))) //$NON-NLS-1$ //$NON-NLS-2$
+			return missing;
+
+		URI[][] probes = new URI[suffixes.length][];
+		List<URI> files = new ArrayList<URI>();
+		for (int i = 0; i < suffixes.length; i++) {
+			probes[i] = getSuffixProbes(location, suffixes[i]);
+			if (probes[i] != null)
+				files.addAll(Arrays.asList(probes[i]));
+		}
+		if (files.size() < 2)
+			return missing;
+
+		List<Boolean> found = CompositeChildRunner.run(files, new CompositeChildRunner.Task<URI, Boolean>() {
+			public Boolean run(URI file) {
+				if (monitor.isCanceled())
+					throw new OperationCanceledException();
+				return Boolean.valueOf(!isMissing(file));
+			}
+		}, Math.min(files.size(), MAX_PROBE_THREADS));
+
+		int next = 0;
+		for (int i = 0; i < suffixes.length; i++) {
+			if (probes[i] == null)
+				continue;
+			missing[i] = true;
+			for (int j = 0; j < probes[i].length; j++)
+				if (found.get(next++).booleanValue())
+					missing[i] = false;
+		}
+		return missing;
+	}
+
+	/**
+	 * Returns whether the server tells that the given file does not exist. Any other failure
+	 * is left to the repository factories to report.
+	 */
+	private boolean isMissing(URI file) {
+		try {
+			getTransport().getLastModified(file, new NullProgressMonitor());
+			return false;
+		} catch (FileNotFoundException e) {
+			return true;
+		} catch (CoreException e) {
+			return false;
+		} catch (AuthenticationFailedException e) {
+			return false;
+		}
+	}
+
 	/**
 	 * Fetches the p2.index file from the server. If the file could not be fetched
 	 * a NullSafe version is returned.
@@ -882,17 +1057,19 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 	 * Cache the fact that we tried to load a repository at this location and did not find anything.
 	 */
 	private void rememberNotFound(URI location) {
-		List<URI> badRepos;
-		if (unavailableRepositories != null) {
-			badRepos = unavailableRepositories.get();
-			if (badRepos != null) {
-				badRepos.add(location);
-				return;
+		synchronized (repositoryLock) {
+			List<URI> badRepos;
+			if (unavailableRepositories != null) {
+				badRepos = unavailableRepositories.get();
+				if (badRepos != null) {
+					badRepos.add(location);
+					return;
+				}
 			}
+			badRepos = new ArrayList<URI>();
+			badRepos.add(location);
+			unavailableRepositories = new SoftReference<List<URI>>(badRepos);
 		}
-		badRepos = new ArrayList<URI>();
-		badRepos.add(location);
-		unavailableRepositories = new SoftReference<List<URI>>(badRepos);
 	}
 
 	public boolean removeRepository(URI toRemove) {
@@ -905,6 +1082,7 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 		synchronized (repositoryLock) {
 			if (repositories == null)
 				restoreRepositories();
+			repositoryCache.remove(repoKey);
 			if (repositories.remove(repoKey) == null)
 				return false;
 		}
@@ -1061,6 +1239,7 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 		}
 		repositories = null;
 		unavailableRepositories = null;
+		repositoryCache.clear();
 	}
 
 	/**
@@ -1156,10 +1335,13 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 	}
 
 	private static URI getIndexFileURI(URI base) throws URISyntaxException {
-		final String name = INDEX_FILE;
-		String spec = base.toString();
-		if (spec.endsWith(name))
+		if (base.toString().endsWith(INDEX_FILE))
 			return base;
+		return appendPath(base, INDEX_FILE);
+	}
+
+	private static URI appendPath(URI base, String name) throws URISyntaxException {
+		String spec = base.toString();
 		if (spec.endsWith("/")) //$NON-NLS-1$
 			spec += name;
 		else
@@ -1167,7 +1349,7 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 		return new URI(spec);
 	}
 
-	private Transport getTransport() {
+	private RepositoryTransport getTransport() {
 		return RepositoryTransport.getInstance();
 	}
 }
@@ -0,0 +1,282 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.repository.helpers;
+
+import java.util.*;
+import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.p2.query.*;
+import org.eclipse.equinox.p2.repository.artifact.ArtifactKeyQuery;
+
+/**
+ * Performs a task on each child of a composite repository, such as loading or querying it,
+ * using a bounded number of threads. The results are returned in the order of the children
+ * whatever the order in which the tasks complete.
+ * <p>
+ * The calling thread takes part in the work and the helper threads come from a pool shared by
+ * all composite repositories. When the pool is exhausted, the calling thread does the remaining
+ * work itself, so nested composite repositories cannot starve each other.
+ * </p><p>
+ * The pool is kept here rather than taken from <code>java.util.concurrent</code> since this
+ * bundle runs on J2SE-1.4 and CDC-1.1/Foundation-1.1.
+ * </p>
+ */
+public class CompositeChildRunner {
+	/**
+	 * The repository property giving the maximum number of children of a composite
+	 * repository that are loaded or queried at the same time.
+	 */
+	public static final String PROP_MAX_THREADS = "eclipse.p2.max.threads"; //$NON-NLS-1$
+
+	private static final int DEFAULT_MAX_THREADS = 4;
+	private static final int MAX_POOL_SIZE = 32;
+	private static final long KEEP_ALIVE = 30000;
+
+	// the helper threads waiting for work, and the number of helper threads alive
+	private static final LinkedList<Helper> idleHelpers = new LinkedList<Helper>();
+	private static int helperCount = 0;
+
+	/**
+	 * A task performed on a single child.
+	 */
+	public interface Task<C, R> {
+		/**
+		 * Performs the task on the given child and returns the result, which may be <code>null</code>.
+		 */
+		R run(C child);
+	}
+
+	/**
+	 * A pooled thread performing the work handed to it, which retires once it has been
+	 * idle for {@link CompositeChildRunner#KEEP_ALIVE} milliseconds.
+	 */
+	private static class Helper extends Thread {
+		private Runnable work;
+
+		Helper() {
+			super("Composite Repository Worker"); //$NON-NLS-1$
+			setDaemon(true);
+		}
+
+		synchronized void assign(Runnable runnable) {
+			work = runnable;
+			notifyAll();
+		}
+
+		public void run() {
+			while (true) {
+				Runnable runnable;
+				synchronized (this) {
+					if (work == null) {
+						try {
+							wait(KEEP_ALIVE);
+						} catch (InterruptedException e) {
+							// retire if there is still nothing to do
+						}
+					}
+				}
+				synchronized (CompositeChildRunner.class) {
+					synchronized (this) {
+						runnable = work;
+						if (runnable == null) {
+							idleHelpers.remove(this);
+							helperCount--;
+							return;
+						}
+					}
+				}
+				try {
+					runnable.run();
+				} catch (RuntimeException e) {
+					// failures of the tasks are recorded by the worker
+				} catch (Error e) {
+					// failures of the tasks are recorded by the worker
+				}
+				synchronized (CompositeChildRunner.class) {
+					synchronized (this) {
+						work = null;
+					}
+					idleHelpers.addLast(this);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Hands the given work to an idle helper thread, or to a new one if the pool is not
+	 * exhausted. Returns whether a helper thread took the work.
+	 */
+	private static synchronized boolean startHelper(Runnable work) {
+		if (!idleHelpers.isEmpty()) {
+			idleHelpers.removeLast().assign(work);
+			return true;
+		}
+		if (helperCount >= MAX_POOL_SIZE)
+			return false;
+		Helper helper = new Helper();
+		helper.assign(work);
+		helperCount++;
+		helper.start();
+		return true;
+	}
+
+	/**
+	 * Returns the maximum number of children processed at the same time by a composite
+	 * repository with the given properties.
+	 */
+	public static int getMaxThreads(Map<String, String> properties) {
+		String value = properties == null ? null : properties.get(PROP_MAX_THREADS);
+		if (value != null) {
+			try {
+				return Math.max(1, Integer.parseInt(value));
+			} catch (NumberFormatException e) {
+				// use the default
+			}
+		}
+		return DEFAULT_MAX_THREADS;
+	}
+
+	/**
+	 * Performs the task on all given children, at most <code>maxThreads</code> at a time, and
+	 * returns the results in the order of the children. A runtime exception thrown by a task is
+	 * rethrown once all tasks are done; when several tasks fail, the exception of the first child
+	 * in order is thrown.
+	 */
+	public static <C, R> List<R> run(List<? extends C> children, final Task<C, R> task, int maxThreads) {
+		final int size = children.size();
+		final List<R> results = new ArrayList<R>(size);
+		if (size < 2 || maxThreads < 2) {
+			for (C child : children)
+				results.add(task.run(child));
+			return results;
+		}
+
+		final Object[] input = children.toArray();
+		final Object[] output = new Object[size];
+		final Throwable[] failures = new Throwable[size];
+		// the index of the next child to process, claimed by the calling thread and the helpers alike
+		final int[] next = new int[1];
+		final Runnable worker = new Runnable() {
+			@SuppressWarnings("unchecked")
+			public void run() {
+				while (true) {
+					int index;
+					synchronized (next) {
+						index = next[0]++;
+					}
+					if (index >= size)
+						return;
+					try {
+						output[index] = task.run((C) input[index]);
+					} catch (RuntimeException e) {
+						failures[index] = e;
+					} catch (Error e) {
+						failures[index] = e;
+					}
+				}
+			}
+		};
+
+		// the number of helper threads still at work, guarded by next
+		final int[] running = new int[1];
+		Runnable helperWork = new Runnable() {
+			public void run() {
+				try {
+					worker.run();
+				} finally {
+					synchronized (next) {
+						running[0]--;
+						next.notifyAll();
+					}
+				}
+			}
+		};
+		int helpers = Math.min(maxThreads, size) - 1;
+		for (int i = 0; i < helpers; i++) {
+			synchronized (next) {
+				running[0]++;
+			}
+			if (!startHelper(helperWork)) {
+				// the pool is exhausted, the calling thread does the work
+				synchronized (next) {
+					running[0]--;
+				}
+				break;
+			}
+		}
+		worker.run();
+		waitFor(next, running);
+
+		for (int i = 0; i < size; i++) {
+			if (failures[i] instanceof RuntimeException)
+				throw (RuntimeException) failures[i];
+			if (failures[i] instanceof Error)
+				throw (Error) failures[i];
+		}
+		for (int i = 0; i < size; i++) {
+			@SuppressWarnings("unchecked")
+			R result = (R) output[i];
+			results.add(result);
+		}
+		return results;
+	}
+
+	private static void waitFor(Object lock, int[] running) {
+		boolean interrupted = false;
+		synchronized (lock) {
+			while (running[0] > 0) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Returns whether a copy of the given query can be performed by each thread. A match query
+	 * holds the context in which its expression is evaluated, so a single query must not be
+	 * performed by several threads at once.
+	 */
+	private static boolean isCopyable(IQuery<?> query) {
+		return query.getClass() == ExpressionMatchQuery.class || query.getClass() == ArtifactKeyQuery.class;
+	}
+
+	/**
+	 * Performs the given query on all given children and returns the union of the results.
+	 * When the query is an expression match query, the children are queried at most
+	 * <code>maxThreads</code> at a time. Since the candidates of a match query are matched one
+	 * by one, the result is the same as the one of querying the children as a whole. Other
+	 * queries are performed on the children as a whole.
+	 */
+	public static <T> IQueryResult<T> query(List<? extends IQueryable<T>> children, IQuery<T> query, final IProgressMonitor monitor, int maxThreads) {
+		if (children.size() < 2 || maxThreads < 2 || !isCopyable(query))
+			return QueryUtil.compoundQueryable(children).query(query, monitor);
+
+		final ExpressionMatchQuery<T> matchQuery = (ExpressionMatchQuery<T>) query;
+		List<IQueryResult<T>> results = run(children, new Task<IQueryable<T>, IQueryResult<T>>() {
+			public IQueryResult<T> run(IQueryable<T> child) {
+				if (monitor != null && monitor.isCanceled())
+					throw new OperationCanceledException();
+				IQuery<T> copy = new ExpressionMatchQuery<T>(matchQuery.getMatchingClass(), matchQuery.getExpression());
+				return child.query(copy, new NullProgressMonitor());
+			}
+		}, maxThreads);
+		Collector<T> collector = new Collector<T>();
+		for (IQueryResult<T> result : results) {
+			if (result != null)
+				collector.addAll(result);
+		}
+		return collector;
+	}
+}
@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.repository.helpers;
+
+import java.util.*;
+import org.eclipse.equinox.internal.p2.repository.Activator;
+import org.eclipse.equinox.p2.repository.IRepository;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Holds the repositories loaded by a repository manager so that they are not reloaded
+ * at the whim of the garbage collector. The most recently used repositories are kept,
+ * up to a bounded number, and the pinned repositories, such as the system repositories,
+ * are kept whatever their number. The repositories that are evicted are only softly
+ * referenced by the manager until they are used again.
+ * <p>
+ * The cache also gathers statistics on the use of the repositories: the number of
+ * repositories found in the cache, the number of evicted repositories found again through
+ * their soft reference, and the number of repositories reloaded after having been dropped
+ * along with the time spent reloading them.
+ * </p>
+ */
+public class RepositoryCache<R> {
+	/**
+	 * The property giving the number of repositories that are not pinned and kept in memory
+	 * by each repository manager, <code>0</code> to leave all of them to the garbage collector.
+	 */
+	public static final String PROP_CACHE_SIZE = "org.eclipse.equinox.p2.repository.cacheSize"; //$NON-NLS-1$
+
+	private static final int DEFAULT_CACHE_SIZE = 8;
+
+	private final int maxSize;
+	private final Map<String, IRepository<R>> pinned = new HashMap<String, IRepository<R>>();
+	private final LinkedHashMap<String, IRepository<R>> recent = new LinkedHashMap<String, IRepository<R>>(16, 0.75f, true);
+
+	private long hits;
+	private long recoveries;
+	private long evictions;
+	private long reloads;
+	private long reloadTime;
+
+	/**
+	 * Creates a cache holding the number of repositories given by {@link #PROP_CACHE_SIZE}.
+	 */
+	public RepositoryCache() {
+		this(getDefaultSize());
+	}
+
+	public RepositoryCache(int maxSize) {
+		this.maxSize = Math.max(0, maxSize);
+	}
+
+	private static int getDefaultSize() {
+		BundleContext context = Activator.getContext();
+		String value = context != null ? context.getProperty(PROP_CACHE_SIZE) : System.getProperty(PROP_CACHE_SIZE);
+		if (value != null) {
+			try {
+				return Integer.parseInt(value);
+			} catch (NumberFormatException e) {
+				// use the default
+			}
+		}
+		return DEFAULT_CACHE_SIZE;
+	}
+
+	/**
+	 * Returns the repository cached for the given key, or <code>null</code> if there is none.
+	 */
+	public synchronized IRepository<R> get(String key) {
+		IRepository<R> repository = pinned.get(key);
+		return repository != null ? repository : recent.get(key);
+	}
+
+	/**
+	 * Caches the repository for the given key, as the most recently used one. A pinned
+	 * repository is kept until it is removed or unpinned.
+	 */
+	public synchronized void put(String key, IRepository<R> repository, boolean pin) {
+		if (pin) {
+			recent.remove(key);
+			pinned.put(key, repository);
+			return;
+		}
+		pinned.remove(key);
+		recent.put(key, repository);
+		Iterator<IRepository<R>> itor = recent.values().iterator();
+		while (recent.size() > maxSize) {
+			itor.next();
+			itor.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Pins or unpins the repository cached for the given key, if any.
+	 */
+	public synchronized void setPinned(String key, boolean pin) {
+		IRepository<R> repository = pin ? recent.get(key) : pinned.get(key);
+		if (repository != null)
+			put(key, repository, pin);
+	}
+
+	public synchronized void remove(String key) {
+		pinned.remove(key);
+		recent.remove(key);
+	}
+
+	public synchronized void clear() {
+		pinned.clear();
+		recent.clear();
+	}
+
+	/**
+	 * Records that a repository was found in the cache by the manager.
+	 */
+	synchronized void recordHit() {
+		hits++;
+	}
+
+	/**
+	 * Records that a repository evicted from the cache was found by the manager through
+	 * its soft reference.
+	 */
+	synchronized void recordRecovery() {
+		recoveries++;
+	}
+
+	/**
+	 * Records that a repository that had been dropped was loaded again, in the given time.
+	 */
+	synchronized void recordReload(long time) {
+		reloads++;
+		reloadTime += time;
+	}
+
+	/**
+	 * Returns the maximum number of repositories that are not pinned and kept in the cache.
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Returns the number of repositories held by the cache, including the pinned ones.
+	 */
+	public synchronized int size() {
+		return pinned.size() + recent.size();
+	}
+
+	/**
+	 * Returns the number of times a loaded repository was found in the cache.
+	 */
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of times a repository evicted from the cache was still in memory
+	 * and found through its soft reference.
+	 */
+	public synchronized long getRecoveryCount() {
+		return recoveries;
+	}
+
+	/**
+	 * Returns the number of repositories evicted from the cache to make room for more
+	 * recently used ones.
+	 */
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * Returns the number of repositories that were loaded again after having been dropped
+	 * from memory.
+	 */
+	public synchronized long getReloadCount() {
+		return reloads;
+	}
+
+	/**
+	 * Returns the total time, in milliseconds, spent loading again the repositories
+	 * that had been dropped from memory.
+	 */
+	public synchronized long getReloadTime() {
+		return reloadTime;
+	}
+}
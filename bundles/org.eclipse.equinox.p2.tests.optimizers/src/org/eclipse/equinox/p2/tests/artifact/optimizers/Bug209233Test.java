@@ -11,6 +11,7 @@
 package org.eclipse.equinox.p2.tests.artifact.optimizers;
 
 import ie.wombat.jbdiff.JBDiff;
+import ie.wombat.jbdiff.JBPatch;
 import java.io.*;
 import java.util.Arrays;
 import junit.framework.TestCase;
@@ -51,4 +52,32 @@ public class Bug209233Test extends TestCase {
 		assertEquals("Different lengths.", expectedBytes.length, actualBytes.length);
 		assertTrue("Different bytes.", Arrays.equals(expectedBytes, actualBytes));
 	}
+
+	public void testDiffToStreamAndPatchJdt32SarToJdt33Sar() throws IOException {
+		ByteArrayOutputStream currentBS = new ByteArrayOutputStream();
+		FileUtils.copyStream(TestData.get("sar", "org.eclipse.jdt_3.3.0.v20070607-1300.sar"), true, currentBS, true);
+		byte[] currentBytes = currentBS.toByteArray();
+
+		ByteArrayOutputStream predecessorBS = new ByteArrayOutputStream();
+		FileUtils.copyStream(TestData.get("sar", "org.eclipse.jdt_3.2.0.v20060605-1400.sar"), true, predecessorBS, true);
+		byte[] predecessorBytes = predecessorBS.toByteArray();
+
+		ByteArrayOutputStream diffBS = new ByteArrayOutputStream();
+		JBDiff.bsdiff(predecessorBytes, predecessorBytes.length, currentBytes, currentBytes.length, diffBS);
+		byte[] diffBytes = diffBS.toByteArray();
+		assertTrue("Different diffs.", Arrays.equals(JBDiff.bsdiff(predecessorBytes, predecessorBytes.length, currentBytes, currentBytes.length), diffBytes));
+
+		byte[] patchedBytes = JBPatch.bspatch(predecessorBytes, predecessorBytes.length, diffBytes);
+		assertTrue("Different bytes.", Arrays.equals(currentBytes, patchedBytes));
+	}
+
+	public void testPatchJdt32SarFileToJdt33Sar() throws IOException {
+		File predecessor = TestData.getTempFile("sar", "org.eclipse.jdt_3.2.0.v20060605-1400.sar");
+		File current = TestData.getTempFile("sar", "org.eclipse.jdt_3.3.0.v20070607-1300.sar");
+		File diff = TestData.createTempFile("org.eclipse.jdt_3.2.0-3.3.0.jbdiff");
+		File patched = TestData.createTempFile("org.eclipse.jdt_3.3.0.v20070607-1300.sar");
+		JBDiff.bsdiff(predecessor, current, diff);
+		JBPatch.bspatch(predecessor, patched, diff);
+		TestData.assertEquals(current, patched);
+	}
 }
@@ -33,6 +33,7 @@ public class AllTests extends TestCase {
 		suite.addTestSuite(MD5Tests.class);
 		suite.addTestSuite(MirrorSelectorTest.class);
 		suite.addTestSuite(MirrorRequestTest.class);
+		suite.addTestSuite(PartialDownloadAreaTest.class);
 		suite.addTestSuite(SimpleArtifactRepositoryTest.class);
 		suite.addTestSuite(TransferTest.class);
 		return suite;
@@ -21,11 +21,13 @@ import org.eclipse.equinox.internal.p2.artifact.repository.simple.SimpleArtifact
 import org.eclipse.equinox.internal.p2.core.helpers.OrderedProperties;
 import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
 import org.eclipse.equinox.internal.p2.persistence.CompositeRepositoryState;
+import org.eclipse.equinox.internal.p2.repository.helpers.CompositeChildRunner;
 import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.internal.repository.comparator.MD5ArtifactComparator;
 import org.eclipse.equinox.p2.internal.repository.tools.ArtifactRepositoryValidator;
 import org.eclipse.equinox.p2.metadata.IArtifactKey;
 import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.query.IQuery;
 import org.eclipse.equinox.p2.query.IQueryResult;
 import org.eclipse.equinox.p2.repository.IRepository;
 import org.eclipse.equinox.p2.repository.artifact.*;
@@ -918,6 +920,81 @@ public class CompositeArtifactRepositoryTest extends AbstractProvisioningTest {
 		delete(temp);
 	}
 
+	public void testLoadChildrenInParallel() throws ProvisionException, URISyntaxException {
+		File one = getTestData("0.0", "testData/testRepos/simple.1");
+		File two = getTestData("0.1", "testData/testRepos/simple.2");
+		File temp = getTempFolder();
+		copy("0.2", one, new File(temp, "one"));
+		copy("0.3", two, new File(temp, "two"));
+		copy("0.4", one, new File(temp, "three"));
+
+		URI location = new File(temp, "comp").toURI();
+		CompositeArtifactRepository repository = createRepository(location, "test");
+		repository.setProperty(CompositeChildRunner.PROP_MAX_THREADS, "3");
+		repository.addChild(new URI("../one"));
+		repository.addChild(new URI("../missing"));
+		repository.addChild(new URI("../two"));
+		repository.addChild(new URI("../three"));
+
+		// load the composite again, along with all its children
+		IArtifactRepositoryManager manager = getArtifactRepositoryManager();
+		String[] names = new String[] {"one", "two", "three"};
+		for (int i = 0; i < names.length; i++)
+			manager.removeRepository(new File(temp, names[i]).toURI());
+		try {
+			IArtifactRepository loaded = manager.loadRepository(location, getMonitor());
+			assertTrue("1.0", loaded instanceof CompositeArtifactRepository);
+			CompositeArtifactRepository composite = (CompositeArtifactRepository) loaded;
+			assertEquals("1.1", 4, composite.getChildren().size());
+			// the children that could be loaded are in order
+			List<IArtifactRepository> children = composite.getLoadedChildren();
+			assertEquals("1.2", names.length, children.size());
+			for (int i = 0; i < names.length; i++)
+				assertTrue("1.3." + i, URIUtil.sameURI(new File(temp, names[i]).toURI(), children.get(i).getLocation()));
+			assertEquals("1.4", 2, getArtifactKeyCount(composite));
+		} finally {
+			manager.removeRepository(location);
+			for (int i = 0; i < names.length; i++)
+				manager.removeRepository(new File(temp, names[i]).toURI());
+			delete(temp);
+		}
+	}
+
+	/*
+	 * Verify the lookup of keys in children that cannot change
+	 */
+	public void testUnmodifiableChildren() throws URISyntaxException {
+		IArtifactKey key = new ArtifactKey("osgi.bundle", "a", Version.create("1.0.0"));
+		IArtifactKey other = new ArtifactKey("osgi.bundle", "b", Version.create("1.0.0"));
+		CompositeArtifactRepository source = createRepository(new URI("memory:/in/memory"), "in memory test");
+		IArtifactRepository childOne = createUnmodifiableChild(key);
+		IArtifactRepository childTwo = createUnmodifiableChild(key);
+		try {
+			source.addChild(childOne.getLocation());
+			source.addChild(childTwo.getLocation());
+
+			assertTrue("1.0", source.contains(key));
+			assertTrue("1.1", source.contains(new ArtifactDescriptor(key)));
+			assertFalse("1.2", source.contains(other));
+			assertEquals("1.3", 1, source.getArtifactDescriptors(key).length);
+			assertEquals("1.4", 0, source.getArtifactDescriptors(other).length);
+
+			markBad(source, childOne);
+			assertTrue("2.0", source.contains(key));
+			markBad(source, childTwo);
+			assertFalse("2.1", source.contains(key));
+			assertEquals("2.2", 0, source.getArtifactDescriptors(key).length);
+
+			source.removeChild(childOne.getLocation());
+			source.removeChild(childTwo.getLocation());
+			assertFalse("3.0", source.contains(key));
+		} finally {
+			getArtifactRepositoryManager().removeRepository(source.getLocation());
+			getArtifactRepositoryManager().removeRepository(childOne.getLocation());
+			getArtifactRepositoryManager().removeRepository(childTwo.getLocation());
+		}
+	}
+
 	public void testRelativeRemoveChild() {
 		PrintStream out = System.out;
 		try {
@@ -1333,6 +1410,24 @@ public class CompositeArtifactRepositoryTest extends AbstractProvisioningTest {
 	/*
 	 * Create a child for a composite repository which always responds true to contains()
 	 */
+	/*
+	 * Create a child that cannot be modified and holds the given key
+	 */
+	protected IArtifactRepository createUnmodifiableChild(final IArtifactKey key) throws URISyntaxException {
+		TestArtifactRepository repo = new TestArtifactRepository(getAgent(), new URI("memory:/in/memory/" + childCount++)) {
+			public boolean isModifiable() {
+				return false;
+			}
+
+			public IQueryResult<IArtifactKey> query(IQuery<IArtifactKey> query, IProgressMonitor monitor) {
+				return query.perform(Collections.singleton(key).iterator());
+			}
+		};
+		repo.addArtifact(key, new byte[] {});
+		repo.addToRepositoryManager();
+		return repo;
+	}
+
 	protected IArtifactRepository createChild() {
 		try {
 			TestArtifactRepository repo = new TestArtifactRepository(getAgent(), new URI("memory:/in/memory/" + childCount++)) {
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.artifact.repository;
+
+import java.io.*;
+import java.net.URI;
+import java.security.MessageDigest;
+import org.eclipse.equinox.internal.p2.artifact.repository.PartialDownloadArea;
+import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
+import org.eclipse.equinox.p2.repository.artifact.spi.ArtifactDescriptor;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+public class PartialDownloadAreaTest extends AbstractProvisioningTest {
+	private static final byte[] CONTENT = "The content of the artifact".getBytes();
+	private File folder;
+	private PartialDownloadArea area;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		folder = getTempFolder();
+		area = new PartialDownloadArea(folder);
+	}
+
+	protected void tearDown() throws Exception {
+		delete(folder);
+		super.tearDown();
+	}
+
+	private ArtifactDescriptor createDescriptor(String md5) {
+		ArtifactDescriptor descriptor = new ArtifactDescriptor(new ArtifactKey("osgi.bundle", "a", Version.createOSGi(1, 0, 0)));
+		descriptor.setProperty(IArtifactDescriptor.DOWNLOAD_SIZE, Integer.toString(CONTENT.length));
+		if (md5 != null)
+			descriptor.setProperty(IArtifactDescriptor.DOWNLOAD_MD5, md5);
+		return descriptor;
+	}
+
+	private static String md5(byte[] content) throws Exception {
+		byte[] digest = MessageDigest.getInstance("MD5").digest(content);
+		StringBuffer buf = new StringBuffer();
+		for (int i = 0; i < digest.length; i++) {
+			if ((digest[i] & 0xFF) < 0x10)
+				buf.append('0');
+			buf.append(Integer.toHexString(digest[i] & 0xFF));
+		}
+		return buf.toString();
+	}
+
+	private static void write(File file, byte[] content, int length) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content, 0, length);
+		} finally {
+			out.close();
+		}
+	}
+
+	public void testExpectedSize() {
+		ArtifactDescriptor descriptor = createDescriptor(null);
+		assertEquals("1.0", CONTENT.length, PartialDownloadArea.getExpectedSize(descriptor));
+		descriptor.setProperty(IArtifactDescriptor.DOWNLOAD_SIZE, "0");
+		assertEquals("1.1", -1, PartialDownloadArea.getExpectedSize(descriptor));
+		descriptor.setProperty(IArtifactDescriptor.DOWNLOAD_SIZE, "unknown");
+		assertEquals("1.2", -1, PartialDownloadArea.getExpectedSize(descriptor));
+	}
+
+	public void testAcquire() {
+		IArtifactDescriptor descriptor = createDescriptor(null);
+		URI location = URI.create("http://example.org/repo/plugins/a_1.0.0.jar");
+		File partial = area.acquire(descriptor, location);
+		assertNotNull("1.0", partial);
+		assertEquals("1.1", folder, partial.getParentFile());
+		assertNull("1.2", area.acquire(descriptor, location));
+		File other = area.acquire(descriptor, URI.create("http://example.org/other/plugins/a_1.0.0.jar"));
+		assertNotNull("1.3", other);
+		assertFalse("1.4", partial.equals(other));
+		area.release(other);
+
+		area.release(partial);
+		File again = area.acquire(descriptor, location);
+		assertEquals("2.0", partial, again);
+		area.release(again);
+	}
+
+	public void testValidateSize() throws IOException {
+		IArtifactDescriptor descriptor = createDescriptor(null);
+		File partial = area.acquire(descriptor, URI.create("http://example.org/repo/plugins/a_1.0.0.jar"));
+		try {
+			write(partial, CONTENT, CONTENT.length - 1);
+			assertFalse("1.0", PartialDownloadArea.validate(partial, descriptor).isOK());
+			write(partial, CONTENT, CONTENT.length);
+			assertOK("1.1", PartialDownloadArea.validate(partial, descriptor));
+		} finally {
+			area.release(partial);
+		}
+	}
+
+	public void testValidateMD5() throws Exception {
+		IArtifactDescriptor good = createDescriptor(md5(CONTENT));
+		byte[] corrupt = (byte[]) CONTENT.clone();
+		corrupt[0]++;
+		IArtifactDescriptor bad = createDescriptor(md5(corrupt));
+		File partial = area.acquire(good, URI.create("http://example.org/repo/plugins/a_1.0.0.jar"));
+		try {
+			write(partial, CONTENT, CONTENT.length);
+			assertOK("1.0", PartialDownloadArea.validate(partial, good));
+			assertFalse("1.1", PartialDownloadArea.validate(partial, bad).isOK());
+		} finally {
+			area.release(partial);
+		}
+	}
+}
@@ -29,6 +29,7 @@ import org.eclipse.equinox.p2.query.IQueryResult;
 import org.eclipse.equinox.p2.query.IQueryable;
 import org.eclipse.equinox.p2.repository.IRepository;
 import org.eclipse.equinox.p2.repository.IRepositoryManager;
+import org.eclipse.equinox.p2.repository.IRunnableWithProgress;
 import org.eclipse.equinox.p2.repository.artifact.*;
 import org.eclipse.equinox.p2.repository.artifact.spi.ArtifactDescriptor;
 import org.eclipse.equinox.p2.repository.artifact.spi.ProcessingStepDescriptor;
@@ -39,6 +40,8 @@ public class SimpleArtifactRepositoryTest extends AbstractProvisioningTest {
 	//artifact repository to remove on tear down
 	private File repositoryFile = null;
 	private URI repositoryURI = null;
+	//tells the reader threads of testConcurrentReads to stop
+	volatile boolean readersDone = false;
 
 	protected void tearDown() throws Exception {
 		super.tearDown();
@@ -367,4 +370,204 @@ public class SimpleArtifactRepositoryTest extends AbstractProvisioningTest {
 		IArtifactDescriptor resultDescriptor = result.iterator().next();
 		assertEquals(d3.getArtifactKey(), resultDescriptor.getArtifactKey());
 	}
+
+	public void testKeyIndexFollowsChanges() throws Exception {
+		File folder = getTestFolder("ArtifactRepository_testKeyIndexFollowsChanges");
+		repositoryURI = folder.toURI();
+
+		IArtifactRepository repo = getArtifactRepositoryManager().createRepository(repositoryURI, "test", IArtifactRepositoryManager.TYPE_SIMPLE_REPOSITORY, new HashMap());
+		ArtifactDescriptor d1 = new ArtifactDescriptor(new ArtifactKey("osgi.bundle", "a", Version.create("1.0.0")));
+		repo.addDescriptor(d1);
+		assertEquals("1.0", 1, queryResultSize(repo.query(new ArtifactKeyQuery("osgi.bundle", "a", null), null)));
+
+		ArtifactDescriptor d2 = new ArtifactDescriptor(new ArtifactKey("osgi.bundle", "a", Version.create("2.0.0")));
+		repo.addDescriptor(d2);
+		assertEquals("2.0", 2, queryResultSize(repo.query(new ArtifactKeyQuery("osgi.bundle", "a", null), null)));
+
+		repo.removeDescriptor(d1);
+		assertEquals("3.0", 1, queryResultSize(repo.query(new ArtifactKeyQuery("osgi.bundle", "a", null), null)));
+		assertFalse("3.1", repo.contains(d1));
+		assertTrue("3.2", repo.contains(d2));
+	}
+
+	public void testConcurrentReads() throws Exception {
+		File folder = getTestFolder("ArtifactRepository_testConcurrentReads");
+		repositoryURI = folder.toURI();
+
+		final IArtifactRepository repo = getArtifactRepositoryManager().createRepository(repositoryURI, "test", IArtifactRepositoryManager.TYPE_SIMPLE_REPOSITORY, new HashMap());
+		final int count = 500;
+		final IArtifactKey[] keys = new IArtifactKey[count];
+		for (int i = 0; i < count; i++)
+			keys[i] = new ArtifactKey("osgi.bundle", "a" + i, Version.create("1.0.0"));
+
+		final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		Thread[] readers = new Thread[4];
+		for (int i = 0; i < readers.length; i++) {
+			readers[i] = new Thread() {
+				public void run() {
+					try {
+						while (!readersDone) {
+							for (int j = 0; j < count; j++) {
+								IArtifactDescriptor[] descriptors = repo.getArtifactDescriptors(keys[j]);
+								if (repo.contains(keys[j]) && descriptors.length > 1)
+									throw new IllegalStateException("Duplicate descriptor for " + keys[j]);
+							}
+							repo.query(ArtifactKeyQuery.ALL_KEYS, null);
+							repo.descriptorQueryable().query(ArtifactDescriptorQuery.ALL_DESCRIPTORS, null);
+						}
+					} catch (Throwable t) {
+						failures.add(t);
+					}
+				}
+			};
+			readers[i].start();
+		}
+
+		repo.executeBatch(new IRunnableWithProgress() {
+			public void run(IProgressMonitor monitor) {
+				for (int i = 0; i < count; i++)
+					repo.addDescriptor(new ArtifactDescriptor(keys[i]));
+			}
+		}, null);
+		readersDone = true;
+		for (int i = 0; i < readers.length; i++)
+			readers[i].join();
+
+		assertTrue("1.0 " + failures, failures.isEmpty());
+		assertEquals("1.1", count, queryResultSize(repo.query(ArtifactKeyQuery.ALL_KEYS, null)));
+		for (int i = 0; i < count; i++)
+			assertEquals("1.2", 1, repo.getArtifactDescriptors(keys[i]).length);
+	}
+
+	public void testOverlappingBatches() throws Exception {
+		File folder = getTestFolder("ArtifactRepository_testOverlappingBatches");
+		repositoryURI = folder.toURI();
+
+		final SimpleArtifactRepository repo = (SimpleArtifactRepository) getArtifactRepositoryManager().createRepository(repositoryURI, "test", IArtifactRepositoryManager.TYPE_SIMPLE_REPOSITORY, new HashMap());
+		final File index = new File(folder, "artifacts.xml");
+		final long length = index.length();
+		final ArtifactDescriptor d1 = new ArtifactDescriptor(new ArtifactKey("osgi.bundle", "a", Version.create("1.0.0")));
+		final ArtifactDescriptor d2 = new ArtifactDescriptor(new ArtifactKey("osgi.bundle", "b", Version.create("1.0.0")));
+		final ArtifactDescriptor d3 = new ArtifactDescriptor(new ArtifactKey("osgi.bundle", "c", Version.create("1.0.0")));
+		final Throwable[] failure = new Throwable[1];
+
+		IStatus status = repo.executeConcurrentBatch(new IRunnableWithProgress() {
+			public void run(IProgressMonitor monitor) {
+				repo.addDescriptor(d1);
+				// another thread runs a batch that completes while this one is in progress
+				Thread other = new Thread() {
+					public void run() {
+						try {
+							assertOK("0.1", repo.executeConcurrentBatch(new IRunnableWithProgress() {
+								public void run(IProgressMonitor innerMonitor) {
+									repo.addDescriptor(d2);
+								}
+							}, null));
+							repo.addDescriptor(d3);
+						} catch (Throwable t) {
+							failure[0] = t;
+						}
+					}
+				};
+				other.start();
+				try {
+					other.join();
+				} catch (InterruptedException e) {
+					fail("1.0");
+				}
+				assertEquals("1.1", length, index.length());
+			}
+		}, null);
+		if (failure[0] != null)
+			fail(failure[0].toString());
+		assertOK("2.0", status);
+		assertTrue("2.1", index.length() > length);
+
+		getArtifactRepositoryManager().removeRepository(repositoryURI);
+		IArtifactRepository reloaded = getArtifactRepositoryManager().loadRepository(repositoryURI, null);
+		assertTrue("3.0", reloaded.contains(d1));
+		assertTrue("3.1", reloaded.contains(d2));
+		assertTrue("3.2", reloaded.contains(d3));
+	}
+
+	public void testBatchLocksRepository() throws Exception {
+		repositoryURI = getTestFolder("ArtifactRepository_testBatchLocksRepository").toURI();
+		final IArtifactRepository repo = getArtifactRepositoryManager().createRepository(repositoryURI, "test", IArtifactRepositoryManager.TYPE_SIMPLE_REPOSITORY, new HashMap());
+		final ArtifactDescriptor d1 = new ArtifactDescriptor(new ArtifactKey("osgi.bundle", "a", Version.create("1.0.0")));
+		final ArtifactDescriptor d2 = new ArtifactDescriptor(new ArtifactKey("osgi.bundle", "b", Version.create("1.0.0")));
+		final Thread other = new Thread() {
+			public void run() {
+				repo.addDescriptor(d2);
+			}
+		};
+
+		IStatus status = repo.executeBatch(new IRunnableWithProgress() {
+			public void run(IProgressMonitor monitor) {
+				repo.addDescriptor(d1);
+				// the other thread waits for the batch to complete
+				other.start();
+				try {
+					other.join(500);
+				} catch (InterruptedException e) {
+					fail("1.0");
+				}
+				assertTrue("1.1", other.isAlive());
+				assertFalse("1.2", repo.contains(d2));
+			}
+		}, null);
+		assertOK("2.0", status);
+		other.join();
+		assertTrue("2.1", repo.contains(d1));
+		assertTrue("2.2", repo.contains(d2));
+	}
+
+	public void testBatchSeenOnceComplete() throws Exception {
+		repositoryURI = getTestFolder("ArtifactRepository_testBatchSeenOnceComplete").toURI();
+		final SimpleArtifactRepository repo = (SimpleArtifactRepository) getArtifactRepositoryManager().createRepository(repositoryURI, "test", IArtifactRepositoryManager.TYPE_SIMPLE_REPOSITORY, new HashMap());
+		final ArtifactDescriptor d1 = new ArtifactDescriptor(new ArtifactKey("osgi.bundle", "a", Version.create("1.0.0")));
+		final ArtifactDescriptor d2 = new ArtifactDescriptor(new ArtifactKey("osgi.bundle", "b", Version.create("1.0.0")));
+		final boolean[] seen = new boolean[4];
+		final Thread reader = new Thread() {
+			public void run() {
+				seen[0] = repo.contains(d1);
+				seen[1] = repo.contains(d1.getArtifactKey());
+				seen[2] = repo.getArtifactDescriptors(d1.getArtifactKey()).length > 0;
+				seen[3] = !repo.query(new ArtifactKeyQuery(d1.getArtifactKey()), null).isEmpty();
+			}
+		};
+
+		IStatus status = repo.executeBatch(new IRunnableWithProgress() {
+			public void run(IProgressMonitor monitor) {
+				repo.addDescriptor(d1);
+				// the thread running the batch sees its changes
+				assertTrue("1.0", repo.contains(d1));
+				assertFalse("1.1", repo.query(new ArtifactKeyQuery(d1.getArtifactKey()), null).isEmpty());
+				// other threads see the repository as it was before the batch
+				reader.start();
+				try {
+					reader.join();
+				} catch (InterruptedException e) {
+					fail("1.2");
+				}
+				for (int i = 0; i < seen.length; i++)
+					assertFalse("1.3." + i, seen[i]);
+			}
+		}, null);
+		assertOK("2.0", status);
+		assertTrue("2.1", repo.contains(d1));
+		assertEquals("2.2", 1, queryResultSize(repo.query(ArtifactKeyQuery.ALL_KEYS, null)));
+
+		status = repo.executeConcurrentBatch(new IRunnableWithProgress() {
+			public void run(IProgressMonitor monitor) {
+				repo.addDescriptor(d2);
+				repo.removeDescriptor(d1.getArtifactKey());
+				// readers see the changes of a concurrent batch once it completes
+				assertTrue("3.0", repo.contains(d1));
+				assertFalse("3.1", repo.contains(d2));
+			}
+		}, null);
+		assertOK("4.0", status);
+		assertFalse("4.1", repo.contains(d1));
+		assertTrue("4.2", repo.contains(d2));
+	}
 }
@@ -21,8 +21,10 @@ public class AllTests extends TestCase {
 		TestSuite suite = new TestSuite(AllTests.class.getName());
 		suite.addTestSuite(CertificateCheckerTest.class);
 		suite.addTestSuite(DownloadManagerTest.class);
+		suite.addTestSuite(DownloadSchedulerTest.class);
 		suite.addTestSuite(InstructionParserTest.class);
 		suite.addTestSuite(EngineTest.class);
+		suite.addTestSuite(JournaledProfileRegistryTest.class);
 		suite.addTestSuite(PhaseApplicabilityTest.class);
 		suite.addTestSuite(PhaseSetTest.class);
 		suite.addTestSuite(PhaseTest.class);
@@ -0,0 +1,230 @@
+/*******************************************************************************
+ *  Copyright (c) 2010 IBM Corporation and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.engine;
+
+import java.net.URI;
+import java.util.*;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.equinox.internal.p2.engine.DownloadScheduler;
+import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
+import org.eclipse.equinox.p2.metadata.IArtifactKey;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactRequest;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+import org.eclipse.equinox.p2.tests.TestActivator;
+import org.eclipse.equinox.p2.tests.TestArtifactRepository;
+
+/**
+ * Tests for {@link DownloadScheduler}.
+ */
+public class DownloadSchedulerTest extends AbstractProvisioningTest {
+
+	/**
+	 * A repository that takes a while to provide its artifacts and records how
+	 * many downloads from its host are in progress at the same time.
+	 */
+	class SlowRepository extends TestArtifactRepository {
+		private final Set<IArtifactKey> keys = new HashSet<IArtifactKey>();
+		private final boolean fail;
+		int downloads;
+
+		SlowRepository(URI location, boolean fail) {
+			super(getAgent(), location);
+			this.fail = fail;
+		}
+
+		void add(IArtifactKey key) {
+			keys.add(key);
+		}
+
+		public boolean contains(IArtifactKey key) {
+			return keys.contains(key);
+		}
+
+		public IStatus getArtifacts(IArtifactRequest[] requests, IProgressMonitor monitor) {
+			String host = getLocation().getHost();
+			synchronized (active) {
+				Integer count = active.get(host);
+				int current = count == null ? 1 : count.intValue() + 1;
+				active.put(host, new Integer(current));
+				Integer max = maxActive.get(host);
+				if (max == null || max.intValue() < current)
+					maxActive.put(host, new Integer(current));
+			}
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				// continue
+			}
+			synchronized (active) {
+				active.put(host, new Integer(active.get(host).intValue() - 1));
+			}
+			synchronized (this) {
+				downloads += requests.length;
+			}
+			for (int i = 0; i < requests.length; i++)
+				((Request) requests[i]).result = fail ? new Status(IStatus.ERROR, TestActivator.PI_PROV_TESTS, "failed") : Status.OK_STATUS;
+			return fail ? new Status(IStatus.ERROR, TestActivator.PI_PROV_TESTS, "failed") : Status.OK_STATUS;
+		}
+	}
+
+	static class Request implements IArtifactRequest {
+		private final IArtifactKey key;
+		IStatus result;
+
+		Request(IArtifactKey key) {
+			this.key = key;
+		}
+
+		public IArtifactKey getArtifactKey() {
+			return key;
+		}
+
+		public IStatus getResult() {
+			return result;
+		}
+
+		public void perform(IArtifactRepository sourceRepository, IProgressMonitor monitor) {
+			// the repositories of this test set the result directly
+		}
+	}
+
+	final Map<String, Integer> active = new HashMap<String, Integer>();
+	final Map<String, Integer> maxActive = new HashMap<String, Integer>();
+
+	private List<IArtifactRequest> createRequests(int count, SlowRepository[] repositories) {
+		List<IArtifactRequest> requests = new ArrayList<IArtifactRequest>(count);
+		for (int i = 0; i < count; i++) {
+			IArtifactKey key = new ArtifactKey("osgi.bundle", "bundle" + i, Version.createOSGi(1, 0, 0));
+			for (int j = 0; j < repositories.length; j++)
+				repositories[j].add(key);
+			requests.add(new Request(key));
+		}
+		return requests;
+	}
+
+	public void testLoadBalancing() {
+		SlowRepository first = new SlowRepository(URI.create("http://first.example.org/repo"), false);
+		SlowRepository second = new SlowRepository(URI.create("http://second.example.org/repo"), false);
+		SlowRepository[] repositories = new SlowRepository[] {first, second};
+		List<IArtifactRequest> requests = createRequests(40, repositories);
+
+		DownloadScheduler scheduler = new DownloadScheduler(repositories, requests, 8, 2);
+		assertEquals("1.0", 40, scheduler.getRequestCount());
+		assertTrue("1.1", scheduler.run(getMonitor()).isOK());
+		for (IArtifactRequest request : requests)
+			assertTrue("1.2", request.getResult().isOK());
+		assertEquals("1.3", 40, first.downloads + second.downloads);
+		assertTrue("1.4", first.downloads > 0);
+		assertTrue("1.5", second.downloads > 0);
+		assertTrue("1.6", maxActive.get("first.example.org").intValue() <= 2);
+		assertTrue("1.7", maxActive.get("second.example.org").intValue() <= 2);
+	}
+
+	public void testFailover() {
+		SlowRepository broken = new SlowRepository(URI.create("http://broken.example.org/repo"), true);
+		SlowRepository working = new SlowRepository(URI.create("http://working.example.org/repo"), false);
+		SlowRepository[] repositories = new SlowRepository[] {broken, working};
+		List<IArtifactRequest> requests = createRequests(10, repositories);
+
+		DownloadScheduler scheduler = new DownloadScheduler(repositories, requests, 4, 4);
+		assertTrue("1.0", scheduler.run(getMonitor()).isOK());
+		for (IArtifactRequest request : requests)
+			assertTrue("1.1", request.getResult().isOK());
+		assertEquals("1.2", 10, working.downloads);
+	}
+
+	public void testAllRepositoriesFail() {
+		SlowRepository first = new SlowRepository(URI.create("http://first.example.org/repo"), true);
+		SlowRepository second = new SlowRepository(URI.create("http://second.example.org/repo"), true);
+		SlowRepository[] repositories = new SlowRepository[] {first, second};
+		List<IArtifactRequest> requests = createRequests(5, repositories);
+
+		DownloadScheduler scheduler = new DownloadScheduler(repositories, requests, 4, 4);
+		assertTrue("1.0", scheduler.run(getMonitor()).isOK());
+		for (IArtifactRequest request : requests)
+			assertFalse("1.1", request.getResult().isOK());
+		assertEquals("1.2", 5, first.downloads);
+		assertEquals("1.3", 5, second.downloads);
+	}
+
+	public void testSuspendedJobManager() {
+		SlowRepository first = new SlowRepository(URI.create("http://first.example.org/repo"), true);
+		SlowRepository second = new SlowRepository(URI.create("http://second.example.org/repo"), false);
+		SlowRepository[] repositories = new SlowRepository[] {first, second};
+		List<IArtifactRequest> requests = createRequests(10, repositories);
+
+		DownloadScheduler scheduler = new DownloadScheduler(repositories, requests, 4, 2);
+		// no worker gets to run, the calling thread downloads on its own
+		Job.getJobManager().suspend();
+		try {
+			assertTrue("1.0", scheduler.run(getMonitor()).isOK());
+		} finally {
+			Job.getJobManager().resume();
+		}
+		for (IArtifactRequest request : requests)
+			assertTrue("1.1", request.getResult().isOK());
+		assertEquals("1.2", 10, second.downloads);
+	}
+
+	public void testCancel() {
+		SlowRepository repository = new SlowRepository(URI.create("http://first.example.org/repo"), false);
+		SlowRepository[] repositories = new SlowRepository[] {repository};
+		List<IArtifactRequest> requests = createRequests(10, repositories);
+
+		DownloadScheduler scheduler = new DownloadScheduler(repositories, requests, 4, 4);
+		IProgressMonitor monitor = new NullProgressMonitor();
+		monitor.setCanceled(true);
+		assertEquals("1.0", IStatus.CANCEL, scheduler.run(monitor).getSeverity());
+		assertTrue("1.1", repository.downloads < 10);
+	}
+
+	public void testCancelInFlight() {
+		final IProgressMonitor monitor = new NullProgressMonitor();
+		final boolean[] seenCanceled = new boolean[1];
+		SlowRepository repository = new SlowRepository(URI.create("http://first.example.org/repo"), false) {
+			public IStatus getArtifacts(IArtifactRequest[] requests, IProgressMonitor downloadMonitor) {
+				monitor.setCanceled(true);
+				// a transfer in progress polls its monitor, wait for the cancellation to reach it
+				for (int i = 0; i < 500 && !downloadMonitor.isCanceled(); i++) {
+					try {
+						Thread.sleep(10);
+					} catch (InterruptedException e) {
+						break;
+					}
+				}
+				synchronized (seenCanceled) {
+					seenCanceled[0] |= downloadMonitor.isCanceled();
+				}
+				return Status.CANCEL_STATUS;
+			}
+		};
+		SlowRepository[] repositories = new SlowRepository[] {repository};
+		List<IArtifactRequest> requests = createRequests(1, repositories);
+
+		DownloadScheduler scheduler = new DownloadScheduler(repositories, requests, 1, 1);
+		assertEquals("1.0", IStatus.CANCEL, scheduler.run(monitor).getSeverity());
+		assertTrue("1.1", seenCanceled[0]);
+	}
+
+	public void testUnknownArtifact() {
+		SlowRepository repository = new SlowRepository(URI.create("http://first.example.org/repo"), false);
+		List<IArtifactRequest> requests = new ArrayList<IArtifactRequest>();
+		requests.add(new Request(new ArtifactKey("osgi.bundle", "unknown", Version.createOSGi(1, 0, 0))));
+
+		DownloadScheduler scheduler = new DownloadScheduler(new IArtifactRepository[] {repository}, requests, 4, 4);
+		assertEquals("1.0", 0, scheduler.getRequestCount());
+		assertTrue("1.1", scheduler.run(getMonitor()).isOK());
+		assertNull("1.2", requests.get(0).getResult());
+	}
+}
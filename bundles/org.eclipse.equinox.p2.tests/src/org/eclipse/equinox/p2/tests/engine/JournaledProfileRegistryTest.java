@@ -0,0 +1,190 @@
+/*******************************************************************************
+ *  Copyright (c) 2010 IBM Corporation and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.engine;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.HashMap;
+import java.util.Map;
+import org.eclipse.equinox.internal.p2.engine.*;
+import org.eclipse.equinox.p2.core.ProvisionException;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests for the journaled persistence of the profile registry.
+ */
+public class JournaledProfileRegistryTest extends AbstractProvisioningTest {
+	private static final String PROFILE_NAME = "JournaledProfileRegistryTest";
+	private File registryFolder;
+	private SimpleProfileRegistry registry;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		System.getProperties().put(EngineActivator.PROP_PROFILE_JOURNAL, "true");
+		registryFolder = getTempFolder();
+		registryFolder.mkdirs();
+		registry = new SimpleProfileRegistry(getAgent(), registryFolder, null, false);
+	}
+
+	protected void tearDown() throws Exception {
+		System.getProperties().remove(EngineActivator.PROP_PROFILE_JOURNAL);
+		delete(registryFolder);
+		super.tearDown();
+	}
+
+	private void restart() {
+		registry = new SimpleProfileRegistry(getAgent(), registryFolder, null, false);
+	}
+
+	private void saveProfile(Profile profile) {
+		profile.setChanged(false);
+		registry.lockProfile(profile);
+		try {
+			profile.setChanged(true);
+			registry.updateProfile(profile);
+		} finally {
+			registry.unlockProfile(profile);
+			profile.setChanged(false);
+		}
+	}
+
+	private File[] listFiles(String extension) {
+		final String suffix = extension;
+		return new File(registryFolder, PROFILE_NAME + ".profile").listFiles(new FileFilter() {
+			public boolean accept(File pathname) {
+				return pathname.getName().endsWith(suffix);
+			}
+		});
+	}
+
+	public void testUpdatesAreJournaled() throws ProvisionException {
+		Profile profile = (Profile) registry.addProfile(PROFILE_NAME);
+		profile.addInstallableUnit(createIU("a"));
+		saveProfile(profile);
+		profile.addInstallableUnit(createIU("b"));
+		saveProfile(profile);
+
+		assertEquals("1.0", 1, listFiles(".profile.gz").length);
+		assertEquals("1.1", 1, listFiles(".journal").length);
+		long[] timestamps = registry.listProfileTimestamps(PROFILE_NAME);
+		assertEquals("1.2", 3, timestamps.length);
+		assertEquals("1.3", profile.getTimestamp(), timestamps[2]);
+		assertTrue("1.4", registry.isCurrent(profile));
+	}
+
+	public void testRestoreReplaysJournal() throws ProvisionException {
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put("keep", "value");
+		properties.put("remove", "value");
+		Profile profile = (Profile) registry.addProfile(PROFILE_NAME, properties);
+		IInstallableUnit a = createIU("a");
+		IInstallableUnit b = createIU("b");
+		profile.addInstallableUnit(a);
+		profile.addInstallableUnit(b);
+		profile.setInstallableUnitProperty(a, "iu.keep", "value");
+		profile.setInstallableUnitProperty(a, "iu.remove", "value");
+		profile.setInstallableUnitProperty(b, "iu.remove", "value");
+		saveProfile(profile);
+
+		profile.removeProperty("remove");
+		profile.setProperty("added", "value");
+		profile.setProperty("keep", "changed");
+		profile.removeInstallableUnitProperty(a, "iu.remove");
+		profile.removeInstallableUnitProperty(b, "iu.remove");
+		profile.addInstallableUnit(createIU("c"));
+		profile.removeInstallableUnit(b);
+		saveProfile(profile);
+		long timestamp = profile.getTimestamp();
+
+		restart();
+		profile = (Profile) registry.getProfile(PROFILE_NAME);
+		assertEquals("1.0", timestamp, profile.getTimestamp());
+		assertEquals("1.1", "changed", profile.getProperty("keep"));
+		assertEquals("1.2", "value", profile.getProperty("added"));
+		assertNull("1.3", profile.getProperty("remove"));
+		assertEquals("1.4", 2, queryResultSize(profile.query(QueryUtil.createIUAnyQuery(), null)));
+		assertTrue("1.5", profile.query(QueryUtil.createIUQuery("b"), null).isEmpty());
+		assertEquals("1.6", "value", profile.getInstallableUnitProperty(a, "iu.keep"));
+		assertNull("1.7", profile.getInstallableUnitProperty(a, "iu.remove"));
+		assertTrue("1.8", profile.getInstallableUnitProperties(b).isEmpty());
+	}
+
+	public void testHistoricalProfiles() throws ProvisionException {
+		Profile profile = (Profile) registry.addProfile(PROFILE_NAME);
+		long[] timestamps = new long[4];
+		timestamps[0] = profile.getTimestamp();
+		for (int i = 1; i < timestamps.length; i++) {
+			profile.addInstallableUnit(createIU("iu" + i));
+			profile.setProperty("step", Integer.toString(i));
+			saveProfile(profile);
+			timestamps[i] = profile.getTimestamp();
+		}
+
+		restart();
+		for (int i = 0; i < timestamps.length; i++) {
+			Profile historical = (Profile) registry.getProfile(PROFILE_NAME, timestamps[i]);
+			assertNotNull("1." + i, historical);
+			assertEquals("2." + i, timestamps[i], historical.getTimestamp());
+			assertEquals("3." + i, i, queryResultSize(historical.query(QueryUtil.createIUAnyQuery(), null)));
+			assertEquals("4." + i, i == 0 ? null : Integer.toString(i), historical.getProperty("step"));
+		}
+		assertNull("5.0", registry.getProfile(PROFILE_NAME, timestamps[3] + 1));
+	}
+
+	public void testRemoveJournaledTimestamps() throws ProvisionException {
+		Profile profile = (Profile) registry.addProfile(PROFILE_NAME);
+		profile.addInstallableUnit(createIU("a"));
+		saveProfile(profile);
+		profile.addInstallableUnit(createIU("b"));
+		saveProfile(profile);
+
+		long[] timestamps = registry.listProfileTimestamps(PROFILE_NAME);
+		assertEquals("1.0", 3, timestamps.length);
+		int fail = 0;
+		for (int i = 0; i < timestamps.length; i++) {
+			try {
+				registry.removeProfile(PROFILE_NAME, timestamps[i]);
+			} catch (ProvisionException e) {
+				fail++;
+			}
+		}
+		assertEquals("1.1", 1, fail);
+		assertEquals("1.2", 1, registry.listProfileTimestamps(PROFILE_NAME).length);
+		assertNull("1.3", registry.getProfile(PROFILE_NAME, timestamps[0]));
+
+		// the removed states are still needed to reconstruct the current one
+		restart();
+		profile = (Profile) registry.getProfile(PROFILE_NAME);
+		assertEquals("2.0", timestamps[2], profile.getTimestamp());
+		assertEquals("2.1", 2, queryResultSize(profile.query(QueryUtil.createIUAnyQuery(), null)));
+	}
+
+	public void testCheckpointWithoutJournal() throws ProvisionException {
+		Profile profile = (Profile) registry.addProfile(PROFILE_NAME);
+		profile.addInstallableUnit(createIU("a"));
+		saveProfile(profile);
+		long journaled = profile.getTimestamp();
+
+		System.getProperties().remove(EngineActivator.PROP_PROFILE_JOURNAL);
+		profile.addInstallableUnit(createIU("b"));
+		saveProfile(profile);
+		assertEquals("1.0", 2, listFiles(".profile.gz").length);
+
+		// the state recorded in the journal of the older checkpoint stays available
+		Profile historical = (Profile) registry.getProfile(PROFILE_NAME, journaled);
+		assertEquals("1.1", 1, queryResultSize(historical.query(QueryUtil.createIUAnyQuery(), null)));
+		restart();
+		profile = (Profile) registry.getProfile(PROFILE_NAME);
+		assertEquals("1.2", 2, queryResultSize(profile.query(QueryUtil.createIUAnyQuery(), null)));
+	}
+}
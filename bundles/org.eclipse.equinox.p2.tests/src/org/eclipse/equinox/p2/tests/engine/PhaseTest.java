@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2009 IBM Corporation and others.
+ *  Copyright (c) 2007, 2010 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -14,9 +14,11 @@ import java.io.File;
 import java.io.IOException;
 import java.util.*;
 import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.equinox.internal.p2.engine.*;
 import org.eclipse.equinox.p2.engine.*;
 import org.eclipse.equinox.p2.engine.spi.ProvisioningAction;
+import org.eclipse.equinox.p2.engine.spi.Touchpoint;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
 
@@ -303,4 +305,183 @@ public class PhaseTest extends AbstractProvisioningTest {
 		assertEquals(TestAction.class, ((ParameterizedProvisioningAction) actionsList2.get(0)).getAction().getClass());
 	}
 
+	/**
+	 * A phase performing the operands concurrently, whose actions belong to one of two
+	 * touchpoints and record when they are executed and undone.
+	 */
+	static class ParallelTestPhase extends InstallableUnitPhase {
+		final Touchpoint[] touchpoints = new Touchpoint[] {new Touchpoint() {
+			//
+		}, new Touchpoint() {
+			//
+		}};
+		final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+		final List<String> undone = Collections.synchronizedList(new ArrayList<String>());
+		final List<List<String>> executedByTouchpoint = new ArrayList<List<String>>();
+		final Map<String, Map<String, Object>> executeParameters = Collections.synchronizedMap(new HashMap<String, Map<String, Object>>());
+		final Map<String, Map<String, Object>> undoParameters = Collections.synchronizedMap(new HashMap<String, Map<String, Object>>());
+		String failing;
+
+		ParallelTestPhase() {
+			super("parallelTest", 1);
+			executedByTouchpoint.add(Collections.synchronizedList(new ArrayList<String>()));
+			executedByTouchpoint.add(Collections.synchronizedList(new ArrayList<String>()));
+		}
+
+		protected boolean isParallelizable() {
+			return true;
+		}
+
+		/**
+		 * Called when an action is executed, before it succeeds.
+		 */
+		protected void executing(String id, int touchpoint) {
+			// nothing by default
+		}
+
+		protected List<ProvisioningAction> getActions(InstallableUnitOperand operand) {
+			final String id = operand.second().getId();
+			final int touchpoint = id.startsWith("a") ? 0 : 1;
+			ProvisioningAction action = new ProvisioningAction() {
+				public IStatus execute(Map<String, Object> parameters) {
+					executed.add(id);
+					executedByTouchpoint.get(touchpoint).add(id);
+					executeParameters.put(id, parameters);
+					executing(id, touchpoint);
+					if (id.equals(failing))
+						return new Status(IStatus.ERROR, "test", "failed " + id);
+					return null;
+				}
+
+				public IStatus undo(Map<String, Object> parameters) {
+					undone.add(id);
+					undoParameters.put(id, parameters);
+					return null;
+				}
+			};
+			action.setTouchpoint(touchpoints[touchpoint]);
+			return Collections.singletonList(action);
+		}
+	}
+
+	private IProvisioningPlan createParallelPlan(IProfile profile, List<String> ids) {
+		ProvisioningContext context = new ProvisioningContext(getAgent());
+		context.setProperty(Phase.PARALLEL_PHASES, "2");
+		IProvisioningPlan plan = engine.createPlan(profile, context);
+		for (int i = 0; i < 10; i++) {
+			ids.add("a" + i);
+			ids.add("b" + i);
+			plan.addInstallableUnit(createIU("a" + i));
+			plan.addInstallableUnit(createIU("b" + i));
+		}
+		return plan;
+	}
+
+	public void testParallelPerform() {
+		final int[] started = new int[1];
+		final boolean[] concurrent = new boolean[2];
+		ParallelTestPhase phase = new ParallelTestPhase() {
+			protected void executing(String id, int touchpoint) {
+				// the first operand of each touchpoint waits for the other touchpoint to start
+				if (executedByTouchpoint.get(touchpoint).size() > 1)
+					return;
+				synchronized (started) {
+					started[0]++;
+					started.notifyAll();
+					long end = System.currentTimeMillis() + 10000;
+					long remaining;
+					while (started[0] < 2 && (remaining = end - System.currentTimeMillis()) > 0) {
+						try {
+							started.wait(remaining);
+						} catch (InterruptedException e) {
+							fail("interrupted");
+						}
+					}
+					concurrent[touchpoint] = started[0] == 2;
+				}
+			}
+		};
+		List<String> ids = new ArrayList<String>();
+		IProvisioningPlan plan = createParallelPlan(createProfile("PhaseTest"), ids);
+
+		assertOK("1.0", engine.perform(plan, new TestPhaseSet(phase), getMonitor()));
+		assertTrue("1.1", concurrent[0] && concurrent[1]);
+		assertEquals("1.2", new HashSet<String>(ids), new HashSet<String>(phase.executed));
+		assertEquals("1.3", ids.size(), phase.executed.size());
+		assertTrue("1.4", phase.undone.isEmpty());
+
+		// each touchpoint sees its operands in the order of the plan
+		Operand[] operands = ((ProvisioningPlan) plan).getOperands();
+		for (int touchpoint = 0; touchpoint < 2; touchpoint++) {
+			List<String> expected = new ArrayList<String>();
+			for (int i = 0; i < operands.length; i++) {
+				String id = ((InstallableUnitOperand) operands[i]).second().getId();
+				if (id.startsWith(touchpoint == 0 ? "a" : "b"))
+					expected.add(id);
+			}
+			assertEquals("2." + touchpoint, expected, phase.executedByTouchpoint.get(touchpoint));
+		}
+	}
+
+	public void testParallelRollback() {
+		ParallelTestPhase phase = new ParallelTestPhase();
+		phase.failing = "a4";
+		IProvisioningPlan plan = createParallelPlan(createProfile("PhaseTest"), new ArrayList<String>());
+
+		IStatus status = engine.perform(plan, new TestPhaseSet(phase), getMonitor());
+		assertEquals("1.0", IStatus.ERROR, status.getSeverity());
+		assertTrue("1.1", phase.executed.contains("a4"));
+		assertFalse("1.2", phase.executed.contains("a5"));
+		// the operand that failed is undone with the parameters it was performed with
+		assertSame("1.3", phase.executeParameters.get("a4"), phase.undoParameters.get("a4"));
+
+		// exactly the actions that were executed are undone, each touchpoint in reverse order
+		assertEquals("2.0", phase.executed.size(), phase.undone.size());
+		assertEquals("2.1", new HashSet<String>(phase.executed), new HashSet<String>(phase.undone));
+		for (int touchpoint = 0; touchpoint < 2; touchpoint++) {
+			List<String> expected = new ArrayList<String>(phase.executedByTouchpoint.get(touchpoint));
+			Collections.reverse(expected);
+			List<String> actual = new ArrayList<String>();
+			for (String id : phase.undone) {
+				if (expected.contains(id))
+					actual.add(id);
+			}
+			assertEquals("3." + touchpoint, expected, actual);
+		}
+	}
+
+	public void testParallelPerformSuspended() {
+		ParallelTestPhase phase = new ParallelTestPhase();
+		List<String> ids = new ArrayList<String>();
+		IProvisioningPlan plan = createParallelPlan(createProfile("PhaseTest"), ids);
+
+		// no worker gets to run, the calling thread performs all operands
+		Job.getJobManager().suspend();
+		try {
+			assertOK("1.0", engine.perform(plan, new TestPhaseSet(phase), getMonitor()));
+		} finally {
+			Job.getJobManager().resume();
+		}
+		assertEquals("1.1", new HashSet<String>(ids), new HashSet<String>(phase.executed));
+		assertEquals("1.2", ids.size(), phase.executed.size());
+	}
+
+	public void testSequentialRollback() {
+		ParallelTestPhase phase = new ParallelTestPhase() {
+			protected boolean isParallelizable() {
+				return false;
+			}
+		};
+		phase.failing = "a4";
+		IProvisioningPlan plan = createParallelPlan(createProfile("PhaseTest"), new ArrayList<String>());
+
+		IStatus status = engine.perform(plan, new TestPhaseSet(phase), getMonitor());
+		assertEquals("1.0", IStatus.ERROR, status.getSeverity());
+		assertEquals("1.1", "a4", phase.executed.get(phase.executed.size() - 1));
+		// the operands are undone in the reverse order they were performed in
+		List<String> expected = new ArrayList<String>(phase.executed);
+		Collections.reverse(expected);
+		assertEquals("1.2", expected, phase.undone);
+		assertSame("1.3", phase.executeParameters.get("a4"), phase.undoParameters.get("a4"));
+	}
 }
@@ -19,8 +19,8 @@ import org.eclipse.equinox.internal.p2.engine.*;
 import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.engine.IProfile;
 import org.eclipse.equinox.p2.engine.IProfileRegistry;
-import org.eclipse.equinox.p2.metadata.IInstallableUnit;
-import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.engine.query.IUProfilePropertyQuery;
+import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.query.*;
 import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
 import org.osgi.framework.BundleContext;
@@ -152,6 +152,44 @@ public class ProfileTest extends AbstractProvisioningTest {
 		assertNull(registry.getProfile(PROFILE_NAME));
 	}
 
+	public void testIndexedQueries() throws ProvisionException {
+		IProfileRegistry registry = getProfileRegistry();
+		assertNull(registry.getProfile(PROFILE_NAME));
+		Profile profile = (Profile) registry.addProfile(PROFILE_NAME);
+		IProvidedCapability[] provides = new IProvidedCapability[] {MetadataFactory.createProvidedCapability("test.namespace", "test.capability", Version.create("1.0.0"))};
+		IInstallableUnit a = createIU("a", provides);
+		IInstallableUnit b = createIU("b");
+		profile.addInstallableUnit(a);
+		profile.addInstallableUnit(b);
+		profile.setInstallableUnitProperty(a, "root", "true");
+
+		IRequirement requirement = MetadataFactory.createRequirement("test.namespace", "test.capability", VersionRange.emptyRange, null, false, false);
+		IQuery<IInstallableUnit> capabilityQuery = QueryUtil.createMatchQuery("this ~= $0", requirement);
+		IQuery<IInstallableUnit> propertyQuery = new IUProfilePropertyQuery("root", "true");
+		IQuery<IInstallableUnit> anyPropertyQuery = new IUProfilePropertyQuery("root", IUProfilePropertyQuery.ANY);
+		assertEquals(1, queryResultSize(profile.query(capabilityQuery, null)));
+		assertEquals(1, queryResultSize(profile.query(propertyQuery, null)));
+		assertEquals(1, queryResultSize(profile.query(anyPropertyQuery, null)));
+		assertEquals(1, queryResultSize(profile.query(QueryUtil.createMatchQuery("profileProperties[$0] == null", "root"), null)));
+
+		// the indexes follow the changes made to the profile
+		IInstallableUnit c = createIU("c", provides);
+		profile.addInstallableUnit(c);
+		profile.setInstallableUnitProperty(b, "root", "false");
+		assertEquals(2, queryResultSize(profile.query(capabilityQuery, null)));
+		assertEquals(1, queryResultSize(profile.query(propertyQuery, null)));
+		assertEquals(2, queryResultSize(profile.query(anyPropertyQuery, null)));
+
+		profile.removeInstallableUnit(a);
+		profile.clearInstallableUnitProperties(a);
+		profile.removeInstallableUnitProperty(b, "root");
+		assertEquals(1, queryResultSize(profile.query(capabilityQuery, null)));
+		assertTrue(profile.query(propertyQuery, null).isEmpty());
+		assertTrue(profile.query(anyPropertyQuery, null).isEmpty());
+		registry.removeProfile(PROFILE_NAME);
+		assertNull(registry.getProfile(PROFILE_NAME));
+	}
+
 	private static String PROFILE_TEST_TARGET = "profileTest";
 	private static Version PROFILE_TEST_VERSION = Version.create("0.0.1");
 
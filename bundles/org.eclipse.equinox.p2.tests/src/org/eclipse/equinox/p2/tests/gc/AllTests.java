@@ -20,6 +20,7 @@ public class AllTests extends TestCase {
 	public static Test suite() {
 		TestSuite suite = new TestSuite(AllTests.class.getName());
 		suite.addTestSuite(GCCleanTest.class);
+		suite.addTestSuite(GarbageCollectorTest.class);
 		return suite;
 	}
 
@@ -12,7 +12,7 @@ package org.eclipse.equinox.p2.tests.gc;
 
 import java.io.File;
 import java.net.URI;
-import java.util.HashMap;
+import java.util.*;
 import org.eclipse.equinox.internal.p2.garbagecollector.CoreGarbageCollector;
 import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
 import org.eclipse.equinox.p2.core.ProvisionException;
@@ -53,4 +53,20 @@ public class GCCleanTest extends AbstractProvisioningTest {
 		assertEquals("1.0", 0, repository.query(ArtifactKeyQuery.ALL_KEYS, null).toSet().size());
 
 	}
+
+	public void testKeepMarked() throws ProvisionException {
+		File folder = getTestFolder("GCCleanTest.testKeepMarked");
+		IArtifactRepository repository = createRepository(folder);
+		IArtifactKey a2 = new ArtifactKey("osgi.bundle", "a", Version.create("2.0.0"));
+
+		CoreGarbageCollector gc = new CoreGarbageCollector();
+
+		gc.clean(Collections.singleton(a2), repository);
+
+		Set<IArtifactKey> keys = repository.query(ArtifactKeyQuery.ALL_KEYS, null).toSet();
+		assertEquals("1.0", 1, keys.size());
+		assertTrue("1.1", keys.contains(a2));
+		// both the canonical and the packed descriptors of a marked key are kept
+		assertEquals("1.2", 2, repository.getArtifactDescriptors(a2).length);
+	}
 }
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.gc;
+
+import org.eclipse.equinox.internal.p2.garbagecollector.GarbageCollector;
+import org.eclipse.equinox.internal.p2.garbagecollector.MarkSet;
+import org.eclipse.equinox.p2.engine.*;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests for the mark phase of the garbage collection across several runs
+ */
+public class GarbageCollectorTest extends AbstractProvisioningTest {
+	private static final String COLLECTED = "GarbageCollectorTest.collected";
+	private static final String OTHER = "GarbageCollectorTest.other";
+
+	public void testMarkSetsKeptAcrossRuns() {
+		GarbageCollector gc = (GarbageCollector) getAgent().getService(GarbageCollector.SERVICE_NAME);
+		IProfile collected = createProfile(COLLECTED);
+		createProfile(OTHER);
+
+		gc.runGC(collected);
+		MarkSet[] first = gc.getProfileMarkSets(OTHER);
+		assertNotNull("1.0", first);
+
+		// the other profile has not changed, its mark sets are reused
+		gc.runGC(collected);
+		assertSame("2.0", first, gc.getProfileMarkSets(OTHER));
+
+		// the other profile has changed, it is traversed again
+		IProvisioningPlan plan = getEngine().createPlan(getProfile(OTHER), null);
+		plan.addInstallableUnit(createIU("foo"));
+		assertOK("3.0", getEngine().perform(plan, getMonitor()));
+		gc.runGC(collected);
+		MarkSet[] second = gc.getProfileMarkSets(OTHER);
+		assertNotNull("3.1", second);
+		assertNotSame("3.2", first, second);
+
+		// the mark sets of a removed profile are dropped
+		getProfileRegistry().removeProfile(OTHER);
+		assertNull("4.0", gc.getProfileMarkSets(OTHER));
+		gc.runGC(collected);
+		assertNull("4.1", gc.getProfileMarkSets(OTHER));
+	}
+}
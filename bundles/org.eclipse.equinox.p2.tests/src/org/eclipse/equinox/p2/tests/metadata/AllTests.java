@@ -27,6 +27,7 @@ public class AllTests extends TestCase {
 		suite.addTestSuite(IUPersistenceTest.class);
 		suite.addTestSuite(LatestIUTest.class);
 		suite.addTestSuite(LicenseTest.class);
+		suite.addTestSuite(MetadataPoolTest.class);
 		suite.addTestSuite(MultipleIUAndFragmentTest.class);
 		suite.addTestSuite(PersistNegation.class);
 		suite.addTestSuite(PersistFragment.class);
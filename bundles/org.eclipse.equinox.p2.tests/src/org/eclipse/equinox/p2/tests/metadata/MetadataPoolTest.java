@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.metadata;
+
+import org.eclipse.equinox.internal.p2.metadata.IRequiredCapability;
+import org.eclipse.equinox.internal.p2.metadata.MetadataPool;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.expression.ExpressionUtil;
+import org.eclipse.equinox.p2.metadata.expression.IMatchExpression;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests for {@link MetadataPool}.
+ */
+public class MetadataPoolTest extends AbstractProvisioningTest {
+	public void testSharedCapabilities() {
+		long hits = MetadataPool.getHitCount();
+		IProvidedCapability cap = MetadataFactory.createProvidedCapability("namespace", "pool.name", Version.create("1.2.3.qualifier"));
+		IProvidedCapability equal = MetadataFactory.createProvidedCapability("namespace", "pool.name", Version.create("1.2.3.qualifier"));
+		assertSame(cap, equal);
+		assertSame(cap.getVersion(), MetadataPool.intern(Version.create("1.2.3.qualifier")));
+		assertTrue(MetadataPool.getHitCount() > hits);
+		assertNotSame(cap, MetadataFactory.createProvidedCapability("namespace", "pool.name", Version.create("1.2.4")));
+	}
+
+	public void testSharedRequirements() {
+		IRequirement req = MetadataFactory.createRequirement("namespace", "pool.name", new VersionRange("[1.0.0,2.0.0)"), null, false, false);
+		IRequirement equal = MetadataFactory.createRequirement("namespace", "pool.name", new VersionRange("[1.0.0,2.0.0)"), null, false, false);
+		assertSame(req, equal);
+		assertSame(req.getMatches(), equal.getMatches());
+
+		// the description is not part of equals but must not be lost
+		IRequirement described = MetadataFactory.createRequirement("namespace", "pool.name", new VersionRange("[1.0.0,2.0.0)"), null, 1, 1, true, "description");
+		assertEquals(req, described);
+		assertNotSame(req, described);
+		assertEquals("description", described.getDescription());
+	}
+
+	public void testVersionsWithDifferentFormats() {
+		Version raw = MetadataPool.intern(Version.create("raw:1.2.3"));
+		Version formatted = MetadataPool.intern(Version.create("format(n.n.n):1.2.3"));
+		assertEquals(raw, formatted);
+		assertNotSame(raw, formatted);
+		assertEquals(Version.create("format(n.n.n):1.2.3").toString(), formatted.toString());
+		assertFalse(raw.toString().equals(formatted.toString()));
+	}
+
+	public void testRequirementsWithDifferentFormats() {
+		VersionRange rawRange = new VersionRange(Version.create("raw:1.2.3"), true, Version.create("raw:2.0.0"), false);
+		VersionRange formattedRange = new VersionRange(Version.create("format(n.n.n):1.2.3"), true, Version.create("format(n.n.n):2.0.0"), false);
+		IRequirement raw = MetadataFactory.createRequirement("namespace", "pool.formats", rawRange, null, false, false);
+		IRequirement formatted = MetadataFactory.createRequirement("namespace", "pool.formats", formattedRange, null, false, false);
+		assertEquals(raw, formatted);
+		assertNotSame(raw, formatted);
+		// the range of each requirement keeps the format of its bounds
+		assertEquals(formattedRange.toString(), ((IRequiredCapability) formatted).getRange().toString());
+	}
+
+	public void testNonSimpleRequirements() {
+		String expression = "providedCapabilities.exists(x | x.name == $0 && x.version >= $1)"; //$NON-NLS-1$
+		IMatchExpression<IInstallableUnit> match = ExpressionUtil.getFactory().<IInstallableUnit> matchExpression(ExpressionUtil.parse(expression), "pool.match", Version.create("raw:1.2.3")); //$NON-NLS-1$ //$NON-NLS-2$
+		IMatchExpression<IInstallableUnit> equalMatch = ExpressionUtil.getFactory().<IInstallableUnit> matchExpression(ExpressionUtil.parse(expression), "pool.match", Version.create("raw:1.2.3")); //$NON-NLS-1$ //$NON-NLS-2$
+		IRequirement req = MetadataFactory.createRequirement(match, null, 0, 1, true);
+		IRequirement equal = MetadataFactory.createRequirement(equalMatch, null, 0, 1, true);
+		assertSame(req, equal);
+
+		// a parameter version with another format is equal but not shared
+		IMatchExpression<IInstallableUnit> formattedMatch = ExpressionUtil.getFactory().<IInstallableUnit> matchExpression(ExpressionUtil.parse(expression), "pool.match", Version.create("format(n.n.n):1.2.3")); //$NON-NLS-1$ //$NON-NLS-2$
+		IRequirement formatted = MetadataFactory.createRequirement(formattedMatch, null, 0, 1, true);
+		assertEquals(req, formatted);
+		assertNotSame(req, formatted);
+	}
+}
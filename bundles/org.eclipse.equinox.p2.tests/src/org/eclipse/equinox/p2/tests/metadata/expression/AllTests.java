@@ -21,6 +21,7 @@ public class AllTests extends TestCase {
 		TestSuite suite = new TestSuite(AllTests.class.getName());
 		suite.addTestSuite(ExpressionTest.class);
 		suite.addTestSuite(FilterTest.class);
+		suite.addTestSuite(StripedCacheTest.class);
 		return suite;
 	}
 
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.metadata.expression;
+
+import junit.framework.TestCase;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.internal.p2.metadata.expression.StripedCache;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.expression.IMatchExpression;
+
+/**
+ * Tests the cache used for parsed filters and compiled expressions.
+ */
+public class StripedCacheTest extends TestCase {
+	public void testBounded() {
+		StripedCache<String, String> cache = new StripedCache<String, String>(10);
+		for (int i = 0; i < 100; i++) {
+			cache.put("key" + i, "value" + i);
+			// keep using the first entry
+			assertEquals("value0", cache.get("key0"));
+			assertTrue(cache.size() <= 10);
+		}
+		assertEquals("value99", cache.get("key99"));
+		assertEquals("value0", cache.get("key0"));
+	}
+
+	public void testBoundedSegments() {
+		StripedCache<String, String> cache = new StripedCache<String, String>(1024);
+		for (int i = 0; i < 5000; i++) {
+			cache.put("key" + i, "value" + i);
+			assertEquals("value" + i, cache.get("key" + i));
+		}
+		assertTrue(cache.size() <= 1024);
+		assertTrue(cache.size() > 512);
+	}
+
+	public void testPutKeepsFirstValue() {
+		StripedCache<String, String> cache = new StripedCache<String, String>(10);
+		String first = new String("value");
+		assertSame(first, cache.put("key", first));
+		assertSame(first, cache.put("key", new String("value")));
+		assertSame(first, cache.get("key"));
+	}
+
+	public void testStatistics() {
+		StripedCache<String, String> cache = new StripedCache<String, String>(10);
+		assertNull(cache.get("key"));
+		cache.put("key", "value");
+		cache.get("key");
+		cache.get("key");
+		assertEquals(2, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getHitCount());
+		assertEquals(0, cache.getMissCount());
+	}
+
+	public void testConcurrentAccess() throws InterruptedException {
+		final StripedCache<Integer, Integer> cache = new StripedCache<Integer, Integer>(100);
+		final Throwable[] failure = new Throwable[1];
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					try {
+						for (int i = 0; i < 10000; i++) {
+							Integer key = new Integer(i % 500);
+							Integer value = cache.get(key);
+							if (value == null)
+								value = cache.put(key, key);
+							assertEquals(key, value);
+						}
+					} catch (Throwable e) {
+						failure[0] = e;
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (int t = 0; t < threads.length; t++)
+			threads[t].join();
+		if (failure[0] != null)
+			fail(failure[0].toString());
+		assertTrue(cache.size() <= 100);
+	}
+
+	public void testFilterCache() {
+		String filter = "(&(osgi.os=linux)(osgi.arch=x86_64))";
+		IMatchExpression<IInstallableUnit> expression = InstallableUnit.parseFilter(filter);
+		long hits = InstallableUnit.getFilterCache().getHitCount();
+		assertSame(expression, InstallableUnit.parseFilter(filter));
+		assertEquals(hits + 1, InstallableUnit.getFilterCache().getHitCount());
+	}
+}
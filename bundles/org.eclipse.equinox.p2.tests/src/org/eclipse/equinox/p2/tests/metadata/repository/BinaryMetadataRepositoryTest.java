@@ -0,0 +1,223 @@
+/*******************************************************************************
+ *  Copyright (c) 2010 IBM Corporation and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.metadata.repository;
+
+import java.io.File;
+import java.net.URI;
+import java.util.*;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.internal.p2.metadata.repository.LocalMetadataRepository;
+import org.eclipse.equinox.internal.p2.metadata.repository.io.BinaryMetadataTable;
+import org.eclipse.equinox.p2.core.ProvisionException;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.query.IQueryResult;
+import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepositoryManager;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests for the binary (content.p2bin) form of the local metadata repository.
+ */
+public class BinaryMetadataRepositoryTest extends AbstractProvisioningTest {
+	protected File repoLocation;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		String tempDir = System.getProperty("java.io.tmpdir");
+		repoLocation = new File(tempDir, "BinaryMetadataRepositoryTest");
+		AbstractProvisioningTest.delete(repoLocation);
+		repoLocation.mkdir();
+	}
+
+	protected void tearDown() throws Exception {
+		getMetadataRepositoryManager().removeRepository(repoLocation.toURI());
+		delete(repoLocation);
+		super.tearDown();
+	}
+
+	private IMetadataRepository createBinaryRepository() throws ProvisionException {
+		Map properties = new HashMap();
+		properties.put(LocalMetadataRepository.PROP_BINARY, "true");
+		return getMetadataRepositoryManager().createRepository(repoLocation.toURI(), "TestRepo", IMetadataRepositoryManager.TYPE_SIMPLE_REPOSITORY, properties);
+	}
+
+	private IMetadataRepository reload() throws ProvisionException {
+		URI location = repoLocation.toURI();
+		getMetadataRepositoryManager().removeRepository(location);
+		return getMetadataRepositoryManager().loadRepository(location, getMonitor());
+	}
+
+	private IInstallableUnit[] createTestUnits() {
+		IRequirement[] requires = new IRequirement[] {MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "bar", new VersionRange("[1.0.0,2.0.0)"), null, false, false), MetadataFactory.createRequirement("org.eclipse.equinox.p2.eclipse.type", "bundle", VersionRange.emptyRange, InstallableUnit.parseFilter("(osgi.os=linux)"), true, true)};
+		IProvidedCapability[] provides = new IProvidedCapability[] {MetadataFactory.createProvidedCapability("java.package", "org.foo", Version.create("1.2.0"))};
+		Map properties = new HashMap();
+		properties.put("key", "value");
+		Map instructions = new HashMap();
+		instructions.put("install", "installBundle(bundle:${artifact})");
+		IInstallableUnit foo = createIU("foo", Version.create("1.0.0"), InstallableUnit.parseFilter("(osgi.ws=gtk)"), requires, provides, properties, TOUCHPOINT_OSGI, MetadataFactory.createTouchpointData(instructions), true, null, null);
+		IInstallableUnit bar = createIU("bar", Version.create("1.5.0"));
+		IInstallableUnit barFragment = createIUFragment(bar, "bar.fragment", Version.create("1.5.0"));
+		IRequirementChange change = MetadataFactory.createRequirementChange(MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "bar", VersionRange.emptyRange, null, false, false), MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "bar", new VersionRange("[1.5.0,1.5.0]"), null, false, false));
+		IRequirement[][] scope = new IRequirement[][] {{MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "foo", VersionRange.emptyRange, null, false, false)}};
+		IInstallableUnit patch = createIUPatch("foo.patch", Version.create("1.0.0"), false, new IRequirementChange[] {change}, scope, null);
+		return new IInstallableUnit[] {foo, bar, barFragment, patch};
+	}
+
+	public void testBinaryContentWritten() throws ProvisionException {
+		IMetadataRepository repo = createBinaryRepository();
+		repo.addInstallableUnits(Arrays.asList(createTestUnits()));
+		assertTrue("1.0", new File(repoLocation, "content.p2bin").exists());
+		assertTrue("1.1", new File(repoLocation, "content.xml").exists());
+	}
+
+	public void testBinaryContentNotWrittenByDefault() throws ProvisionException {
+		IMetadataRepository repo = getMetadataRepositoryManager().createRepository(repoLocation.toURI(), "TestRepo", IMetadataRepositoryManager.TYPE_SIMPLE_REPOSITORY, null);
+		repo.addInstallableUnits(Arrays.asList(createTestUnits()));
+		assertFalse("1.0", new File(repoLocation, "content.p2bin").exists());
+	}
+
+	public void testLoadFromBinary() throws ProvisionException {
+		IMetadataRepository repo = createBinaryRepository();
+		IInstallableUnit[] units = createTestUnits();
+		repo.addInstallableUnits(Arrays.asList(units));
+
+		// Remove the XML content to make sure the binary content is used
+		assertTrue("0.1", new File(repoLocation, "content.xml").delete());
+		repo = reload();
+		assertEquals("1.0", "TestRepo", repo.getName());
+		assertEquals("1.1", "true", repo.getProperties().get(LocalMetadataRepository.PROP_BINARY));
+
+		for (int i = 0; i < units.length; i++) {
+			IQueryResult result = repo.query(QueryUtil.createIUQuery(units[i].getId(), units[i].getVersion()), getMonitor());
+			assertEquals("2." + i, 1, queryResultSize(result));
+			assertEquals("3." + i, units[i], (IInstallableUnit) result.iterator().next());
+		}
+		assertEquals("4.0", units.length, queryResultSize(repo.query(QueryUtil.createIUAnyQuery(), getMonitor())));
+	}
+
+	public void testConcurrentReads() throws Exception {
+		IMetadataRepository repo = createBinaryRepository();
+		final IInstallableUnit[] units = createTestUnits();
+		repo.addInstallableUnits(Arrays.asList(units));
+		final BinaryMetadataTable table = BinaryMetadataTable.open(new File(repoLocation, "content.p2bin"));
+
+		// the threads materialize the units in different orders
+		final Set<IInstallableUnit> expected = new HashSet<IInstallableUnit>(Arrays.asList(units));
+		final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			final int offset = i;
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						Set<IInstallableUnit> read = new HashSet<IInstallableUnit>();
+						for (int j = 0; j < table.size(); j++)
+							read.add(table.getUnit((j + offset) % table.size()));
+						assertEquals(expected, read);
+						assertEquals(1, table.getUnits("foo").size());
+					} catch (Throwable t) {
+						failures.add(t);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++)
+			threads[i].join();
+		assertTrue("1.0", failures.isEmpty());
+		assertSame("1.1", table.getUnit(0), table.getUnit(0));
+	}
+
+	public void testCapabilityQueryOnBinary() throws ProvisionException {
+		IMetadataRepository repo = createBinaryRepository();
+		IInstallableUnit[] units = createTestUnits();
+		repo.addInstallableUnits(Arrays.asList(units));
+		repo = reload();
+
+		IRequirement requirement = MetadataFactory.createRequirement("java.package", "org.foo", VersionRange.emptyRange, null, false, false);
+		IQueryResult result = repo.query(QueryUtil.createMatchQuery(requirement.getMatches()), getMonitor());
+		assertEquals("1.0", 1, queryResultSize(result));
+		assertEquals("1.1", units[0], (IInstallableUnit) result.iterator().next());
+	}
+
+	public void testModifyBinaryBackedRepository() throws ProvisionException {
+		IMetadataRepository repo = createBinaryRepository();
+		IInstallableUnit[] units = createTestUnits();
+		repo.addInstallableUnits(Arrays.asList(units));
+		repo = reload();
+
+		repo.addInstallableUnits(Arrays.asList(createIU("baz")));
+		repo.removeInstallableUnits(Arrays.asList(units[1]));
+		repo = reload();
+		assertEquals("1.0", units.length, queryResultSize(repo.query(QueryUtil.createIUAnyQuery(), getMonitor())));
+		assertFalse("1.1", repo.query(QueryUtil.createIUQuery("baz"), getMonitor()).isEmpty());
+		assertTrue("1.2", repo.query(QueryUtil.createIUQuery("bar"), getMonitor()).isEmpty());
+	}
+
+	public void testStaleBinaryIgnored() throws ProvisionException {
+		IMetadataRepository repo = createBinaryRepository();
+		repo.addInstallableUnits(Arrays.asList(createIU("foo")));
+		File binaryFile = new File(repoLocation, "content.p2bin");
+		File xmlFile = new File(repoLocation, "content.xml");
+		assertTrue("0.1", binaryFile.exists());
+		File staleCopy = new File(getTempFolder(), "content.p2bin");
+		copy("0.2", binaryFile, staleCopy);
+
+		// Simulate a writer that only updates the XML content
+		repo.addInstallableUnits(Arrays.asList(createIU("bar")));
+		copy("0.3", staleCopy, binaryFile);
+		binaryFile.setLastModified(xmlFile.lastModified() - 10000);
+
+		repo = reload();
+		assertFalse("1.0", repo.query(QueryUtil.createIUQuery("bar"), getMonitor()).isEmpty());
+	}
+
+	public void testRewriteWithinSameTimeDetected() throws ProvisionException {
+		IMetadataRepository repo = createBinaryRepository();
+		repo.addInstallableUnits(Arrays.asList(createIU("foo")));
+		File binaryFile = new File(repoLocation, "content.p2bin");
+		File xmlFile = new File(repoLocation, "content.xml");
+		File staleCopy = new File(getTempFolder(), "content.p2bin");
+		copy("0.1", binaryFile, staleCopy);
+		long lastModified = xmlFile.lastModified();
+
+		// Simulate a rewrite of the XML content that does not change its modification time
+		repo.addInstallableUnits(Arrays.asList(createIU("bar")));
+		copy("0.2", staleCopy, binaryFile);
+		xmlFile.setLastModified(lastModified);
+		binaryFile.setLastModified(lastModified);
+
+		repo = reload();
+		assertFalse("1.0", repo.query(QueryUtil.createIUQuery("bar"), getMonitor()).isEmpty());
+	}
+
+	public void testReplaceBinaryAfterLoad() throws ProvisionException {
+		IMetadataRepository repo = createBinaryRepository();
+		repo.addInstallableUnits(Arrays.asList(createIU("foo")));
+		repo = reload();
+
+		// The loaded binary file must not be held open while it is replaced
+		repo.addInstallableUnits(Arrays.asList(createIU("bar")));
+		assertFalse("1.0", new File(repoLocation, "content.p2bin.tmp").exists());
+		repo = reload();
+		assertFalse("1.1", repo.query(QueryUtil.createIUQuery("foo"), getMonitor()).isEmpty());
+		assertFalse("1.2", repo.query(QueryUtil.createIUQuery("bar"), getMonitor()).isEmpty());
+	}
+
+	public void testDisablingBinaryRemovesFile()throws ProvisionException {
+		IMetadataRepository repo = createBinaryRepository();
+		repo.addInstallableUnits(Arrays.asList(createIU("foo")));
+		assertTrue("1.0", new File(repoLocation, "content.p2bin").exists());
+		repo.setProperty(LocalMetadataRepository.PROP_BINARY, "false");
+		assertFalse("1.1", new File(repoLocation, "content.p2bin").exists());
+	}
+}
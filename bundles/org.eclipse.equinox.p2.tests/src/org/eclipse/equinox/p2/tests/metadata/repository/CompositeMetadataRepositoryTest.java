@@ -22,6 +22,7 @@ import org.eclipse.core.runtime.URIUtil;
 import org.eclipse.equinox.internal.p2.metadata.repository.CompositeMetadataRepository;
 import org.eclipse.equinox.internal.p2.metadata.repository.CompositeMetadataRepositoryFactory;
 import org.eclipse.equinox.internal.p2.persistence.CompositeRepositoryState;
+import org.eclipse.equinox.internal.p2.repository.helpers.CompositeChildRunner;
 import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
@@ -656,6 +657,42 @@ public class CompositeMetadataRepositoryTest extends AbstractProvisioningTest {
 		delete(temp);
 	}
 
+	public void testLoadChildrenInParallel() throws ProvisionException, URISyntaxException {
+		File one = getTestData("0.0", "testData/testRepos/simple.1");
+		File two = getTestData("0.1", "testData/testRepos/simple.2");
+		File temp = getTempFolder();
+		copy("0.2", one, new File(temp, "one"));
+		copy("0.3", two, new File(temp, "two"));
+
+		URI location = new File(temp, "comp").toURI();
+		CompositeMetadataRepository repository = createRepository(location, "test");
+		repository.setProperty(CompositeChildRunner.PROP_MAX_THREADS, "3");
+		repository.addChild(new URI("../one"));
+		repository.addChild(new URI("../missing"));
+		repository.addChild(new URI("../two"));
+
+		// load the composite again, along with all its children
+		IMetadataRepositoryManager manager = getMetadataRepositoryManager();
+		manager.removeRepository(new File(temp, "one").toURI());
+		manager.removeRepository(new File(temp, "two").toURI());
+		try {
+			IMetadataRepository loaded = manager.loadRepository(location, getMonitor());
+			assertTrue("1.0", loaded instanceof CompositeMetadataRepository);
+			CompositeMetadataRepository composite = (CompositeMetadataRepository) loaded;
+			assertEquals("1.1", 3, composite.getChildren().size());
+			assertEquals("1.2", 2, queryResultSize(composite.query(QueryUtil.createIUAnyQuery(), getMonitor())));
+			int count = 0;
+			for (Iterator<IInstallableUnit> iterator = composite.everything(); iterator.hasNext(); iterator.next())
+				count++;
+			assertEquals("1.3", 2, count);
+		} finally {
+			manager.removeRepository(location);
+			manager.removeRepository(new File(temp, "one").toURI());
+			manager.removeRepository(new File(temp, "two").toURI());
+			delete(temp);
+		}
+	}
+
 	public void testRelativeRemoveChild() {
 		PrintStream out = System.out;
 		try {
@@ -28,6 +28,7 @@ import org.eclipse.equinox.internal.provisional.p2.core.eventbus.SynchronousProv
 import org.eclipse.equinox.internal.provisional.p2.repository.RepositoryEvent;
 import org.eclipse.equinox.p2.core.IAgentLocation;
 import org.eclipse.equinox.p2.core.ProvisionException;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 import org.eclipse.equinox.p2.query.IQueryResult;
 import org.eclipse.equinox.p2.query.QueryUtil;
 import org.eclipse.equinox.p2.repository.IRepository;
@@ -273,6 +274,24 @@ public class MetadataRepositoryManagerTest extends AbstractProvisioningTest {
 		}
 	}
 
+	/**
+	 * Tests loading several repositories at once, including one that does not exist.
+	 */
+	public void testLoadRepositories() throws IOException, ProvisionException {
+		File good = getTestData("Repository", "/testData/metadataRepo/good/");
+		File spaces = getTestData("Repository", "/testData/metadataRepo/good with spaces/");
+		File missing = File.createTempFile("testLoadRepositories", null);
+		missing.delete();
+		URI[] locations = new URI[] {good.toURI(), missing.toURI(), spaces.toURI()};
+		List<IRepository<IInstallableUnit>> loaded = ((AbstractRepositoryManager<IInstallableUnit>) manager).loadRepositories(locations, null);
+		assertEquals("1.0", 3, loaded.size());
+		assertSame("1.1", manager.loadRepository(good.toURI(), null), loaded.get(0));
+		assertNull("1.2", loaded.get(1));
+		assertSame("1.3", manager.loadRepository(spaces.toURI(), null), loaded.get(2));
+		assertTrue("1.4", manager.contains(good.toURI()));
+		assertFalse("1.5", manager.contains(missing.toURI()));
+	}
+
 	/**
 	 * Tests that loading a disabled system repository does not damage its properties.
 	 * This is a regression test for bug 267707.
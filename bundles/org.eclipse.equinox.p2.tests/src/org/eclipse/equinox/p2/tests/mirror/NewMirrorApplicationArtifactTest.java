@@ -21,6 +21,7 @@ import org.eclipse.equinox.internal.p2.artifact.repository.simple.SimpleArtifact
 import org.eclipse.equinox.internal.p2.core.helpers.OrderedProperties;
 import org.eclipse.equinox.internal.p2.core.helpers.ServiceHelper;
 import org.eclipse.equinox.p2.core.ProvisionException;
+import org.eclipse.equinox.p2.internal.repository.mirroring.Mirroring;
 import org.eclipse.equinox.p2.internal.repository.tools.MirrorApplication;
 import org.eclipse.equinox.p2.internal.repository.tools.RepositoryDescriptor;
 import org.eclipse.equinox.p2.metadata.IArtifactKey;
@@ -1465,4 +1466,31 @@ public class NewMirrorApplicationArtifactTest extends AbstractProvisioningTest {
 			fail("Error mirroring", e);
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Test mirroring several artifacts concurrently, then mirroring again into the
+	 * complete destination as when resuming an interrupted mirror
+	 */
+	public void testParallelMirror() {
+		try {
+			IArtifactRepository source = getArtifactRepositoryManager().loadRepository(sourceRepo3Location.toURI(), null);
+			IArtifactRepository destination = createArtifactRepository(destRepoLocation.toURI(), null);
+			Mirroring mirroring = new Mirroring(source, destination, true);
+			mirroring.setParallelism(4);
+			assertOK("1.0", mirroring.run(true, false));
+			getArtifactRepositoryManager().removeRepository(destRepoLocation.toURI());
+			assertContentEquals("1.1", source, getArtifactRepositoryManager().loadRepository(destRepoLocation.toURI(), null));
+
+			mirroring = new Mirroring(source, getArtifactRepositoryManager().loadRepository(destRepoLocation.toURI(), null), true);
+			mirroring.setParallelism(4);
+			IStatus status = mirroring.run(true, true);
+			assertEquals("2.0", IStatus.INFO, status.getSeverity());
+			IStatus[] children = status.getChildren();
+			assertEquals("2.1", getArtifactDescriptorCount(sourceRepo3Location.toURI()), children.length);
+			for (int i = 0; i < children.length; i++)
+				assertEquals("2.2", ProvisionException.ARTIFACT_EXISTS, children[i].getCode());
+		} catch (Exception e) {
+			fail("Error mirroring", e);
+		}
+	}
+}
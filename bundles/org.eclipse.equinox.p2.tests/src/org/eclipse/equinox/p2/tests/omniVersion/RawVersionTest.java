@@ -408,6 +408,27 @@ public class RawVersionTest extends VersionTesting {
 		assertEquals(s, v.toString());
 	}
 
+	public void testLargeIntegerOrder() {
+		// leading integers are compared packed unless they are too large to be packed
+		Version v1 = Version.create("raw:1.2097151");
+		Version v2 = Version.create("raw:1.2097152");
+		Version v3 = Version.create("raw:1.2147483647.0");
+		Version v4 = Version.create("raw:2.0");
+		Version v5 = Version.create("raw:2.0.0.0.1");
+
+		assertOrder(v1, v2);
+		assertOrder(v2, v3);
+		assertOrder(v3, v4);
+		assertOrder(v4, v5);
+		assertOrder(Version.create("raw:1.'a'"), v1);
+		assertOrder(Version.create("raw:1.2097151"), Version.create("raw:1.2097151.0"));
+
+		Version serialized = getSerialized(v3);
+		assertEquals(v3.hashCode(), serialized.hashCode());
+		assertEquals(0, v3.compareTo(serialized));
+		assertOrder(v2, serialized);
+	}
+
 	public void testArrayOrder() {
 		Version v1 = Version.create("raw:<1.0.0>");
 		Version v2 = Version.create("raw:<1.1.0>");
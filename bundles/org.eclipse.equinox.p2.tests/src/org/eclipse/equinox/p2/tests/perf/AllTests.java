@@ -0,0 +1,31 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.perf;
+
+import junit.framework.*;
+
+/**
+ * Performance tests for the p2 metadata, query, planner and repository hot paths.
+ * The size of the generated repositories is set by the
+ * {@link ProvisioningPerformanceTest#PROP_SIZE} system property.
+ */
+public class AllTests extends TestCase {
+	public static Test suite() {
+		TestSuite suite = new TestSuite(AllTests.class.getName());
+		suite.addTestSuite(ArtifactRepositoryPerformanceTest.class);
+		suite.addTestSuite(MetadataRepositoryPerformanceTest.class);
+		suite.addTestSuite(PlannerPerformanceTest.class);
+		suite.addTestSuite(PublisherPerformanceTest.class);
+		suite.addTestSuite(QueryPerformanceTest.class);
+		suite.addTestSuite(VersionPerformanceTest.class);
+		return suite;
+	}
+}
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.perf;
+
+import java.io.File;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.p2.metadata.IArtifactKey;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.repository.artifact.*;
+import org.eclipse.equinox.p2.repository.artifact.spi.ArtifactDescriptor;
+
+/**
+ * Performance tests for artifact repositories
+ */
+public class ArtifactRepositoryPerformanceTest extends ProvisioningPerformanceTest {
+	private static final int REPEATS = 5;
+	protected File repoLocation;
+	IArtifactRepository repository;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		String tempDir = System.getProperty("java.io.tmpdir");
+		repoLocation = new File(tempDir, "ArtifactRepositoryPerformanceTest");
+		delete(repoLocation);
+		repoLocation.mkdir();
+		repository = getArtifactRepositoryManager().createRepository(repoLocation.toURI(), "TestRepo", IArtifactRepositoryManager.TYPE_SIMPLE_REPOSITORY, null);
+	}
+
+	protected void tearDown() throws Exception {
+		getArtifactRepositoryManager().removeRepository(repoLocation.toURI());
+		delete(repoLocation);
+		super.tearDown();
+	}
+
+	public void testDescriptorLookup() {
+		final int size = getRepositorySize();
+		new PerformanceTestRunner() {
+			IArtifactKey[] keys;
+
+			protected void setUp() {
+				IInstallableUnit[] ius = generateRepository(size);
+				keys = new IArtifactKey[ius.length];
+				IArtifactDescriptor[] descriptors = new IArtifactDescriptor[ius.length];
+				for (int i = 0; i < ius.length; i++) {
+					keys[i] = ius[i].getArtifacts().iterator().next();
+					descriptors[i] = new ArtifactDescriptor(keys[i]);
+				}
+				repository.addDescriptors(descriptors);
+			}
+
+			protected void tearDown() {
+				repository.removeAll();
+			}
+
+			protected void test() {
+				for (int i = 0; i < keys.length; i++) {
+					repository.contains(keys[i]);
+					repository.getArtifactDescriptors(keys[i]);
+				}
+			}
+		}.run(this, "Test lookup of " + size + " artifact descriptors", REPEATS, 10);
+	}
+}
@@ -11,9 +11,9 @@
 package org.eclipse.equinox.p2.tests.perf;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 import org.eclipse.equinox.p2.query.IQuery;
 import org.eclipse.equinox.p2.query.QueryUtil;
@@ -69,4 +69,26 @@ public class MetadataRepositoryPerformanceTest extends ProvisioningPerformanceTe
 			}
 		}.run(this, "Test query local metadata repo for " + IU_COUNT + " ius", REPEATS, 10);
 	}
+
+	public void testLoadLocalRepository() {
+		final int size = getRepositorySize();
+		new PerformanceTestRunner() {
+			protected void setUp() {
+				repository.addInstallableUnits(Arrays.asList(generateRepository(size)));
+			}
+
+			protected void tearDown() {
+			}
+
+			protected void test() {
+				IMetadataRepositoryManager manager = getMetadataRepositoryManager();
+				manager.removeRepository(repoLocation.toURI());
+				try {
+					manager.loadRepository(repoLocation.toURI(), null);
+				} catch (ProvisionException e) {
+					fail("Failed to load the repository", e);
+				}
+			}
+		}.run(this, "Test load local metadata repo of " + size + " ius", REPEATS, 1);
+	}
 }
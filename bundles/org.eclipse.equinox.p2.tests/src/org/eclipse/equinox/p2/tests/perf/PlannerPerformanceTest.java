@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.perf;
+
+import java.util.*;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.internal.p2.director.*;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.query.IQueryable;
+
+/**
+ * Performance tests for the slicing and the encoding of planning problems
+ */
+public class PlannerPerformanceTest extends ProvisioningPerformanceTest {
+	private static final int REPEATS = 5;
+	private static final int ROOT_COUNT = 20;
+
+	Map<String, String> createSelectionContext() {
+		Map<String, String> context = new HashMap<String, String>();
+		context.put("osgi.os", "linux");
+		context.put("osgi.ws", "gtk");
+		context.put("osgi.arch", "x86");
+		return context;
+	}
+
+	/*
+	 * Returns the last generated units, which have the most dependencies
+	 */
+	IInstallableUnit[] getRoots(IInstallableUnit[] ius) {
+		IInstallableUnit[] roots = new IInstallableUnit[ROOT_COUNT];
+		System.arraycopy(ius, ius.length - roots.length, roots, 0, roots.length);
+		return roots;
+	}
+
+	public void testSlice() {
+		final int size = getRepositorySize();
+		new PerformanceTestRunner() {
+			IInstallableUnit[] ius;
+			Map<String, String> context;
+
+			protected void setUp() {
+				ius = generateRepository(size);
+				context = createSelectionContext();
+			}
+
+			protected void tearDown() {
+			}
+
+			protected void test() {
+				new Slicer(new QueryableArray(ius), context, false).slice(getRoots(ius), new NullProgressMonitor());
+			}
+		}.run(this, "Test slice " + size + " ius", REPEATS, 10);
+	}
+
+	public void testEncode() {
+		final int size = getRepositorySize();
+		new PerformanceTestRunner() {
+			IQueryable<IInstallableUnit> slice;
+			IInstallableUnit entryPoint;
+			IInstallableUnit[] roots;
+			Map<String, String> context;
+
+			protected void setUp() {
+				IInstallableUnit[] ius = generateRepository(size);
+				context = createSelectionContext();
+				roots = getRoots(ius);
+				IRequirement[] requirements = new IRequirement[roots.length];
+				for (int i = 0; i < roots.length; i++)
+					requirements[i] = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, roots[i].getId(), new VersionRange(roots[i].getVersion(), true, roots[i].getVersion(), true), null, false, false);
+				entryPoint = createIU("entryPoint", requirements);
+				slice = new Slicer(new QueryableArray(ius), context, false).slice(roots, new NullProgressMonitor());
+			}
+
+			protected void tearDown() {
+			}
+
+			protected void test() {
+				Projector projector = new Projector(slice, context, new HashSet<IInstallableUnit>(), false);
+				projector.encode(entryPoint, new IInstallableUnit[0], new QueryableArray(new IInstallableUnit[0]), Arrays.asList(roots), new NullProgressMonitor());
+			}
+		}.run(this, "Test encode " + size + " ius", REPEATS, 10);
+	}
+}
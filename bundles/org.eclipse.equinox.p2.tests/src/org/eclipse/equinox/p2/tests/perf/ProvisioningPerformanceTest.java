@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009 IBM Corporation and others.
+ * Copyright (c) 2009, 2010 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,6 +10,8 @@
  *******************************************************************************/
 package org.eclipse.equinox.p2.tests.perf;
 
+import java.util.*;
+import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
 
@@ -17,6 +19,12 @@ import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
  * 
  */
 public class ProvisioningPerformanceTest extends AbstractProvisioningTest {
+	/**
+	 * System property holding the number of installable units of the generated repositories.
+	 */
+	public static final String PROP_SIZE = "org.eclipse.equinox.p2.tests.perf.size";
+	private static final int DEFAULT_SIZE = 5000;
+	protected static final String PACKAGE_NAMESPACE = "java.package";
 
 	protected IInstallableUnit generateIU(int i) {
 		MetadataFactory.InstallableUnitDescription desc = new MetadataFactory.InstallableUnitDescription();
@@ -25,4 +33,50 @@ public class ProvisioningPerformanceTest extends AbstractProvisioningTest {
 		return MetadataFactory.createInstallableUnit(desc);
 	}
 
+	/**
+	 * Returns the number of installable units of the generated repositories, as set by
+	 * the {@link #PROP_SIZE} system property.
+	 */
+	protected static int getRepositorySize() {
+		String size = System.getProperty(PROP_SIZE);
+		if (size != null) {
+			try {
+				return Integer.parseInt(size);
+			} catch (NumberFormatException e) {
+				// use the default
+			}
+		}
+		return DEFAULT_SIZE;
+	}
+
+	/**
+	 * Generates the installable units of a synthetic repository. Each id comes in two versions,
+	 * and each unit requires a few units generated before it as well as, optionally, a package.
+	 * Some units are only applicable on linux. The same size always generates the same units.
+	 */
+	protected IInstallableUnit[] generateRepository(int size) {
+		Random random = new Random(size);
+		VersionRange range = new VersionRange("[1.0.0, 2.0.0)");
+		IInstallableUnit[] result = new IInstallableUnit[size];
+		for (int i = 0; i < size; i++) {
+			int id = i / 2;
+			Version version = Version.createOSGi(1, i % 2, 0, "v" + id);
+			MetadataFactory.InstallableUnitDescription desc = new MetadataFactory.InstallableUnitDescription();
+			desc.setId("org.eclipse.someiu" + id);
+			desc.setVersion(version);
+			desc.setCapabilities(new IProvidedCapability[] {MetadataFactory.createProvidedCapability(IInstallableUnit.NAMESPACE_IU_ID, desc.getId(), version), MetadataFactory.createProvidedCapability(PACKAGE_NAMESPACE, "org.eclipse.somepackage" + id, version)});
+
+			List<IRequirement> requirements = new ArrayList<IRequirement>();
+			for (int j = 0; j < 3 && id > 0; j++)
+				requirements.add(MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "org.eclipse.someiu" + random.nextInt(id), range, null, false, false));
+			if (id % 10 == 0)
+				requirements.add(MetadataFactory.createRequirement(PACKAGE_NAMESPACE, "org.eclipse.somepackage" + random.nextInt(id + 1), range, null, true, false));
+			desc.setRequirements(requirements.toArray(new IRequirement[requirements.size()]));
+			if (id % 7 == 3)
+				desc.setFilter("(osgi.os=linux)");
+			desc.setArtifacts(new IArtifactKey[] {new ArtifactKey("osgi.bundle", desc.getId(), version)});
+			result[i] = MetadataFactory.createInstallableUnit(desc);
+		}
+		return result;
+	}
 }
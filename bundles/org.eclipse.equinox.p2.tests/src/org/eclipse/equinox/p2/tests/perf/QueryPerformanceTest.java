@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.perf;
+
+import java.util.Arrays;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.internal.p2.director.QueryableArray;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.expression.ExpressionUtil;
+import org.eclipse.equinox.p2.metadata.expression.IExpressionParser;
+import org.eclipse.equinox.p2.query.IQuery;
+import org.eclipse.equinox.p2.query.QueryUtil;
+
+/**
+ * Performance tests for parsing and evaluating query expressions, with and without the
+ * indexes of the queried units
+ */
+public class QueryPerformanceTest extends ProvisioningPerformanceTest {
+	private static final int REPEATS = 5;
+	private static final int QUERY_COUNT = 500;
+
+	IQuery<IInstallableUnit>[] createQueries(int size) {
+		@SuppressWarnings("unchecked")
+		IQuery<IInstallableUnit>[] queries = new IQuery[QUERY_COUNT];
+		for (int i = 0; i < queries.length; i++) {
+			int id = (i * 7919) % (size / 2);
+			if (i % 2 == 0)
+				queries[i] = QueryUtil.createMatchQuery("id == $0", "org.eclipse.someiu" + id);
+			else
+				queries[i] = QueryUtil.createMatchQuery("providedCapabilities.exists(x | x.namespace == $0 && x.name == $1)", PACKAGE_NAMESPACE, "org.eclipse.somepackage" + id);
+		}
+		return queries;
+	}
+
+	public void testParseExpressions() {
+		new PerformanceTestRunner() {
+			IExpressionParser parser;
+
+			protected void setUp() {
+				parser = ExpressionUtil.getParser();
+			}
+
+			protected void tearDown() {
+			}
+
+			protected void test() {
+				for (int i = 0; i < QUERY_COUNT; i++) {
+					parser.parse("providedCapabilities.exists(x | x.namespace == 'java.package' && x.name == 'org.eclipse.somepackage" + i + "')");
+					parser.parse("id == 'org.eclipse.someiu" + i + "' && version >= '1.0.0'");
+				}
+			}
+		}.run(this, "Test parse " + 2 * QUERY_COUNT + " expressions", REPEATS, 10);
+	}
+
+	public void testQueryWithIndexes() {
+		final int size = getRepositorySize();
+		new PerformanceTestRunner() {
+			QueryableArray queryable;
+			IQuery<IInstallableUnit>[] queries;
+
+			protected void setUp() {
+				queryable = new QueryableArray(generateRepository(size));
+				queries = createQueries(size);
+			}
+
+			protected void tearDown() {
+			}
+
+			protected void test() {
+				for (int i = 0; i < queries.length; i++)
+					queryable.query(queries[i], null);
+			}
+		}.run(this, "Test " + QUERY_COUNT + " indexed queries of " + size + " ius", REPEATS, 10);
+	}
+
+	public void testQueryWithoutIndexes() {
+		final int size = getRepositorySize();
+		new PerformanceTestRunner() {
+			IInstallableUnit[] ius;
+			IQuery<IInstallableUnit>[] queries;
+
+			protected void setUp() {
+				ius = generateRepository(size);
+				queries = createQueries(size);
+			}
+
+			protected void tearDown() {
+			}
+
+			protected void test() {
+				for (int i = 0; i < queries.length; i++)
+					queries[i].perform(Arrays.asList(ius).iterator());
+			}
+		}.run(this, "Test " + QUERY_COUNT + " queries of " + size + " ius without indexes", REPEATS, 1);
+	}
+}
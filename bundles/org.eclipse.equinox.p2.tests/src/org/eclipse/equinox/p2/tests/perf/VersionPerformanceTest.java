@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.perf;
+
+import java.util.HashSet;
+import java.util.Set;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.metadata.VersionRange;
+
+/**
+ * Performance tests for parsing, comparing and matching versions
+ */
+public class VersionPerformanceTest extends ProvisioningPerformanceTest {
+	private static final int REPEATS = 5;
+	private static final int VERSION_COUNT = 10000;
+
+	String[] createVersionStrings() {
+		String[] strings = new String[VERSION_COUNT];
+		for (int i = 0; i < strings.length; i++) {
+			switch (i % 3) {
+				case 0 :
+					strings[i] = "1." + (i % 10) + "." + (i % 100) + ".v2010" + i;
+					break;
+				case 1 :
+					strings[i] = "raw:1." + (i % 10) + "." + (i % 100) + ".'v2010" + i + "'";
+					break;
+				default :
+					strings[i] = "format(n[.n=0;[.n=0;]][d?S=M;]):" + (i % 10) + "." + (i % 100) + "-v" + i;
+			}
+		}
+		return strings;
+	}
+
+	Version[] createVersions() {
+		String[] strings = createVersionStrings();
+		Version[] versions = new Version[strings.length];
+		for (int i = 0; i < strings.length; i++)
+			versions[i] = Version.create(strings[i]);
+		return versions;
+	}
+
+	public void testParseVersions() {
+		new PerformanceTestRunner() {
+			String[] strings;
+
+			protected void setUp() {
+				strings = createVersionStrings();
+			}
+
+			protected void tearDown() {
+			}
+
+			protected void test() {
+				for (int i = 0; i < strings.length; i++)
+					Version.create(strings[i]);
+			}
+		}.run(this, "Test parse " + VERSION_COUNT + " versions", REPEATS, 10);
+	}
+
+	public void testCompareVersions() {
+		new PerformanceTestRunner() {
+			Version[] versions;
+
+			protected void setUp() {
+				versions = createVersions();
+			}
+
+			protected void tearDown() {
+			}
+
+			protected void test() {
+				for (int i = 1; i < versions.length; i++) {
+					versions[i].compareTo(versions[i - 1]);
+					versions[i].compareTo(versions[versions.length - i]);
+				}
+			}
+		}.run(this, "Test compare " + VERSION_COUNT + " versions", REPEATS, 100);
+	}
+
+	public void testCompareRawVersions() {
+		new PerformanceTestRunner() {
+			Version[] versions;
+
+			protected void setUp() {
+				versions = new Version[VERSION_COUNT];
+				for (int i = 0; i < versions.length; i++)
+					versions[i] = Version.create("raw:" + (i % 10) + "." + (i % 100) + "." + i + ".'v2010'");
+			}
+
+			protected void tearDown() {
+			}
+
+			protected void test() {
+				for (int i = 1; i < versions.length; i++) {
+					versions[i].compareTo(versions[i - 1]);
+					versions[i].compareTo(versions[versions.length - i]);
+					versions[i].equals(versions[i - 1]);
+				}
+			}
+		}.run(this, "Test compare " + VERSION_COUNT + " raw versions", REPEATS, 100);
+	}
+
+	public void testHashVersions() {
+		new PerformanceTestRunner() {
+			Version[] versions;
+
+			protected void setUp() {
+				versions = createVersions();
+			}
+
+			protected void tearDown() {
+			}
+
+			protected void test() {
+				Set<Version> set = new HashSet<Version>();
+				for (int i = 0; i < versions.length; i++)
+					set.add(versions[i]);
+				for (int i = 0; i < versions.length; i++)
+					set.contains(versions[i]);
+			}
+		}.run(this, "Test hash " + VERSION_COUNT + " versions", REPEATS, 100);
+	}
+
+	public void testVersionRangeIsIncluded() {
+		new PerformanceTestRunner() {
+			Version[] versions;
+			VersionRange[] ranges;
+
+			protected void setUp() {
+				versions = createVersions();
+				ranges = new VersionRange[] {new VersionRange("[1.0.0, 2.0.0)"), new VersionRange("[1.5.0.v2010, 1.5.0.v2011]"), new VersionRange("raw:[1.0,2.0)"), VersionRange.emptyRange};
+			}
+
+			protected void tearDown() {
+			}
+
+			protected void test() {
+				for (int i = 0; i < versions.length; i++) {
+					for (int j = 0; j < ranges.length; j++)
+						ranges[j].isIncluded(versions[i]);
+				}
+			}
+		}.run(this, "Test match " + VERSION_COUNT + " versions against ranges", REPEATS, 100);
+	}
+}
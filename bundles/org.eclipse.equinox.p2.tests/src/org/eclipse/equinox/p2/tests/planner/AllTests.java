@@ -66,6 +66,7 @@ public class AllTests extends TestCase {
 		suite.addTestSuite(DependencyOnSelf.class);
 		suite.addTestSuite(DisabledExplanation.class);
 		suite.addTestSuite(DropinsScenario.class);
+		suite.addTestSuite(EncodingCacheTest.class);
 		suite.addTestSuite(ExplanationDeepConflict.class);
 		suite.addTestSuite(ExplanationForOptionalDependencies.class);
 		suite.addTestSuite(ExplanationForPartialInstallation.class);
@@ -96,6 +97,7 @@ public class AllTests extends TestCase {
 		suite.addTestSuite(MultipleSingleton.class);
 		suite.addTestSuite(NoRequirements.class);
 		suite.addTestSuite(ORTesting.class);
+		suite.addTestSuite(ParallelSlicerTest.class);
 		//		suite.addTestSuite(PatchFailingToInstall.class);
 		suite.addTestSuite(PatchTest1.class);
 		suite.addTestSuite(PatchTest10.class);
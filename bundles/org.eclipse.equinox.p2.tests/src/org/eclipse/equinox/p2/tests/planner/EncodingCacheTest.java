@@ -0,0 +1,135 @@
+/*******************************************************************************
+ *  Copyright (c) 2010 IBM Corporation and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.planner;
+
+import java.util.*;
+import org.eclipse.equinox.internal.p2.director.EncodingCache;
+import org.eclipse.equinox.internal.p2.director.Projector;
+import org.eclipse.equinox.internal.p2.director.QueryableArray;
+import org.eclipse.equinox.internal.p2.director.SimplePlanner;
+import org.eclipse.equinox.p2.engine.IProfile;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.planner.IPlanner;
+import org.eclipse.equinox.p2.planner.IProfileChangeRequest;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests for the {@link EncodingCache} used by the {@link Projector}.
+ */
+public class EncodingCacheTest extends AbstractProvisioningTest {
+	private IInstallableUnit a1;
+	private IInstallableUnit a2;
+	private IInstallableUnit b1;
+	private IInstallableUnit c1;
+	private Map<String, String> context;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		a1 = createIU("A", Version.create("1.0.0"), createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "B", new VersionRange("[1.0.0, 2.0.0)")));
+		a2 = createIU("A", Version.create("2.0.0"), createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "C", new VersionRange("[1.0.0, 2.0.0)")));
+		b1 = createIU("B", Version.create("1.0.0"), true);
+		c1 = createIU("C", Version.create("1.0.0"), true);
+		context = new HashMap<String, String>();
+		context.put("osgi.os", "linux");
+	}
+
+	private Projector encode(EncodingCache cache, IInstallableUnit[] units, IInstallableUnit root) {
+		Projector projector = new Projector(new QueryableArray(units), context, new HashSet<IInstallableUnit>(), false);
+		projector.setEncodingCache(cache);
+		projector.encode(root, new IInstallableUnit[0], new QueryableArray(new IInstallableUnit[0]), Collections.singletonList(root), getMonitor());
+		return projector;
+	}
+
+	public void testReuse() {
+		EncodingCache cache = new EncodingCache();
+		Projector projector = encode(cache, new IInstallableUnit[] {a1, b1}, a1);
+		assertOK("1.0", projector.invokeSolver(getMonitor()));
+		int size = cache.size();
+		assertTrue("1.1", size > 0);
+
+		// the same problem again, the cached matches are kept
+		projector = encode(cache, new IInstallableUnit[] {a1, b1}, a1);
+		assertOK("2.0", projector.invokeSolver(getMonitor()));
+		assertEquals("2.1", size, cache.size());
+		assertTrue("2.2", projector.extractSolution().contains(b1));
+	}
+
+	public void testChangedUnitsInvalidateMatches() {
+		EncodingCache cache = new EncodingCache();
+		List<IInstallableUnit> units = new ArrayList<IInstallableUnit>();
+		for (int i = 0; i < 20; i++)
+			units.add(createIU("filler" + i));
+		units.add(a1);
+		encode(cache, units.toArray(new IInstallableUnit[units.size()]), a1);
+
+		// B becomes available, the requirement of A on B must see it
+		units.add(b1);
+		Projector projector = encode(cache, units.toArray(new IInstallableUnit[units.size()]), a1);
+		assertOK("1.0", projector.invokeSolver(getMonitor()));
+		assertTrue("1.1", projector.extractSolution().contains(b1));
+
+		// B goes away again
+		units.remove(b1);
+		projector = encode(cache, units.toArray(new IInstallableUnit[units.size()]), a1);
+		assertFalse("2.0", projector.invokeSolver(getMonitor()).isOK());
+	}
+
+	public void testContextChangeClearsCache() {
+		EncodingCache cache = new EncodingCache();
+		encode(cache, new IInstallableUnit[] {a1, b1}, a1);
+		assertTrue("1.0", cache.size() > 0);
+		Map<String, String> otherContext = new HashMap<String, String>(context);
+		otherContext.put("osgi.os", "win32");
+		cache.prepare(Arrays.asList(new IInstallableUnit[] {a1, b1}), otherContext);
+		assertEquals("1.1", 0, cache.size());
+	}
+
+	public void testRepeatedPlans() {
+		IProfile profile = createProfile("EncodingCacheTest." + getName());
+		IPlanner planner = createPlanner();
+		createTestMetdataRepository(new IInstallableUnit[] {a1, a2, b1, c1});
+
+		IProfileChangeRequest request = planner.createChangeRequest(profile);
+		request.add(a1);
+		assertOK("1.0", planner.getProvisioningPlan(request, null, getMonitor()).getStatus());
+
+		// plan again with a different root, reusing the encoding of the first plan
+		request = planner.createChangeRequest(profile);
+		request.add(a2);
+		assertOK("2.0", planner.getProvisioningPlan(request, null, getMonitor()).getStatus());
+
+		request = planner.createChangeRequest(profile);
+		request.add(a1);
+		assertOK("3.0", planner.getProvisioningPlan(request, null, getMonitor()).getStatus());
+	}
+
+	public void testCacheDroppedWithProfile() {
+		IProfile first = createProfile("EncodingCacheTest.first");
+		IProfile second = createProfile("EncodingCacheTest.second");
+		SimplePlanner planner = (SimplePlanner) createPlanner();
+		createTestMetdataRepository(new IInstallableUnit[] {a1, b1});
+
+		IProfileChangeRequest request = planner.createChangeRequest(first);
+		request.add(a1);
+		assertOK("1.0", planner.getProvisioningPlan(request, null, getMonitor()).getStatus());
+		assertTrue("1.1", planner.hasEncodingCache(first.getProfileId()));
+
+		// only the cache of the last profile planned for is kept
+		request = planner.createChangeRequest(second);
+		request.add(a1);
+		assertOK("2.0", planner.getProvisioningPlan(request, null, getMonitor()).getStatus());
+		assertFalse("2.1", planner.hasEncodingCache(first.getProfileId()));
+		assertTrue("2.2", planner.hasEncodingCache(second.getProfileId()));
+
+		getProfileRegistry().removeProfile(second.getProfileId());
+		assertFalse("3.0", planner.hasEncodingCache(second.getProfileId()));
+	}
+}
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ *  Copyright (c) 2010 IBM Corporation and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.planner;
+
+import java.util.*;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.equinox.internal.p2.director.*;
+import org.eclipse.equinox.p2.engine.IProfile;
+import org.eclipse.equinox.p2.engine.ProvisioningContext;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.planner.IPlanner;
+import org.eclipse.equinox.p2.planner.IProfileChangeRequest;
+import org.eclipse.equinox.p2.query.IQueryable;
+import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests that slicing in parallel produces the same slice and status as slicing sequentially.
+ */
+public class ParallelSlicerTest extends AbstractProvisioningTest {
+	private static final int SIZE = 400;
+	private IInstallableUnit[] units;
+	private Map<String, String> context;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		context = new HashMap<String, String>();
+		context.put("osgi.os", "linux");
+		// each unit requires a few units further down the list, some of which do not exist
+		Random random = new Random(42);
+		units = new IInstallableUnit[SIZE];
+		for (int i = 0; i < SIZE; i++) {
+			List<IRequirement> reqs = new ArrayList<IRequirement>();
+			for (int j = 0; j < 3 && i + 1 < SIZE; j++) {
+				int target = i + 1 + random.nextInt(Math.min(SIZE - i - 1, 40));
+				reqs.add(MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "u" + target, VersionRange.emptyRange, null, false, false, true));
+			}
+			if (i % 25 == 0)
+				reqs.add(MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "missing" + i, VersionRange.emptyRange, null, false, false, true));
+			if (i % 30 == 0)
+				reqs.add(MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "u" + random.nextInt(SIZE), VersionRange.emptyRange, null, false, false, false));
+			units[i] = createIU("u" + i, Version.createOSGi(1, 0, 0), null, reqs.toArray(new IRequirement[reqs.size()]), NO_PROVIDES, NO_PROPERTIES, ITouchpointType.NONE, NO_TP_DATA, true);
+		}
+	}
+
+	private Slicer slice(int parallelism, IInstallableUnit[] roots, Set<IInstallableUnit> slice) {
+		Slicer slicer = new Slicer(new QueryableArray(units), context, false);
+		slicer.setParallelism(parallelism);
+		IQueryable<IInstallableUnit> result = slicer.slice(roots, getMonitor());
+		assertNotNull(result);
+		slice.addAll(result.query(QueryUtil.createIUAnyQuery(), getMonitor()).toUnmodifiableSet());
+		return slicer;
+	}
+
+	public void testSameSliceAndStatus() {
+		IInstallableUnit[] roots = new IInstallableUnit[] {units[0], units[1], units[2]};
+		Set<IInstallableUnit> sequentialSlice = new HashSet<IInstallableUnit>();
+		Slicer sequential = slice(1, roots, sequentialSlice);
+		Set<IInstallableUnit> parallelSlice = new HashSet<IInstallableUnit>();
+		Slicer parallel = slice(4, roots, parallelSlice);
+
+		assertTrue("1.0", sequentialSlice.size() > 100);
+		assertEquals("1.1", sequentialSlice, parallelSlice);
+
+		IStatus[] expected = sequential.getStatus().getChildren();
+		IStatus[] actual = parallel.getStatus().getChildren();
+		assertTrue("2.0", expected.length > 0);
+		assertEquals("2.1", sequential.getStatus().getSeverity(), parallel.getStatus().getSeverity());
+		assertEquals("2.2", expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals("2.3." + i, expected[i].getSeverity(), actual[i].getSeverity());
+			assertEquals("2.4." + i, expected[i].getMessage(), actual[i].getMessage());
+		}
+	}
+
+	public void testSuspendedJobManager() {
+		IInstallableUnit[] roots = new IInstallableUnit[] {units[0], units[1], units[2]};
+		Set<IInstallableUnit> sequentialSlice = new HashSet<IInstallableUnit>();
+		slice(1, roots, sequentialSlice);
+		Set<IInstallableUnit> parallelSlice = new HashSet<IInstallableUnit>();
+		// no job gets to run, the calling thread slices on its own
+		Job.getJobManager().suspend();
+		try {
+			slice(4, roots, parallelSlice);
+		} finally {
+			Job.getJobManager().resume();
+		}
+		assertEquals("1.0", sequentialSlice, parallelSlice);
+	}
+
+	public void testInvalidRoot() {
+		IInstallableUnit filtered = createIU("filtered", Version.createOSGi(1, 0, 0), createFilter("osgi.os", "win32"), NO_REQUIRES, NO_PROVIDES, NO_PROPERTIES, ITouchpointType.NONE, NO_TP_DATA, true);
+		Slicer slicer = new Slicer(new QueryableArray(units), context, false);
+		slicer.setParallelism(4);
+		assertNull("1.0", slicer.slice(new IInstallableUnit[] {filtered}, getMonitor()));
+		assertEquals("1.1", IStatus.ERROR, slicer.getStatus().getSeverity());
+	}
+
+	public void testPlannerOption() {
+		IProfile profile = createProfile("ParallelSlicerTest." + getName());
+		IPlanner planner = createPlanner();
+		createTestMetdataRepository(units);
+		IProfileChangeRequest request = planner.createChangeRequest(profile);
+		request.add(units[SIZE - 1]);
+		request.add(units[SIZE - 2]);
+
+		ProvisioningContext provisioningContext = new ProvisioningContext(getAgent());
+		provisioningContext.setProperty(SimplePlanner.PARALLEL_SLICING, "true");
+		assertOK("1.0", planner.getProvisioningPlan(request, provisioningContext, getMonitor()).getStatus());
+	}
+}
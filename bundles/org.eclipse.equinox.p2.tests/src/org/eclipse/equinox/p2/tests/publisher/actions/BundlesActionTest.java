@@ -20,6 +20,7 @@ import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.director.QueryableArray;
 import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
 import org.eclipse.equinox.internal.p2.metadata.TranslationSupport;
+import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
 import org.eclipse.equinox.p2.publisher.*;
@@ -29,6 +30,7 @@ import org.eclipse.equinox.p2.publisher.eclipse.IBundleShapeAdvice;
 import org.eclipse.equinox.p2.query.IQueryResult;
 import org.eclipse.equinox.p2.query.QueryUtil;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
 import org.eclipse.equinox.p2.tests.TestActivator;
 import org.eclipse.equinox.p2.tests.TestData;
 import org.eclipse.equinox.p2.tests.publisher.TestArtifactRepository;
@@ -137,6 +139,57 @@ public class BundlesActionTest extends ActionTest {
 		assertEquals("2.2", "German Foo", utils.getIUProperty(iu, IInstallableUnit.PROP_NAME, Locale.GERMAN.toString()));
 	}
 
+	public void testParallel() throws Exception {
+		File foo = new File(TestActivator.getTestDataFolder(), "FragmentPublisherTest/foo");//$NON-NLS-1$
+		File foo_fragment = new File(TestActivator.getTestDataFolder(), "FragmentPublisherTest/foo.fragment");//$NON-NLS-1$
+		File[] files = new File[] {TEST_FILE1, foo, TEST_FILE2, foo_fragment};
+
+		IArtifactRepository sequentialRepository = createArtifactRepository(getTempFolder().toURI(), null);
+		Collection<IInstallableUnit> sequential = publishBundles(files, sequentialRepository, 1);
+		IArtifactRepository parallelRepository = createArtifactRepository(getTempFolder().toURI(), null);
+		Collection<IInstallableUnit> parallel = publishBundles(files, parallelRepository, 4);
+
+		// the bundles, the translation fragment of foo and nothing else
+		assertEquals("1.0", 5, sequential.size());
+		assertEquals("1.1", sequential.toArray(new IInstallableUnit[sequential.size()]), parallel.toArray(new IInstallableUnit[parallel.size()]));
+		assertContains("1.2", sequentialRepository, parallelRepository);
+		assertContains("1.3", parallelRepository, sequentialRepository);
+	}
+
+	public void testParallelSameBundleTwice() {
+		final int[] outputStreams = new int[1];
+		TestArtifactRepository repository = new TestArtifactRepository(getAgent()) {
+			public synchronized OutputStream getOutputStream(IArtifactDescriptor descriptor) throws ProvisionException {
+				outputStreams[0]++;
+				return super.getOutputStream(descriptor);
+			}
+
+			public synchronized void addDescriptor(IArtifactDescriptor descriptor, byte[] bytes) {
+				super.addDescriptor(descriptor, bytes);
+			}
+
+			public synchronized boolean contains(IArtifactDescriptor descriptor) {
+				return super.contains(descriptor);
+			}
+		};
+		publishBundles(new File[] {TEST_FILE2, TEST_FILE2, TEST_FILE2, TEST_FILE2}, repository, 4);
+
+		// the bundle given several times is checked and published by one thread at a time
+		assertEquals("1.0", 1, outputStreams[0]);
+		assertEquals("1.1", 1, repository.getArtifactDescriptors(new ArtifactKey(OSGI, TEST2_PROVBUNDLE_NAME, PROVBUNDLE2_VERSION)).length);
+	}
+
+	private Collection<IInstallableUnit> publishBundles(File[] files, IArtifactRepository repository, int parallelism) {
+		PublisherInfo info = new PublisherInfo();
+		info.setArtifactRepository(repository);
+		info.setArtifactOptions(IPublisherInfo.A_PUBLISH);
+		PublisherResult results = new PublisherResult();
+		BundlesAction bundlesAction = new BundlesAction(files);
+		bundlesAction.setParallelism(parallelism);
+		assertOK("publish", bundlesAction.perform(info, results, new NullProgressMonitor()));
+		return results.getIUs(null, null);
+	}
+
 	private void verifyBundlesAction() throws Exception {
 		// verify publisher result
 		verifyBundle1();
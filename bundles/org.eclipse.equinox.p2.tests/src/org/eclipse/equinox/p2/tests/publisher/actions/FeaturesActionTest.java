@@ -29,6 +29,7 @@ import org.eclipse.equinox.p2.publisher.*;
 import org.eclipse.equinox.p2.publisher.actions.*;
 import org.eclipse.equinox.p2.publisher.eclipse.FeaturesAction;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
 import org.eclipse.equinox.p2.tests.*;
 import org.eclipse.equinox.p2.tests.publisher.TestArtifactRepository;
 import org.eclipse.equinox.spi.p2.publisher.PublisherHelper;
@@ -102,6 +103,32 @@ public class FeaturesActionTest extends ActionTest {
 		}
 	}
 
+	public void testParallel() throws Exception {
+		IArtifactRepository sequentialRepository = createArtifactRepository(getTempFolder().toURI(), null);
+		Collection<IInstallableUnit> sequential = publishFeatures(sequentialRepository, 1);
+		IArtifactRepository parallelRepository = createArtifactRepository(getTempFolder().toURI(), null);
+		Collection<IInstallableUnit> parallel = publishFeatures(parallelRepository, 4);
+
+		// the feature jars and the groups of foo and bar
+		assertEquals("1.0", 4, sequential.size());
+		assertEquals("1.1", sequential.toArray(new IInstallableUnit[sequential.size()]), parallel.toArray(new IInstallableUnit[parallel.size()]));
+		assertContains("1.2", sequentialRepository, parallelRepository);
+		assertContains("1.3", parallelRepository, sequentialRepository);
+	}
+
+	private Collection<IInstallableUnit> publishFeatures(IArtifactRepository repository, int parallelism) {
+		PublisherInfo info = new PublisherInfo();
+		info.setArtifactRepository(repository);
+		info.setArtifactOptions(IPublisherInfo.A_PUBLISH);
+		// the site references of the features are added to the metadata repository
+		info.setMetadataRepository(new TestMetadataRepository(getAgent(), new IInstallableUnit[0]));
+		PublisherResult results = new PublisherResult();
+		FeaturesAction action = new FeaturesAction(new File[] {root});
+		action.setParallelism(parallelism);
+		assertOK("publish", action.perform(info, results, new NullProgressMonitor()));
+		return results.getIUs(null, null);
+	}
+
 	private void verifyRepositoryContents() throws Exception {
 		verifyArtifacts();
 		verifyMetadata();
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.ql;
+
+import java.util.*;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.expression.*;
+import org.eclipse.equinox.p2.query.*;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests that compiled match expressions give the same results as interpreted ones.
+ */
+public class CompiledMatchTest extends AbstractProvisioningTest {
+	private static final IExpressionFactory factory = ExpressionUtil.getFactory();
+
+	private List<IInstallableUnit> units;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		units = new ArrayList<IInstallableUnit>();
+		for (int i = 0; i < 5; i++) {
+			Map<String, String> properties = new HashMap<String, String>();
+			properties.put("org.eclipse.equinox.p2.type.group", Boolean.toString(i % 2 == 0));
+			IProvidedCapability[] provides = new IProvidedCapability[] {MetadataFactory.createProvidedCapability("org.eclipse.equinox.p2.iu", "unit" + i, Version.create("1." + i + ".0")), MetadataFactory.createProvidedCapability("java.package", "p" + (i % 3), Version.create(i + ".0.0"))};
+			units.add(createIU("unit" + i, Version.create("1." + i + ".0"), createFilter("osgi.os", i % 2 == 0 ? "linux" : "win32"), NO_REQUIRES, provides, properties, null, NO_TP_DATA, i % 2 == 0));
+		}
+	}
+
+	private void assertSameMatches(String expression, Object... parameters) {
+		IMatchExpression<IInstallableUnit> match = factory.<IInstallableUnit> matchExpression(ExpressionUtil.parse(expression), parameters);
+		ExpressionMatchQuery<IInstallableUnit> query = new ExpressionMatchQuery<IInstallableUnit>(IInstallableUnit.class, expression, parameters);
+		for (IInstallableUnit unit : units) {
+			boolean interpreted = match.isMatch(match.createContext(), unit);
+			assertEquals(expression + " on " + unit, interpreted, match.isMatch(unit));
+			assertEquals(expression + " on " + unit, interpreted, query.isMatch(unit));
+		}
+	}
+
+	public void testMembers() {
+		assertSameMatches("id == $0", "unit1");
+		assertSameMatches("id != $0 && version >= $1", "unit1", Version.create("1.2.0"));
+		assertSameMatches("version < $0 || id ~= /*3/", Version.create("1.2.0"));
+		assertSameMatches("!(version ~= $0)", new VersionRange("[1.1.0,1.3.0)"));
+		assertSameMatches("properties[$0] == 'true'", "org.eclipse.equinox.p2.type.group");
+		assertSameMatches("properties[$0] != null && id != null", "org.eclipse.equinox.p2.type.group");
+	}
+
+	public void testCapabilities() {
+		assertSameMatches("providedCapabilities.exists(x | x.name == $0 && x.namespace == $1)", "p1", "java.package");
+		assertSameMatches("providedCapabilities.exists(x | x.name == $0 && x.namespace == $1 && x.version >= $2 && x.version < $3)", "p0", "java.package", Version.create("1.0.0"), Version.create("4.0.0"));
+		assertSameMatches("providedCapabilities.all(x | x.version >= $0)", Version.create("1.0.0"));
+		assertSameMatches("providedCapabilities.exists(x | providedCapabilities.exists(y | x.name == y.name && x.namespace != y.namespace))");
+	}
+
+	public void testRequirements() {
+		IRequirement requirement = MetadataFactory.createRequirement("java.package", "p2", new VersionRange("[1.0.0,3.0.0)"), null, false, false);
+		for (IInstallableUnit unit : units)
+			assertEquals(unit.toString(), requirement.isMatch(unit), requirement.getMatches().isMatch(requirement.getMatches().createContext(), unit));
+		assertSameMatches("this ~= $0", requirement);
+	}
+
+	public void testFilters() {
+		IInstallableUnit environmentIU = InstallableUnit.contextIU("gtk", "linux", "x86");
+		for (IInstallableUnit unit : units) {
+			IMatchExpression<IInstallableUnit> filter = unit.getFilter();
+			assertEquals(unit.toString(), filter.isMatch(filter.createContext(), environmentIU), filter.isMatch(environmentIU));
+		}
+	}
+
+	public void testNotCompilable() {
+		// the array literal and everything are left to the interpreter
+		assertSameMatches("['unit1', 'unit3'].exists(x | x == id)");
+		IQueryResult<IInstallableUnit> result = new ExpressionMatchQuery<IInstallableUnit>(IInstallableUnit.class, "id == $0", "unit3").perform(units.iterator());
+		assertEquals(1, queryResultSize(result));
+	}
+}
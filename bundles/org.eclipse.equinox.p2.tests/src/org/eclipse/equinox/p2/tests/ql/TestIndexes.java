@@ -63,6 +63,29 @@ public class TestIndexes extends AbstractProvisioningTest {
 		assertEquals(queryResultSize(result), 487);
 	}
 
+	public void testSharedCompoundIndexes() throws Exception {
+		IMetadataRepository repo = getMDR("/testData/galileoM7");
+		Collector<IInstallableUnit> extra = new Collector<IInstallableUnit>();
+		extra.accept(createIU("org.eclipse.core.resources", Version.create("99.0.0")));
+		extra.accept(createIU("org.eclipse.sdk.feature.group", Version.create("99.0.0")));
+		@SuppressWarnings("unchecked")
+		IQueryable<IInstallableUnit>[] queryables = new IQueryable[] {repo, extra};
+		IQueryable<IInstallableUnit> shared = new CompoundQueryable<IInstallableUnit>(queryables, true);
+		IQueryable<IInstallableUnit> compound = new CompoundQueryable<IInstallableUnit>(queryables);
+
+		IRequirement requirement = MetadataFactory.createRequirement("org.eclipse.equinox.p2.iu", "org.eclipse.core.resources", null, null, 1, 2, true);
+		IQuery<IInstallableUnit> query = QueryUtil.createQuery("select(x | x ~= $0)", requirement);
+		assertEquals("1.0", 2, queryResultSize(shared.query(query, getMonitor())));
+		assertEquals("1.1", queryResultSize(compound.query(query, getMonitor())), queryResultSize(shared.query(query, getMonitor())));
+
+		query = QueryUtil.createQuery("select(x | x.id == $0 || x.id == $1)", "org.eclipse.sdk.feature.group", "org.eclipse.sdk.feature.jar");
+		assertEquals("2.0", 3, queryResultSize(shared.query(query, getMonitor())));
+		assertEquals("2.1", queryResultSize(compound.query(query, getMonitor())), queryResultSize(shared.query(query, getMonitor())));
+
+		query = QueryUtil.createQuery("select(x | x.id == $0)", "does.not.exist");
+		assertEquals("3.0", 0, queryResultSize(shared.query(query, getMonitor())));
+	}
+
 	private IMetadataRepository getMDR(String uri) throws Exception {
 		URI metadataRepo = getTestData("1.1", uri).toURI();
 
@@ -19,6 +19,8 @@ public class AllTests extends TestCase {
 
 	public static Test suite() {
 		TestSuite suite = new TestSuite(AllTests.class.getName());
+		suite.addTestSuite(CacheManagerTest.class);
+		suite.addTestSuite(RepositoryCacheTest.class);
 		suite.addTestSuite(RepositoryHelperTest.class);
 		return suite;
 	}
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.repository;
+
+import java.io.*;
+import java.net.URI;
+import org.eclipse.core.runtime.*;
+import org.eclipse.ecf.filetransfer.IncomingFileTransferException;
+import org.eclipse.equinox.internal.p2.core.AgentLocation;
+import org.eclipse.equinox.internal.p2.repository.*;
+import org.eclipse.equinox.p2.core.ProvisionException;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+import org.eclipse.equinox.p2.tests.TestActivator;
+
+/**
+ * Tests how the cache manager refreshes the cached index of a remote repository.
+ */
+public class CacheManagerTest extends AbstractProvisioningTest {
+	private static final URI LOCATION = URI.create("http://example.org/repository");
+	private static final long LAST_MODIFIED = 1262304000000L;
+
+	/**
+	 * A transport serving a single file, with or without its last modified time.
+	 */
+	static class TestTransport extends RepositoryTransport {
+		String content = "first";
+		// the last modified time reported by the server, 0 if it reports none
+		long lastModified = LAST_MODIFIED;
+		int downloads;
+		int conditionalDownloads;
+		long modifiedSince;
+
+		public IStatus download(URI toDownload, OutputStream target, IProgressMonitor monitor) {
+			downloads++;
+			return write(target);
+		}
+
+		public IStatus downloadIfModified(URI toDownload, OutputStream target, long since, IProgressMonitor monitor) {
+			conditionalDownloads++;
+			modifiedSince = since;
+			if (lastModified > 0 && lastModified <= since)
+				return new DownloadStatus(IStatus.OK, TestActivator.PI_PROV_TESTS, DownloadStatus.CODE_NOT_MODIFIED, "", null);
+			return write(target);
+		}
+
+		public long getLastModified(URI toDownload, IProgressMonitor monitor) {
+			return lastModified;
+		}
+
+		private IStatus write(OutputStream target) {
+			try {
+				target.write(content.getBytes());
+			} catch (IOException e) {
+				return new Status(IStatus.ERROR, TestActivator.PI_PROV_TESTS, e.getMessage(), e);
+			}
+			DownloadStatus status = new DownloadStatus(IStatus.OK, TestActivator.PI_PROV_TESTS, "");
+			status.setLastModified(lastModified);
+			return status;
+		}
+	}
+
+	private File cacheFolder;
+	TestTransport transport;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		cacheFolder = getTempFolder();
+		transport = new TestTransport();
+	}
+
+	private CacheManager createCacheManager() {
+		return new CacheManager(new AgentLocation(cacheFolder.toURI())) {
+			protected RepositoryTransport getTransport() {
+				return transport;
+			}
+		};
+	}
+
+	private File createCache(CacheManager manager) throws IOException, ProvisionException {
+		return manager.createCache(LOCATION, "content", getMonitor());
+	}
+
+	private String readContent(File file) throws IOException {
+		BufferedReader reader = new BufferedReader(new java.io.FileReader(file));
+		try {
+			return reader.readLine();
+		} finally {
+			reader.close();
+		}
+	}
+
+	public void testNotModified() throws Exception {
+		CacheManager manager = createCacheManager();
+		File cache = createCache(manager);
+		assertEquals("1.0", 1, transport.downloads);
+		assertEquals("1.1", LAST_MODIFIED, cache.lastModified());
+
+		// a single conditional request based on the time reported by the server
+		assertEquals("2.0", cache, createCache(manager));
+		assertEquals("2.1", 1, transport.downloads);
+		assertEquals("2.2", 1, transport.conditionalDownloads);
+		assertEquals("2.3", LAST_MODIFIED, transport.modifiedSince);
+		assertEquals("2.4", "first", readContent(cache));
+	}
+
+	public void testModified() throws Exception {
+		CacheManager manager = createCacheManager();
+		File cache = createCache(manager);
+
+		transport.content = "second";
+		transport.lastModified = LAST_MODIFIED + 60000;
+		assertEquals("1.0", cache, createCache(manager));
+		assertEquals("1.1", 1, transport.downloads);
+		assertEquals("1.2", 1, transport.conditionalDownloads);
+		assertEquals("1.3", "second", readContent(cache));
+		assertEquals("1.4", LAST_MODIFIED + 60000, cache.lastModified());
+	}
+
+	public void testNoLastModified() throws Exception {
+		transport.lastModified = 0;
+		CacheManager manager = createCacheManager();
+		File cache = createCache(manager);
+		assertEquals("1.0", 1, transport.downloads);
+
+		// the time of the cache file is not the time of the server, no conditional request is made
+		transport.content = "second";
+		assertEquals("2.0", cache, createCache(manager));
+		assertEquals("2.1", 0, transport.conditionalDownloads);
+		assertEquals("2.2", 2, transport.downloads);
+		assertEquals("2.3", "second", readContent(cache));
+	}
+
+	public void testExistingCache() throws Exception {
+		createCache(createCacheManager());
+
+		// a new manager checks the time of an existing cache file before relying on it
+		CacheManager manager = createCacheManager();
+		File cache = createCache(manager);
+		assertEquals("1.0", 0, transport.conditionalDownloads);
+		assertEquals("1.1", 1, transport.downloads);
+		createCache(manager);
+		assertEquals("1.2", 1, transport.conditionalDownloads);
+
+		// the time of a cache file that has been touched is not the time of the server
+		cache.setLastModified(LAST_MODIFIED + 60000);
+		createCache(manager);
+		manager = createCacheManager();
+		createCache(manager);
+		createCache(manager);
+		assertEquals("2.0", 1, transport.conditionalDownloads);
+		assertEquals("2.1", 1, transport.downloads);
+	}
+
+	public void testNotModifiedException() {
+		assertTrue("1.0", RepositoryStatusHelper.isNotModified(new IncomingFileTransferException("Not Modified", 304)));
+		assertFalse("1.1", RepositoryStatusHelper.isNotModified(new IncomingFileTransferException("Not Found", 404)));
+		assertFalse("1.2", RepositoryStatusHelper.isNotModified(new IOException("304")));
+	}
+}
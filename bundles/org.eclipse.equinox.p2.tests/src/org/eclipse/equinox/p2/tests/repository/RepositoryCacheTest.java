@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.repository;
+
+import java.net.URI;
+import org.eclipse.equinox.internal.p2.metadata.repository.MetadataRepositoryManager;
+import org.eclipse.equinox.internal.p2.repository.helpers.RepositoryCache;
+import org.eclipse.equinox.p2.core.ProvisionException;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.repository.IRepository;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+import org.eclipse.equinox.p2.tests.TestMetadataRepository;
+
+/**
+ * Tests the cache keeping the loaded repositories of a repository manager in memory.
+ */
+public class RepositoryCacheTest extends AbstractProvisioningTest {
+	private IRepository<IInstallableUnit> createRepository() {
+		return new TestMetadataRepository(getAgent(), new IInstallableUnit[0]);
+	}
+
+	public void testLeastRecentlyUsedEvicted() {
+		RepositoryCache<IInstallableUnit> cache = new RepositoryCache<IInstallableUnit>(2);
+		IRepository<IInstallableUnit> repo1 = createRepository();
+		IRepository<IInstallableUnit> repo2 = createRepository();
+		IRepository<IInstallableUnit> repo3 = createRepository();
+		cache.put("repo1", repo1, false);
+		cache.put("repo2", repo2, false);
+		assertSame(repo1, cache.get("repo1"));
+		cache.put("repo3", repo3, false);
+		assertSame(repo1, cache.get("repo1"));
+		assertNull(cache.get("repo2"));
+		assertSame(repo3, cache.get("repo3"));
+		assertEquals(1, cache.getEvictionCount());
+	}
+
+	public void testPinned() {
+		RepositoryCache<IInstallableUnit> cache = new RepositoryCache<IInstallableUnit>(1);
+		IRepository<IInstallableUnit> system = createRepository();
+		cache.put("system", system, true);
+		cache.put("repo1", createRepository(), false);
+		cache.put("repo2", createRepository(), false);
+		assertSame(system, cache.get("system"));
+		assertEquals(2, cache.size());
+
+		cache.setPinned("system", false);
+		cache.put("repo3", createRepository(), false);
+		assertNull(cache.get("system"));
+		cache.remove("repo3");
+		assertEquals(0, cache.size());
+	}
+
+	public void testManagerKeepsRepositories() throws ProvisionException {
+		IMetadataRepository repo = createTestMetdataRepository(new IInstallableUnit[0]);
+		RepositoryCache<IInstallableUnit> cache = ((MetadataRepositoryManager) getMetadataRepositoryManager()).getRepositoryCache();
+		long hits = cache.getHitCount();
+		long reloads = cache.getReloadCount();
+		assertSame(repo, getMetadataRepositoryManager().loadRepository(repo.getLocation(), null));
+		assertEquals(hits + 1, cache.getHitCount());
+		assertEquals(reloads, cache.getReloadCount());
+	}
+
+	public void testManagerPinsSystemRepositories() throws ProvisionException {
+		MetadataRepositoryManager manager = (MetadataRepositoryManager) getMetadataRepositoryManager();
+		RepositoryCache<IInstallableUnit> cache = manager.getRepositoryCache();
+		IMetadataRepository system = createTestMetdataRepository(new IInstallableUnit[0]);
+		manager.setRepositoryProperty(system.getLocation(), IRepository.PROP_SYSTEM, "true");
+		IMetadataRepository[] others = new IMetadataRepository[cache.getMaxSize() + 1];
+		try {
+			addRepositories(manager, others, "pinned");
+			long hits = cache.getHitCount();
+			long recoveries = cache.getRecoveryCount();
+			long reloads = cache.getReloadCount();
+			assertSame("1.0", system, manager.loadRepository(system.getLocation(), null));
+			assertEquals("1.1", hits + 1, cache.getHitCount());
+			assertEquals("1.2", recoveries, cache.getRecoveryCount());
+
+			// once unpinned, the repository is evicted and only found through its soft reference
+			manager.setRepositoryProperty(system.getLocation(), IRepository.PROP_SYSTEM, "false");
+			removeRepositories(manager, others);
+			addRepositories(manager, others, "unpinned");
+			hits = cache.getHitCount();
+			assertSame("2.0", system, manager.loadRepository(system.getLocation(), null));
+			assertEquals("2.1", hits, cache.getHitCount());
+			assertEquals("2.2", recoveries + 1, cache.getRecoveryCount());
+			assertEquals("2.3", reloads, cache.getReloadCount());
+		} finally {
+			removeRepositories(manager, others);
+		}
+	}
+
+	private void addRepositories(MetadataRepositoryManager manager, IMetadataRepository[] repositories, String prefix) {
+		for (int i = 0; i < repositories.length; i++) {
+			final URI location = URI.create("http://RepositoryCacheTest.com/" + prefix + i);
+			repositories[i] = new TestMetadataRepository(getAgent(), new IInstallableUnit[0]) {
+				{
+					setLocation(location);
+				}
+			};
+			manager.addRepository(repositories[i]);
+		}
+	}
+
+	private void removeRepositories(MetadataRepositoryManager manager, IMetadataRepository[] repositories) {
+		for (int i = 0; i < repositories.length; i++)
+			if (repositories[i] != null)
+				manager.removeRepository(repositories[i].getLocation());
+	}
+}
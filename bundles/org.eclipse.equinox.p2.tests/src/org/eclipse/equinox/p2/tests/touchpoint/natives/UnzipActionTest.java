@@ -10,8 +10,9 @@ package org.eclipse.equinox.p2.tests.touchpoint.natives;
 
 import java.io.*;
 import java.util.*;
-import org.eclipse.equinox.internal.p2.touchpoint.natives.IBackupStore;
-import org.eclipse.equinox.internal.p2.touchpoint.natives.NativeTouchpoint;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.eclipse.equinox.internal.p2.touchpoint.natives.*;
 import org.eclipse.equinox.internal.p2.touchpoint.natives.actions.ActionConstants;
 import org.eclipse.equinox.internal.p2.touchpoint.natives.actions.UnzipAction;
 import org.eclipse.equinox.p2.engine.IProfile;
@@ -288,6 +289,44 @@ public class UnzipActionTest extends AbstractProvisioningTest {
 		testUnzip(parameters, getTempFolder(), new String[] {a, b}, new String[] {c});
 	}
 
+	/**
+	 * Tests unzipping many entries, some of them replacing existing files, and restoring
+	 * the replaced files from the backup.
+	 */
+	public void testUnzipManyEntriesRestore() throws IOException {
+		File installFolder = getTempFolder();
+		File zipFile = new File(getTempFolder(), "many.zip");
+		byte[] large = new byte[FileWriteQueue.MAX_CONTENT_SIZE + 10];
+		for (int i = 0; i < large.length; i++)
+			large[i] = (byte) i;
+		ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(zipFile));
+		try {
+			for (int i = 0; i < 200; i++) {
+				zip.putNextEntry(new ZipEntry("dir" + (i % 10) + "/file" + i + ".txt"));
+				zip.write(("content" + i).getBytes());
+				zip.closeEntry();
+			}
+			zip.putNextEntry(new ZipEntry("dir0/large.bin"));
+			zip.write(large);
+			zip.closeEntry();
+		} finally {
+			zip.close();
+		}
+		for (int i = 0; i < 200; i += 20)
+			writeToFile(new File(installFolder, "dir" + (i % 10) + "/file" + i + ".txt"), "original" + i);
+
+		BackupStore store = new BackupStore(getTempFolder(), "unzip");
+		File[] files = Util.unzipFile(zipFile, installFolder, store, "test", null);
+		assertEquals(201, files.length);
+		for (int i = 0; i < 200; i++)
+			assertFileContent("unzipped content", new File(installFolder, "dir" + (i % 10) + "/file" + i + ".txt"), "content" + i);
+		assertEquals(large.length, new File(installFolder, "dir0/large.bin").length());
+
+		store.restore();
+		for (int i = 0; i < 200; i += 20)
+			assertFileContent("restored content", new File(installFolder, "dir" + (i % 10) + "/file" + i + ".txt"), "original" + i);
+	}
+
 	private void testUnzip(Map<String, String> params, File installFolder, String[] shoudlExistNames, String[] shoudlNotExistNames) {
 
 		ArrayList<File> shoudlExist = new ArrayList<File>();
@@ -136,6 +136,12 @@ public class BackupStore implements IBackupStore {
 	 */
 	private boolean closed;
 
+	/**
+	 * The directories created in the backup directory, so that backing up the files of
+	 * a directory does not check the same directories over and over.
+	 */
+	private final Set<File> backupDirectories = new HashSet<File>();
+
 	/**
 	 * Generates a BackupStore with a default prefix of ".p2bu" for backup directory and
 	 * probe file. 
@@ -218,13 +224,18 @@ public class BackupStore implements IBackupStore {
 	 * @throws IllegalArgumentException - on type mismatch (file vs. directory) of earlier backup, or if file does not exist 
 	 */
 	public boolean backup(File file) throws IOException {
+		return backup(file, false);
+	}
+
+	private boolean backup(File file, boolean parentCanonical) throws IOException {
 		if (closed)
 			throw new ClosedBackupStoreException("Can not perform backup()"); //$NON-NLS-1$
 		if (!file.exists())
 			throw new IOException(NLS.bind(Messages.BackupStore_file_not_found, file.getAbsolutePath()));
 		if (file.isDirectory())
 			return backupDirectory(file);
-		file = makeParentCanonical(file);
+		if (!parentCanonical)
+			file = makeParentCanonical(file);
 		File buRoot = backupRoot;
 		// File buRoot = findBackupRoot(file);
 		File buDir = new File(buRoot, backupName);
@@ -239,9 +250,7 @@ public class BackupStore implements IBackupStore {
 			return false;
 
 		// make sure all of the directories exist / gets created
-		buFile.getParentFile().mkdirs();
-		if (buFile.getParentFile().exists() && !buFile.getParentFile().isDirectory())
-			throw new IllegalArgumentException(NLS.bind(Messages.BackupStore_file_directory_mismatch, buFile.getParentFile().getAbsolutePath()));
+		makeBackupDirectories(buFile.getParentFile());
 		if (file.renameTo(buFile)) {
 			backupCounter++;
 			return true;
@@ -250,7 +259,7 @@ public class BackupStore implements IBackupStore {
 		// that source is locked "in use" on a windows machine. The copy will work across volumes,
 		// but the locked file will fail on the subsequent delete.
 		//
-		Util.copyStream(new FileInputStream(file), true, new FileOutputStream(buFile), true);
+		Util.copyFile(file, buFile);
 		backupCounter++;
 
 		// need to remove the backed up file
@@ -267,16 +276,24 @@ public class BackupStore implements IBackupStore {
 	 * @throws IOException if backup operation failed
 	 */
 	public void backupAll(File file) throws IOException {
+		if (file.exists())
+			backupAllInCanonicalParent(makeParentCanonical(file));
+	}
+
+	/**
+	 * Same as {@link #backupAll(File)} for a file whose parent is canonical.
+	 */
+	private void backupAllInCanonicalParent(File file) throws IOException {
 		if (!file.exists())
 			return;
-		file = makeParentCanonical(file);
 		if (file.isDirectory()) {
-			File[] files = file.listFiles();
+			// the children of the canonical directory have a canonical parent
+			File[] files = file.getCanonicalFile().listFiles();
 			if (files != null)
 				for (int i = 0; i < files.length; i++)
-					backupAll(files[i]);
+					backupAllInCanonicalParent(files[i]);
 		}
-		backup(file);
+		backup(file, true);
 	}
 
 	/**
@@ -286,14 +303,21 @@ public class BackupStore implements IBackupStore {
 	 * @throws IOException
 	 */
 	public void backupCopyAll(File file) throws IOException {
+		if (file.exists())
+			backupCopyAllInCanonicalParent(makeParentCanonical(file));
+	}
+
+	/**
+	 * Same as {@link #backupCopyAll(File)} for a file whose parent is canonical.
+	 */
+	private void backupCopyAllInCanonicalParent(File file) throws IOException {
 		if (!file.exists())
 			return;
-		file = makeParentCanonical(file);
 		if (file.isDirectory()) {
-			File[] files = file.listFiles();
+			File[] files = file.getCanonicalFile().listFiles();
 			if (files != null)
 				for (int i = 0; i < files.length; i++)
-					backupCopyAll(files[i]);
+					backupCopyAllInCanonicalParent(files[i]);
 			// if directory was empty, it needs to be backed up and then recreated
 			//
 			if (files == null || files.length == 0) {
@@ -301,7 +325,7 @@ public class BackupStore implements IBackupStore {
 				file.mkdir();
 			}
 		} else
-			backupCopy(file);
+			backupCopy(file, true);
 	}
 
 	/**
@@ -327,13 +351,18 @@ public class BackupStore implements IBackupStore {
 	 * @throws IllegalArgumentException - on type mismatch (file vs. directory) of earlier backup, or if file is a Directory
 	 */
 	public boolean backupCopy(File file) throws IOException {
+		return backupCopy(file, false);
+	}
+
+	private boolean backupCopy(File file, boolean parentCanonical) throws IOException {
 		if (closed)
 			throw new ClosedBackupStoreException(Messages.BackupStore_backupCopy_closed_store);
 		if (!file.exists())
 			throw new IOException(NLS.bind(Messages.BackupStore_file_not_found, file.getAbsolutePath()));
 		if (file.isDirectory())
 			throw new IllegalArgumentException(NLS.bind(Messages.BackupStore_can_not_copy_directory, file.getAbsolutePath()));
-		file = makeParentCanonical(file);
+		if (!parentCanonical)
+			file = makeParentCanonical(file);
 		//File buRoot = backupRoot;
 		// File buRoot = findBackupRoot(file);
 		File buDir = new File(backupRoot, backupName);
@@ -348,14 +377,12 @@ public class BackupStore implements IBackupStore {
 			return false;
 
 		// make sure all of the directories exist / gets created
-		buFile.getParentFile().getCanonicalFile().mkdirs();
-		if (buFile.getParentFile().exists() && !buFile.getParentFile().isDirectory())
-			throw new IllegalArgumentException(NLS.bind(Messages.BackupStore_file_directory_mismatch, buFile.getParentFile().getAbsolutePath()));
+		makeBackupDirectories(buFile.getParentFile());
 
 		// just make a copy - one has to be made in one direction anyway
 		// A renameTo followed by a copy is preferred as it preserves file permissions on the moved file
 		// but it is easier to just copy and keep original.
-		Util.copyStream(new FileInputStream(file), true, new FileOutputStream(buFile), true);
+		Util.copyFile(file, buFile);
 		backupCounter++;
 		return true;
 	}
@@ -551,7 +578,7 @@ public class BackupStore implements IBackupStore {
 				if (!bu.renameTo(target)) {
 					// did not work to rename, probably because of volume boundaries. Try to copy instead,
 					try {
-						Util.copyStream(new FileInputStream(bu), true, new FileOutputStream(target), true);
+						Util.copyFile(bu, target);
 						restoreCounter++; // consider it restored
 					} catch (FileNotFoundException e) {
 						unrestorable.add(bu);
@@ -712,6 +739,19 @@ public class BackupStore implements IBackupStore {
 		return new File(path);
 	}
 
+	/**
+	 * Creates the given directory of the backup, and its parents, unless it is known to exist.
+	 * @throws IllegalArgumentException if a file of the backup is in the way
+	 */
+	private void makeBackupDirectories(File directory) {
+		if (backupDirectories.contains(directory))
+			return;
+		directory.mkdirs();
+		if (directory.exists() && !directory.isDirectory())
+			throw new IllegalArgumentException(NLS.bind(Messages.BackupStore_file_directory_mismatch, directory.getAbsolutePath()));
+		backupDirectories.add(directory);
+	}
+
 	/** 
 	 * The parent path may include ".." as a directory name - this must be made canonical. But if the file itself is
 	 * a symbolic link, it should not be resolved. 
@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.touchpoint.natives;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.Job;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Writes files on a bounded number of jobs while the caller goes on reading the source,
+ * such as the entries of a zip stream or the files of a directory tree. The caller writes
+ * the files no job has claimed yet when it waits for the queue.
+ * <p>
+ * The caller remains responsible for everything that changes the structure of the target,
+ * such as creating directories and backing up existing files, so the backup store is only
+ * used by the calling thread and every file is backed up before it is written. The queue
+ * only writes the content of files. The content held in memory while waiting to be written
+ * is bounded, the caller waits when the bound is reached.
+ * </p>
+ */
+public class FileWriteQueue {
+	/**
+	 * The property giving the number of threads writing files, <code>1</code> to write
+	 * files on the calling thread.
+	 */
+	public static final String PROP_THREADS = "org.eclipse.equinox.p2.touchpoint.natives.threads"; //$NON-NLS-1$
+
+	/**
+	 * The size of the largest content that should be submitted with the task writing it,
+	 * larger content should be written by the calling thread.
+	 */
+	public static final int MAX_CONTENT_SIZE = 1024 * 1024;
+
+	private static final int MAX_DEFAULT_THREADS = 4;
+	private static final long MAX_PENDING_BYTES = 8 * 1024 * 1024;
+	private static final int MAX_PENDING_TASKS_PER_THREAD = 16;
+
+	/**
+	 * A task writing a file.
+	 */
+	public interface Task {
+		void run() throws IOException;
+	}
+
+	private static class QueuedTask {
+		final Task task;
+		final long size;
+
+		QueuedTask(Task task, long size) {
+			this.task = task;
+			this.size = size;
+		}
+	}
+
+	private final int threads;
+	private final int maxPendingTasks;
+	// the tasks not claimed yet, guarded by the queue like the fields below
+	private final LinkedList<QueuedTask> queued = new LinkedList<QueuedTask>();
+	private int workers;
+	private int pendingTasks;
+	private long pendingBytes;
+	private IOException failure;
+
+	/**
+	 * Creates a queue writing files on the number of threads given by {@link #PROP_THREADS},
+	 * by default one per processor up to four.
+	 */
+	public FileWriteQueue() {
+		this(getDefaultThreads());
+	}
+
+	public FileWriteQueue(int threads) {
+		this.threads = threads;
+		maxPendingTasks = threads < 2 ? 0 : threads * MAX_PENDING_TASKS_PER_THREAD;
+	}
+
+	private static int getDefaultThreads() {
+		BundleContext context = Activator.getContext();
+		String value = context != null ? context.getProperty(PROP_THREADS) : System.getProperty(PROP_THREADS);
+		if (value != null) {
+			try {
+				return Integer.parseInt(value);
+			} catch (NumberFormatException e) {
+				// use the default
+			}
+		}
+		return Math.min(MAX_DEFAULT_THREADS, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Performs the task, on a job of the queue if there is one. The size is the number
+	 * of bytes held by the task until it is done, the caller waits while too many bytes or
+	 * tasks are pending.
+	 * @throws IOException the failure of a task submitted before
+	 */
+	public void submit(Task task, long size) throws IOException {
+		if (threads < 2) {
+			task.run();
+			return;
+		}
+		while (true) {
+			QueuedTask next;
+			synchronized (this) {
+				if (failure != null)
+					throw failure;
+				if (pendingTasks == 0 || (pendingTasks < maxPendingTasks && pendingBytes + size <= MAX_PENDING_BYTES)) {
+					queued.addLast(new QueuedTask(task, size));
+					pendingTasks++;
+					pendingBytes += size;
+					if (workers < threads) {
+						workers++;
+						startWorker();
+					}
+					return;
+				}
+				next = claim();
+				if (next == null) {
+					waitForTasks();
+					continue;
+				}
+			}
+			perform(next);
+		}
+	}
+
+	private void startWorker() {
+		Job worker = new Job("Native Touchpoint File Writer") { //$NON-NLS-1$
+			protected IStatus run(IProgressMonitor monitor) {
+				while (true) {
+					QueuedTask next;
+					synchronized (FileWriteQueue.this) {
+						next = claim();
+						if (next == null) {
+							workers--;
+							return Status.OK_STATUS;
+						}
+					}
+					perform(next);
+				}
+			}
+		};
+		worker.setSystem(true);
+		worker.schedule();
+	}
+
+	private QueuedTask claim() {
+		return queued.isEmpty() ? null : queued.removeFirst();
+	}
+
+	private void perform(QueuedTask next) {
+		IOException taskFailure = null;
+		try {
+			next.task.run();
+		} catch (IOException e) {
+			taskFailure = e;
+		} catch (RuntimeException e) {
+			taskFailure = (IOException) new IOException(e.getMessage()).initCause(e);
+		}
+		synchronized (this) {
+			if (failure == null)
+				failure = taskFailure;
+			pendingTasks--;
+			pendingBytes -= next.size;
+			notifyAll();
+		}
+	}
+
+	private void waitForTasks() throws InterruptedIOException {
+		try {
+			wait();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+	}
+
+	/*
+	 * Waits until all submitted tasks are done. The calling thread performs the tasks that
+	 * no job has claimed yet, so the tasks are done even when no job gets to run.
+	 */
+	private void awaitTasks() throws InterruptedIOException {
+		while (true) {
+			QueuedTask next;
+			synchronized (this) {
+				if (pendingTasks == 0)
+					return;
+				next = claim();
+				if (next == null) {
+					waitForTasks();
+					continue;
+				}
+			}
+			perform(next);
+		}
+	}
+
+	/**
+	 * Waits until all submitted tasks are done.
+	 * @throws IOException the first failure of a task
+	 */
+	public void flush() throws IOException {
+		awaitTasks();
+		synchronized (this) {
+			if (failure != null)
+				throw failure;
+		}
+	}
+
+	/**
+	 * Waits until all submitted tasks are done, whether they fail or not.
+	 */
+	public void close() {
+		try {
+			awaitTasks();
+		} catch (InterruptedIOException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
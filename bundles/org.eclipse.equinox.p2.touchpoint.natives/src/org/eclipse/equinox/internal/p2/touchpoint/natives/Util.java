@@ -26,6 +26,7 @@ import org.eclipse.equinox.p2.repository.artifact.*;
 import org.eclipse.osgi.util.NLS;
 
 public class Util {
+	private static final int BUFFER_SIZE = 16 * 1024;
 
 	public static void log(String message) {
 		LogHelper.log(createError(message));
@@ -150,62 +151,158 @@ public class Util {
 			}
 		}
 		ArrayList<File> unzippedFiles = new ArrayList<File>();
-		do {
-			String name = ze.getName();
-			if (pathRegex == null || pathRegex.matcher(name).matches()) {
-				boolean unzip = includeRegexp.isEmpty();
-				for (Pattern pattern : includeRegexp) {
-					unzip = pattern.matcher(name).matches();
-					if (unzip)
-						break;
-				}
-				if (unzip && !excludeRegexp.isEmpty()) {
-					for (Pattern pattern : excludeRegexp) {
-						if (pattern.matcher(name).matches()) {
-							unzip = false;
+		// the directories known to exist and the files written so far
+		Set<File> directories = new HashSet<File>();
+		Set<File> files = new HashSet<File>();
+		FileWriteQueue queue = new FileWriteQueue();
+		try {
+			do {
+				String name = ze.getName();
+				if (pathRegex == null || pathRegex.matcher(name).matches()) {
+					boolean unzip = includeRegexp.isEmpty();
+					for (Pattern pattern : includeRegexp) {
+						unzip = pattern.matcher(name).matches();
+						if (unzip)
 							break;
-						}
 					}
-				}
-				if (unzip) {
-					if (pathRegex != null) {
-						Matcher matcher = pathRegex.matcher(name);
-						if (matcher.matches()) {
-							name = matcher.group(2);
-							if (name.startsWith("/")) //$NON-NLS-1$
-								name = name.substring(1);
+					if (unzip && !excludeRegexp.isEmpty()) {
+						for (Pattern pattern : excludeRegexp) {
+							if (pattern.matcher(name).matches()) {
+								unzip = false;
+								break;
+							}
 						}
 					}
-					File outFile = new File(outputDir, name);
-					unzippedFiles.add(outFile);
-					if (ze.isDirectory()) {
-						outFile.mkdirs();
-					} else {
-						if (outFile.exists()) {
-							if (store != null)
-								store.backup(outFile);
-							else
-								outFile.delete();
-						} else {
-							outFile.getParentFile().mkdirs();
+					if (unzip) {
+						if (pathRegex != null) {
+							Matcher matcher = pathRegex.matcher(name);
+							if (matcher.matches()) {
+								name = matcher.group(2);
+								if (name.startsWith("/")) //$NON-NLS-1$
+									name = name.substring(1);
+							}
 						}
-						try {
-							copyStream(in, false, new FileOutputStream(outFile), true);
-						} catch (FileNotFoundException e) {
-							// TEMP: ignore this for now in case we're trying to replace
-							// a running eclipse.exe
+						File outFile = new File(outputDir, name);
+						unzippedFiles.add(outFile);
+						if (ze.isDirectory()) {
+							mkdirs(outFile, directories);
+						} else {
+							// an entry repeated in the archive replaces the content written before
+							if (!files.add(outFile))
+								queue.flush();
+							if (outFile.exists()) {
+								if (store != null)
+									store.backup(outFile);
+								else
+									outFile.delete();
+							} else {
+								mkdirs(outFile.getParentFile(), directories);
+							}
+							unzipEntry(in, ze, outFile, queue);
 						}
-						outFile.setLastModified(ze.getTime());
 					}
 				}
-			}
-			in.closeEntry();
-		} while ((ze = in.getNextEntry()) != null);
+				in.closeEntry();
+			} while ((ze = in.getNextEntry()) != null);
+			queue.flush();
+		} finally {
+			queue.close();
+		}
 		in.close();
 
 		return unzippedFiles.toArray(new File[unzippedFiles.size()]);
 	}
 
+	private static void mkdirs(File directory, Set<File> directories) {
+		if (directories.add(directory))
+			directory.mkdirs();
+	}
+
+	/**
+	 * Writes the content of the current entry of the zip stream to the given file. The content
+	 * of small entries is read into memory and written by the queue, larger entries are written
+	 * by the calling thread.
+	 */
+	private static void unzipEntry(ZipInputStream in, ZipEntry ze, final File outFile, FileWriteQueue queue) throws IOException {
+		final long time = ze.getTime();
+		long size = ze.getSize();
+		byte[] content = new byte[size >= 0 && size <= FileWriteQueue.MAX_CONTENT_SIZE ? (int) size : BUFFER_SIZE];
+		int length = 0;
+		boolean end = false;
+		while (!end && length <= FileWriteQueue.MAX_CONTENT_SIZE) {
+			if (length == content.length) {
+				// the size of the entry is usually known, check for its end before growing the buffer
+				int next = in.read();
+				if (next == -1)
+					break;
+				content = grow(content, Math.min(Math.max(length * 2, BUFFER_SIZE), FileWriteQueue.MAX_CONTENT_SIZE + 1));
+				content[length++] = (byte) next;
+			}
+			int len = in.read(content, length, content.length - length);
+			if (len == -1)
+				end = true;
+			else
+				length += len;
+		}
+		if (length > FileWriteQueue.MAX_CONTENT_SIZE) {
+			OutputStream out;
+			try {
+				out = new FileOutputStream(outFile);
+			} catch (FileNotFoundException e) {
+				// TEMP: ignore this for now in case we're trying to replace
+				// a running eclipse.exe
+				outFile.setLastModified(time);
+				return;
+			}
+			try {
+				out.write(content, 0, length);
+			} catch (IOException e) {
+				out.close();
+				throw e;
+			}
+			copyStream(in, false, out, true);
+			outFile.setLastModified(time);
+			return;
+		}
+
+		final byte[] bytes = content;
+		final int count = length;
+		queue.submit(new FileWriteQueue.Task() {
+			public void run() throws IOException {
+				try {
+					OutputStream out = new FileOutputStream(outFile);
+					try {
+						out.write(bytes, 0, count);
+					} finally {
+						out.close();
+					}
+				} catch (FileNotFoundException e) {
+					// TEMP: ignore this for now in case we're trying to replace
+					// a running eclipse.exe
+				}
+				outFile.setLastModified(time);
+			}
+		}, bytes.length);
+	}
+
+	private static byte[] grow(byte[] content, int size) {
+		byte[] result = new byte[size];
+		System.arraycopy(content, 0, result, 0, content.length);
+		return result;
+	}
+
+	/**
+	 * Copies the content of the source file to the target file.
+	 */
+	public static void copyFile(File source, File target) throws IOException {
+		FileInputStream in = new FileInputStream(source);
+		try {
+			copyStream(in, false, new FileOutputStream(target), true);
+		} finally {
+			in.close();
+		}
+	}
+
 	/**
 	 * Copy an input stream to an output stream.
 	 * Optionally close the streams when done.
@@ -214,7 +311,7 @@ public class Util {
 	public static int copyStream(InputStream in, boolean closeIn, OutputStream out, boolean closeOut) throws IOException {
 		try {
 			int written = 0;
-			byte[] buffer = new byte[16 * 1024];
+			byte[] buffer = new byte[BUFFER_SIZE];
 			int len;
 			while ((len = in.read(buffer)) != -1) {
 				out.write(buffer, 0, len);
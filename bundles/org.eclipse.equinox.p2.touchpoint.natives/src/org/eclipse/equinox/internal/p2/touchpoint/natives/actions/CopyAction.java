@@ -10,7 +10,8 @@
  *******************************************************************************/
 package org.eclipse.equinox.internal.p2.touchpoint.natives.actions;
 
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Map;
 import org.eclipse.core.runtime.IStatus;
@@ -108,7 +109,13 @@ public class CopyAction extends ProvisioningAction {
 	 */
 	private static File[] mergeCopy(File source, File target, boolean overwrite, IBackupStore backupStore) throws IOException {
 		ArrayList<File> copiedFiles = new ArrayList<File>();
-		xcopy(copiedFiles, source, target, overwrite, backupStore);
+		FileWriteQueue queue = new FileWriteQueue();
+		try {
+			xcopy(copiedFiles, source, target, overwrite, backupStore, queue);
+			queue.flush();
+		} finally {
+			queue.close();
+		}
 		return copiedFiles.toArray(new File[copiedFiles.size()]);
 	}
 
@@ -118,9 +125,10 @@ public class CopyAction extends ProvisioningAction {
 	 * @param source
 	 * @param target
 	 * @param overwrite
+	 * @param queue - the queue copying the content of the files
 	 * @throws IOException
 	 */
-	private static void xcopy(ArrayList<File> copiedFiles, File source, File target, boolean overwrite, IBackupStore backupStore) throws IOException {
+	private static void xcopy(ArrayList<File> copiedFiles, File source, File target, boolean overwrite, IBackupStore backupStore, FileWriteQueue queue) throws IOException {
 		if (!source.exists())
 			throw new IOException("Source: " + source + "does not exists"); //$NON-NLS-1$//$NON-NLS-2$
 
@@ -140,22 +148,33 @@ public class CopyAction extends ProvisioningAction {
 			if (children == null)
 				throw new IOException("Error while retrieving children of directory: " + source); //$NON-NLS-1$
 			for (int i = 0; i < children.length; i++)
-				xcopy(copiedFiles, children[i], new File(target, children[i].getName()), overwrite, backupStore);
+				xcopy(copiedFiles, children[i], new File(target, children[i].getName()), overwrite, backupStore, queue);
 			return;
 		}
-		if (target.exists() && !overwrite)
-			throw new IOException("Target: " + target + " already exists"); //$NON-NLS-1$//$NON-NLS-2$
+		if (target.exists()) {
+			if (!overwrite)
+				throw new IOException("Target: " + target + " already exists"); //$NON-NLS-1$//$NON-NLS-2$
+			// back up the file being replaced before the queue writes it
+			if (backupStore != null)
+				backupStore.backup(target);
+		}
 
 		if (!target.getParentFile().exists() && !target.getParentFile().mkdirs())
 			throw new IOException("Target: Path " + target.getParent() + " could not be created"); //$NON-NLS-1$//$NON-NLS-2$
 
-		try {
-			Util.copyStream(new FileInputStream(source), true, new FileOutputStream(target), true);
-		} catch (IOException e) {
-			// get the original IOException to the log
-			e.printStackTrace();
-			throw new IOException("Error while copying:" + source.getAbsolutePath()); //$NON-NLS-1$
-		}
+		final File sourceFile = source;
+		final File targetFile = target;
+		queue.submit(new FileWriteQueue.Task() {
+			public void run() throws IOException {
+				try {
+					Util.copyFile(sourceFile, targetFile);
+				} catch (IOException e) {
+					// get the original IOException to the log
+					e.printStackTrace();
+					throw new IOException("Error while copying:" + sourceFile.getAbsolutePath()); //$NON-NLS-1$
+				}
+			}
+		}, 0);
 		copiedFiles.add(target);
 	}
 }